@@ -53,6 +53,12 @@ public class ApplicationConstants {
   public static final String SENSOR_DAMPING_PREF_KEY = "sensor_damping";
   public static final String REVERSE_MAGNETIC_Z_PREFKEY = "reverse_magnetic_z";
   public static final String ROTATE_HORIZON_PREFKEY = "rotate_horizon";
+  public static final String STAR_DENSITY_SPARSE = "SPARSE";
+  public static final String STAR_DENSITY_STANDARD = "STANDARD";
+  public static final String STAR_DENSITY_DENSE = "DENSE";
+  public static final String STAR_DENSITY_ALL = "ALL";
+  public static final String STAR_DENSITY_PREF_KEY = "star_density";
+  public static final String USE_GLES2_RENDERER_PREF_KEY = "use_gles2_renderer";
 
 
   // End Preference Keys
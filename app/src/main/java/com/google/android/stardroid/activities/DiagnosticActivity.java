@@ -12,7 +12,10 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.util.Log;
+import android.view.View;
+import android.widget.CheckBox;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.google.android.stardroid.R;
 import com.google.android.stardroid.StardroidApplication;
@@ -23,7 +26,11 @@ import com.google.android.stardroid.units.GeocentricCoordinates;
 import com.google.android.stardroid.units.LatLong;
 import com.google.android.stardroid.util.Analytics;
 import com.google.android.stardroid.util.MiscUtil;
+import com.google.android.stardroid.util.metrics.Metrics;
+import com.google.android.stardroid.util.metrics.StartupTimeline;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashSet;
@@ -75,6 +82,8 @@ public class DiagnosticActivity extends InjectableActivity implements SensorEven
     String skyMapVersion = String.format(
         app.getVersionName() + " (%d)", app.getVersion());
     setText(R.id.diagnose_skymap_version_txt, skyMapVersion);
+
+    ((CheckBox) findViewById(R.id.diagnose_metrics_enabled_chk)).setChecked(Metrics.isEnabled());
   }
 
   private boolean continueUpdates;
@@ -89,6 +98,7 @@ public class DiagnosticActivity extends InjectableActivity implements SensorEven
         updateLocation();
         updateModel();
         updateNetwork();
+        updateMetrics();
         if (continueUpdates) {
           handler.postDelayed(this, UPDATE_PERIOD_MILLIS);
         }
@@ -274,6 +284,39 @@ public class DiagnosticActivity extends InjectableActivity implements SensorEven
     setText(R.id.diagnose_network_status_txt, message);
   }
 
+  private void updateMetrics() {
+    setText(R.id.diagnose_metrics_txt, Metrics.getSnapshot() + StartupTimeline.getSnapshot());
+  }
+
+  public void onRecordMetricsClicked(View view) {
+    Metrics.setEnabled(((CheckBox) view).isChecked());
+  }
+
+  public void onResetMetricsClicked(View unused) {
+    Metrics.reset();
+    updateMetrics();
+  }
+
+  public void onSaveMetricsClicked(View unused) {
+    // Name the file after the time, so that snapshots from several runs can be kept and compared.
+    SimpleDateFormat fileDateFormat = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US);
+    File file = new File(getExternalFilesDir(null),
+        "metrics-" + fileDateFormat.format(new Date()) + ".txt");
+    String header = "Sky Map " + app.getVersionName() + " (" + app.getVersion() + ") on "
+        + Build.MODEL + " (" + Build.HARDWARE + "), Android " + Build.VERSION.RELEASE
+        + " (" + Build.VERSION.SDK_INT + ")";
+    try {
+      Metrics.writeSnapshot(file, header);
+      Log.d(TAG, "Saved metrics to " + file);
+      Toast.makeText(this, getString(R.string.diagnostics_activity_metrics_saved, file),
+          Toast.LENGTH_LONG).show();
+    } catch (IOException e) {
+      Log.e(TAG, "Couldn't save metrics to " + file, e);
+      Toast.makeText(this, R.string.diagnostics_activity_metrics_not_saved, Toast.LENGTH_LONG)
+          .show();
+    }
+  }
+
   private void setText(int viewId, String text) {
     ((TextView) findViewById(viewId)).setText(text);
   }
@@ -14,6 +14,7 @@
 
 package com.google.android.stardroid.activities;
 
+import android.app.ActivityManager;
 import android.app.FragmentManager;
 import android.app.SearchManager;
 import android.content.Context;
@@ -44,6 +45,7 @@ import android.widget.Toast;
 
 import com.google.android.stardroid.ApplicationConstants;
 import com.google.android.stardroid.R;
+import com.google.android.stardroid.StardroidApplication;
 import com.google.android.stardroid.activities.dialogs.EulaDialogFragment;
 import com.google.android.stardroid.activities.dialogs.HelpDialogFragment;
 import com.google.android.stardroid.activities.dialogs.MultipleSearchResultsDialogFragment;
@@ -55,28 +57,27 @@ import com.google.android.stardroid.activities.util.ActivityLightLevelChanger.Ni
 import com.google.android.stardroid.activities.util.ActivityLightLevelManager;
 import com.google.android.stardroid.activities.util.FullscreenControlsManager;
 import com.google.android.stardroid.activities.util.GooglePlayServicesChecker;
+import com.google.android.stardroid.activities.util.RendererModelUpdateClosure;
 import com.google.android.stardroid.base.Lists;
 import com.google.android.stardroid.control.AstronomerModel;
-import com.google.android.stardroid.control.AstronomerModel.Pointing;
 import com.google.android.stardroid.control.ControllerGroup;
 import com.google.android.stardroid.control.MagneticDeclinationCalculatorSwitcher;
 import com.google.android.stardroid.inject.HasComponent;
 import com.google.android.stardroid.layers.LayerManager;
 import com.google.android.stardroid.renderer.RendererController;
 import com.google.android.stardroid.renderer.SkyRenderer;
-import com.google.android.stardroid.renderer.util.AbstractUpdateClosure;
+import com.google.android.stardroid.renderer.util.GeometryCache;
 import com.google.android.stardroid.search.SearchResult;
 import com.google.android.stardroid.touch.DragRotateZoomGestureDetector;
 import com.google.android.stardroid.touch.GestureInterpreter;
 import com.google.android.stardroid.touch.MapMover;
 import com.google.android.stardroid.units.GeocentricCoordinates;
-import com.google.android.stardroid.units.Vector3;
 import com.google.android.stardroid.util.Analytics;
-import com.google.android.stardroid.util.MathUtil;
 import com.google.android.stardroid.util.MiscUtil;
 import com.google.android.stardroid.util.SensorAccuracyMonitor;
 import com.google.android.stardroid.views.ButtonLayerView;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -99,52 +100,14 @@ public class DynamicStarMapActivity extends InjectableActivity
     return daggerComponent;
   }
 
-  /**
-   * Passed to the renderer to get per-frame updates from the model.
-   *
-   * @author John Taylor
-   */
-  private static final class RendererModelUpdateClosure extends AbstractUpdateClosure {
-    private RendererController rendererController;
-    private AstronomerModel model;
-    private boolean horizontalRotation;
-
-    public RendererModelUpdateClosure(AstronomerModel model,
-        RendererController rendererController, SharedPreferences sharedPreferences) {
-      this.model = model;
-      this.rendererController = rendererController;
-      this.horizontalRotation = sharedPreferences.getBoolean(ApplicationConstants.ROTATE_HORIZON_PREFKEY, false);
-      model.setHorizontalRotation(this.horizontalRotation);
-    }
-
-    @Override
-    public void run() {
-      Pointing pointing = model.getPointing();
-      float directionX = pointing.getLineOfSightX();
-      float directionY = pointing.getLineOfSightY();
-      float directionZ = pointing.getLineOfSightZ();
-
-      float upX = pointing.getPerpendicularX();
-      float upY = pointing.getPerpendicularY();
-      float upZ = pointing.getPerpendicularZ();
-
-      rendererController.queueSetViewOrientation(directionX, directionY, directionZ, upX, upY, upZ);
-
-      Vector3 up = model.getPhoneUpDirection();
-      rendererController.queueTextAngle(MathUtil.atan2(up.x, up.y));
-      rendererController.queueViewerUpDirection(model.getZenith().copy());
-
-      float fieldOfView = model.getFieldOfView();
-      rendererController.queueFieldOfView(fieldOfView);
-    }
-  }
-
   // Activity for result Ids
   public static final int GOOGLE_PLAY_SERVICES_REQUEST_CODE = 1;
   public static final int GOOGLE_PLAY_SERVICES_REQUEST_LOCATION_PERMISSION_CODE = 2;
   // End Activity for result Ids
 
   private static final float ROTATION_SPEED = 10;
+  // Only redraw the sky when something has changed, to save power when the phone is held still.
+  private static final boolean RENDER_ON_DEMAND = true;
   private static final String TAG = MiscUtil.getTag(DynamicStarMapActivity.class);
 
   private ImageButton cancelSearchButton;
@@ -463,6 +426,7 @@ public class DynamicStarMapActivity extends InjectableActivity
     wakeLock.acquire();
     Log.i(TAG, "Starting view");
     skyView.onResume();
+    rendererController.onResume();
     Log.i(TAG, "Starting controller");
     controller.start();
     activityLightLevelManager.onResume();
@@ -543,6 +507,7 @@ public class DynamicStarMapActivity extends InjectableActivity
     }
     activityLightLevelManager.onPause();
     controller.stop();
+    rendererController.onPause();
     skyView.onPause();
     wakeLock.release();
     // Debug.stopMethodTracing();
@@ -567,11 +532,32 @@ public class DynamicStarMapActivity extends InjectableActivity
         break;
       case ApplicationConstants.ROTATE_HORIZON_PREFKEY:
         model.setHorizontalRotation(sharedPreferences.getBoolean(key, false));
+        break;
+      case ApplicationConstants.STAR_DENSITY_PREF_KEY:
+        updateStarDensity();
+        break;
       default:
         return;
     }
   }
 
+  // Tells the renderer how many more (or fewer) magnitudes of faint stars to draw than normal.
+  private void updateStarDensity() {
+    String density = sharedPreferences.getString(ApplicationConstants.STAR_DENSITY_PREF_KEY,
+        ApplicationConstants.STAR_DENSITY_STANDARD);
+    Log.d(TAG, "Star density is set to " + density);
+    float magnitudeOffset = 0;
+    if (ApplicationConstants.STAR_DENSITY_SPARSE.equals(density)) {
+      magnitudeOffset = -1;
+    } else if (ApplicationConstants.STAR_DENSITY_DENSE.equals(density)) {
+      magnitudeOffset = 1;
+    } else if (ApplicationConstants.STAR_DENSITY_ALL.equals(density)) {
+      // More than enough to show every star at any zoom level.
+      magnitudeOffset = 100;
+    }
+    rendererController.queueStarDensity(magnitudeOffset);
+  }
+
   @Override
   public boolean onTouchEvent(MotionEvent event) {
     // Log.d(TAG, "Touch event " + event);
@@ -635,14 +621,25 @@ public class DynamicStarMapActivity extends InjectableActivity
     skyView = (GLSurfaceView) findViewById(R.id.skyrenderer_view);
     // We don't want a depth buffer.
     skyView.setEGLConfigChooser(false);
-    SkyRenderer renderer = new SkyRenderer(getResources());
+    boolean useGles2 = shouldUseGles2Renderer();
+    if (useGles2) {
+      skyView.setEGLContextClientVersion(2);
+    }
+    SkyRenderer renderer = new SkyRenderer(getResources(), useGles2);
+    // The geometry of the layers which never change is kept between launches, until the next
+    // version of the app.
+    renderer.setGeometryCache(new GeometryCache(new File(getCacheDir(), "geometry"),
+        ((StardroidApplication) getApplication()).getVersion()));
     skyView.setRenderer(renderer);
 
     rendererController = new RendererController(renderer, skyView);
+    rendererController.setRenderOnDemand(RENDER_ON_DEMAND);
     // The renderer will now call back every frame to get model updates.
     rendererController.addUpdateClosure(
         new RendererModelUpdateClosure(model, rendererController, sharedPreferences));
 
+    updateStarDensity();
+
     Log.i(TAG, "Setting layers @ " + System.currentTimeMillis());
     layerManager.registerWithRenderer(rendererController);
     Log.i(TAG, "Set up controllers @ " + System.currentTimeMillis());
@@ -651,6 +648,19 @@ public class DynamicStarMapActivity extends InjectableActivity
     wireUpTimePlayer();  // TODO(widdows) move these?
   }
 
+  // The OpenGL ES 2.0 renderer is experimental, so it's only used if the user asks for it and
+  // the device supports it.
+  private boolean shouldUseGles2Renderer() {
+    if (!sharedPreferences.getBoolean(ApplicationConstants.USE_GLES2_RENDERER_PREF_KEY, false)) {
+      return false;
+    }
+    ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+    boolean supported =
+        activityManager.getDeviceConfigurationInfo().reqGlEsVersion >= 0x20000;
+    Log.i(TAG, "OpenGL ES 2.0 renderer requested, " + (supported ? "using it" : "not supported"));
+    return supported;
+  }
+
   private void setAutoMode(boolean auto) {
     analytics.trackEvent(Analytics.USER_ACTION_CATEGORY,
         Analytics.MENU_ITEM, Analytics.TOGGLED_MANUAL_MODE_LABEL, auto ? 0 : 1);
@@ -750,7 +760,7 @@ public class DynamicStarMapActivity extends InjectableActivity
     searchTarget = target;
     searchTargetName = searchTerm;
     Log.d(TAG, "Searching for target=" + target);
-    rendererController.queueViewerUpDirection(model.getZenith().copy());
+    rendererController.queueViewerUpDirection(model.getZenith());
     rendererController.queueEnableSearchOverlay(target.copy(), searchTerm);
     boolean autoMode = sharedPreferences.getBoolean(ApplicationConstants.AUTO_MODE_PREF_KEY, true);
     if (!autoMode) {
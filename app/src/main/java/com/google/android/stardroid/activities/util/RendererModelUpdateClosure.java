@@ -0,0 +1,65 @@
+// Copyright 2010 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.android.stardroid.activities.util;
+
+import android.content.SharedPreferences;
+
+import com.google.android.stardroid.ApplicationConstants;
+import com.google.android.stardroid.control.AstronomerModel;
+import com.google.android.stardroid.control.AstronomerModel.Pointing;
+import com.google.android.stardroid.renderer.RendererControllerBase;
+import com.google.android.stardroid.renderer.util.AbstractUpdateClosure;
+import com.google.android.stardroid.units.Vector3;
+import com.google.android.stardroid.util.MathUtil;
+
+/**
+ * Passed to the renderer to get per-frame updates from the model.
+ *
+ * @author John Taylor
+ */
+public final class RendererModelUpdateClosure extends AbstractUpdateClosure {
+  private RendererControllerBase rendererController;
+  private AstronomerModel model;
+  private boolean horizontalRotation;
+
+  public RendererModelUpdateClosure(AstronomerModel model,
+      RendererControllerBase rendererController, SharedPreferences sharedPreferences) {
+    this.model = model;
+    this.rendererController = rendererController;
+    this.horizontalRotation = sharedPreferences.getBoolean(ApplicationConstants.ROTATE_HORIZON_PREFKEY, false);
+    model.setHorizontalRotation(this.horizontalRotation);
+  }
+
+  @Override
+  public void run() {
+    Pointing pointing = model.getPointing();
+    float directionX = pointing.getLineOfSightX();
+    float directionY = pointing.getLineOfSightY();
+    float directionZ = pointing.getLineOfSightZ();
+
+    float upX = pointing.getPerpendicularX();
+    float upY = pointing.getPerpendicularY();
+    float upZ = pointing.getPerpendicularZ();
+
+    rendererController.queueSetViewOrientation(directionX, directionY, directionZ, upX, upY, upZ);
+
+    Vector3 up = model.getPhoneUpDirection();
+    rendererController.queueTextAngle(MathUtil.atan2(up.x, up.y));
+    rendererController.queueViewerUpDirection(model.getZenith());
+
+    float fieldOfView = model.getFieldOfView();
+    rendererController.queueFieldOfView(fieldOfView);
+  }
+}
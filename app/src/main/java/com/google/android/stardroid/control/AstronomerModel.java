@@ -183,6 +183,9 @@ public interface AstronomerModel {
 
   /**
    * Returns the user's Zenith in celestial coordinates.
+   *
+   * <p>The returned object is updated in place by later calls, so copy it to
+   * keep it, and don't modify it.
    */
   GeocentricCoordinates getZenith();
 
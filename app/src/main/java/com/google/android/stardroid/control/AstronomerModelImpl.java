@@ -25,6 +25,8 @@ import com.google.android.stardroid.units.RaDec;
 import com.google.android.stardroid.units.Vector3;
 import com.google.android.stardroid.util.Geometry;
 import com.google.android.stardroid.util.MiscUtil;
+import com.google.android.stardroid.util.metrics.Metrics;
+import com.google.android.stardroid.util.metrics.Timer;
 
 import java.util.Date;
 
@@ -121,6 +123,18 @@ public class AstronomerModelImpl implements AstronomerModel {
   /** [North, Up, East] in celestial coordinates. */
   private Matrix33 axesMagneticCelestialMatrix = Matrix33.getIdMatrix();
 
+  // Scratch space for calculatePointing, which runs every frame, so that it doesn't allocate.
+  private final Matrix33 pointingTransform = Matrix33.getIdMatrix();
+  private final Vector3 viewInSpaceSpace = new Vector3(0, 0, 0);
+  private final Vector3 screenUpInSpaceSpace = new Vector3(0, 0, 0);
+  private final float[] rotationMatrix = new float[9];
+  // Returned by getZenith, which is also called every frame.
+  private final GeocentricCoordinates zenith = new GeocentricCoordinates(0, 1, 0);
+  private final Vector3 magneticNorthPhone = new Vector3(0, 0, 0);
+  private final Vector3 magneticEastPhone = new Vector3(0, 0, 0);
+
+  private final Timer pointingTimer = Metrics.timer("model.calculatePointing");
+
   /**
    * @param magneticDeclinationCalculator A calculator that will provide the
    * magnetic correction from True North to Magnetic North.
@@ -220,7 +234,8 @@ public class AstronomerModelImpl implements AstronomerModel {
   @Override
   public GeocentricCoordinates getZenith() {
     calculateLocalNorthAndUpInCelestialCoords(false);
-    return GeocentricCoordinates.getInstanceFromVector3(upCelestial);
+    zenith.assign(upCelestial);
+    return zenith;
   }
 
   @Override
@@ -260,17 +275,20 @@ public class AstronomerModelImpl implements AstronomerModel {
     if (!autoUpdatePointing) {
       return;
     }
+    long start = Metrics.startTimer();
 
     calculateLocalNorthAndUpInCelestialCoords(false);
     calculateLocalNorthAndUpInPhoneCoordsFromSensors();
 
-    Matrix33 transform = matrixMultiply(axesMagneticCelestialMatrix, axesPhoneInverseMatrix);
+    Matrix33 transform = pointingTransform;
+    matrixMultiply(axesMagneticCelestialMatrix, axesPhoneInverseMatrix, transform);
 
-    Vector3 viewInSpaceSpace = matrixVectorMultiply(transform, POINTING_DIR_IN_PHONE_COORDS);
-    Vector3 screenUpInSpaceSpace = matrixVectorMultiply(transform, screenInPhoneCoords);
+    matrixVectorMultiply(transform, POINTING_DIR_IN_PHONE_COORDS, viewInSpaceSpace);
+    matrixVectorMultiply(transform, screenInPhoneCoords, screenUpInSpaceSpace);
 
     pointing.updateLineOfSight(viewInSpaceSpace);
     pointing.updatePerpendicular(screenUpInSpaceSpace);
+    pointingTimer.stop(start);
   }
 
   /**
@@ -317,34 +335,40 @@ public class AstronomerModelImpl implements AstronomerModel {
    * frame from the magnetic field and accelerometer sensors.
    */
   private void calculateLocalNorthAndUpInPhoneCoordsFromSensors() {
-    Vector3 magneticNorthPhone;
-    Vector3 magneticEastPhone;
+    // This runs every frame, so everything is computed in place.  upPhone is handed out by
+    // getPhoneUpDirection, so callers see it change.
+    Vector3 magneticNorthPhone = this.magneticNorthPhone;
+    Vector3 magneticEastPhone = this.magneticEastPhone;
     if (useRotationVector) {
-      float[] rotationMatrix = new float[9];
       SensorManager.getRotationMatrixFromVector(rotationMatrix, rotationVector);
       // The up and north vectors are the 2nd and 3rd rows of this matrix.
-      magneticNorthPhone = new Vector3(rotationMatrix[3], rotationMatrix[4], rotationMatrix[5]);
-      upPhone = new Vector3(rotationMatrix[6], rotationMatrix[7], rotationMatrix[8]);
-      magneticEastPhone = new Vector3(rotationMatrix[0], rotationMatrix[1], rotationMatrix[2]);
+      magneticNorthPhone.assign(rotationMatrix[3], rotationMatrix[4], rotationMatrix[5]);
+      upPhone.assign(rotationMatrix[6], rotationMatrix[7], rotationMatrix[8]);
+      magneticEastPhone.assign(rotationMatrix[0], rotationMatrix[1], rotationMatrix[2]);
     } else {
-      // TODO(johntaylor): we can reduce the number of vector copies done in here.
-      Vector3 down = acceleration.copy();
-      down.normalize();
+      // Up is opposite to the acceleration.
+      upPhone.assign(acceleration);
+      upPhone.scale(-1);
+      upPhone.normalize();
       // Magnetic field goes *from* North to South, so reverse it.
-      Vector3 magneticFieldToNorth = magneticField.copy();
-      magneticFieldToNorth.scale(-1);
-      magneticFieldToNorth.normalize();
+      magneticNorthPhone.assign(magneticField);
+      magneticNorthPhone.scale(-1);
+      magneticNorthPhone.normalize();
       // This is the vector to magnetic North *along the ground*.
-      magneticNorthPhone = addVectors(magneticFieldToNorth,
-          scaleVector(down, -scalarProduct(magneticFieldToNorth, down)));
+      float northDotUp = scalarProduct(magneticNorthPhone, upPhone);
+      magneticNorthPhone.assign(magneticNorthPhone.x - northDotUp * upPhone.x,
+                                magneticNorthPhone.y - northDotUp * upPhone.y,
+                                magneticNorthPhone.z - northDotUp * upPhone.z);
       magneticNorthPhone.normalize();
-      upPhone = scaleVector(down, -1);
-      magneticEastPhone = vectorProduct(magneticNorthPhone, upPhone);
+      magneticEastPhone.assign(
+          magneticNorthPhone.y * upPhone.z - magneticNorthPhone.z * upPhone.y,
+          -magneticNorthPhone.x * upPhone.z + magneticNorthPhone.z * upPhone.x,
+          magneticNorthPhone.x * upPhone.y - magneticNorthPhone.y * upPhone.x);
     }
     // The matrix is orthogonal, so transpose it to find its inverse.
     // Easiest way to do that is to construct it from row vectors instead
     // of column vectors.
-    axesPhoneInverseMatrix = new Matrix33(magneticNorthPhone, upPhone, magneticEastPhone, false);
+    axesPhoneInverseMatrix.assign(magneticNorthPhone, upPhone, magneticEastPhone, false);
   }
 
   /**
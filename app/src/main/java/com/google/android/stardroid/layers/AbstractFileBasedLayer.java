@@ -14,26 +14,35 @@
 
 package com.google.android.stardroid.layers;
 
+import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.content.res.Resources;
 import android.util.Log;
 
 import com.google.android.stardroid.renderer.RendererObjectManager.UpdateType;
 import com.google.android.stardroid.source.AstronomicalSource;
+import com.google.android.stardroid.source.columnar.ColumnarAstronomicalSource;
+import com.google.android.stardroid.source.columnar.ColumnarCatalog;
 import com.google.android.stardroid.source.proto.ProtobufAstronomicalSource;
 import com.google.android.stardroid.source.proto.SourceProto.AstronomicalSourceProto;
 import com.google.android.stardroid.source.proto.SourceProto.AstronomicalSourcesProto;
 import com.google.android.stardroid.util.Blog;
 import com.google.android.stardroid.util.MiscUtil;
+import com.google.android.stardroid.util.metrics.Metrics;
+import com.google.android.stardroid.util.metrics.Timer;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
 
 /**
  * Implementation of the {@link Layer} interface which reads its data from
@@ -45,28 +54,28 @@ import java.util.concurrent.Executors;
 
 public abstract class AbstractFileBasedLayer extends AbstractSourceLayer {
   private static final String TAG = MiscUtil.getTag(AbstractFileBasedLayer.class);
-  private static final Executor BACKGROUND_EXECUTOR = Executors.newFixedThreadPool(1);
 
   private final AssetManager assetManager;
   private final String fileName;
+  private final Timer readTimer;
   private final List<AstronomicalSource> fileSources = new ArrayList<>();
+  // The checksum of the file, once it's been read, if it's one whose geometry can be cached.
+  private volatile long geometryChecksum = NO_GEOMETRY_CACHE;
 
   public AbstractFileBasedLayer(AssetManager assetManager, Resources resources, String fileName) {
     super(resources, false);
     this.assetManager = assetManager;
     this.fileName = fileName;
+    this.readTimer = Metrics.timer("layer.readSourceFile." + fileName);
   }
   
   
   
+  // The LayerManager calls this on a background thread, so the file is read straight away.
   @Override
   public void initialize() {
-    BACKGROUND_EXECUTOR.execute(new Runnable() {
-      public void run() {
-        readSourceFile(fileName);
-        AbstractFileBasedLayer.super.initialize();
-      }
-    });
+    readSourceFile(fileName);
+    super.initialize();
   }
 
   @Override
@@ -74,28 +83,93 @@ public abstract class AbstractFileBasedLayer extends AbstractSourceLayer {
     sources.addAll(fileSources);
   }
 
+  // The objects are made from the file alone, so they're the same for as long as it is.
+  @Override
+  protected long getGeometryChecksum() {
+    return geometryChecksum;
+  }
+
   private void readSourceFile(String sourceFilename) {
-    Log.d(TAG, "Loading Proto File: " + sourceFilename + "...");
-    InputStream in = null;
+    long start = Metrics.startTimer();
     try {
-      in = assetManager.open(sourceFilename, AssetManager.ACCESS_BUFFER);
-      AstronomicalSourcesProto.Builder builder = AstronomicalSourcesProto.newBuilder();
-      builder.mergeFrom(in);
-
-      for (AstronomicalSourceProto proto : builder.build().getSourceList()) {
-        fileSources.add(new ProtobufAstronomicalSource(proto, getResources()));
+      if (sourceFilename.endsWith(ColumnarCatalog.FILE_EXTENSION)) {
+        readColumnarFile(sourceFilename);
+      } else {
+        readProtoFile(sourceFilename);
       }
       Log.d(TAG, "Found: " + fileSources.size() + " sources");
       String s = String.format("Finished Loading: %s | Found %s sourcs.\n",
           sourceFilename, fileSources.size());
        Blog.d(this, s);
+       readTimer.stop(start);
 
        refreshSources(EnumSet.of(UpdateType.Reset));
     } catch (IOException e) {
       Log.e(TAG, "Unable to open " + sourceFilename);
+    }
+  }
+
+  private void readProtoFile(String sourceFilename) throws IOException {
+    Log.d(TAG, "Loading Proto File: " + sourceFilename + "...");
+    InputStream in = null;
+    try {
+      in = assetManager.open(sourceFilename, AssetManager.ACCESS_BUFFER);
+      AstronomicalSourcesProto.Builder builder = AstronomicalSourcesProto.newBuilder();
+      builder.mergeFrom(in);
+
+      for (AstronomicalSourceProto proto : builder.build().getSourceList()) {
+        fileSources.add(new ProtobufAstronomicalSource(proto, getResources()));
+      }
     } finally {
       Closeables.closeQuietly(in);
     }
+  }
 
+  private void readColumnarFile(String sourceFilename) throws IOException {
+    Log.d(TAG, "Loading Columnar File: " + sourceFilename + "...");
+    ByteBuffer buffer = mapAsset(sourceFilename);
+    long checksum = checksum(buffer);
+    ColumnarCatalog catalog = new ColumnarCatalog(buffer);
+    Log.d(TAG, "Columns take up " + catalog.getSizeInBytes() + " bytes");
+    fileSources.addAll(ColumnarAstronomicalSource.createSources(catalog, getResources()));
+    geometryChecksum = checksum;
+  }
+
+  // Returns the CRC32 of everything left in the buffer, without moving its position.
+  private static long checksum(ByteBuffer buffer) {
+    ByteBuffer bytes = buffer.duplicate();
+    CRC32 crc = new CRC32();
+    byte[] chunk = new byte[8192];
+    while (bytes.hasRemaining()) {
+      int length = Math.min(chunk.length, bytes.remaining());
+      bytes.get(chunk, 0, length);
+      crc.update(chunk, 0, length);
+    }
+    return crc.getValue();
+  }
+
+  // Maps the asset into memory.  That only works if it's stored uncompressed, which build.gradle
+  // asks for, so fall back to reading it if it isn't.
+  private ByteBuffer mapAsset(String fileName) throws IOException {
+    AssetFileDescriptor fd;
+    try {
+      fd = assetManager.openFd(fileName);
+    } catch (FileNotFoundException e) {
+      Log.w(TAG, fileName + " is compressed, so reading it rather than mapping it");
+      InputStream in = assetManager.open(fileName, AssetManager.ACCESS_STREAMING);
+      try {
+        return ByteBuffer.wrap(ByteStreams.toByteArray(in));
+      } finally {
+        Closeables.closeQuietly(in);
+      }
+    }
+    FileInputStream in = fd.createInputStream();
+    try {
+      // The mapping stays valid after the file is closed.
+      return in.getChannel().map(
+          FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+    } finally {
+      Closeables.closeQuietly(in);
+    }
   }
 }
@@ -30,6 +30,8 @@ import com.google.android.stardroid.source.PointSource;
 import com.google.android.stardroid.source.TextSource;
 import com.google.android.stardroid.util.Blog;
 import com.google.android.stardroid.util.MiscUtil;
+import com.google.android.stardroid.util.metrics.StartupTimeline;
+import com.google.android.stardroid.util.metrics.StartupTimeline.Stage;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -49,11 +51,18 @@ import java.util.concurrent.locks.ReentrantLock;
 public abstract class AbstractLayer implements Layer {
   private static final String TAG = MiscUtil.getTag(AbstractLayer.class);
 
+  /** Returned by {@link #getGeometryChecksum} for layers whose geometry isn't cached. */
+  protected static final long NO_GEOMETRY_CACHE = -1;
+
   private final ReentrantLock renderMapLock = new ReentrantLock();
   private final HashMap<Class<?>, RenderManager<?>> renderMap = new HashMap<>();
   private final Resources resources;
 
-  private RendererController renderer;
+  // Set on the main thread, and read by the threads which initialize and update the layers.
+  private volatile RendererController renderer;
+  // Whether the first redraw with anything in it has been queued, which is timed for the
+  // StartupTimeline.  Guarded by renderMapLock.
+  private boolean firstDrawQueued = false;
 
   public AbstractLayer(Resources resources) {
     this.resources = resources;
@@ -65,8 +74,15 @@ public abstract class AbstractLayer implements Layer {
 
   @Override
   public void registerWithRenderer(RendererController rendererController) {
-    this.renderMap.clear();
-    this.renderer = rendererController;
+    // Not held while the layer updates, since AbstractSourceLayer takes its own lock before
+    // this one.
+    renderMapLock.lock();
+    try {
+      this.renderMap.clear();
+      this.renderer = rendererController;
+    } finally {
+      renderMapLock.unlock();
+    }
     updateLayerForControllerChange();
   }
 
@@ -146,11 +162,34 @@ public abstract class AbstractLayer implements Layer {
       setSources(lineSources, updateTypes, LineSource.class, atomic);
       setSources(imageSources, updateTypes, ImageSource.class, atomic);
       renderer.queueAtomic(atomic);
+      if (!firstDrawQueued && (hasSources(textSources) || hasSources(pointSources)
+          || hasSources(lineSources) || hasSources(imageSources))) {
+        firstDrawQueued = true;
+        queueStartupTimelineCallbacks();
+      }
     } finally {
       renderMapLock.unlock();
     }
   }
 
+  private static boolean hasSources(ArrayList<?> sources) {
+    return sources != null && !sources.isEmpty();
+  }
+
+  // Records when the renderer has built this layer's geometry, and when it's first drawn it.
+  private void queueStartupTimelineCallbacks() {
+    final String track = LayerInitializer.getTrack(this);
+    renderer.queueFrameCallbacks(new Runnable() {
+      public void run() {
+        StartupTimeline.record(track, Stage.TESSELLATED);
+      }
+    }, new Runnable() {
+      public void run() {
+        StartupTimeline.record(track, Stage.FIRST_DRAWN);
+      }
+    });
+  }
+
   /**
    * Sets the objects on the {@link RenderManager} to the given values,
    * creating (or disabling) the {@link RenderManager} if necessary.
@@ -173,11 +212,29 @@ public abstract class AbstractLayer implements Layer {
     if (manager == null) {
       manager = createRenderManager(clazz, atomic);
       renderMap.put(clazz, manager);
+      long checksum = getGeometryChecksum();
+      if (checksum != NO_GEOMETRY_CACHE) {
+        manager.queueGeometryKey(
+            LayerInitializer.getTrack(this) + "." + clazz.getSimpleName(), checksum, atomic);
+      }
     }
     // Blog.d(this, "       " + clazz.getSimpleName() + " " + sources.size());
     manager.queueObjects(sources, updateType, atomic);
   }
 
+  /**
+   * Returns a checksum of everything this layer's objects are made from, if
+   * they look the same every time they're drawn, so that the renderer can
+   * keep their geometry between launches.  Layers which make their objects
+   * in code should fold in a version number, bumped whenever that code
+   * changes, since builds made while developing it share the app's version.
+   * By default layers return
+   * {@link #NO_GEOMETRY_CACHE}, and their geometry is built every time.
+   */
+  protected long getGeometryChecksum() {
+    return NO_GEOMETRY_CACHE;
+  }
+
   @SuppressWarnings("unchecked")
   <E> RenderManager<E> createRenderManager(Class<E> clazz, RendererControllerBase controller) {
     if (clazz.equals(ImageSource.class)) {
@@ -30,6 +30,8 @@ import com.google.android.stardroid.source.Sources;
 import com.google.android.stardroid.source.TextSource;
 import com.google.android.stardroid.units.GeocentricCoordinates;
 import com.google.android.stardroid.util.MiscUtil;
+import com.google.android.stardroid.util.metrics.Metrics;
+import com.google.android.stardroid.util.metrics.Timer;
 
 import java.util.ArrayList;
 import java.util.EnumSet;
@@ -56,6 +58,9 @@ public abstract class AbstractSourceLayer extends AbstractLayer {
   private PrefixStore prefixStore = new PrefixStore();
   private final boolean shouldUpdate;
   private SourceUpdateClosure closure;
+  // Reused by refreshSources(), which runs every frame.
+  private final EnumSet<UpdateType> periodicUpdateTypes = EnumSet.noneOf(UpdateType.class);
+  private final Timer refreshTimer = Metrics.timer("layer.refresh." + getClass().getSimpleName());
 
   public AbstractSourceLayer(Resources resources, boolean shouldUpdate) {
     super(resources);
@@ -112,8 +117,9 @@ public abstract class AbstractSourceLayer extends AbstractLayer {
    * the current state of the
    * {@link com.google.android.stardroid.control.AstronomerModel}.
    */
-  protected void refreshSources() {
-    refreshSources(EnumSet.noneOf(UpdateType.class));
+  protected synchronized void refreshSources() {
+    periodicUpdateTypes.clear();
+    refreshSources(periodicUpdateTypes);
   }
 
   /**
@@ -122,13 +128,16 @@ public abstract class AbstractSourceLayer extends AbstractLayer {
    * {@link com.google.android.stardroid.control.AstronomerModel}.
    */
   protected synchronized void refreshSources(EnumSet<UpdateType> updateTypes) {
-    for (AstronomicalSource astroSource : astroSources) {
-      updateTypes.addAll(astroSource.update());
+    long start = Metrics.startTimer();
+    for (int i = 0; i < astroSources.size(); i++) {
+      astroSources.get(i).update(updateTypes);
     }
 
     if (!updateTypes.isEmpty()) {
+      // The renderer copies the update types, so they can be reused.
       redraw(updateTypes);
     }
+    refreshTimer.stop(start);
   }
 
   /**
@@ -145,7 +154,7 @@ public abstract class AbstractSourceLayer extends AbstractLayer {
   }
 
   @Override
-  public List<SearchResult> searchByObjectName(String name) {
+  public synchronized List<SearchResult> searchByObjectName(String name) {
     Log.d(TAG, "Search planets layer for " + name);
     List<SearchResult> matches = new ArrayList<SearchResult>();
     SearchResult searchResult = searchIndex.get(name.toLowerCase());
@@ -157,7 +166,7 @@ public abstract class AbstractSourceLayer extends AbstractLayer {
   }
 
   @Override
-  public Set<String> getObjectNamesMatchingPrefix(String prefix) {
+  public synchronized Set<String> getObjectNamesMatchingPrefix(String prefix) {
     Log.d(TAG, "Searching planets layer for prefix " + prefix);
     Set<String> results = prefixStore.queryByPrefix(prefix);
     Log.d(TAG, "Got " + results.size() + " results for prefix " + prefix + " in " + getLayerName());
@@ -27,6 +27,7 @@ import com.google.android.stardroid.source.impl.TextSourceImpl;
 import com.google.android.stardroid.units.GeocentricCoordinates;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -37,6 +38,10 @@ import java.util.List;
  */
 
 public class EclipticLayer extends AbstractSourceLayer {
+  // Bump this whenever EclipticSource changes how it makes the line, so that cached geometry
+  // made by the old code isn't used.
+  private static final int GEOMETRY_VERSION = 1;
+
   public EclipticLayer(Resources resources) {
     super(resources, false);
   }
@@ -51,6 +56,14 @@ public class EclipticLayer extends AbstractSourceLayer {
     return 50;
   }
 
+  // The ecliptic's line only depends on how EclipticSource makes it.
+  @Override
+  protected long getGeometryChecksum() {
+    return Arrays.hashCode(new int[] {GEOMETRY_VERSION,
+        Float.floatToIntBits(EclipticSource.EPSILON), EclipticSource.LINE_COLOR,
+        Float.floatToIntBits(EclipticSource.LINE_WIDTH)}) & 0xffffffffL;
+  }
+
   @Override
   protected int getLayerNameId() {
     return R.string.show_grid_pref;
@@ -66,6 +79,7 @@ public class EclipticLayer extends AbstractSourceLayer {
     // Earth's Angular Tilt
     private static final float EPSILON = 23.439281f;
     private static final int LINE_COLOR = Color.argb(20, 248, 239, 188);
+    private static final float LINE_WIDTH = 1.5f;
 
     private ArrayList<LineSource> lineSources = new ArrayList<LineSource>();
     private ArrayList<TextSource> textSources = new ArrayList<TextSource>();
@@ -83,7 +97,7 @@ public class EclipticLayer extends AbstractSourceLayer {
       for (int i = 0; i < ra.length; ++i) {
         vertices.add(GeocentricCoordinates.getInstance(ra[i], dec[i]));
       }
-      lineSources.add(new LineSourceImpl(LINE_COLOR, vertices, 1.5f));
+      lineSources.add(new LineSourceImpl(LINE_COLOR, vertices, LINE_WIDTH));
     }
 
     @Override
@@ -28,6 +28,7 @@ import com.google.android.stardroid.units.GeocentricCoordinates;
 import com.google.android.stardroid.units.RaDec;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -39,6 +40,10 @@ import java.util.List;
  * @author John Taylor
  */
 public class GridLayer extends AbstractSourceLayer {
+  // Bump this whenever GridSource changes how it makes the lines, so that cached geometry made
+  // by the old code isn't used.
+  private static final int GEOMETRY_VERSION = 1;
+
   private final int numRaSources;
   private final int numDecSources;
 
@@ -58,6 +63,14 @@ public class GridLayer extends AbstractSourceLayer {
     return 0;
   }
 
+  // The grid's lines only depend on how many there are and how GridSource makes them.
+  @Override
+  protected long getGeometryChecksum() {
+    return Arrays.hashCode(new int[] {GEOMETRY_VERSION, numRaSources, numDecSources,
+        GridSource.NUM_DEC_VERTICES, GridSource.NUM_RA_VERTICES, GridSource.LINE_COLOR})
+        & 0xffffffffL;
+  }
+
   @Override
   protected int getLayerNameId() {
     return R.string.show_grid_pref;  // TODO(johntaylor): rename this string Id.
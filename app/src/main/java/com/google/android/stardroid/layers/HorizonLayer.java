@@ -130,15 +130,12 @@ public class HorizonLayer extends AbstractSourceLayer {
     }
 
     @Override
-    public EnumSet<UpdateType> update() {
-      EnumSet<UpdateType> updateTypes = EnumSet.noneOf(UpdateType.class);
-
+    public void update(EnumSet<UpdateType> updateTypes) {
       // TODO(brent): Add distance here.
-      if (Math.abs(model.getTime().getTime() - lastUpdateTimeMs) > UPDATE_FREQ_MS) {
+      if (Math.abs(model.getTimeMillis() - lastUpdateTimeMs) > UPDATE_FREQ_MS) {
         updateCoords();
         updateTypes.add(UpdateType.UpdatePositions);
       }
-      return updateTypes;
     }
 
     @Override
@@ -220,19 +220,15 @@ public class IssLayer extends AbstractSourceLayer {
     }
 
     @Override
-    public synchronized EnumSet<UpdateType> update() {
-      EnumSet<UpdateType> updateTypes = EnumSet.noneOf(UpdateType.class);
-
-      Date modelTime = model.getTime();
+    public synchronized void update(EnumSet<UpdateType> updateTypes) {
       if (orbitalElementsChanged ||
-          Math.abs(modelTime.getTime() - lastUpdateTimeMs) > UPDATE_FREQ_MS) {
+          Math.abs(model.getTimeMillis() - lastUpdateTimeMs) > UPDATE_FREQ_MS) {
 
-        updateCoords(modelTime);
+        updateCoords(model.getTime());
         if (orbitalElements != null) {
           updateTypes.add(UpdateType.UpdatePositions);
         }
       }
-      return updateTypes;
     }
 
     @Override
@@ -31,9 +31,9 @@ import java.util.Set;
 public interface Layer {
   /**
    * Initializes the layer; reading data and computing locations as necessary.
-   * This method should return quickly - use a background thread if necessary.
-   * This method is typically called before the {@link #registerWithRenderer}
-   * method, but may not be.
+   * {@link LayerManager} calls this on a background thread, alongside other
+   * layers, so it can take as long as it needs.  It may still be running when
+   * {@link #registerWithRenderer} is called, or may not have started yet.
    */
    void initialize();
 
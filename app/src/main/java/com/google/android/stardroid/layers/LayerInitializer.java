@@ -0,0 +1,135 @@
+package com.google.android.stardroid.layers;
+
+import android.util.Log;
+
+import com.google.android.stardroid.util.MiscUtil;
+import com.google.android.stardroid.util.metrics.StartupTimeline;
+import com.google.android.stardroid.util.metrics.StartupTimeline.Stage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Initializes layers in parallel on a small pool of background threads.  A
+ * layer can be made to wait for others, and is only started once they've
+ * all finished initializing.  Otherwise the layers start in the order they
+ * were added, as threads come free.
+ *
+ * Each layer publishes itself to the renderer when it's done, so the sky
+ * fills in layer by layer.  The stages each layer reaches are recorded in
+ * the {@link StartupTimeline}.
+ */
+public class LayerInitializer {
+  private static final String TAG = MiscUtil.getTag(LayerInitializer.class);
+  // Leave a core for the UI and GL threads, but don't take more than this, since the layers
+  // mostly compete for the same memory bandwidth.
+  private static final int MAX_THREADS = 3;
+  // The threads are only needed at startup, so let them go once there's nothing to do.
+  private static final long THREAD_TIMEOUT_SECONDS = 5;
+
+  private static class Node {
+    Node(Layer layer) {
+      this.layer = layer;
+    }
+    final Layer layer;
+    final List<Node> dependents = new ArrayList<>();
+    int numUnfinishedDependencies = 0;
+  }
+
+  private final Executor executor;
+  private final Map<Layer, Node> nodes = new LinkedHashMap<>();
+  private boolean started = false;
+
+  /** Creates an initializer with its own bounded pool of threads. */
+  public LayerInitializer() {
+    this(createExecutor());
+  }
+
+  public LayerInitializer(Executor executor) {
+    this.executor = executor;
+  }
+
+  private static Executor createExecutor() {
+    int numThreads = Math.max(1,
+        Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads,
+        THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Adds a layer, which won't be initialized until the given layers have
+   * been.  They must already have been added, which rules out cycles.
+   */
+  public synchronized void addLayer(Layer layer, List<Layer> dependencies) {
+    if (started) {
+      throw new IllegalStateException("Layers must be added before starting");
+    }
+    Node node = new Node(layer);
+    for (Layer dependency : dependencies) {
+      Node dependencyNode = nodes.get(dependency);
+      if (dependencyNode == null) {
+        throw new IllegalArgumentException(getTrack(layer) + " depends on "
+            + getTrack(dependency) + ", which hasn't been added");
+      }
+      dependencyNode.dependents.add(node);
+      node.numUnfinishedDependencies++;
+    }
+    nodes.put(layer, node);
+  }
+
+  /** Starts initializing the layers, and returns straight away. */
+  public synchronized void start() {
+    if (started) {
+      return;
+    }
+    started = true;
+    for (Node node : nodes.values()) {
+      StartupTimeline.record(getTrack(node.layer), Stage.QUEUED);
+    }
+    for (Node node : nodes.values()) {
+      if (node.numUnfinishedDependencies == 0) {
+        submit(node);
+      }
+    }
+  }
+
+  private void submit(final Node node) {
+    executor.execute(new Runnable() {
+      public void run() {
+        initialize(node);
+      }
+    });
+  }
+
+  private void initialize(Node node) {
+    String track = getTrack(node.layer);
+    StartupTimeline.record(track, Stage.STARTED);
+    try {
+      node.layer.initialize();
+      StartupTimeline.record(track, Stage.PARSED);
+    } catch (RuntimeException e) {
+      // Carry on with the layers which depend on it, which may manage without it.
+      Log.e(TAG, "Unable to initialize " + track, e);
+    }
+    synchronized (this) {
+      for (Node dependent : node.dependents) {
+        if (--dependent.numUnfinishedDependencies == 0) {
+          submit(dependent);
+        }
+      }
+    }
+  }
+
+  // The layers' names need resources, so they're told apart by their classes instead.
+  static String getTrack(Layer layer) {
+    return layer.getClass().getSimpleName();
+  }
+}
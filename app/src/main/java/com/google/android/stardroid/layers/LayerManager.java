@@ -22,8 +22,11 @@ import com.google.android.stardroid.renderer.RendererController;
 import com.google.android.stardroid.search.SearchResult;
 import com.google.android.stardroid.search.SearchTermsProvider.SearchTerm;
 import com.google.android.stardroid.util.MiscUtil;
+import com.google.android.stardroid.util.metrics.Metrics;
+import com.google.android.stardroid.util.metrics.Timer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -34,22 +37,41 @@ import java.util.Set;
 public class LayerManager implements OnSharedPreferenceChangeListener {
   private static final String TAG = MiscUtil.getTag(LayerManager.class);
   private final List<Layer> layers = new ArrayList<>();
+  private final LayerInitializer initializer;
   private final SharedPreferences sharedPreferences;
+  private final Timer searchTimer = Metrics.timer("search.byName");
+  private final Timer prefixSearchTimer = Metrics.timer("search.byPrefix");
 
   public LayerManager(SharedPreferences sharedPreferences) {
+    this(sharedPreferences, new LayerInitializer());
+  }
+
+  public LayerManager(SharedPreferences sharedPreferences, LayerInitializer initializer) {
     Log.d(TAG, "Creating LayerManager");
     this.sharedPreferences = sharedPreferences;
+    this.initializer = initializer;
     sharedPreferences.registerOnSharedPreferenceChangeListener(this);
   }
 
   public void addLayer(Layer layer) {
+    addLayer(layer, new Layer[0]);
+  }
+
+  /**
+   * Adds a layer which won't be initialized until the given layers, which
+   * must already have been added, have been.
+   */
+  public void addLayer(Layer layer, Layer... initializeAfter) {
     this.layers.add(layer);
+    initializer.addLayer(layer, Arrays.asList(initializeAfter));
   }
 
+  /**
+   * Starts initializing the layers in the background, in parallel where
+   * they don't depend on each other.  Each layer appears once it's ready.
+   */
   public void initialize() {
-    for (Layer layer : layers) {
-      layer.initialize();
-    }
+    initializer.start();
   }
 
   public void registerWithRenderer(RendererController renderer) {
@@ -84,12 +106,14 @@ public class LayerManager implements OnSharedPreferenceChangeListener {
    * @return a list of all matching objects.
    */
   public List<SearchResult> searchByObjectName(String name) {
+    long start = Metrics.startTimer();
     List<SearchResult> all = new ArrayList<>();
     for (Layer layer : layers) {
       if (isLayerVisible(layer)) {
         all.addAll(layer.searchByObjectName(name));
       }
     }
+    searchTimer.stop(start);
     Log.d(TAG, "Got " + all.size() + " results in total for " + name);
     return all;
   }
@@ -101,6 +125,7 @@ public class LayerManager implements OnSharedPreferenceChangeListener {
    * @return a set of matching queries.
    */
   public Set<SearchTerm> getObjectNamesMatchingPrefix(String prefix) {
+    long start = Metrics.startTimer();
     Set<SearchTerm> all = new HashSet<>();
     for (Layer layer : layers) {
       if (isLayerVisible(layer)) {
@@ -110,6 +135,7 @@ public class LayerManager implements OnSharedPreferenceChangeListener {
         }
       }
     }
+    prefixSearchTimer.stop(start);
     Log.d(TAG, "Got " + all.size() + " results in total for " + prefix);
     return all;
   }
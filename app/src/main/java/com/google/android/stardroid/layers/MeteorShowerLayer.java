@@ -259,13 +259,11 @@ public class MeteorShowerLayer extends AbstractSourceLayer {
     }
 
     @Override
-    public EnumSet<UpdateType> update() {
-      EnumSet<UpdateType> updateTypes = EnumSet.noneOf(UpdateType.class);
-      if (Math.abs(model.getTime().getTime() - lastUpdateTimeMs) > UPDATE_FREQ_MS) {
+    public void update(EnumSet<UpdateType> updateTypes) {
+      if (Math.abs(model.getTimeMillis() - lastUpdateTimeMs) > UPDATE_FREQ_MS) {
         updateShower();
         updateTypes.add(UpdateType.Reset);
       }
-      return updateTypes;
     }
 
     @Override
@@ -28,7 +28,7 @@ import com.google.android.stardroid.R;
  */
 public class NewConstellationsLayer extends AbstractFileBasedLayer {
   public NewConstellationsLayer(AssetManager assetManager, Resources resources) {
-    super(assetManager, resources, "constellations.binary");
+    super(assetManager, resources, "constellations.columns");
   }
 
   @Override
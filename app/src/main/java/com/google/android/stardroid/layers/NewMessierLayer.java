@@ -28,7 +28,7 @@ import com.google.android.stardroid.R;
  */
 public class NewMessierLayer extends AbstractFileBasedLayer {
   public NewMessierLayer(AssetManager assetManager, Resources resources) {
-    super(assetManager, resources, "messier.binary");
+    super(assetManager, resources, "messier.columns");
   }
 
   @Override
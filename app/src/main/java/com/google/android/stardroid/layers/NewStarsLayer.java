@@ -28,7 +28,7 @@ import com.google.android.stardroid.R;
  */
 public class NewStarsLayer extends AbstractFileBasedLayer {
   public NewStarsLayer(AssetManager assetManager, Resources resources) {
-    super(assetManager, resources, "stars.binary");
+    super(assetManager, resources, "stars.columns");
   }
 
   @Override
@@ -194,18 +194,13 @@ public class SatelliteLayer extends AbstractSourceLayer {
     }
     
     @Override
-    public synchronized EnumSet<RendererObjectManager.UpdateType> update() {
-      EnumSet<RendererObjectManager.UpdateType> updateTypes =
-          EnumSet.noneOf(RendererObjectManager.UpdateType.class);
-      
-      Date modelTime = model.getTime();
-      if (Math.abs(modelTime.getTime() - lastUpdateTimeMs) > UPDATE_FREQ_MS) {
+    public synchronized void update(EnumSet<RendererObjectManager.UpdateType> updateTypes) {
+      if (Math.abs(model.getTimeMillis() - lastUpdateTimeMs) > UPDATE_FREQ_MS) {
         
-        updateCoords(modelTime);
+        updateCoords(model.getTime());
         updateTypes.add(RendererObjectManager.UpdateType.UpdatePositions);
         
       }
-      return updateTypes;
     }
     
     
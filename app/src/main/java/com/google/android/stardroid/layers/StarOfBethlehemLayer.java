@@ -128,14 +128,12 @@ public class StarOfBethlehemLayer extends AbstractSourceLayer {
     }
 
     @Override
-    public EnumSet<UpdateType> update() {
-      EnumSet<UpdateType> updateTypes = EnumSet.noneOf(UpdateType.class);
-      if (Math.abs(model.getTime().getTime() - lastUpdateTimeMs) > UPDATE_FREQ_MS) {
+    public void update(EnumSet<UpdateType> updateTypes) {
+      if (Math.abs(model.getTimeMillis() - lastUpdateTimeMs) > UPDATE_FREQ_MS) {
         updateStar();
         updateTypes.add(UpdateType.UpdateImages);
         updateTypes.add(UpdateType.UpdatePositions);
       }
-      return updateTypes;
     }
 
     @Override
@@ -119,11 +119,9 @@ public class PlanetSource extends AbstractAstronomicalSource {
   }
 
   @Override
-  public EnumSet<UpdateType> update() {
-    EnumSet<UpdateType> updates = EnumSet.noneOf(UpdateType.class);
-
-    Date modelTime = model.getTime();
-    if (Math.abs(modelTime.getTime() - lastUpdateTimeMs) > planet.getUpdateFrequencyMs()) {
+  public void update(EnumSet<UpdateType> updates) {
+    if (Math.abs(model.getTimeMillis() - lastUpdateTimeMs) > planet.getUpdateFrequencyMs()) {
+      Date modelTime = model.getTime();
       updates.add(UpdateType.UpdatePositions);
       // update location
       updateCoords(modelTime);
@@ -142,7 +140,6 @@ public class PlanetSource extends AbstractAstronomicalSource {
         }
       }
     }
-    return updates;
   }
 
   @Override
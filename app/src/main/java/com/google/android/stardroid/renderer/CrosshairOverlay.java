@@ -19,18 +19,23 @@ import javax.microedition.khronos.opengles.GL10;
 import android.content.res.Resources;
 
 import com.google.android.stardroid.R;
+import com.google.android.stardroid.renderer.util.GLStateCache;
 import com.google.android.stardroid.renderer.util.SearchHelper;
+import com.google.android.stardroid.renderer.util.SkyShaders;
 import com.google.android.stardroid.renderer.util.TextureManager;
 import com.google.android.stardroid.renderer.util.TextureReference;
 import com.google.android.stardroid.renderer.util.TexturedQuad;
 import com.google.android.stardroid.units.Vector3;
 import com.google.android.stardroid.util.MathUtil;
+import com.google.android.stardroid.util.Matrix4x4;
 
 public class CrosshairOverlay {
 
   public void reloadTextures(GL10 gl, Resources res, TextureManager textureManager) {
     // Load the crosshair texture.
+    TextureReference oldTex = mTex;
     mTex = textureManager.getTextureFromResource(gl, R.drawable.crosshair);
+    textureManager.releaseTexture(gl, oldTex);
   }
   
   public void resize(GL10 gl, int screenWidth, int screenHeight) {
@@ -40,7 +45,8 @@ public class CrosshairOverlay {
                              0, 40.0f / screenHeight, 0);
   }
     
-  public void draw(GL10 gl, SearchHelper searchHelper, boolean nightVisionMode) {
+  public void draw(GL10 gl, GLStateCache state, SearchHelper searchHelper,
+                   boolean nightVisionMode) {
     // Return if the label has a negative z.
     Vector3 position = searchHelper.getTransformedPosition();
     if (position.z < 0) {
@@ -52,25 +58,50 @@ public class CrosshairOverlay {
     
     gl.glTranslatef(position.x, position.y, 0);
     
-    int period = 1000;
-    long time = System.currentTimeMillis();
-    float intensity = 0.7f + 0.3f * MathUtil.sin((time % period) * MathUtil.TWO_PI / period);
+    float intensity = getIntensity();
     if (nightVisionMode) {
       gl.glColor4f(intensity, 0, 0, 0.7f);
     } else {
       gl.glColor4f(intensity, intensity, 0, 0.7f);
     }
     
-    gl.glEnable(GL10.GL_BLEND);
-    gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);    
+    state.enable(GL10.GL_BLEND);
+    state.blendFunc(gl, GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
 
-    mQuad.draw(gl);
+    mQuad.draw(gl, state);
     
-    gl.glDisable(GL10.GL_BLEND);
+    state.disable(GL10.GL_BLEND);
     
     gl.glPopMatrix();
   }
+
+  // As draw, but with the general shader program.  The caller enables blending.
+  public void drawWithShaders(GL10 gl, SearchHelper searchHelper, boolean nightVisionMode) {
+    Vector3 position = searchHelper.getTransformedPosition();
+    if (position.z < 0) {
+      return;
+    }
+    // Like the fixed function path, this ignores the overlay's matrices and positions the
+    // crosshair in device coordinates.
+    mTransform.setTranslation(position.x, position.y, 0);
+    if (!SkyShaders.useGeneral(mTransform.getFloatArray(), false, true, -1)) {
+      return;
+    }
+    float intensity = getIntensity();
+    SkyShaders.setConstantAttribute(SkyShaders.ATTRIBUTE_COLOR,
+                                    intensity, nightVisionMode ? 0 : intensity, 0, 0.7f);
+    mQuad.drawWithShaders(gl);
+    SkyShaders.restoreAttribute(SkyShaders.ATTRIBUTE_COLOR);
+  }
+
+  // The crosshair pulses once a second.
+  private static float getIntensity() {
+    int period = 1000;
+    long time = System.currentTimeMillis();
+    return 0.7f + 0.3f * MathUtil.sin((time % period) * MathUtil.TWO_PI / period);
+  }
   
   private TexturedQuad mQuad = null;
   private TextureReference mTex = null;
+  private final Matrix4x4 mTransform = Matrix4x4.createIdentity();
 }
@@ -14,41 +14,84 @@
 
 package com.google.android.stardroid.renderer;
 import android.graphics.Bitmap;
-import android.opengl.GLUtils;
-
+import android.opengl.GLES20;
+
+import com.google.android.stardroid.renderer.util.GLBuffer;
+import com.google.android.stardroid.renderer.util.GLStateCache;
+import com.google.android.stardroid.renderer.util.HierarchicalSkyIndex;
+import com.google.android.stardroid.renderer.util.ImageAtlas;
+import com.google.android.stardroid.renderer.util.IndexBuffer;
+import com.google.android.stardroid.renderer.util.SkyRegionMap;
+import com.google.android.stardroid.renderer.util.SkyShaders;
 import com.google.android.stardroid.renderer.util.TexCoordBuffer;
 import com.google.android.stardroid.renderer.util.TextureManager;
-import com.google.android.stardroid.renderer.util.TextureReference;
 import com.google.android.stardroid.renderer.util.VertexBuffer;
 import com.google.android.stardroid.source.ImageSource;
 import com.google.android.stardroid.units.GeocentricCoordinates;
+import com.google.android.stardroid.util.MathUtil;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.List;
 
 import javax.microedition.khronos.opengles.GL10;
-import javax.microedition.khronos.opengles.GL11;
 
 /**
  * Manages the rendering of image objects.
  *
+ * The images are packed into an {@link ImageAtlas}, so images on the same
+ * page of the atlas are drawn together without binding a texture for each.
+ * They're also split into sky regions, and only the regions which are on
+ * screen are drawn.
+ *
  * @author James Powell
  *
  */
 public class ImageObjectManager extends RendererObjectManager {
-  private VertexBuffer mVertexBuffer = new VertexBuffer(false);
-  private TexCoordBuffer mTexCoordBuffer = new TexCoordBuffer(false);
+  // Images are sparse, so even a few of them get regions this small, which are about 30 degrees
+  // across.
+  private static final int MINIMUM_REGION_DEPTH = 1;
+  // Roughly how many images we want in each region, once there are enough to fill them.
+  private static final int IMAGES_PER_REGION = 4;
+  // The indices can only reach this many images' vertices, so the images are split into chunks
+  // of this many, and a run never crosses from one chunk into another.
+  private static final int MAX_IMAGES_PER_CHUNK = IndexBuffer.MAX_VERTICES_PER_DRAW / 4;
+
+  private VertexBuffer mVertexBuffer = new VertexBuffer(true);
+  private TexCoordBuffer mTexCoordBuffer = new TexCoordBuffer(true);
   private Image[] mImages = new Image[0];
-  private TextureReference[] mTextures = new TextureReference[0];
-  private TextureReference[] mRedTextures = new TextureReference[0];
+  // The location and the two corner vectors of each image, as last written into the vertex
+  // buffer.  Used to skip the images which haven't moved.
+  private float[] mCorners = new float[0];
+  private final ImageAtlas mAtlas;
+
+  // The images in a sky region, in runs which share a page of the atlas, a blending mode and a
+  // chunk of the vertex buffers.
+  private static class RegionData {
+    private IndexBuffer mIndexBuffer = new IndexBuffer(true);
+    int numRuns = 0;
+    int[] runFirstVertices = new int[1];
+    int[] runStarts = new int[1];
+    int[] runLengths = new int[1];
+    int[] runPages = new int[1];
+    boolean[] runBlending = new boolean[1];
+  }
+
+  private SkyRegionMap<RegionData> mSkyRegions = new SkyRegionMap<RegionData>();
+  // Reused every frame to hold the data for the regions on screen.
+  private final ArrayList<RegionData> mActiveRegionData = new ArrayList<RegionData>();
 
   EnumSet<UpdateType> mUpdates = EnumSet.noneOf(UpdateType.class);
 
   public ImageObjectManager(int layer, TextureManager manager) {
     super(layer, manager);
+    mAtlas = new ImageAtlas(manager);
+    mSkyRegions.setRegionDataFactory(
+        new SkyRegionMap.RegionDataFactory<RegionData>() {
+          public RegionData construct() { return new RegionData(); }
+        });
   }
 
   public void updateObjects(List<ImageSource> imageSources, EnumSet<UpdateType> type) {
@@ -56,14 +99,6 @@ public class ImageObjectManager extends RendererObjectManager {
       logUpdateMismatch("ImageObjectManager", imageSources.size(), mImages.length, type);
       return;
     }
-    mUpdates.addAll(type);
-
-    int numVertices = imageSources.size() * 4;
-    VertexBuffer vertexBuffer = mVertexBuffer;
-    vertexBuffer.reset(numVertices);
-
-    TexCoordBuffer texCoordBuffer = mTexCoordBuffer;
-    texCoordBuffer.reset(numVertices);
 
     Image[] images;
     boolean reset = type.contains(UpdateType.Reset) || type.contains(UpdateType.UpdateImages);
@@ -83,42 +118,44 @@ public class ImageObjectManager extends RendererObjectManager {
         images[i].useBlending = false;
         images[i].bitmap = is.getImage();
       }
+
+      // Pack the new images into the atlas.  The pages are uploaded when we next reload.
+      Bitmap[] bitmaps = new Bitmap[images.length];
+      for (int i = 0; i < images.length; i++) {
+        bitmaps[i] = images[i].bitmap;
+      }
+      ImageAtlas.Entry[] entries = mAtlas.setImages(bitmaps);
+      for (int i = 0; i < images.length; i++) {
+        images[i].atlasEntry = entries[i];
+      }
     }
 
-    // Update the positions in the position and tex coord buffers.
-    if (reset || type.contains(UpdateType.UpdatePositions)) {
+    if (type.contains(UpdateType.Reset)) {
+      // Lay out new buffers for all of the images.
+      int numVertices = imageSources.size() * 4;
+      mVertexBuffer.reset(numVertices);
+      mTexCoordBuffer.reset(numVertices);
+      mCorners = new float[9 * imageSources.size()];
       for (int i = 0; i < imageSources.size(); i++) {
-        ImageSource is = imageSources.get(i);
-        GeocentricCoordinates xyz = is.getLocation();
-        float px = xyz.x;
-        float py = xyz.y;
-        float pz = xyz.z;
-
-        float[] u = is.getHorizontalCorner();
-        float ux = u[0];
-        float uy = u[1];
-        float uz = u[2];
-
-        float[] v = is.getVerticalCorner();
-        float vx = v[0];
-        float vy = v[1];
-        float vz = v[2];
-
-        // lower left
-        vertexBuffer.addPoint(px - ux - vx, py - uy - vy, pz - uz - vz);
-        texCoordBuffer.addTexCoords(0, 1);
-
-        // upper left
-        vertexBuffer.addPoint(px - ux + vx, py - uy + vy, pz - uz + vz);
-        texCoordBuffer.addTexCoords(0, 0);
-
-        // lower right
-        vertexBuffer.addPoint(px + ux - vx, py + uy - vy, pz + uz - vz);
-        texCoordBuffer.addTexCoords(1, 1);
-
-        // upper right
-        vertexBuffer.addPoint(px + ux + vx, py + uy + vy, pz + uz + vz);
-        texCoordBuffer.addTexCoords(1, 0);
+        // lower left, upper left, lower right, upper right
+        mVertexBuffer.addPoint(0, 0, 0);
+        mTexCoordBuffer.addTexCoords(0, 0);
+        mVertexBuffer.addPoint(0, 0, 0);
+        mTexCoordBuffer.addTexCoords(0, 0);
+        mVertexBuffer.addPoint(0, 0, 0);
+        mTexCoordBuffer.addTexCoords(0, 0);
+        mVertexBuffer.addPoint(0, 0, 0);
+        mTexCoordBuffer.addTexCoords(0, 0);
+        writeImagePosition(i, imageSources.get(i));
+      }
+    } else if (type.contains(UpdateType.UpdatePositions)) {
+      // These images move, so their vertices will be uploaded again from time to time.
+      mVertexBuffer.setUsage(GLBuffer.Usage.DYNAMIC);
+      // Only rewrite the vertices of the images which have moved.
+      for (int i = 0; i < imageSources.size(); i++) {
+        if (hasMoved(i, imageSources.get(i))) {
+          writeImagePosition(i, imageSources.get(i));
+        }
       }
     }
 
@@ -132,62 +169,237 @@ public class ImageObjectManager extends RendererObjectManager {
     }
 
     mImages = images;
-    queueForReload(false);
+    if (reset) {
+      for (int i = 0; i < images.length; i++) {
+        writeImageTexCoords(i);
+      }
+    }
+    if (reset || regionsNeedUpdating()) {
+      updateRegions();
+    }
+
+    // The positions are read straight from the vertex buffer when drawing, so only new images or
+    // buffers need to be reloaded.
+    if (reset) {
+      mUpdates.addAll(type);
+      queueForReload(false);
+    } else {
+      queueRedraw();
+    }
+  }
+
+  private boolean hasMoved(int i, ImageSource is) {
+    GeocentricCoordinates xyz = is.getLocation();
+    float[] u = is.getHorizontalCorner();
+    float[] v = is.getVerticalCorner();
+    float[] corners = mCorners;
+    int offset = 9 * i;
+    return corners[offset] != xyz.x || corners[offset + 1] != xyz.y
+        || corners[offset + 2] != xyz.z
+        || corners[offset + 3] != u[0] || corners[offset + 4] != u[1]
+        || corners[offset + 5] != u[2]
+        || corners[offset + 6] != v[0] || corners[offset + 7] != v[1]
+        || corners[offset + 8] != v[2];
+  }
+
+  // Writes the four corners of the i'th image into the vertex buffer.
+  private void writeImagePosition(int i, ImageSource is) {
+    GeocentricCoordinates xyz = is.getLocation();
+    float px = xyz.x;
+    float py = xyz.y;
+    float pz = xyz.z;
+
+    float[] u = is.getHorizontalCorner();
+    float ux = u[0];
+    float uy = u[1];
+    float uz = u[2];
+
+    float[] v = is.getVerticalCorner();
+    float vx = v[0];
+    float vy = v[1];
+    float vz = v[2];
+
+    // lower left
+    mVertexBuffer.setPoint(4 * i, px - ux - vx, py - uy - vy, pz - uz - vz);
+    // upper left
+    mVertexBuffer.setPoint(4 * i + 1, px - ux + vx, py - uy + vy, pz - uz + vz);
+    // lower right
+    mVertexBuffer.setPoint(4 * i + 2, px + ux - vx, py + uy - vy, pz + uz - vz);
+    // upper right
+    mVertexBuffer.setPoint(4 * i + 3, px + ux + vx, py + uy + vy, pz + uz + vz);
+
+    int offset = 9 * i;
+    mCorners[offset] = px;
+    mCorners[offset + 1] = py;
+    mCorners[offset + 2] = pz;
+    mCorners[offset + 3] = ux;
+    mCorners[offset + 4] = uy;
+    mCorners[offset + 5] = uz;
+    mCorners[offset + 6] = vx;
+    mCorners[offset + 7] = vy;
+    mCorners[offset + 8] = vz;
+  }
+
+  // Points the i'th image's corners at its place in the atlas.
+  private void writeImageTexCoords(int i) {
+    ImageAtlas.Entry entry = mImages[i].atlasEntry;
+    // lower left, upper left, lower right, upper right
+    mTexCoordBuffer.setTexCoords(4 * i, entry.getU0(), entry.getV1());
+    mTexCoordBuffer.setTexCoords(4 * i + 1, entry.getU0(), entry.getV0());
+    mTexCoordBuffer.setTexCoords(4 * i + 2, entry.getU1(), entry.getV1());
+    mTexCoordBuffer.setTexCoords(4 * i + 3, entry.getU1(), entry.getV0());
+  }
+
+  // Returns the region which the i'th image belongs in, from the position last written.
+  private int getImageRegion(int i) {
+    float[] corners = mCorners;
+    return mSkyRegions.getObjectRegion(corners[9 * i], corners[9 * i + 1], corners[9 * i + 2]);
+  }
+
+  // Returns the angle from the center of the region to the furthest corner of the i'th image.
+  private float getAngleFromRegionCenter(int i, int region) {
+    float[] corners = mCorners;
+    int offset = 9 * i;
+    float[] centers = HierarchicalSkyIndex.getCellCenters(mSkyRegions.getDepth());
+    float dot = corners[offset] * centers[3 * region]
+        + corners[offset + 1] * centers[3 * region + 1]
+        + corners[offset + 2] * centers[3 * region + 2];
+    // The images are small, so the lengths of the corner vectors are close enough to the angles
+    // they cover.
+    float u = corners[offset + 3] * corners[offset + 3] + corners[offset + 4] * corners[offset + 4]
+        + corners[offset + 5] * corners[offset + 5];
+    float v = corners[offset + 6] * corners[offset + 6] + corners[offset + 7] * corners[offset + 7]
+        + corners[offset + 8] * corners[offset + 8];
+    return MathUtil.acos(Math.max(-1, Math.min(1, dot))) + MathUtil.sqrt(u + v);
+  }
+
+  // Returns true if an image has moved out of its region, or can now be seen from further away
+  // than its region covers.
+  private boolean regionsNeedUpdating() {
+    for (int i = 0; i < mImages.length; i++) {
+      int region = getImageRegion(i);
+      if (region != mImages[i].region
+          || getAngleFromRegionCenter(i, region) > mSkyRegions.getRegionCoverageAngle(region)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Splits the images into sky regions, and within each region into runs which can be drawn
+  // together.
+  private void updateRegions() {
+    int numImages = mImages.length;
+    int depth = Math.max(MINIMUM_REGION_DEPTH,
+                         HierarchicalSkyIndex.getDepthForObjectCount(numImages, IMAGES_PER_REGION));
+    // This also clears out the old regions.
+    mSkyRegions.setDepth(depth);
+    if (numImages == 0) {
+      return;
+    }
+
+    // Sort the images by region, and within a region by the way they're drawn, so that each run
+    // is a contiguous range of indices.
+    Integer[] order = new Integer[numImages];
+    for (int i = 0; i < numImages; i++) {
+      mImages[i].region = getImageRegion(i);
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        Image imageA = mImages[a];
+        Image imageB = mImages[b];
+        if (imageA.region != imageB.region) {
+          return imageA.region - imageB.region;
+        }
+        return getRunKey(a) - getRunKey(b);
+      }
+    });
+
+    float cellRadius = HierarchicalSkyIndex.getCellRadius(depth);
+    int start = 0;
+    while (start < numImages) {
+      int region = mImages[order[start]].region;
+      int end = start;
+      float coverageAngle = cellRadius;
+      while (end < numImages && mImages[order[end]].region == region) {
+        coverageAngle = Math.max(coverageAngle, getAngleFromRegionCenter(order[end], region));
+        end++;
+      }
+      if (coverageAngle > cellRadius) {
+        mSkyRegions.setRegionCoverageAngle(region, coverageAngle);
+      }
+
+      RegionData data = mSkyRegions.getRegionData(region);
+      data.mIndexBuffer.reset(6 * (end - start));
+      data.numRuns = 0;
+      data.runFirstVertices = new int[end - start];
+      data.runStarts = new int[end - start];
+      data.runLengths = new int[end - start];
+      data.runPages = new int[end - start];
+      data.runBlending = new boolean[end - start];
+      for (int j = start; j < end; j++) {
+        Image image = mImages[order[j]];
+        int chunk = order[j] / MAX_IMAGES_PER_CHUNK;
+        if (j == start || getRunKey(order[j]) != getRunKey(order[j - 1])) {
+          data.runFirstVertices[data.numRuns] = 4 * chunk * MAX_IMAGES_PER_CHUNK;
+          data.runStarts[data.numRuns] = 6 * (j - start);
+          data.runPages[data.numRuns] = image.atlasEntry.getPage();
+          data.runBlending[data.numRuns] = image.useBlending;
+          data.numRuns++;
+        }
+        data.runLengths[data.numRuns - 1] += 6;
+
+        // Counted from the start of the image's chunk.  The cast wraps the larger indices around
+        // to negative shorts, which GL reads back as unsigned.
+        short bottomLeft = (short) (4 * (order[j] - chunk * MAX_IMAGES_PER_CHUNK));
+        short topLeft = (short) (bottomLeft + 1);
+        short bottomRight = (short) (bottomLeft + 2);
+        short topRight = (short) (bottomLeft + 3);
+        data.mIndexBuffer.addIndex(bottomLeft);
+        data.mIndexBuffer.addIndex(topLeft);
+        data.mIndexBuffer.addIndex(bottomRight);
+        data.mIndexBuffer.addIndex(bottomRight);
+        data.mIndexBuffer.addIndex(topLeft);
+        data.mIndexBuffer.addIndex(topRight);
+      }
+      start = end;
+    }
+  }
+
+  // Images with the same key can be drawn with a single call.
+  private int getRunKey(int imageIndex) {
+    Image image = mImages[imageIndex];
+    int chunk = imageIndex / MAX_IMAGES_PER_CHUNK;
+    return 2 * (chunk * mAtlas.getNumPages() + image.atlasEntry.getPage())
+        + (image.useBlending ? 1 : 0);
   }
 
   @Override
   public void reload(GL10 gl, boolean fullReload) {
-    Image[] images = mImages;
     boolean reloadBuffers = false;
-    boolean reloadImages = false;
 
     if (fullReload) {
       reloadBuffers = true;
-      reloadImages = true;
-      // If this is a full reload, all the textures were automatically deleted,
-      // so just create new arrays so we won't try to delete the old ones again.
-      mTextures = new TextureReference[images.length];
-      mRedTextures = new TextureReference[images.length];
+      // If this is a full reload, all the textures were automatically deleted, so the atlas
+      // needs to upload its pages again.
+      mAtlas.reload();
     } else {
       // Process any queued updates.
-      boolean reset = mUpdates.contains(UpdateType.Reset);
-      reloadBuffers |=  reset || mUpdates.contains(UpdateType.UpdatePositions);
-      reloadImages |= reset || mUpdates.contains(UpdateType.UpdateImages);
+      reloadBuffers |= mUpdates.contains(UpdateType.Reset);
       mUpdates.clear();
     }
 
     if (reloadBuffers) {
       mVertexBuffer.reload();
       mTexCoordBuffer.reload();
-    }
-    if (reloadImages) {
-      for (int i = 0; i < mTextures.length; i++) {
-        // If the image is already allocated, delete it.
-        if (mTextures[i] != null) {
-          mTextures[i].delete(gl);
-          mRedTextures[i].delete(gl);
-        }
-
-        Bitmap bmp = mImages[i].bitmap;
-        mTextures[i] = textureManager().createTexture(gl);
-        mTextures[i].bind(gl);
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_LINEAR);
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
-        GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, bmp, 0);
-
-        IntBuffer redPixels = createRedImage(bmp);
-        mRedTextures[i] = textureManager().createTexture(gl);
-        mRedTextures[i].bind(gl);
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_LINEAR);
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
-        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
-        gl.glTexImage2D(GL10.GL_TEXTURE_2D, 0, GL10.GL_RGBA, bmp.getWidth(), bmp.getHeight(),
-            0, GL10.GL_RGBA, GL10.GL_UNSIGNED_BYTE, redPixels);
+      for (RegionData data : mSkyRegions.getDataForAllRegions()) {
+        data.mIndexBuffer.reload();
       }
     }
+    if (mAtlas.update(gl)) {
+      getRenderState().getGLState().invalidateTexture();
+    }
   }
 
   @Override
@@ -195,70 +407,115 @@ public class ImageObjectManager extends RendererObjectManager {
     if (mVertexBuffer.size() == 0) {
       return;
     }
+    ArrayList<RegionData> activeRegionData = mSkyRegions.getDataForActiveRegions(
+        getRenderState().getActiveSkyRegions(), mActiveRegionData);
+    if (activeRegionData.isEmpty()) {
+      return;
+    }
+    if (getRenderState().isUsingGles2()) {
+      drawWithShaders(gl, activeRegionData);
+      return;
+    }
 
-    gl.glEnable(GL10.GL_TEXTURE_2D);
-
-    gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-    gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
-    gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
-
-    mVertexBuffer.set(gl);
-    mTexCoordBuffer.set(gl);
-
-    TextureReference[] textures = mTextures;
-    TextureReference[] redTextures = mRedTextures;
-    for (int i = 0; i < textures.length; i++) {
-      if (mImages[i].useBlending) {
-        gl.glEnable(GL10.GL_BLEND);
-        gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
-      } else {
-        gl.glEnable(GL10.GL_ALPHA_TEST);
-        gl.glAlphaFunc(GL10.GL_GREATER, 0.5f);
-      }
+    GLStateCache state = getRenderState().getGLState();
+    state.enable(GL10.GL_TEXTURE_2D);
+
+    state.enableClientState(GL10.GL_VERTEX_ARRAY);
+    state.enableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    state.disableClientState(GL10.GL_COLOR_ARRAY);
+
+    // The arrays only need pointing somewhere else for the runs in later chunks, if there are any.
+    int firstVertex = 0;
+    mVertexBuffer.set(gl, firstVertex);
+    mTexCoordBuffer.set(gl, firstVertex);
+
+    boolean nightVision = getRenderState().getNightVisionMode();
+    mAtlas.setNightVisionMode(gl, nightVision);
+    for (int i = 0; i < activeRegionData.size(); i++) {
+      RegionData data = activeRegionData.get(i);
+      for (int run = 0; run < data.numRuns; run++) {
+        if (data.runFirstVertices[run] != firstVertex) {
+          firstVertex = data.runFirstVertices[run];
+          mVertexBuffer.set(gl, firstVertex);
+          mTexCoordBuffer.set(gl, firstVertex);
+        }
+        boolean useBlending = data.runBlending[run];
+        if (useBlending) {
+          state.enable(GL10.GL_BLEND);
+          state.blendFunc(gl, GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+        } else {
+          state.enable(GL10.GL_ALPHA_TEST);
+          state.alphaFunc(gl, GL10.GL_GREATER, 0.5f);
+        }
 
-      if (getRenderState().getNightVisionMode()) {
-        redTextures[i].bind(gl);
-      } else {
-        textures[i].bind(gl);
-      }
-      ((GL11) gl).glDrawArrays(GL10.GL_TRIANGLE_STRIP, 4 * i, 4);
+        int page = data.runPages[run];
+        if (nightVision) {
+          state.bindTexture(gl, mAtlas.getRedTexture(gl, page));
+        } else {
+          state.bindTexture(gl, mAtlas.getTexture(page));
+        }
+        state.apply(gl);
+        data.mIndexBuffer.draw(gl, GL10.GL_TRIANGLES, data.runStarts[run], data.runLengths[run]);
 
-      if (mImages[i].useBlending) {
-        gl.glDisable(GL10.GL_BLEND);
-      } else {
-        gl.glDisable(GL10.GL_ALPHA_TEST);
+        if (useBlending) {
+          state.disable(GL10.GL_BLEND);
+        } else {
+          state.disable(GL10.GL_ALPHA_TEST);
+        }
       }
     }
 
-    gl.glDisable(GL10.GL_TEXTURE_2D);
+    state.disable(GL10.GL_TEXTURE_2D);
   }
 
-  private IntBuffer createRedImage(Bitmap bmp) {
-    int width = bmp.getWidth();
-    int height = bmp.getHeight();
-    int numPixels = width * height;
-    int[] pixels = new int[numPixels];
-    bmp.getPixels(pixels, 0, width, 0, 0, width, height);
-
-    ByteBuffer redPixelsBB = ByteBuffer.allocateDirect(4 * numPixels);
-    IntBuffer redPixels = redPixelsBB.order(ByteOrder.nativeOrder()).asIntBuffer();
-    for (int j = 0; j < numPixels; j++) {
-      int r = pixels[j] & 0xff;
-      int g = (pixels[j] >> 8) & 0xff;
-      int b = (pixels[j] >> 16) & 0xff;
-      int alphaMask = pixels[j] & 0xff000000;
-
-      redPixels.put(alphaMask | ((r + g + b) / 3));
+  // The shader applies night vision itself, so this always uses the normal textures.
+  private void drawWithShaders(GL10 gl, ArrayList<RegionData> activeRegionData) {
+    float[] matrix = getRenderState().getTransformToDeviceMatrix().getFloatArray();
+    boolean nightVision = getRenderState().getNightVisionMode();
+    if (!SkyShaders.GENERAL.use()) {
+      return;
+    }
+    mAtlas.setNightVisionMode(gl, false);
+    // The images aren't tinted, so every vertex is white.
+    SkyShaders.setConstantAttribute(SkyShaders.ATTRIBUTE_COLOR, 1, 1, 1, 1);
+    int firstVertex = 0;
+    mVertexBuffer.setAttrib(gl, SkyShaders.ATTRIBUTE_POSITION, firstVertex);
+    mTexCoordBuffer.setAttrib(gl, SkyShaders.ATTRIBUTE_TEX_COORD, firstVertex);
+
+    for (int i = 0; i < activeRegionData.size(); i++) {
+      RegionData data = activeRegionData.get(i);
+      for (int run = 0; run < data.numRuns; run++) {
+        if (data.runFirstVertices[run] != firstVertex) {
+          firstVertex = data.runFirstVertices[run];
+          mVertexBuffer.setAttrib(gl, SkyShaders.ATTRIBUTE_POSITION, firstVertex);
+          mTexCoordBuffer.setAttrib(gl, SkyShaders.ATTRIBUTE_TEX_COORD, firstVertex);
+        }
+        boolean useBlending = data.runBlending[run];
+        // Blended images draw everything, and the others drop the mostly transparent parts, as
+        // the alpha test does above.
+        SkyShaders.useGeneral(matrix, nightVision, true, useBlending ? -1 : 0.5f);
+        if (useBlending) {
+          GLES20.glEnable(GLES20.GL_BLEND);
+          GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        }
+        mAtlas.getTexture(data.runPages[run]).bind(gl);
+        data.mIndexBuffer.draw(gl, GL10.GL_TRIANGLES, data.runStarts[run],
+                               data.runLengths[run]);
+        if (useBlending) {
+          GLES20.glDisable(GLES20.GL_BLEND);
+        }
+      }
     }
 
-    redPixels.position(0);
-    return redPixels;
+    SkyShaders.restoreAttribute(SkyShaders.ATTRIBUTE_COLOR);
   }
 
   private static class Image {
     String name;
     Bitmap bitmap;
-    int textureID;
+    ImageAtlas.Entry atlasEntry;
+    // The sky region the image was last put in.
+    int region = SkyRegionMap.CATCHALL_REGION_ID;
     boolean useBlending;
   }
 }
@@ -16,23 +16,34 @@ package com.google.android.stardroid.renderer;
 
 import android.graphics.Paint;
 import android.graphics.Typeface;
+import android.opengl.GLES20;
+import android.util.Log;
 
 import com.google.android.stardroid.renderer.util.GLBuffer;
+import com.google.android.stardroid.renderer.util.GLStateCache;
+import com.google.android.stardroid.renderer.util.HierarchicalSkyIndex;
+import com.google.android.stardroid.renderer.util.IndexBuffer;
+import com.google.android.stardroid.renderer.util.LabelAtlas;
 import com.google.android.stardroid.renderer.util.LabelMaker;
+import com.google.android.stardroid.renderer.util.LabelPlacer;
 import com.google.android.stardroid.renderer.util.SkyRegionMap;
+import com.google.android.stardroid.renderer.util.SkyShaders;
 import com.google.android.stardroid.renderer.util.TextureManager;
-import com.google.android.stardroid.renderer.util.TextureReference;
 import com.google.android.stardroid.source.TextSource;
 import com.google.android.stardroid.units.GeocentricCoordinates;
 import com.google.android.stardroid.units.Vector3;
 import com.google.android.stardroid.util.FixedPoint;
 import com.google.android.stardroid.util.MathUtil;
 import com.google.android.stardroid.util.Matrix4x4;
+import com.google.android.stardroid.util.MiscUtil;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -49,21 +60,62 @@ public class LabelObjectManager extends RendererObjectManager {
   // Should we compute the regions for the labels?
   // If false, we just put them in the catchall region.
   private static final boolean COMPUTE_REGIONS = true;
+  // Roughly how many labels we want in each region.  Labels are drawn one at a time, so small
+  // regions are cheap, and mean fewer off-screen labels to reject.
+  private static final int LABELS_PER_REGION = 8;
+  // Should we draw all of the visible labels with a single draw call?  If false, each label is
+  // drawn separately, which is much slower but handy for comparison.
+  private static final boolean BATCH_LABELS = true;
+  // Indices are shorts, so this is as many labels as we can draw in one call.
+  private static final int MAX_LABELS_PER_BATCH = IndexBuffer.MAX_VERTICES_PER_DRAW / 4;
+  // If true, periodically log how long drawing the labels takes.
+  private static final boolean LOG_DRAW_STATS = false;
+  private static final int FRAMES_PER_STATS_LOG = 100;
+  // Should we skip labels which would overlap more important labels?
+  private static final boolean DECLUTTER_LABELS = true;
+  private static final String TAG = MiscUtil.getTag(LabelObjectManager.class);
   
   private Paint mLabelPaint = null;
-  private LabelMaker mLabelMaker = null;
+  // Holds the rendered text of all the labels.  Created with the first labels.
+  private LabelAtlas mAtlas = null;
   private Label[] mLabels = new Label[0];
   private SkyRegionMap<ArrayList<Label>> mSkyRegions = new SkyRegionMap<ArrayList<Label>>(); 
+  // Reused every frame to hold the labels for the regions on screen.
+  private final ArrayList<ArrayList<Label>> mActiveLabels = new ArrayList<ArrayList<Label>>();
+  // The labels, most important first.  Bigger labels are more important; otherwise labels keep
+  // the order they were given in.
+  private Label[] mLabelsByPriority = new Label[0];
+  // The labels chosen by placeLabels to be drawn this frame.
+  private final ArrayList<Label> mPlacedLabels = new ArrayList<Label>();
+  // Incremented every time the labels are placed, to mark which labels are on screen.
+  private int mFrameNumber = 0;
   
   private IntBuffer mQuadBuffer;
+
+  // Screen space geometry for the labels drawn this frame, refilled every frame.  Vertices and
+  // texture coordinates are fixed point, and each vertex has an ABGR color.
+  private IntBuffer mBatchVertices = null;
+  private IntBuffer mBatchTexCoords = null;
+  private IntBuffer mBatchColors = null;
+  private ShortBuffer mBatchIndices = null;
+  private int mBatchCapacity = 0;
+  private int mNumBatchedLabels = 0;
+
+  // Maps screen coordinates to device coordinates, for drawing with OpenGL ES 2.0.
+  private final float[] mScreenToDeviceMatrix = new float[16];
+
+  // Scratch space for projecting a label onto the screen.
+  private final Vector3 mScreenPos = new Vector3(0, 0, 0);
+
+  private int mNumDrawCalls = 0;
+  private int mNumFramesSinceStatsLog = 0;
+  private long mDrawTimeNanosSinceStatsLog = 0;
   
-  // These are intermediate variables set in beginDrawing() and used in
-  // draw() to make the transformations more efficient
-  private Vector3 mLabelOffset = new Vector3(0, 0, 0);
+  // These are intermediate variables set in computeFrameParameters() and used
+  // in placeLabels() to make the transformations more efficient
+  private final Vector3 mLabelOffset = new Vector3(0, 0, 0);
   private float mDotProductThreshold;
   
-  private TextureReference mTexture = null;
-  
   public LabelObjectManager(int layer, TextureManager textureManager) {
     super(layer, textureManager);
     
@@ -97,27 +149,12 @@ public class LabelObjectManager extends RendererObjectManager {
   
   @Override
   public void reload(GL10 gl, boolean fullReload) {
-    // We need to regenerate the texture.  If we're re-creating the surface 
-    // (fullReload=true), all resources were automatically released by OpenGL,
-    // so we don't want to try to release it again.  Otherwise, we need to
-    // release it to avoid a resource leak (mLabelMaker.shutdown takes
-    // care of freeing the texture).
-    // 
-    // TODO(jpowell): This whole reload interface is horrendous, and I should
-    // make a better way of scheduling reloads.
-    //
-    // TODO(jpowell): LabelMaker and textures have gone through some changes 
-    // since they were originally created, and I feel like it might not make
-    // sense for it to own the texture anymore.  I should see if I can just
-    // let it create but not own it.
-    if (!fullReload && mLabelMaker != null) {
-      mLabelMaker.shutdown(gl);
+    // New labels are added to the atlas as they arrive, so we only need to do anything here if
+    // the surface has been re-created, in which case the atlas has to upload its pages again.
+    // It keeps the rendered text, so this doesn't redraw any of it.
+    if (fullReload && mAtlas != null) {
+      mAtlas.reload(gl);
     }
-    
-    mLabelMaker = new LabelMaker(true);
-    mTexture = mLabelMaker.initialize(gl, mLabelPaint, mLabels,
-                                      getRenderState().getResources(),
-                                      textureManager());
   }
 
   public void updateObjects(List<TextSource> labels, EnumSet<UpdateType> updateType) {
@@ -126,7 +163,39 @@ public class LabelObjectManager extends RendererObjectManager {
       for (int i = 0; i < labels.size(); i++) {
         mLabels[i] = new Label(labels.get(i));
       }
-      queueForReload(false);
+      allocateBatchBuffers(Math.min(mLabels.length, MAX_LABELS_PER_BATCH));
+      mLabelsByPriority = mLabels.clone();
+      // This sort is stable, so equal sized labels stay in order.
+      Arrays.sort(mLabelsByPriority, BIGGEST_FIRST);
+      mPlacedLabels.clear();
+
+      // Labels which are already in the atlas can be drawn straight away.  The others are
+      // rendered in the background, and show up once they're ready.
+      if (mAtlas == null) {
+        mAtlas = new LabelAtlas(mLabelPaint, true, getRenderState().getResources(),
+                                textureManager());
+        // Draw the labels as soon as they're ready, even if nothing else changes.
+        mAtlas.setResultsListener(new Runnable() {
+          public void run() {
+            queueRedraw();
+          }
+        });
+      }
+      LabelAtlas.Entry[] entries = mAtlas.setLabels(mLabels);
+      for (int i = 0; i < mLabels.length; i++) {
+        mLabels[i].atlasEntry = entries[i];
+      }
+      updateTextureData();
+
+      // Put all of the labels in their sky regions.
+      // TODO(jpowell): Get this from the label source itself once it supports
+      // this.
+      mSkyRegions.setDepth(
+          HierarchicalSkyIndex.getDepthForObjectCount(mLabels.length, LABELS_PER_REGION));
+      for (Label l : mLabels) {
+        l.region = getRegionForLabel(l);
+        mSkyRegions.getRegionData(l.region).add(l);
+      }
     } else if (updateType.contains(UpdateType.UpdatePositions)) {
       if (labels.size() != mLabels.length) {
         logUpdateMismatch("LabelObjectManager", mLabels.length, labels.size(), updateType);
@@ -134,71 +203,282 @@ public class LabelObjectManager extends RendererObjectManager {
       }
       // Since we don't store the positions in any GPU memory, and do the
       // transformations manually, we can just update the positions stored
-      // on the label objects.
+      // on the label objects.  Only the labels which have moved into another
+      // region need to be re-bucketed.
       for (int i = 0; i < mLabels.length; i++) {
+        Label l = mLabels[i];
         GeocentricCoordinates pos = labels.get(i).getLocation();
-        mLabels[i].x = pos.x;
-        mLabels[i].y = pos.y;
-        mLabels[i].z = pos.z;
+        if (pos.x == l.x && pos.y == l.y && pos.z == l.z) {
+          continue;
+        }
+        l.x = pos.x;
+        l.y = pos.y;
+        l.z = pos.z;
+        int region = getRegionForLabel(l);
+        if (region != l.region) {
+          mSkyRegions.getRegionData(l.region).remove(l);
+          l.region = region;
+          mSkyRegions.getRegionData(region).add(l);
+        }
       }
     }
-    
-    // Put all of the labels in their sky regions.
-    // TODO(jpowell): Get this from the label source itself once it supports
-    // this.
-    mSkyRegions.clear();
-    for (Label l : mLabels) {
-      int region;
-      if (COMPUTE_REGIONS) {
-        region = SkyRegionMap.getObjectRegion(new GeocentricCoordinates(l.x, l.y, l.z));
-      } else {
-        region = SkyRegionMap.CATCHALL_REGION_ID;
+    queueRedraw();
+  }
+
+  private int getRegionForLabel(Label l) {
+    if (COMPUTE_REGIONS) {
+      return mSkyRegions.getObjectRegion(l.x, l.y, l.z);
+    } else {
+      return SkyRegionMap.CATCHALL_REGION_ID;
+    }
+  }
+
+  private static final Comparator<Label> BIGGEST_FIRST = new Comparator<Label>() {
+    @Override
+    public int compare(Label l1, Label l2) {
+      return l2.getFontSize() - l1.getFontSize();
+    }
+  };
+
+  private void allocateBatchBuffers(int numLabels) {
+    mBatchCapacity = numLabels;
+    mNumBatchedLabels = 0;
+    if (numLabels == 0) {
+      mBatchVertices = null;
+      mBatchTexCoords = null;
+      mBatchColors = null;
+      mBatchIndices = null;
+      return;
+    }
+    mBatchVertices = ByteBuffer.allocateDirect(4 * 2 * 4 * numLabels)
+        .order(ByteOrder.nativeOrder()).asIntBuffer();
+    mBatchTexCoords = ByteBuffer.allocateDirect(4 * 2 * 4 * numLabels)
+        .order(ByteOrder.nativeOrder()).asIntBuffer();
+    mBatchColors = ByteBuffer.allocateDirect(4 * 4 * numLabels)
+        .order(ByteOrder.nativeOrder()).asIntBuffer();
+    mBatchIndices = ByteBuffer.allocateDirect(2 * 6 * numLabels)
+        .order(ByteOrder.nativeOrder()).asShortBuffer();
+    // The indices never change, so fill them in now.  Each quad is the same pair of triangles
+    // as the triangle strip which drawLabel uses, so the winding order matches.
+    for (int i = 0; i < numLabels; i++) {
+      short lowerLeft = (short) (4 * i);
+      short upperLeft = (short) (4 * i + 1);
+      short lowerRight = (short) (4 * i + 2);
+      short upperRight = (short) (4 * i + 3);
+      mBatchIndices.put(lowerLeft).put(upperLeft).put(lowerRight);
+      mBatchIndices.put(lowerRight).put(upperLeft).put(upperRight);
+    }
+    mBatchIndices.position(0);
+  }
+
+  // Copies the size and texture coordinates of any labels which have been added to the atlas, or
+  // moved within it, onto the labels.
+  private void updateTextureData() {
+    for (Label label : mLabels) {
+      LabelAtlas.Entry entry = label.atlasEntry;
+      if (entry.isReady() && label.atlasVersion != entry.getVersion()) {
+        entry.applyTo(label);
+        label.atlasVersion = entry.getVersion();
+        label.atlasPage = entry.getPage();
       }
-      mSkyRegions.getRegionData(region).add(l);
     }
   }
 
   @Override
   protected void drawInternal(GL10 gl) {
-    gl.glTexEnvx(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE, 
-                 GL10.GL_MODULATE);
+    if (mAtlas == null) {
+      return;
+    }
+    long startTime = LOG_DRAW_STATS ? System.nanoTime() : 0;
+
+    // Upload any text which has been rendered since the last frame.  Labels which have just
+    // become ready will be placed, and so drawn, from the next frame.
+    if (mAtlas.needsUpdate()) {
+      if (mAtlas.update(gl)) {
+        updateTextureData();
+      }
+      // Uploading binds the atlas's textures directly.
+      getRenderState().getGLState().invalidateTexture();
+    }
+
+    if (getRenderState().isUsingGles2()) {
+      drawWithShaders(gl);
+      return;
+    }
 
-    gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
-    gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    GLStateCache state = getRenderState().getGLState();
+    state.texEnvMode(gl, GL10.GL_MODULATE);
+
+    state.enableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
     gl.glActiveTexture(GL10.GL_TEXTURE0);
-    mTexture.bind(gl);
-    gl.glTexParameterx(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S,
-                       GL10.GL_REPEAT);
-    gl.glTexParameterx(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T,
-                       GL10.GL_REPEAT);
 
     beginDrawing(gl);
     
-    // Draw the labels for the active sky regions.
-    SkyRegionMap.ActiveRegionData activeRegions = getRenderState().getActiveSkyRegions();
-    ArrayList<ArrayList<Label>> allActiveLabels =
-        mSkyRegions.getDataForActiveRegions(activeRegions);
-    
-    for (ArrayList<Label> labelsInRegion : allActiveLabels) {
-      for (Label l : labelsInRegion) {
-        drawLabel(gl, l);
+    // Draw the labels which placeLabels chose for this frame, a page of the atlas at a time.
+    // Pages without any of them aren't bound, since their textures may have been deleted.
+    for (int page = 0; page < mAtlas.getNumPages(); page++) {
+      boolean bound = false;
+      for (int i = 0; i < mPlacedLabels.size(); i++) {
+        Label label = mPlacedLabels.get(i);
+        if (label.atlasPage != page) {
+          continue;
+        }
+        if (!bound) {
+          state.bindTexture(gl, mAtlas.getTexture(page));
+          bound = true;
+        }
+        if (BATCH_LABELS) {
+          batchLabel(gl, label);
+        } else {
+          drawLabel(gl, label);
+        }
+      }
+      if (BATCH_LABELS) {
+        drawBatch(gl);
       }
     }
     
     endDrawing(gl);
+
+    if (LOG_DRAW_STATS) {
+      logDrawStats(System.nanoTime() - startTime);
+    }
+  }
+
+  // Draws the placed labels in batches, as above.  The labels have already been projected onto
+  // the screen, so the shader only has to map screen coordinates to device coordinates.
+  private void drawWithShaders(GL10 gl) {
+    float[] m = mScreenToDeviceMatrix;
+    m[0] = 2.0f / getRenderState().getScreenWidth();
+    m[5] = 2.0f / getRenderState().getScreenHeight();
+    m[10] = -1;
+    m[12] = -1;
+    m[13] = -1;
+    m[15] = 1;
+    if (!SkyShaders.useGeneral(m, getRenderState().getNightVisionMode(), true, 0.5f)) {
+      return;
+    }
+    // As with the fixed function path, the labels are cut out by the alpha threshold rather than
+    // blended, and aren't culled, whichever way round the screen is.
+    GLES20.glDisable(GLES20.GL_BLEND);
+    GLES20.glDisable(GLES20.GL_CULL_FACE);
+    GLBuffer.unbind((GL11) gl);
+    for (int page = 0; page < mAtlas.getNumPages(); page++) {
+      boolean bound = false;
+      for (int i = 0; i < mPlacedLabels.size(); i++) {
+        Label label = mPlacedLabels.get(i);
+        if (label.atlasPage == page) {
+          if (!bound) {
+            mAtlas.getTexture(page).bind(gl);
+            bound = true;
+          }
+          batchLabel(gl, label);
+        }
+      }
+      drawBatch(gl);
+    }
+    GLES20.glEnable(GLES20.GL_CULL_FACE);
+  }
+
+  private void logDrawStats(long drawTimeNanos) {
+    mDrawTimeNanosSinceStatsLog += drawTimeNanos;
+    if (++mNumFramesSinceStatsLog < FRAMES_PER_STATS_LOG) {
+      return;
+    }
+    Log.d(TAG, "Labels: " + (mDrawTimeNanosSinceStatsLog / 1000 / mNumFramesSinceStatsLog)
+        + "us and " + ((float) mNumDrawCalls / mNumFramesSinceStatsLog)
+        + " draw calls per frame (" + (BATCH_LABELS ? "batched" : "unbatched") + ")");
+    mNumFramesSinceStatsLog = 0;
+    mDrawTimeNanosSinceStatsLog = 0;
+    mNumDrawCalls = 0;
   }
   
+  /**
+   * Works out where this frame's labels go on the screen, and which of them
+   * should be drawn.  The renderer calls this for every visible label manager
+   * before drawing anything, starting with the managers in the highest layer,
+   * so that their labels win when labels from different layers overlap.
+   */
+  void placeLabels(LabelPlacer placer) {
+    computeFrameParameters();
+    mFrameNumber++;
+    mPlacedLabels.clear();
+
+    // Project the labels in the active sky regions, and mark the ones which might be on screen.
+    SkyRegionMap.ActiveRegionData activeRegions = getRenderState().getActiveSkyRegions();
+    ArrayList<ArrayList<Label>> allActiveLabels =
+        mSkyRegions.getDataForActiveRegions(activeRegions, mActiveLabels);
+    for (int i = 0; i < allActiveLabels.size(); i++) {
+      ArrayList<Label> labelsInRegion = allActiveLabels.get(i);
+      for (int j = 0; j < labelsInRegion.size(); j++) {
+        Label label = labelsInRegion.get(j);
+        // Labels whose text hasn't been rendered yet can't be drawn.
+        if (label.atlasVersion >= 0 && computeScreenPos(label)) {
+          label.visibleFrame = mFrameNumber;
+          if (!DECLUTTER_LABELS) {
+            mPlacedLabels.add(label);
+          }
+        }
+      }
+    }
+    if (!DECLUTTER_LABELS) {
+      return;
+    }
+
+    // Then offer them to the placer, most important first.  The text is only ever rotated by a
+    // multiple of 90 degrees, so the width and height might be swapped but that's all.
+    boolean sideways = Math.abs(getRenderState().getSinUpAngle()) > 0.5f;
+    for (Label label : mLabelsByPriority) {
+      if (label.visibleFrame != mFrameNumber) {
+        continue;
+      }
+      float halfWidth = 0.5f * (sideways ? label.getHeightInPixels() : label.getWidthInPixels());
+      float halfHeight = 0.5f * (sideways ? label.getWidthInPixels() : label.getHeightInPixels());
+      if (placer.place(label.screenX - halfWidth, label.screenY - halfHeight,
+                       label.screenX + halfWidth, label.screenY + halfHeight)) {
+        mPlacedLabels.add(label);
+      }
+    }
+  }
+
+  // Computes the per-frame values needed to project the labels onto the screen.
+  private void computeFrameParameters() {
+    RenderStateInterface rs = super.getRenderState();
+    
+    float viewWidth = rs.getScreenWidth();
+    float viewHeight = rs.getScreenHeight();
+    
+    // Rotate the up direction about the look direction by the text angle.  This is
+    // Rodrigues' rotation formula, which saves allocating a rotation matrix every frame.
+    Vector3 axis = rs.getLookDir();
+    Vector3 up = rs.getUpDir();
+    float cosAngle = rs.getCosUpAngle();
+    float sinAngle = rs.getSinUpAngle();
+    float axisDotUp = (axis.x * up.x + axis.y * up.y + axis.z * up.z) * (1 - cosAngle);
+    mLabelOffset.assign(
+        up.x * cosAngle + (axis.y * up.z - axis.z * up.y) * sinAngle + axis.x * axisDotUp,
+        up.y * cosAngle + (axis.z * up.x - axis.x * up.z) * sinAngle + axis.y * axisDotUp,
+        up.z * cosAngle + (axis.x * up.y - axis.y * up.x) * sinAngle + axis.z * axisDotUp);
+
+    // If a label isn't within the field of view angle from the target vector, it can't
+    // be on the screen.  Compute the cosine of this angle so we can quickly identify these.
+    // TODO(jpowell): I know I can make this tighter - do so.
+    final float DEGREES_TO_RADIANS = MathUtil.PI / 180.0f;
+    mDotProductThreshold = MathUtil.cos(rs.getRadiusOfView() * DEGREES_TO_RADIANS * 
+        (1 + viewWidth / viewHeight) * 0.5f); 
+  }
+
   /**
    * Begin drawing labels. Sets the OpenGL state for rapid drawing.
    * 
    * @param gl
    */
   public void beginDrawing(GL10 gl) {
-    mTexture.bind(gl);
+    GLStateCache state = getRenderState().getGLState();
     gl.glShadeModel(GL10.GL_FLAT);
-    gl.glEnable(GL10.GL_ALPHA_TEST);
-    gl.glAlphaFunc(GL10.GL_GREATER, 0.5f);
-    gl.glEnable(GL10.GL_TEXTURE_2D);
+    state.enable(GL10.GL_ALPHA_TEST);
+    state.alphaFunc(gl, GL10.GL_GREATER, 0.5f);
+    state.enable(GL10.GL_TEXTURE_2D);
     
     // We're going to do the transformation on the CPU, so set the matrices 
     // to the identity
@@ -213,24 +493,14 @@ public class LabelObjectManager extends RendererObjectManager {
                 -1, 1);
     
     GLBuffer.unbind((GL11) gl);
-    gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-    gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
-    gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
-
-    RenderStateInterface rs = super.getRenderState();
-    
-    float viewWidth = rs.getScreenWidth();
-    float viewHeight = rs.getScreenHeight();
-    
-    Matrix4x4 rotation = Matrix4x4.createRotation(rs.getUpAngle(), rs.getLookDir());
-    mLabelOffset = Matrix4x4.multiplyMV(rotation, rs.getUpDir());
-
-    // If a label isn't within the field of view angle from the target vector, it can't
-    // be on the screen.  Compute the cosine of this angle so we can quickly identify these.
-    // TODO(jpowell): I know I can make this tighter - do so.
-    final float DEGREES_TO_RADIANS = MathUtil.PI / 180.0f;
-    mDotProductThreshold = MathUtil.cos(rs.getRadiusOfView() * DEGREES_TO_RADIANS * 
-        (1 + viewWidth / viewHeight) * 0.5f); 
+    state.enableClientState(GL10.GL_VERTEX_ARRAY);
+    state.enableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    if (BATCH_LABELS) {
+      // The batch has a color for each vertex.
+      state.enableClientState(GL10.GL_COLOR_ARRAY);
+    } else {
+      state.disableClientState(GL10.GL_COLOR_ARRAY);
+    }
   }
 
   /**
@@ -239,12 +509,14 @@ public class LabelObjectManager extends RendererObjectManager {
    * @param gl
    */
   public void endDrawing(GL10 gl) {
-    gl.glDisable(GL10.GL_ALPHA_TEST);
+    GLStateCache state = getRenderState().getGLState();
+    state.disableClientState(GL10.GL_COLOR_ARRAY);
+    state.disable(GL10.GL_ALPHA_TEST);
     gl.glMatrixMode(GL10.GL_PROJECTION);
     gl.glPopMatrix();
     gl.glMatrixMode(GL10.GL_MODELVIEW);
     gl.glPopMatrix();
-    gl.glDisable(GL10.GL_TEXTURE_2D);
+    state.disable(GL10.GL_TEXTURE_2D);
     
     gl.glColor4x(FixedPoint.ONE, FixedPoint.ONE, FixedPoint.ONE, FixedPoint.ONE);
   }
@@ -276,6 +548,7 @@ public class LabelObjectManager extends RendererObjectManager {
       fixedB = FixedPoint.floatToFixedPoint(b / 255.0f);
       fixedG = FixedPoint.floatToFixedPoint(g / 255.0f);
       fixedR = FixedPoint.floatToFixedPoint(r / 255.0f);
+      abgr = (a << 24) | (b << 16) | (g << 8) | r;
     }
     
     public float x;
@@ -285,43 +558,137 @@ public class LabelObjectManager extends RendererObjectManager {
     // The distance this should be rendered underneath the specified position, in world coordinates.
     public float offset;
     
+    // Where the label goes on the screen, and the last frame in which it might have been on
+    // screen.  These are set by placeLabels.
+    public float screenX;
+    public float screenY;
+    public int visibleFrame = -1;
+
+    // The sky region which the label is in.
+    public int region = SkyRegionMap.CATCHALL_REGION_ID;
+
+    // The label's text in the atlas, and the version and page of the entry which the texture
+    // coordinates were last set from.  The version is -1 until the text has been rendered.
+    public LabelAtlas.Entry atlasEntry = null;
+    public int atlasVersion = -1;
+    public int atlasPage = -1;
+
     // Fixed point color values
     public int fixedR;
     public int fixedG;
     public int fixedB;
     public int fixedA;
+
+    // The same color, packed for a color array.
+    public int abgr;
   }
   
 
-  private void drawLabel(GL10 gl, Label label) {
+  // Projects the label onto the screen, and writes it into the label's screen position.  Returns
+  // false if the label is definitely off screen.
+  private boolean computeScreenPos(Label label) {
+    Vector3 screenPos = mScreenPos;
     Vector3 lookDir = getRenderState().getLookDir();
     if (lookDir.x * label.x + lookDir.y * label.y + lookDir.z * label.z < mDotProductThreshold) {
-      return;
+      return false;
     }
-    
-    // Offset the label to be underneath the given position (so a label will 
-    // always appear underneath a star no matter how the phone is rotated) 
-    Vector3 v = new Vector3(
+    // Offset the label to be underneath the given position (so a label will
+    // always appear underneath a star no matter how the phone is rotated)
+    screenPos.assign(
         label.x - mLabelOffset.x * label.offset,
         label.y - mLabelOffset.y * label.offset,
         label.z - mLabelOffset.z * label.offset);
-    
-    Vector3 screenPos = Matrix4x4.transformVector(
-        getRenderState().getTransformToScreenMatrix(),
-        v);
-    
+    Matrix4x4.transformVector(getRenderState().getTransformToScreenMatrix(), screenPos, screenPos);
+
     // We want this to align consistently with the pixels on the screen, so we
     // snap to the nearest x/y coordinate, and add a magic offset of less than
     // half a pixel.  Without this, rounding error can cause the bottom and
     // top of a label to be one pixel off, which results in a noticeable
     // distortion in the text.
     final float MAGIC_OFFSET = 0.25f;
-    screenPos.x = (int)screenPos.x + MAGIC_OFFSET;
-    screenPos.y = (int)screenPos.y + MAGIC_OFFSET;
+    label.screenX = (int)screenPos.x + MAGIC_OFFSET;
+    label.screenY = (int)screenPos.y + MAGIC_OFFSET;
+    return true;
+  }
 
+  // Adds the label's quad to the batch, doing on the CPU the same translation, rotation and
+  // scaling which drawLabel asks OpenGL to do.
+  private void batchLabel(GL10 gl, Label label) {
+    if (mNumBatchedLabels == mBatchCapacity) {
+      drawBatch(gl);
+    }
+
+    RenderStateInterface rs = getRenderState();
+    // drawLabel rotates by -upAngle about the z axis.
+    float cosAngle = rs.getCosUpAngle();
+    float sinAngle = rs.getSinUpAngle();
+    float halfWidth = 0.5f * label.getWidthInPixels();
+    float halfHeight = 0.5f * label.getHeightInPixels();
+    float widthX = halfWidth * cosAngle;
+    float widthY = -halfWidth * sinAngle;
+    float heightX = halfHeight * sinAngle;
+    float heightY = halfHeight * cosAngle;
+    float x = label.screenX;
+    float y = label.screenY;
+
+    // Lower left, upper left, lower right, upper right, to match the texture coordinates.
+    mBatchVertices.put(FixedPoint.floatToFixedPoint(x - widthX - heightX));
+    mBatchVertices.put(FixedPoint.floatToFixedPoint(y - widthY - heightY));
+    mBatchVertices.put(FixedPoint.floatToFixedPoint(x - widthX + heightX));
+    mBatchVertices.put(FixedPoint.floatToFixedPoint(y - widthY + heightY));
+    mBatchVertices.put(FixedPoint.floatToFixedPoint(x + widthX - heightX));
+    mBatchVertices.put(FixedPoint.floatToFixedPoint(y + widthY - heightY));
+    mBatchVertices.put(FixedPoint.floatToFixedPoint(x + widthX + heightX));
+    mBatchVertices.put(FixedPoint.floatToFixedPoint(y + widthY + heightY));
+
+    IntBuffer texCoords = label.getTexCoords();
+    texCoords.position(0);
+    mBatchTexCoords.put(texCoords);
+    texCoords.position(0);
+
+    // With OpenGL ES 2.0, the shader applies night vision.
+    int color = rs.getNightVisionMode() && !rs.isUsingGles2()
+        ? (label.abgr & 0xff000000) | 0xff : label.abgr;
+    mBatchColors.put(color).put(color).put(color).put(color);
+
+    mNumBatchedLabels++;
+  }
+
+  private void drawBatch(GL10 gl) {
+    if (mNumBatchedLabels == 0) {
+      return;
+    }
+    mBatchVertices.position(0);
+    mBatchTexCoords.position(0);
+    mBatchColors.position(0);
+    mBatchIndices.position(0);
+    if (getRenderState().isUsingGles2()) {
+      GLES20.glVertexAttribPointer(SkyShaders.ATTRIBUTE_POSITION, 2, GLES20.GL_FIXED, false, 0,
+                                   mBatchVertices);
+      GLES20.glVertexAttribPointer(SkyShaders.ATTRIBUTE_TEX_COORD, 2, GLES20.GL_FIXED, false, 0,
+                                   mBatchTexCoords);
+      GLES20.glVertexAttribPointer(SkyShaders.ATTRIBUTE_COLOR, 4, GLES20.GL_UNSIGNED_BYTE, true,
+                                   0, mBatchColors);
+    } else {
+      gl.glVertexPointer(2, GL10.GL_FIXED, 0, mBatchVertices);
+      gl.glTexCoordPointer(2, GL10.GL_FIXED, 0, mBatchTexCoords);
+      gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, mBatchColors);
+      getRenderState().getGLState().apply(gl);
+    }
+    gl.glDrawElements(GL10.GL_TRIANGLES, 6 * mNumBatchedLabels, GL10.GL_UNSIGNED_SHORT,
+                      mBatchIndices);
+    mNumDrawCalls++;
+
+    mNumBatchedLabels = 0;
+    mBatchVertices.clear();
+    mBatchTexCoords.clear();
+    mBatchColors.clear();
+  }
+
+  private void drawLabel(GL10 gl, Label label) {
     gl.glPushMatrix();
     
-    gl.glTranslatef(screenPos.x, screenPos.y, 0);
+    gl.glTranslatef(label.screenX, label.screenY, 0);
     gl.glRotatef(MathUtil.RADIANS_TO_DEGREES * getRenderState().getUpAngle(), 0, 0, -1);
     gl.glScalef(label.getWidthInPixels(), label.getHeightInPixels(), 1);
    
@@ -332,7 +699,9 @@ public class LabelObjectManager extends RendererObjectManager {
     } else {
       gl.glColor4x(label.fixedR, label.fixedG, label.fixedB, label.fixedA);
     }
+    getRenderState().getGLState().apply(gl);
     gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, 4);
+    mNumDrawCalls++;
     
     gl.glPopMatrix();
   }
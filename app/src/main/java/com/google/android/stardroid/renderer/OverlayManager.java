@@ -15,13 +15,17 @@
 package com.google.android.stardroid.renderer;
 
 import android.content.res.Resources;
+import android.opengl.GLES20;
 import android.opengl.GLU;
 import android.util.Log;
 
 import com.google.android.stardroid.R;
 import com.google.android.stardroid.renderer.LabelOverlayManager.Label;
 import com.google.android.stardroid.renderer.util.ColoredQuad;
+import com.google.android.stardroid.renderer.util.GLBuffer;
+import com.google.android.stardroid.renderer.util.GLStateCache;
 import com.google.android.stardroid.renderer.util.SearchHelper;
+import com.google.android.stardroid.renderer.util.SkyShaders;
 import com.google.android.stardroid.renderer.util.TextureManager;
 import com.google.android.stardroid.units.GeocentricCoordinates;
 import com.google.android.stardroid.units.Vector3;
@@ -30,13 +34,16 @@ import com.google.android.stardroid.util.Matrix4x4;
 import com.google.android.stardroid.util.VectorUtil;
 
 import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
 
 public class OverlayManager extends RendererObjectManager {
   private int mWidth = 2;
   private int mHeight = 2;
   private Matrix4x4 mGeoToViewerTransform = Matrix4x4.createIdentity();
-  private Vector3 mLookDir = new Vector3(0, 0, 0);
-  private Vector3 mUpDir = new Vector3(0, 1, 0);
+  // Copies of the view orientation, since the render state updates its own in place.
+  private final Vector3 mLookDir = new Vector3(0, 0, 0);
+  private final Vector3 mUpDir = new Vector3(0, 1, 0);
+  private final Vector3 mViewerUp = new Vector3(0, 1, 0);
   private Vector3 mTransformedLookDir = new Vector3(0, 0, 0);
   private Vector3 mTransformedUpDir = new Vector3(0, 1, 0);
   private boolean mMustUpdateTransformedOrientation = true;
@@ -48,6 +55,8 @@ public class OverlayManager extends RendererObjectManager {
   private CrosshairOverlay mCrosshair = new CrosshairOverlay();
   
   private TextureManager mTextureManager;
+  // Maps the overlay's screen coordinates to device coordinates, for the shader path.
+  private final Matrix4x4 mScreenMatrix = Matrix4x4.createIdentity();
 
   public OverlayManager(int layer, TextureManager manager) {
     super(layer, manager);
@@ -80,40 +89,84 @@ public class OverlayManager extends RendererObjectManager {
   }
 
   public void setViewOrientation(GeocentricCoordinates lookDir, GeocentricCoordinates upDir) {
-    mLookDir = lookDir;
-    mUpDir = upDir;
+    mLookDir.assign(lookDir);
+    mUpDir.assign(upDir);
     mMustUpdateTransformedOrientation = true;
   }
 
   @Override
   public void drawInternal(GL10 gl) {
+    if (getRenderState().isUsingGles2()) {
+      drawWithShaders(gl);
+      return;
+    }
+    // Nothing is drawn unless searching, so don't touch the matrices every frame.
+    if (!mSearching) {
+      return;
+    }
+
     updateTransformedOrientationIfNecessary();
 
     setupMatrices(gl);
 
-    if (mSearching) {
-      mSearchHelper.setTransform(getRenderState().getTransformToDeviceMatrix());
-      mSearchHelper.checkState();
+    mSearchHelper.setTransform(getRenderState().getTransformToDeviceMatrix());
+    mSearchHelper.checkState();
+
+    // Darken the background.
+    GLStateCache state = getRenderState().getGLState();
+    mDarkQuad.draw(gl, state);
 
-      float transitionFactor = mSearchHelper.getTransitionFactor();
+    // Draw the crosshair.
+    mCrosshair.draw(gl, state, mSearchHelper, getRenderState().getNightVisionMode());
 
-      // Darken the background.
-      mDarkQuad.draw(gl);
+    // Draw the search arrow.
+    mSearchArrow.draw(gl, state, mTransformedLookDir, mTransformedUpDir, mSearchHelper,
+                      getRenderState().getNightVisionMode());
 
-      // Draw the crosshair.
-      mCrosshair.draw(gl, mSearchHelper, getRenderState().getNightVisionMode());
+    restoreMatrices(gl);
+  }
 
-      // Draw the search arrow.
-      mSearchArrow.draw(gl, mTransformedLookDir, mTransformedUpDir, mSearchHelper,
-                        getRenderState().getNightVisionMode());
+  // As above, but with the general shader program, so the matrices which the fixed function
+  // pipeline keeps on its stack are multiplied out here instead.
+  private void drawWithShaders(GL10 gl) {
+    if (!mSearching) {
+      return;
     }
+    updateTransformedOrientationIfNecessary();
+    mSearchHelper.setTransform(getRenderState().getTransformToDeviceMatrix());
+    mSearchHelper.checkState();
 
-    restoreMatrices(gl);
+    // The same projection as gluOrtho2D in setupMatrices.
+    float left = mWidth / 2;
+    float bottom = mHeight / 2;
+    mScreenMatrix.setScaling(-1 / left, -1 / bottom, -1);
+    // The overlay picks its own night vision colors.
+    if (!SkyShaders.useGeneral(mScreenMatrix.getFloatArray(), false, false, -1)) {
+      return;
+    }
+    GLBuffer.unbind((GL11) gl);
+    GLES20.glDisable(GLES20.GL_CULL_FACE);
+    GLES20.glEnable(GLES20.GL_BLEND);
+    GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+
+    boolean nightVision = getRenderState().getNightVisionMode();
+    mDarkQuad.drawWithShaders(gl);
+    mCrosshair.drawWithShaders(gl, mSearchHelper, nightVision);
+    mSearchArrow.drawWithShaders(gl, mScreenMatrix, mTransformedLookDir, mTransformedUpDir,
+                                 mSearchHelper, nightVision);
+
+    GLES20.glDisable(GLES20.GL_BLEND);
+    GLES20.glEnable(GLES20.GL_CULL_FACE);
   }
 
   // viewerUp MUST be normalized.
   public void setViewerUpDirection(GeocentricCoordinates viewerUp) {
     // Log.d("OverlayManager", "Setting viewer up " + viewerUp);
+    // This is called every frame, but the viewer's up direction rarely changes.
+    if (viewerUp.x == mViewerUp.x && viewerUp.y == mViewerUp.y && viewerUp.z == mViewerUp.z) {
+      return;
+    }
+    mViewerUp.assign(viewerUp);
     if (MathUtil.abs(viewerUp.y) < 0.999f) {
       Vector3 cp = VectorUtil.crossProduct(viewerUp, new Vector3(0, 1, 0));
       cp = VectorUtil.normalized(cp);
@@ -138,6 +191,10 @@ public class OverlayManager extends RendererObjectManager {
     mSearching = false;
   }
 
+  public boolean isSearching() {
+    return mSearching;
+  }
+
   private void setupMatrices(GL10 gl) {
     // Save the matrix values.
     gl.glMatrixMode(GL10.GL_PROJECTION);
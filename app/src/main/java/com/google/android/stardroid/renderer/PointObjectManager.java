@@ -14,12 +14,19 @@
 
 package com.google.android.stardroid.renderer;
 
+import android.opengl.GLES20;
 import android.util.Log;
 
 import com.google.android.stardroid.R;
+import com.google.android.stardroid.renderer.util.GLBuffer;
+import com.google.android.stardroid.renderer.util.GeometryCache;
+import com.google.android.stardroid.renderer.util.GLStateCache;
+import com.google.android.stardroid.renderer.util.HierarchicalSkyIndex;
 import com.google.android.stardroid.renderer.util.IndexBuffer;
 import com.google.android.stardroid.renderer.util.NightVisionColorBuffer;
+import com.google.android.stardroid.renderer.util.PointSpriteBuffer;
 import com.google.android.stardroid.renderer.util.SkyRegionMap;
+import com.google.android.stardroid.renderer.util.SkyShaders;
 import com.google.android.stardroid.renderer.util.TexCoordBuffer;
 import com.google.android.stardroid.renderer.util.TextureManager;
 import com.google.android.stardroid.renderer.util.TextureReference;
@@ -27,9 +34,13 @@ import com.google.android.stardroid.renderer.util.VertexBuffer;
 import com.google.android.stardroid.source.PointSource;
 import com.google.android.stardroid.units.Vector3;
 import com.google.android.stardroid.util.MathUtil;
-import com.google.android.stardroid.util.VectorUtil;
+import com.google.android.stardroid.util.StarAttributeCalculator;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -40,23 +51,86 @@ public class PointObjectManager extends RendererObjectManager {
   // Small sets of point aren't worth breaking up into regions.
   // Right now, I'm arbitrarily setting the threshold to 200.
   private static final int MINIMUM_NUM_POINTS_FOR_REGIONS = 200;
+  // Roughly how many points we want in each region.  Each region is a separate draw call, so
+  // this trades the cost of the calls against the cost of drawing off-screen points.
+  private static final int POINTS_PER_REGION = 50;
+  // A region with more points than this is drawn in chunks, since each point takes four
+  // vertices and the indices can't reach any further.  The points are still written into one
+  // set of buffers, and the vertex arrays are pointed at each chunk in turn.
+  private static final int MAX_POINTS_PER_CHUNK = IndexBuffer.MAX_VERTICES_PER_DRAW / 4;
 
   private class RegionData {
+    // The region this is the data for.
+    int region = SkyRegionMap.CATCHALL_REGION_ID;
     // TODO(jpowell): This is a convenient hack until the catalog tells us the
     // region for all of its sources.  Remove this once we add that.
-    List<PointSource> sources = new ArrayList<PointSource>();
+    // The indices of the points in this region, in the list of all points.
+    List<Integer> pointIndices = new ArrayList<Integer>();
 
     private VertexBuffer mVertexBuffer = new VertexBuffer(true);
     private NightVisionColorBuffer mColorBuffer = new NightVisionColorBuffer(true);
     private TexCoordBuffer mTexCoordBuffer = new TexCoordBuffer(true);
     private IndexBuffer mIndexBuffer = new IndexBuffer(true);
+    // Used instead of the buffers above when drawing with OpenGL ES 2.0.
+    private PointSpriteBuffer mSpriteBuffer = new PointSpriteBuffer(true);
+
+    // The points are sorted from brightest to faintest, and these are their magnitudes in that
+    // order, so that we can find how many of them are bright enough to draw.
+    private float[] mMagnitudes = new float[0];
+
+    // Returns the number of points which are at least as bright as the given magnitude.
+    int getNumPointsToMagnitude(float magnitude) {
+      int low = 0;
+      int high = mMagnitudes.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (mMagnitudes[middle] <= magnitude) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
   }
+
+  // Orders points from brightest to faintest.
+  private static final Comparator<PointSource> BRIGHTEST_FIRST = new Comparator<PointSource>() {
+    @Override
+    public int compare(PointSource p1, PointSource p2) {
+      return Float.compare(getCullingMagnitude(p1), getCullingMagnitude(p2));
+    }
+  };
   // Should we compute the regions for the points?
   // If false, we just put them in the catchall region.
   private static final boolean COMPUTE_REGIONS = true;
   private int mNumPoints = 0;
 
+  // For each point, the region it's in, the index of its first vertex in that region's buffers,
+  // and the size, magnitude and location it was last drawn with.
+  private int[] mPointRegions = new int[0];
+  private int[] mPointVertexIndices = new int[0];
+  private int[] mPointSizes = new int[0];
+  private float[] mPointMagnitudes = new float[0];
+  private float[] mPointLocations = new float[0];
+  // True once the points have been moved, after which we expect them to keep moving.
+  private boolean mPointsMove = false;
+
+  // By inspecting the perspective projection matrix, you can show that,
+  // to have a quad at the center of the screen to be of size k by k
+  // pixels, the width and height are both:
+  // k * tan(fovy / 2) / screenHeight
+  // This is not difficult to derive.  Look at the transformation matrix
+  // in SkyRenderer if you're interested in seeing why this is true.
+  // I'm arbitrarily deciding that at a 60 degree field of view, and 480
+  // pixels high, a size of 1 means "1 pixel," so calculate SIZE_FACTOR
+  // based on this.  These numbers mostly come from the fact that that's
+  // what I think looks reasonable.
+  private static final float SIZE_FACTOR = MathUtil.tan(60 * MathUtil.PI / 180.0f * 0.5f) / 480;
+
   private SkyRegionMap<RegionData> mSkyRegions = new SkyRegionMap<RegionData>();
+  // Reused every frame to hold the data for the regions on screen.
+  private final ArrayList<RegionData> mActiveRegionData = new ArrayList<RegionData>();
 
   private TextureReference mTextureRef = null;
 
@@ -70,10 +144,12 @@ public class PointObjectManager extends RendererObjectManager {
   }
 
   public void updateObjects(List<PointSource> points, EnumSet<UpdateType> updateType) {
-    boolean onlyUpdatePoints = true;
     // We only care about updates to positions, ignore any other updates.
     if (updateType.contains(UpdateType.Reset)) {
-      onlyUpdatePoints = false;
+      if (!restoreSnapshot(points.size())) {
+        rebuild(points);
+        writeSnapshot();
+      }
     } else if (updateType.contains(UpdateType.UpdatePositions)) {
       // Sanity check: make sure the number of points is unchanged.
       if (points.size() != mNumPoints) {
@@ -82,70 +158,132 @@ public class PointObjectManager extends RendererObjectManager {
               points.size() + " vs " + mNumPoints + " before");
         return;
       }
-    } else {
-      return;
+      // Points are usually only nudged along their paths, so we can rewrite them where they are.
+      // If one has moved to another region, or changed size or brightness (which changes where
+      // it's sorted), start again.
+      mPointsMove = true;
+      if (canUpdateInPlace(points)) {
+        updatePositionsInPlace(points);
+      } else {
+        rebuild(points);
+      }
     }
+    queueRedraw();
+  }
 
-    mNumPoints = points.size();
+  // Returns the region that a point belongs in.
+  private int getRegionForPoint(Vector3 location) {
+    if (!COMPUTE_REGIONS || mNumPoints < MINIMUM_NUM_POINTS_FOR_REGIONS) {
+      return SkyRegionMap.CATCHALL_REGION_ID;
+    }
+    return mSkyRegions.getObjectRegion(location);
+  }
 
-    mSkyRegions.clear();
+  private boolean canUpdateInPlace(List<PointSource> points) {
+    // Points restored from a snapshot don't keep track of where each one went.
+    if (mPointSizes.length != points.size()) {
+      return false;
+    }
+    for (int i = 0; i < points.size(); i++) {
+      PointSource p = points.get(i);
+      if (p.getSize() != mPointSizes[i] || getCullingMagnitude(p) != mPointMagnitudes[i]
+          || getRegionForPoint(p.getLocation()) != mPointRegions[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
 
-    if (COMPUTE_REGIONS) {
-      // Find the region for each point, and put it in a separate list
-      // for that region.
-      for (PointSource point : points) {
-        int region = points.size() < MINIMUM_NUM_POINTS_FOR_REGIONS
-            ? SkyRegionMap.CATCHALL_REGION_ID
-            : SkyRegionMap.getObjectRegion(point.getLocation());
-        mSkyRegions.getRegionData(region).sources.add(point);
+  // Rewrites the vertices of the points which have moved since they were last written.  Only the
+  // modified parts of the buffers are uploaded again.
+  private void updatePositionsInPlace(List<PointSource> points) {
+    for (int i = 0; i < points.size(); i++) {
+      PointSource p = points.get(i);
+      Vector3 pos = p.getLocation();
+      if (pos.x == mPointLocations[3 * i] && pos.y == mPointLocations[3 * i + 1]
+          && pos.z == mPointLocations[3 * i + 2]) {
+        continue;
+      }
+      RegionData data = mSkyRegions.getRegionData(mPointRegions[i]);
+      if (usingGles2()) {
+        data.mSpriteBuffer.setPosition(mPointVertexIndices[i], pos.x, pos.y, pos.z);
+      } else {
+        writePointPosition(data.mVertexBuffer, mPointVertexIndices[i], p);
       }
-    } else {
-      mSkyRegions.getRegionData(SkyRegionMap.CATCHALL_REGION_ID).sources = points;
+      mPointLocations[3 * i] = pos.x;
+      mPointLocations[3 * i + 1] = pos.y;
+      mPointLocations[3 * i + 2] = pos.z;
+    }
+  }
+
+  // Throws away the existing geometry and regenerates all of it.
+  private void rebuild(final List<PointSource> points) {
+    mNumPoints = points.size();
+    mPointRegions = new int[mNumPoints];
+    mPointVertexIndices = new int[mNumPoints];
+    mPointSizes = new int[mNumPoints];
+    mPointMagnitudes = new float[mNumPoints];
+    mPointLocations = new float[3 * mNumPoints];
+
+    // Bigger layers get smaller regions, so that we can cull them more finely.  This also
+    // clears out the old regions.
+    mSkyRegions.setDepth(
+        HierarchicalSkyIndex.getDepthForObjectCount(points.size(), POINTS_PER_REGION));
+
+    // Find the region for each point, and put it in a separate list
+    // for that region.
+    for (int i = 0; i < points.size(); i++) {
+      mPointRegions[i] = getRegionForPoint(points.get(i).getLocation());
+      RegionData data = mSkyRegions.getRegionData(mPointRegions[i]);
+      data.region = mPointRegions[i];
+      data.pointIndices.add(i);
     }
 
+    Comparator<Integer> brightestFirst = new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return BRIGHTEST_FIRST.compare(points.get(i1), points.get(i2));
+      }
+    };
+
     // Generate the resources for all of the regions.
     for (RegionData data : mSkyRegions.getDataForAllRegions()) {
-      int numVertices = 4 * data.sources.size();
-      int numIndices = 6 * data.sources.size();
+      if (usingGles2()) {
+        Collections.sort(data.pointIndices, brightestFirst);
+        computeMagnitudes(data, points);
+        buildPointSprites(data, points);
+        data.pointIndices = null;
+        continue;
+      }
+      int numVertices = 4 * data.pointIndices.size();
+      int numIndices = 6 * data.pointIndices.size();
 
       data.mVertexBuffer.reset(numVertices);
       data.mColorBuffer.reset(numVertices);
       data.mTexCoordBuffer.reset(numVertices);
       data.mIndexBuffer.reset(numIndices);
+      if (mPointsMove) {
+        data.mVertexBuffer.setUsage(GLBuffer.Usage.DYNAMIC);
+      }
 
-      Vector3 up = new Vector3(0, 1, 0);
-
-      // By inspecting the perspective projection matrix, you can show that,
-      // to have a quad at the center of the screen to be of size k by k
-      // pixels, the width and height are both:
-      // k * tan(fovy / 2) / screenHeight
-      // This is not difficult to derive.  Look at the transformation matrix
-      // in SkyRenderer if you're interested in seeing why this is true.
-      // I'm arbitrarily deciding that at a 60 degree field of view, and 480
-      // pixels high, a size of 1 means "1 pixel," so calculate sizeFactor
-      // based on this.  These numbers mostly come from the fact that that's
-      // what I think looks reasonable.
-      float fovyInRadians = 60 * MathUtil.PI / 180.0f;
-      float sizeFactor = MathUtil.tan(fovyInRadians * 0.5f) / 480;
-
-      Vector3 bottomLeftPos = new Vector3(0, 0, 0);
-      Vector3 topLeftPos = new Vector3(0, 0, 0);
-      Vector3 bottomRightPos = new Vector3(0, 0, 0);
-      Vector3 topRightPos = new Vector3(0, 0, 0);
-
-      Vector3 su = new Vector3(0, 0, 0);
-      Vector3 sv = new Vector3(0, 0, 0);
-
-      short index = 0;
+      // Put the brightest points first, so that when zoomed out we can draw just a prefix of the
+      // index buffer.
+      Collections.sort(data.pointIndices, brightestFirst);
+      computeMagnitudes(data, points);
 
       float starWidthInTexels = 1.0f / NUM_STARS_IN_TEXTURE;
 
-      for (PointSource p : data.sources) {
+      for (int j = 0; j < data.pointIndices.size(); j++) {
+        int pointIndex = data.pointIndices.get(j);
+        PointSource p = points.get(pointIndex);
         int color = 0xff000000 | p.getColor();  // Force alpha to 0xff
-        short bottomLeft = index++;
-        short topLeft = index++;
-        short bottomRight = index++;
-        short topRight = index++;
+        // The indices count from the start of the point's chunk.  The casts wrap the larger ones
+        // around to negative shorts, which GL reads back as unsigned.
+        int firstIndex = 4 * (j % MAX_POINTS_PER_CHUNK);
+        short bottomLeft = (short) firstIndex;
+        short topLeft = (short) (firstIndex + 1);
+        short bottomRight = (short) (firstIndex + 2);
+        short topRight = (short) (firstIndex + 3);
 
         // First triangle
         data.mIndexBuffer.addIndex(bottomLeft);
@@ -166,85 +304,320 @@ public class PointObjectManager extends RendererObjectManager {
         data.mTexCoordBuffer.addTexCoords(texOffsetU + starWidthInTexels, 1);
         data.mTexCoordBuffer.addTexCoords(texOffsetU + starWidthInTexels, 0);
 
+        for (int i = 0; i < 4; i++) {
+          data.mColorBuffer.addColor(color);
+        }
+        // The positions are written in place, so that moving the point later can reuse the code.
+        writePointPosition(data.mVertexBuffer, 4 * j, p);
+
         Vector3 pos = p.getLocation();
-        Vector3 u = VectorUtil.normalized(VectorUtil.crossProduct(pos, up));
-        Vector3 v = VectorUtil.crossProduct(u, pos);
+        mPointVertexIndices[pointIndex] = 4 * j;
+        mPointSizes[pointIndex] = p.getSize();
+        mPointMagnitudes[pointIndex] = data.mMagnitudes[j];
+        mPointLocations[3 * pointIndex] = pos.x;
+        mPointLocations[3 * pointIndex + 1] = pos.y;
+        mPointLocations[3 * pointIndex + 2] = pos.z;
+      }
+      //Log.i("PointObjectManager",
+      //      "Vertices: " + data.mVertexBuffer.size() + ", Indices: " + data.mIndexBuffer.size());
+      data.pointIndices = null;
+    }
+  }
 
-        float s = p.getSize() * sizeFactor;
+  // The quads and the point sprites are kept as separate snapshots, since the user can switch
+  // between the renderers.
+  private String getSnapshotFormat() {
+    return usingGles2() ? "sprites" : "quads";
+  }
 
-        su.assign(s*u.x, s*u.y, s*u.z);
-        sv.assign(s*v.x, s*v.y, s*v.z);
+  /**
+   * Keeps the geometry just built in the GeometryCache, if these points
+   * should be cached.  The snapshot holds the number of points and the depth
+   * of the regions, and then each region's id, point magnitudes and buffers.
+   */
+  private void writeSnapshot() {
+    if (!isGeometryCached()) {
+      return;
+    }
+    boolean sprites = usingGles2();
+    Collection<RegionData> regions = mSkyRegions.getDataForAllRegions();
+    int size = 3 * 4;
+    for (RegionData data : regions) {
+      size += 4 * (2 + data.mMagnitudes.length);
+      if (sprites) {
+        size += 4 + data.mSpriteBuffer.getSizeInBytes();
+      } else {
+        size += 2 * 4 + data.mVertexBuffer.getSizeInBytes() + data.mColorBuffer.getSizeInBytes()
+            + data.mTexCoordBuffer.getSizeInBytes() + data.mIndexBuffer.getSizeInBytes();
+      }
+    }
+
+    ByteBuffer snapshot = GeometryCache.allocate(size);
+    snapshot.putInt(mNumPoints);
+    snapshot.putInt(mSkyRegions.getDepth());
+    snapshot.putInt(regions.size());
+    for (RegionData data : regions) {
+      snapshot.putInt(data.region);
+      snapshot.putInt(data.mMagnitudes.length);
+      for (int i = 0; i < data.mMagnitudes.length; i++) {
+        snapshot.putFloat(data.mMagnitudes[i]);
+      }
+      if (sprites) {
+        snapshot.putInt(data.mSpriteBuffer.size());
+        data.mSpriteBuffer.writeTo(snapshot);
+      } else {
+        snapshot.putInt(data.mVertexBuffer.size());
+        snapshot.putInt(data.mIndexBuffer.size());
+        data.mVertexBuffer.writeTo(snapshot);
+        data.mColorBuffer.writeTo(snapshot);
+        data.mTexCoordBuffer.writeTo(snapshot);
+        data.mIndexBuffer.writeTo(snapshot);
+      }
+    }
+    snapshot.flip();
+    writeGeometrySnapshot(getSnapshotFormat(), snapshot);
+  }
 
-        bottomLeftPos.assign(pos.x - su.x - sv.x, pos.y - su.y - sv.y, pos.z - su.z - sv.z);
-        topLeftPos.assign(pos.x - su.x + sv.x, pos.y - su.y + sv.y, pos.z - su.z + sv.z);
-        bottomRightPos.assign(pos.x + su.x - sv.x, pos.y + su.y - sv.y, pos.z + su.z - sv.z);
-        topRightPos.assign(pos.x + su.x + sv.x, pos.y + su.y + sv.y, pos.z + su.z + sv.z);
+  /**
+   * Replaces the geometry with the snapshot in the GeometryCache, if there's
+   * one for this many points.  The buffers are mapped from the snapshot
+   * rather than copied.  Returns false if there isn't a snapshot, in which
+   * case the points must be rebuilt.
+   */
+  private boolean restoreSnapshot(int numPoints) {
+    ByteBuffer snapshot = readGeometrySnapshot(getSnapshotFormat());
+    if (snapshot == null) {
+      return false;
+    }
+    boolean sprites = usingGles2();
+    try {
+      if (snapshot.getInt() != numPoints) {
+        return false;
+      }
+      // This clears out the old regions, as in rebuild(), even if the depth hasn't changed.
+      // If the snapshot turns out to be bad, rebuild() clears out what was read of it.
+      mSkyRegions.setDepth(snapshot.getInt());
+      int numRegions = snapshot.getInt();
+      for (int i = 0; i < numRegions; i++) {
+        int region = snapshot.getInt();
+        RegionData data = mSkyRegions.getRegionData(region);
+        data.region = region;
+        data.pointIndices = null;
+        data.mMagnitudes = new float[snapshot.getInt()];
+        for (int j = 0; j < data.mMagnitudes.length; j++) {
+          data.mMagnitudes[j] = snapshot.getFloat();
+        }
+        if (sprites) {
+          data.mSpriteBuffer.readFrom(snapshot, snapshot.getInt());
+        } else {
+          int numVertices = snapshot.getInt();
+          int numIndices = snapshot.getInt();
+          data.mVertexBuffer.readFrom(snapshot, numVertices);
+          data.mColorBuffer.readFrom(snapshot, numVertices);
+          data.mTexCoordBuffer.readFrom(snapshot, numVertices);
+          data.mIndexBuffer.readFrom(snapshot, numIndices);
+        }
+      }
+    } catch (RuntimeException e) {
+      // The snapshot's header matched, so it shouldn't be corrupt, but if it is the points can
+      // still be built from scratch.
+      Log.e("PointObjectManager", "Unable to restore snapshot", e);
+      return false;
+    }
+    mNumPoints = numPoints;
+    mPointRegions = new int[0];
+    mPointVertexIndices = new int[0];
+    mPointSizes = new int[0];
+    mPointMagnitudes = new float[0];
+    mPointLocations = new float[0];
+    return true;
+  }
 
-        // Add the vertices
-        data.mVertexBuffer.addPoint(bottomLeftPos);
-        data.mColorBuffer.addColor(color);
+  // Writes one point sprite for each of the region's points, which must already be sorted.
+  private void buildPointSprites(RegionData data, List<PointSource> points) {
+    data.mSpriteBuffer.reset(data.pointIndices.size());
+    if (mPointsMove) {
+      data.mSpriteBuffer.setUsage(GLBuffer.Usage.DYNAMIC);
+    }
+    float starWidthInTexels = 1.0f / NUM_STARS_IN_TEXTURE;
+    for (int i = 0; i < data.pointIndices.size(); i++) {
+      int pointIndex = data.pointIndices.get(i);
+      PointSource p = points.get(pointIndex);
+      Vector3 pos = p.getLocation();
+      int color = 0xff000000 | p.getColor();  // Force alpha to 0xff
+      float texOffsetU = starWidthInTexels * p.getPointShape().getImageIndex();
+      data.mSpriteBuffer.setPoint(i, pos.x, pos.y, pos.z, color, p.getSize(), texOffsetU);
+
+      mPointVertexIndices[pointIndex] = i;
+      mPointSizes[pointIndex] = p.getSize();
+      mPointMagnitudes[pointIndex] = data.mMagnitudes[i];
+      mPointLocations[3 * pointIndex] = pos.x;
+      mPointLocations[3 * pointIndex + 1] = pos.y;
+      mPointLocations[3 * pointIndex + 2] = pos.z;
+    }
+  }
 
-        data.mVertexBuffer.addPoint(topLeftPos);
-        data.mColorBuffer.addColor(color);
+  private boolean usingGles2() {
+    return getRenderState() != null && getRenderState().isUsingGles2();
+  }
 
-        data.mVertexBuffer.addPoint(bottomRightPos);
-        data.mColorBuffer.addColor(color);
+  // Writes the four corners of the point's quad into the vertex buffer, starting at firstVertex.
+  private static void writePointPosition(VertexBuffer vertexBuffer, int firstVertex,
+                                         PointSource p) {
+    Vector3 pos = p.getLocation();
+    float s = p.getSize() * SIZE_FACTOR;
+
+    // u = normalized(pos x up) and v = u x pos, where up is (0, 1, 0).
+    float ux = -pos.z;
+    float uz = pos.x;
+    float oneOverLength = 1.0f / MathUtil.sqrt(ux * ux + uz * uz);
+    ux *= oneOverLength;
+    uz *= oneOverLength;
+    float vx = -uz * pos.y;
+    float vy = uz * pos.x - ux * pos.z;
+    float vz = ux * pos.y;
+
+    float sux = s * ux;
+    float suz = s * uz;
+    float svx = s * vx;
+    float svy = s * vy;
+    float svz = s * vz;
+
+    // bottom left, top left, bottom right, top right.
+    vertexBuffer.setPoint(firstVertex, pos.x - sux - svx, pos.y - svy, pos.z - suz - svz);
+    vertexBuffer.setPoint(firstVertex + 1, pos.x - sux + svx, pos.y + svy, pos.z - suz + svz);
+    vertexBuffer.setPoint(firstVertex + 2, pos.x + sux - svx, pos.y - svy, pos.z + suz - svz);
+    vertexBuffer.setPoint(firstVertex + 3, pos.x + sux + svx, pos.y + svy, pos.z + suz + svz);
+  }
 
-        data.mVertexBuffer.addPoint(topRightPos);
-        data.mColorBuffer.addColor(color);
-      }
-      //Log.i("PointObjectManager",
-      //      "Vertices: " + data.mVertexBuffer.size() + ", Indices: " + data.mIndexBuffer.size());
-      data.sources = null;
+  // Returns the magnitude to sort and cull the point by.  Points whose magnitude isn't known, such
+  // as the planets, count as brighter than any star, so they're always drawn.
+  private static float getCullingMagnitude(PointSource p) {
+    float magnitude = p.getMagnitude();
+    return Float.isNaN(magnitude) ? Float.NEGATIVE_INFINITY : magnitude;
+  }
+
+  // Records the magnitudes of the region's points, which must already be sorted.
+  private static void computeMagnitudes(RegionData data, List<PointSource> points) {
+    data.mMagnitudes = new float[data.pointIndices.size()];
+    for (int i = 0; i < data.pointIndices.size(); i++) {
+      data.mMagnitudes[i] = getCullingMagnitude(points.get(data.pointIndices.get(i)));
     }
   }
 
   @Override
   public void reload(GL10 gl, boolean fullReload) {
+    TextureReference oldTexture = mTextureRef;
     mTextureRef = textureManager().getTextureFromResource(gl, R.drawable.stars_texture);
+    textureManager().releaseTexture(gl, oldTexture);
     for (RegionData data : mSkyRegions.getDataForAllRegions()) {
       data.mVertexBuffer.reload();
       data.mColorBuffer.reload();
       data.mTexCoordBuffer.reload();
       data.mIndexBuffer.reload();
+      data.mSpriteBuffer.reload();
     }
   }
 
   @Override
   protected void drawInternal(GL10 gl) {
-    gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-    gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-    gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    if (usingGles2()) {
+      drawPointSprites(gl);
+      return;
+    }
+    GLStateCache state = getRenderState().getGLState();
+    state.enableClientState(GL10.GL_VERTEX_ARRAY);
+    state.enableClientState(GL10.GL_COLOR_ARRAY);
+    state.enableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
 
-    gl.glEnable(GL10.GL_CULL_FACE);
-    gl.glFrontFace(GL10.GL_CW);
-    gl.glCullFace(GL10.GL_BACK);
+    state.enable(GL10.GL_CULL_FACE);
+    state.frontFace(gl, GL10.GL_CW);
+    state.cullFace(gl, GL10.GL_BACK);
 
-    gl.glEnable(GL10.GL_ALPHA_TEST);
-    gl.glAlphaFunc(GL10.GL_GREATER, 0.5f);
+    state.enable(GL10.GL_ALPHA_TEST);
+    state.alphaFunc(gl, GL10.GL_GREATER, 0.5f);
 
-    gl.glEnable(GL10.GL_TEXTURE_2D);
+    state.enable(GL10.GL_TEXTURE_2D);
 
-    mTextureRef.bind(gl);
+    state.bindTexture(gl, mTextureRef);
 
-    gl.glTexEnvf(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE, GL10.GL_MODULATE);
+    state.texEnvMode(gl, GL10.GL_MODULATE);
+
+    float limitingMagnitude = getLimitingMagnitudeToDraw();
 
     // Render all of the active sky regions.
     SkyRegionMap.ActiveRegionData activeRegions = getRenderState().getActiveSkyRegions();
-    ArrayList<RegionData> activeRegionData = mSkyRegions.getDataForActiveRegions(activeRegions);
-    for (RegionData data : activeRegionData) {
-      if (data.mVertexBuffer.size() == 0) {
+    ArrayList<RegionData> activeRegionData =
+        mSkyRegions.getDataForActiveRegions(activeRegions, mActiveRegionData);
+    for (int i = 0; i < activeRegionData.size(); i++) {
+      RegionData data = activeRegionData.get(i);
+      int numIndices = 6 * data.getNumPointsToMagnitude(limitingMagnitude);
+      if (numIndices == 0) {
         continue;
       }
 
-      data.mVertexBuffer.set(gl);
-      data.mColorBuffer.set(gl, getRenderState().getNightVisionMode());
-      data.mTexCoordBuffer.set(gl);
-      data.mIndexBuffer.draw(gl, GL10.GL_TRIANGLES);
+      state.apply(gl);
+      // Almost every region fits in a single chunk.
+      for (int firstIndex = 0; firstIndex < numIndices;
+           firstIndex += 6 * MAX_POINTS_PER_CHUNK) {
+        int firstVertex = 4 * (firstIndex / 6);
+        data.mVertexBuffer.set(gl, firstVertex);
+        data.mColorBuffer.set(gl, getRenderState().getNightVisionMode(), firstVertex);
+        data.mTexCoordBuffer.set(gl, firstVertex);
+        data.mIndexBuffer.draw(gl, GL10.GL_TRIANGLES, firstIndex,
+                               Math.min(6 * MAX_POINTS_PER_CHUNK, numIndices - firstIndex));
+      }
     }
 
-    gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
-    gl.glDisable(GL10.GL_TEXTURE_2D);
-    gl.glDisable(GL10.GL_ALPHA_TEST);
+    state.disableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    state.disable(GL10.GL_TEXTURE_2D);
+    state.disable(GL10.GL_ALPHA_TEST);
+  }
+
+  // Draws each point as a single point sprite, which the shader sizes and textures, rather than
+  // as a textured quad.
+  private void drawPointSprites(GL10 gl) {
+    if (!SkyShaders.POINT_SPRITES.use()) {
+      return;
+    }
+    RenderStateInterface renderState = getRenderState();
+    SkyShaders.setMatrixAndNightVision(SkyShaders.POINT_SPRITES,
+                                       renderState.getTransformToDeviceMatrix().getFloatArray(),
+                                       renderState.getNightVisionMode());
+    // A point of size k covers the same number of pixels as the quads drawn above: see the
+    // comment on SIZE_FACTOR.
+    float pointScale = SIZE_FACTOR * renderState.getScreenHeight()
+        / MathUtil.tan(renderState.getRadiusOfView() * MathUtil.PI / 360.0f);
+    GLES20.glUniform1f(SkyShaders.POINT_SPRITES.getUniform(SkyShaders.UNIFORM_POINT_SCALE),
+                       pointScale);
+    GLES20.glUniform1f(SkyShaders.POINT_SPRITES.getUniform(SkyShaders.UNIFORM_SPRITE_WIDTH),
+                       1.0f / NUM_STARS_IN_TEXTURE);
+    mTextureRef.bind(gl);
+
+    float limitingMagnitude = getLimitingMagnitudeToDraw();
+    SkyRegionMap.ActiveRegionData activeRegions = renderState.getActiveSkyRegions();
+    ArrayList<RegionData> activeRegionData =
+        mSkyRegions.getDataForActiveRegions(activeRegions, mActiveRegionData);
+    for (int i = 0; i < activeRegionData.size(); i++) {
+      RegionData data = activeRegionData.get(i);
+      // The sprites are drawn without indices, so however many there are they don't need
+      // splitting into chunks.
+      int numPoints = data.getNumPointsToMagnitude(limitingMagnitude);
+      if (numPoints == 0) {
+        continue;
+      }
+      data.mSpriteBuffer.set(gl);
+      data.mSpriteBuffer.draw(gl, numPoints);
+    }
+  }
+
+  // Only draw the points which are bright enough to be worth seeing at this field of view.
+  // Small sets of points (which aren't star catalogs) are always drawn in full.
+  private float getLimitingMagnitudeToDraw() {
+    if (mNumPoints < MINIMUM_NUM_POINTS_FOR_REGIONS) {
+      return Float.POSITIVE_INFINITY;
+    }
+    return StarAttributeCalculator.getLimitingMagnitude(
+        getRenderState().getRadiusOfView(), getRenderState().getStarDensity());
   }
 }
@@ -14,34 +14,95 @@
 
 package com.google.android.stardroid.renderer;
 
+import android.opengl.GLES20;
+import android.util.Log;
+
 import com.google.android.stardroid.R;
+import com.google.android.stardroid.renderer.util.GLBuffer;
+import com.google.android.stardroid.renderer.util.GeometryCache;
+import com.google.android.stardroid.renderer.util.GLStateCache;
+import com.google.android.stardroid.renderer.util.HierarchicalSkyIndex;
 import com.google.android.stardroid.renderer.util.IndexBuffer;
 import com.google.android.stardroid.renderer.util.NightVisionColorBuffer;
+import com.google.android.stardroid.renderer.util.SkyRegionMap;
+import com.google.android.stardroid.renderer.util.SkyShaders;
 import com.google.android.stardroid.renderer.util.TexCoordBuffer;
 import com.google.android.stardroid.renderer.util.TextureManager;
 import com.google.android.stardroid.renderer.util.TextureReference;
 import com.google.android.stardroid.renderer.util.VertexBuffer;
 import com.google.android.stardroid.source.LineSource;
 import com.google.android.stardroid.units.GeocentricCoordinates;
-import com.google.android.stardroid.units.Vector3;
 import com.google.android.stardroid.util.MathUtil;
-import com.google.android.stardroid.util.VectorUtil;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 
 import javax.microedition.khronos.opengles.GL10;
 
 public class PolyLineObjectManager extends RendererObjectManager {
-  private VertexBuffer mVertexBuffer = new VertexBuffer(true);
-  private NightVisionColorBuffer mColorBuffer = new NightVisionColorBuffer(true);
-  private TexCoordBuffer mTexCoordBuffer = new TexCoordBuffer(true);
-  private IndexBuffer mIndexBuffer = new IndexBuffer(true);
+  // Small sets of lines aren't worth breaking up into regions.
+  private static final int MINIMUM_NUM_SEGMENTS_FOR_REGIONS = 100;
+  // Roughly how many segments we want in each region.  Each region is a separate draw call.
+  private static final int SEGMENTS_PER_REGION = 10;
+  // At a sharp corner, the line's edges are extended to meet, but no further than this many
+  // times the line's half width.
+  private static final float MAX_MITER = 2;
+  // The lines are drawn the same way by both renderers, so they only need one kind of snapshot.
+  private static final String SNAPSHOT_FORMAT = "strips";
+
+  // See comment in PointObjectManager for justification of this calculation.
+  private static final float SIZE_FACTOR = MathUtil.tan(60 * MathUtil.PI / 180.0f * 0.5f) / 480;
+
+  private class RegionData {
+    private VertexBuffer mVertexBuffer = new VertexBuffer(true);
+    private NightVisionColorBuffer mColorBuffer = new NightVisionColorBuffer(true);
+    private TexCoordBuffer mTexCoordBuffer = new TexCoordBuffer(true);
+    private IndexBuffer mIndexBuffer = new IndexBuffer(true);
+
+    // The region this is the data for.
+    int region = SkyRegionMap.CATCHALL_REGION_ID;
+    // Counted before the buffers are filled, since they have to be sized exactly.
+    int numVertices = 0;
+    int numIndices = 0;
+    // The indices can only reach IndexBuffer.MAX_VERTICES_PER_DRAW vertices, so bigger regions
+    // are split into chunks which are drawn separately.  These hold the first vertex and index of
+    // each chunk.
+    int numChunks = 0;
+    int[] chunkFirstVertices = new int[1];
+    int[] chunkFirstIndices = new int[1];
+    // The smallest dot product between the region's center and the end of one of its
+    // segments, and the widest of its lines, which together give its coverage angle.
+    float minCenterDotProduct = 1;
+    float maxLineWidth = 0;
+  }
+
+  private SkyRegionMap<RegionData> mSkyRegions = new SkyRegionMap<RegionData>();
+  // Reused every frame to hold the data for the regions on screen.
+  private final ArrayList<RegionData> mActiveRegionData = new ArrayList<RegionData>();
+  // The region used for lines which move, which is kept so that rewriting them doesn't allocate.
+  private RegionData mCatchallData = null;
+
+  // The region of each segment, and the offset of each vertex of the line being written from
+  // the line's center.  Reused between updates.
+  private int[] mSegmentRegions = new int[0];
+  private float[] mSegmentNormals = new float[0];
+  private float[] mJointOffsets = new float[0];
+
   private TextureReference mTexRef = null;
   private boolean mOpaque = true;
+  // True once the lines have been moved, after which we expect them to keep moving.
+  private boolean mLinesMove = false;
   
   public PolyLineObjectManager(int layer, TextureManager textureManager) {
     super(layer, textureManager);
+    mSkyRegions.setRegionDataFactory(
+        new SkyRegionMap.RegionDataFactory<RegionData>() {
+          public RegionData construct() { return new RegionData(); }
+        });
   }
   
   public void updateObjects(List<LineSource> lines, EnumSet<UpdateType> updateType) {
@@ -50,141 +111,512 @@ public class PolyLineObjectManager extends RendererObjectManager {
         !updateType.contains(UpdateType.UpdatePositions)) {
       return;
     }
+    if (updateType.contains(UpdateType.UpdatePositions)) {
+      mLinesMove = true;
+    }
     int numLineSegments = 0;
-    for (LineSource l : lines) {
-      numLineSegments += l.getVertices().size() - 1;
+    for (int i = 0; i < lines.size(); i++) {
+      numLineSegments += Math.max(0, lines.get(i).getVertices().size() - 1);
     }
-    
-    // To render everything in one call, we render everything as a line list
-    // rather than a series of line strips.
-    int numVertices = 4 * numLineSegments;
-    int numIndices = 6 * numLineSegments;
-    
-    VertexBuffer vb = mVertexBuffer;
-    vb.reset(4 * numLineSegments);
-    NightVisionColorBuffer cb = mColorBuffer;
-    cb.reset(4 * numLineSegments);
-    TexCoordBuffer tb = mTexCoordBuffer;
-    tb.reset(numVertices);
-    IndexBuffer ib = mIndexBuffer;
-    ib.reset(numIndices);
-    
-    // See comment in PointObjectManager for justification of this calculation.
-    float fovyInRadians = 60 * MathUtil.PI / 180.0f; 
-    float sizeFactor = MathUtil.tan(fovyInRadians * 0.5f) / 480;
-    
+    // Lines which move are rewritten too often to be worth keeping.
+    boolean cacheable = updateType.contains(UpdateType.Reset) && !mLinesMove;
+    if (cacheable && restoreSnapshot(numLineSegments)) {
+      queueRedraw();
+      return;
+    }
+
+    boolean useRegions = !mLinesMove && numLineSegments >= MINIMUM_NUM_SEGMENTS_FOR_REGIONS;
+    if (useRegions) {
+      // This also clears out the old regions.
+      mSkyRegions.setDepth(
+          HierarchicalSkyIndex.getDepthForObjectCount(numLineSegments, SEGMENTS_PER_REGION));
+      if (mSegmentRegions.length < numLineSegments) {
+        mSegmentRegions = new int[numLineSegments];
+      }
+    } else {
+      // Small sets of lines, and lines which move and so are rewritten on every update, all go in
+      // one region which is reused each time.
+      if (mCatchallData == null) {
+        mCatchallData = new RegionData();
+      }
+      mSkyRegions.clear();
+      mSkyRegions.setRegionData(SkyRegionMap.CATCHALL_REGION_ID, mCatchallData);
+      mCatchallData.numVertices = 0;
+      mCatchallData.numIndices = 0;
+      mCatchallData.numChunks = 0;
+    }
+
+    // Find the region of each segment, from its midpoint, and count how much each region holds.
+    // Consecutive segments of a line in the same region share their vertices.
     boolean opaque = true;
-    
-    short vertexIndex = 0;
-    for (LineSource l : lines) {
+    int segment = 0;
+    for (int i = 0; i < lines.size(); i++) {
+      LineSource l = lines.get(i);
       List<GeocentricCoordinates> coords = l.getVertices();
-      if (coords.size() < 2)
+      if (coords.size() < 2) {
         continue;
-
+      }
       // If the color isn't fully opaque, set opaque to false.
-      int color = l.getColor();
-      opaque &= (color & 0xff000000) == 0xff000000;
-      
-      // Add the vertices.
-      for (int i = 0; i < coords.size() - 1; i++) {
-        Vector3 p1 = coords.get(i);
-        Vector3 p2 = coords.get(i+1);
-        Vector3 u = VectorUtil.difference(p2, p1);
-        // The normal to the quad should face the origin at its midpoint.
-        Vector3 avg = VectorUtil.sum(p1, p2);
-        avg.scale(0.5f);
-        // I'm assuming that the points will already be on a unit sphere.  If this is not the case,
-        // then we should normalize it here.
-        Vector3 v = VectorUtil.normalized(VectorUtil.crossProduct(u, avg));
-        v.scale(sizeFactor * l.getLineWidth());
-        
-        
-        // Add the vertices
-        
-        // Lower left corner
-        vb.addPoint(VectorUtil.difference(p1, v));
-        cb.addColor(color);
-        tb.addTexCoords(0, 1);
-        
-        // Upper left corner
-        vb.addPoint(VectorUtil.sum(p1, v));
-        cb.addColor(color);
-        tb.addTexCoords(0, 0);
-        
-        // Lower left corner
-        vb.addPoint(VectorUtil.difference(p2, v));
-        cb.addColor(color);
-        tb.addTexCoords(1, 1);
-        
-        // Upper left corner
-        vb.addPoint(VectorUtil.sum(p2, v));
-        cb.addColor(color);
-        tb.addTexCoords(1, 0);
-        
-        
-        // Add the indices
-        short bottomLeft = vertexIndex++;
-        short topLeft = vertexIndex++;
-        short bottomRight = vertexIndex++;
-        short topRight = vertexIndex++;
-        
-        // First triangle
-        ib.addIndex(bottomLeft);
-        ib.addIndex(topLeft);
-        ib.addIndex(bottomRight);
+      opaque &= (l.getColor() & 0xff000000) == 0xff000000;
 
-        // Second triangle
-        ib.addIndex(bottomRight);
-        ib.addIndex(topLeft);
-        ib.addIndex(topRight);
+      int previousRegion = 0;
+      for (int j = 0; j < coords.size() - 1; j++, segment++) {
+        GeocentricCoordinates p1 = coords.get(j);
+        GeocentricCoordinates p2 = coords.get(j + 1);
+        int region = SkyRegionMap.CATCHALL_REGION_ID;
+        if (useRegions) {
+          region = mSkyRegions.getObjectRegion(p1.x + p2.x, p1.y + p2.y, p1.z + p2.z);
+          mSegmentRegions[segment] = region;
+        }
+        RegionData data = mSkyRegions.getRegionData(region);
+        data.region = region;
+        addSegment(data, j == 0 || region != previousRegion);
+        if (useRegions) {
+          float[] centers = HierarchicalSkyIndex.getCellCenters(mSkyRegions.getDepth());
+          float cx = centers[3 * region];
+          float cy = centers[3 * region + 1];
+          float cz = centers[3 * region + 2];
+          data.minCenterDotProduct = Math.min(data.minCenterDotProduct, Math.min(
+              p1.x * cx + p1.y * cy + p1.z * cz, p2.x * cx + p2.y * cy + p2.z * cz));
+          data.maxLineWidth = Math.max(data.maxLineWidth, l.getLineWidth());
+        }
+        previousRegion = region;
       }
     }
     mOpaque = opaque;
+
+    if (useRegions) {
+      // Lines can reach outside the region which holds their midpoint, so widen the regions to
+      // cover them.
+      float cellRadius = HierarchicalSkyIndex.getCellRadius(mSkyRegions.getDepth());
+      for (RegionData data : mSkyRegions.getDataForAllRegions()) {
+        resetBuffers(data);
+        float coverageAngle = MathUtil.acos(Math.max(-1, data.minCenterDotProduct))
+            + MAX_MITER * SIZE_FACTOR * data.maxLineWidth;
+        if (coverageAngle > cellRadius) {
+          mSkyRegions.setRegionCoverageAngle(data.region, coverageAngle);
+        }
+      }
+    } else {
+      resetBuffers(mCatchallData);
+    }
+
+    segment = 0;
+    for (int i = 0; i < lines.size(); i++) {
+      LineSource l = lines.get(i);
+      int numVertices = l.getVertices().size();
+      if (numVertices < 2) {
+        continue;
+      }
+      computeJointOffsets(l);
+      writeLine(l, useRegions, segment);
+      segment += numVertices - 1;
+    }
+    if (cacheable) {
+      writeSnapshot(numLineSegments, useRegions);
+    }
+    queueRedraw();
+  }
+
+  /**
+   * Keeps the geometry just written in the GeometryCache, if these lines
+   * should be cached.  The snapshot holds the number of segments, whether the
+   * lines are opaque and the depth of the regions, or -1 if they all went in
+   * the catchall region.  Then for each region it holds its id, coverage
+   * angle, chunks and buffers.
+   */
+  private void writeSnapshot(int numLineSegments, boolean useRegions) {
+    if (!isGeometryCached()) {
+      return;
+    }
+    Collection<RegionData> regions = mSkyRegions.getDataForAllRegions();
+    int size = 4 * 4;
+    for (RegionData data : regions) {
+      size += 4 * (5 + 2 * data.numChunks) + data.mVertexBuffer.getSizeInBytes()
+          + data.mColorBuffer.getSizeInBytes() + data.mTexCoordBuffer.getSizeInBytes()
+          + data.mIndexBuffer.getSizeInBytes();
+    }
+
+    ByteBuffer snapshot = GeometryCache.allocate(size);
+    snapshot.putInt(numLineSegments);
+    snapshot.putInt(mOpaque ? 1 : 0);
+    snapshot.putInt(useRegions ? mSkyRegions.getDepth() : -1);
+    snapshot.putInt(regions.size());
+    for (RegionData data : regions) {
+      snapshot.putInt(data.region);
+      snapshot.putFloat(useRegions ? mSkyRegions.getRegionCoverageAngle(data.region) : 0);
+      snapshot.putInt(data.numVertices);
+      snapshot.putInt(data.numIndices);
+      snapshot.putInt(data.numChunks);
+      for (int i = 0; i < data.numChunks; i++) {
+        snapshot.putInt(data.chunkFirstVertices[i]);
+        snapshot.putInt(data.chunkFirstIndices[i]);
+      }
+      data.mVertexBuffer.writeTo(snapshot);
+      data.mColorBuffer.writeTo(snapshot);
+      data.mTexCoordBuffer.writeTo(snapshot);
+      data.mIndexBuffer.writeTo(snapshot);
+    }
+    snapshot.flip();
+    writeGeometrySnapshot(SNAPSHOT_FORMAT, snapshot);
+  }
+
+  /**
+   * Replaces the geometry with the snapshot in the GeometryCache, if there's
+   * one for this many segments.  The buffers are mapped from the snapshot
+   * rather than copied.  Returns false if there isn't a snapshot, in which
+   * case the lines must be written from scratch.
+   */
+  private boolean restoreSnapshot(int numLineSegments) {
+    ByteBuffer snapshot = readGeometrySnapshot(SNAPSHOT_FORMAT);
+    if (snapshot == null) {
+      return false;
+    }
+    try {
+      if (snapshot.getInt() != numLineSegments) {
+        return false;
+      }
+      boolean opaque = snapshot.getInt() != 0;
+      int depth = snapshot.getInt();
+      boolean useRegions = depth >= 0;
+      if (useRegions) {
+        mSkyRegions.setDepth(depth);
+      } else {
+        if (mCatchallData == null) {
+          mCatchallData = new RegionData();
+        }
+        mSkyRegions.clear();
+        mSkyRegions.setRegionData(SkyRegionMap.CATCHALL_REGION_ID, mCatchallData);
+      }
+      int numRegions = snapshot.getInt();
+      for (int i = 0; i < numRegions; i++) {
+        int region = snapshot.getInt();
+        RegionData data = mSkyRegions.getRegionData(region);
+        data.region = region;
+        float coverageAngle = snapshot.getFloat();
+        if (useRegions && coverageAngle > HierarchicalSkyIndex.getCellRadius(depth)) {
+          mSkyRegions.setRegionCoverageAngle(region, coverageAngle);
+        }
+        data.numVertices = snapshot.getInt();
+        data.numIndices = snapshot.getInt();
+        data.numChunks = snapshot.getInt();
+        if (data.chunkFirstVertices.length < data.numChunks) {
+          data.chunkFirstVertices = new int[data.numChunks];
+          data.chunkFirstIndices = new int[data.numChunks];
+        }
+        for (int j = 0; j < data.numChunks; j++) {
+          data.chunkFirstVertices[j] = snapshot.getInt();
+          data.chunkFirstIndices[j] = snapshot.getInt();
+        }
+        data.mVertexBuffer.readFrom(snapshot, data.numVertices);
+        data.mColorBuffer.readFrom(snapshot, data.numVertices);
+        data.mTexCoordBuffer.readFrom(snapshot, data.numVertices);
+        data.mIndexBuffer.readFrom(snapshot, data.numIndices);
+      }
+      mOpaque = opaque;
+      return true;
+    } catch (RuntimeException e) {
+      // The snapshot's header matched, so it shouldn't be corrupt, but if it is the lines can
+      // still be written from scratch.
+      Log.e("PolyLineObjectManager", "Unable to restore snapshot", e);
+      return false;
+    }
+  }
+
+  // Sizes the region's buffers to fit what was counted for it.
+  private void resetBuffers(RegionData data) {
+    data.mVertexBuffer.reset(data.numVertices);
+    data.mColorBuffer.reset(data.numVertices);
+    data.mTexCoordBuffer.reset(data.numVertices);
+    data.mIndexBuffer.reset(data.numIndices);
+    if (mLinesMove) {
+      // These lines move, and every update rewrites all of their geometry.
+      data.mVertexBuffer.setUsage(GLBuffer.Usage.STREAM);
+      data.mColorBuffer.setUsage(GLBuffer.Usage.STREAM);
+      data.mTexCoordBuffer.setUsage(GLBuffer.Usage.STREAM);
+      data.mIndexBuffer.setUsage(GLBuffer.Usage.STREAM);
+    }
+    // Reused to count what's been written so far, which retraces the same chunks.
+    data.numVertices = 0;
+    data.numIndices = 0;
+    data.numChunks = 0;
+  }
+
+  /**
+   * Makes room in the region for a segment, and returns the index of its
+   * first new vertex in its chunk.  A segment which starts a run of segments
+   * needs four new vertices, and the rest share two with the segment before.
+   * If the segment doesn't fit in the region's current chunk, it starts a new
+   * one, and so a new run.  This is called both when counting the segments
+   * and again when writing them, so that both see the same chunks.
+   */
+  private static int addSegment(RegionData data, boolean startsRun) {
+    int chunkFirstVertex = data.numChunks == 0 ? 0 : data.chunkFirstVertices[data.numChunks - 1];
+    int numNewVertices = startsRun ? 4 : 2;
+    if (data.numChunks == 0
+        || data.numVertices - chunkFirstVertex + numNewVertices
+            > IndexBuffer.MAX_VERTICES_PER_DRAW) {
+      if (data.numChunks == data.chunkFirstVertices.length) {
+        data.chunkFirstVertices = Arrays.copyOf(data.chunkFirstVertices, 2 * data.numChunks);
+        data.chunkFirstIndices = Arrays.copyOf(data.chunkFirstIndices, 2 * data.numChunks);
+      }
+      chunkFirstVertex = data.numVertices;
+      data.chunkFirstVertices[data.numChunks] = chunkFirstVertex;
+      data.chunkFirstIndices[data.numChunks] = data.numIndices;
+      data.numChunks++;
+      numNewVertices = 4;
+    }
+    int firstNewVertex = data.numVertices - chunkFirstVertex;
+    data.numVertices += numNewVertices;
+    data.numIndices += 6;
+    return firstNewVertex;
+  }
+
+  // Returns the number of indices in one of the region's chunks.
+  private static int getNumIndicesInChunk(RegionData data, int chunk) {
+    int end = chunk + 1 < data.numChunks ? data.chunkFirstIndices[chunk + 1] : data.numIndices;
+    return end - data.chunkFirstIndices[chunk];
+  }
+
+  // Returns the region that the given segment was put in.
+  private int getSegmentRegion(boolean useRegions, int segment) {
+    return useRegions ? mSegmentRegions[segment] : SkyRegionMap.CATCHALL_REGION_ID;
+  }
+
+  /**
+   * Computes the offset from the line of the edges of its quads at each of its
+   * vertices.  Within a line, each vertex is shared between the segments on
+   * either side, so the offset is along the line which bisects the angle
+   * between the segments, and long enough to keep the line's width constant.
+   */
+  private void computeJointOffsets(LineSource l) {
+    List<GeocentricCoordinates> coords = l.getVertices();
+    int numSegments = coords.size() - 1;
+    if (mSegmentNormals.length < 3 * numSegments) {
+      mSegmentNormals = new float[3 * numSegments];
+      mJointOffsets = new float[3 * (numSegments + 1)];
+    }
+    float[] normals = mSegmentNormals;
+    float[] offsets = mJointOffsets;
+
+    // The normal of each segment's quad faces the origin at its midpoint, so its edges are
+    // offset along the segment crossed with the midpoint.  I'm assuming that the points will
+    // already be on a unit sphere, so the midpoint doesn't need normalizing.
+    for (int j = 0; j < numSegments; j++) {
+      GeocentricCoordinates p1 = coords.get(j);
+      GeocentricCoordinates p2 = coords.get(j + 1);
+      float ux = p2.x - p1.x;
+      float uy = p2.y - p1.y;
+      float uz = p2.z - p1.z;
+      float mx = p1.x + p2.x;
+      float my = p1.y + p2.y;
+      float mz = p1.z + p2.z;
+      float nx = uy * mz - uz * my;
+      float ny = uz * mx - ux * mz;
+      float nz = ux * my - uy * mx;
+      float length = MathUtil.sqrt(nx * nx + ny * ny + nz * nz);
+      if (length == 0) {
+        // A segment with no length takes the direction of the one before it.
+        if (j > 0) {
+          nx = normals[3 * j - 3];
+          ny = normals[3 * j - 2];
+          nz = normals[3 * j - 1];
+        }
+      } else {
+        nx /= length;
+        ny /= length;
+        nz /= length;
+      }
+      normals[3 * j] = nx;
+      normals[3 * j + 1] = ny;
+      normals[3 * j + 2] = nz;
+    }
+
+    float halfWidth = SIZE_FACTOR * l.getLineWidth();
+    for (int i = 0; i <= numSegments; i++) {
+      int before = 3 * Math.max(0, i - 1);
+      int after = 3 * Math.min(i, numSegments - 1);
+      float sx = normals[before] + normals[after];
+      float sy = normals[before + 1] + normals[after + 1];
+      float sz = normals[before + 2] + normals[after + 2];
+      // For unit normals n1 and n2, the miter is s = n1 + n2 scaled by 2 / |s|^2, which has a
+      // component of 1 along both normals.
+      float lengthSquared = sx * sx + sy * sy + sz * sz;
+      float scale;
+      if (lengthSquared * MAX_MITER * MAX_MITER >= 4) {
+        scale = 2 / lengthSquared;
+      } else if (lengthSquared > 0) {
+        // The line doubles back on itself, so cut the corner off.
+        scale = MAX_MITER / MathUtil.sqrt(lengthSquared);
+      } else {
+        scale = 0;
+      }
+      offsets[3 * i] = sx * scale * halfWidth;
+      offsets[3 * i + 1] = sy * scale * halfWidth;
+      offsets[3 * i + 2] = sz * scale * halfWidth;
+    }
+  }
+
+  // Writes the line's vertices into the buffers of the regions its segments are in.  A run of
+  // segments in the same region is written as a strip of quads which share their vertices.
+  private void writeLine(LineSource l, boolean useRegions, int firstSegment) {
+    List<GeocentricCoordinates> coords = l.getVertices();
+    int numSegments = coords.size() - 1;
+    int color = l.getColor();
+    for (int j = 0; j < numSegments; j++) {
+      int region = getSegmentRegion(useRegions, firstSegment + j);
+      RegionData data = mSkyRegions.getRegionData(region);
+      boolean startsRun = j == 0 || region != getSegmentRegion(useRegions, firstSegment + j - 1);
+      int numVerticesBefore = data.numVertices;
+      int firstNewVertex = addSegment(data, startsRun);
+      if (data.numVertices - numVerticesBefore == 4) {
+        writeJoint(data, coords.get(j), j, color);
+      }
+      writeJoint(data, coords.get(j + 1), j + 1, color);
+
+      // The lower and upper vertices at each end of the segment, counted from the start of its
+      // chunk.  The casts wrap the larger ones around to negative shorts, which GL reads back as
+      // unsigned.
+      int end = firstNewVertex + (data.numVertices - numVerticesBefore);
+      short bottomLeft = (short) (end - 4);
+      short topLeft = (short) (end - 3);
+      short bottomRight = (short) (end - 2);
+      short topRight = (short) (end - 1);
+
+      // First triangle
+      data.mIndexBuffer.addIndex(bottomLeft);
+      data.mIndexBuffer.addIndex(topLeft);
+      data.mIndexBuffer.addIndex(bottomRight);
+
+      // Second triangle
+      data.mIndexBuffer.addIndex(bottomRight);
+      data.mIndexBuffer.addIndex(topLeft);
+      data.mIndexBuffer.addIndex(topRight);
+    }
+  }
+
+  // Adds the lower and upper vertices of the line at one of its joints.
+  private void writeJoint(RegionData data, GeocentricCoordinates p, int joint, int color) {
+    float[] offsets = mJointOffsets;
+    float ox = offsets[3 * joint];
+    float oy = offsets[3 * joint + 1];
+    float oz = offsets[3 * joint + 2];
+    // The texture runs across the line, so the segments can alternate which end of it they
+    // start from.
+    float u = joint % 2;
+
+    data.mVertexBuffer.addPoint(p.x - ox, p.y - oy, p.z - oz);
+    data.mColorBuffer.addColor(color);
+    data.mTexCoordBuffer.addTexCoords(u, 1);
+
+    data.mVertexBuffer.addPoint(p.x + ox, p.y + oy, p.z + oz);
+    data.mColorBuffer.addColor(color);
+    data.mTexCoordBuffer.addTexCoords(u, 0);
   }
   
   @Override
   public void reload(GL10 gl, boolean fullReload) {
+    TextureReference oldTexture = mTexRef;
     mTexRef = textureManager().getTextureFromResource(gl, R.drawable.line);
-    mVertexBuffer.reload();
-    mColorBuffer.reload();
-    mTexCoordBuffer.reload();
-    mIndexBuffer.reload();
+    textureManager().releaseTexture(gl, oldTexture);
+    for (RegionData data : mSkyRegions.getDataForAllRegions()) {
+      data.mVertexBuffer.reload();
+      data.mColorBuffer.reload();
+      data.mTexCoordBuffer.reload();
+      data.mIndexBuffer.reload();
+    }
   }
   
   @Override
   protected void drawInternal(GL10 gl) {
-    if (mIndexBuffer.size() == 0)
+    ArrayList<RegionData> activeRegionData = mSkyRegions.getDataForActiveRegions(
+        getRenderState().getActiveSkyRegions(), mActiveRegionData);
+    if (activeRegionData.isEmpty()) {
+      return;
+    }
+
+    if (getRenderState().isUsingGles2()) {
+      drawWithShaders(gl, activeRegionData);
       return;
+    }
     
-    gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-    gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-    gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    GLStateCache state = getRenderState().getGLState();
+    state.enableClientState(GL10.GL_VERTEX_ARRAY);
+    state.enableClientState(GL10.GL_COLOR_ARRAY);
+    state.enableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
     
-    gl.glEnable(GL10.GL_TEXTURE_2D);
-    mTexRef.bind(gl);
+    state.enable(GL10.GL_TEXTURE_2D);
+    state.bindTexture(gl, mTexRef);
     
-    gl.glEnable(GL10.GL_CULL_FACE);
-    gl.glFrontFace(GL10.GL_CW);
-    gl.glCullFace(GL10.GL_BACK);
+    state.enable(GL10.GL_CULL_FACE);
+    state.frontFace(gl, GL10.GL_CW);
+    state.cullFace(gl, GL10.GL_BACK);
     
     if (!mOpaque) {
-      gl.glEnable(GL10.GL_BLEND);
-      gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+      state.enable(GL10.GL_BLEND);
+      state.blendFunc(gl, GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
     }
 
-    gl.glTexEnvf(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE, GL10.GL_MODULATE);
+    state.texEnvMode(gl, GL10.GL_MODULATE);
         
-    mVertexBuffer.set(gl);
-    mColorBuffer.set(gl, getRenderState().getNightVisionMode());
-    mTexCoordBuffer.set(gl);
-
-    mIndexBuffer.draw(gl, GL10.GL_TRIANGLES);
+    for (int i = 0; i < activeRegionData.size(); i++) {
+      RegionData data = activeRegionData.get(i);
+      if (data.mIndexBuffer.size() == 0) {
+        continue;
+      }
+      state.apply(gl);
+      for (int chunk = 0; chunk < data.numChunks; chunk++) {
+        int firstVertex = data.chunkFirstVertices[chunk];
+        data.mVertexBuffer.set(gl, firstVertex);
+        data.mColorBuffer.set(gl, getRenderState().getNightVisionMode(), firstVertex);
+        data.mTexCoordBuffer.set(gl, firstVertex);
+        data.mIndexBuffer.draw(gl, GL10.GL_TRIANGLES, data.chunkFirstIndices[chunk],
+                               getNumIndicesInChunk(data, chunk));
+      }
+    }
     
     if (!mOpaque) {
-      gl.glDisable(GL10.GL_BLEND);
+      state.disable(GL10.GL_BLEND);
     }
     
-    gl.glDisable(GL10.GL_TEXTURE_2D);
-    gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    state.disable(GL10.GL_TEXTURE_2D);
+    state.disableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+  }
+
+  private void drawWithShaders(GL10 gl, ArrayList<RegionData> activeRegionData) {
+    RenderStateInterface renderState = getRenderState();
+    if (!SkyShaders.useGeneral(renderState.getTransformToDeviceMatrix().getFloatArray(),
+                               renderState.getNightVisionMode(), true, -1)) {
+      return;
+    }
+    mTexRef.bind(gl);
+
+    GLES20.glEnable(GLES20.GL_CULL_FACE);
+    GLES20.glFrontFace(GLES20.GL_CW);
+    GLES20.glCullFace(GLES20.GL_BACK);
+
+    if (!mOpaque) {
+      GLES20.glEnable(GLES20.GL_BLEND);
+      GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+    }
+
+    for (int i = 0; i < activeRegionData.size(); i++) {
+      RegionData data = activeRegionData.get(i);
+      if (data.mIndexBuffer.size() == 0) {
+        continue;
+      }
+      for (int chunk = 0; chunk < data.numChunks; chunk++) {
+        int firstVertex = data.chunkFirstVertices[chunk];
+        data.mVertexBuffer.setAttrib(gl, SkyShaders.ATTRIBUTE_POSITION, firstVertex);
+        data.mColorBuffer.setAttrib(gl, SkyShaders.ATTRIBUTE_COLOR, firstVertex);
+        data.mTexCoordBuffer.setAttrib(gl, SkyShaders.ATTRIBUTE_TEX_COORD, firstVertex);
+        data.mIndexBuffer.draw(gl, GL10.GL_TRIANGLES, data.chunkFirstIndices[chunk],
+                               getNumIndicesInChunk(data, chunk));
+      }
+    }
+
+    if (!mOpaque) {
+      GLES20.glDisable(GLES20.GL_BLEND);
+    }
   }
 }
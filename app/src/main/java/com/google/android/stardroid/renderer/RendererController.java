@@ -15,9 +15,14 @@
 package com.google.android.stardroid.renderer;
 
 import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.Looper;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import com.google.android.stardroid.util.metrics.Histogram;
+import com.google.android.stardroid.util.metrics.Metrics;
+import com.google.android.stardroid.util.metrics.Timer;
+
+import java.util.ArrayList;
 
 /**
  * Allows the rest of the program to communicate with the SkyRenderer by queueing
@@ -26,15 +31,33 @@ import java.util.Queue;
  */
 public class RendererController extends RendererControllerBase {
   /**
-   * Used for grouping renderer calls into atomic units.
+   * Used for grouping renderer calls into atomic units.  Sections are reused
+   * once they've been applied, so a section mustn't be touched after it's
+   * been passed to queueAtomic().
    */
   public static class AtomicSection extends RendererControllerBase {
-    private Queuer mQueuer = new Queuer();
     private static int NEXT_ID = 0;
-    private int mID;
+    private final int mID;
+    private final RendererController mOwner;
+    private final ArrayList<Runnable> mEvents = new ArrayList<>();
+    private final EventQueuer mQueuer = new EventQueuer() {
+      public void queueEvent(Runnable r) {
+        mEvents.add(r);
+      }
+    };
+    private final Runnable mApply = new Runnable() {
+      public void run() {
+        for (int i = 0; i < mEvents.size(); i++) {
+          mEvents.get(i).run();
+        }
+        mEvents.clear();
+        mOwner.recycleAtomic(AtomicSection.this);
+      }
+    };
 
-    private AtomicSection(SkyRenderer renderer) {
-      super(renderer);
+    private AtomicSection(RendererController owner) {
+      super(owner.mRenderer);
+      mOwner = owner;
       synchronized(AtomicSection.class) {
         mID = NEXT_ID++;
       }
@@ -49,22 +72,98 @@ public class RendererController extends RendererControllerBase {
     public String toString() {
       return "AtomicSection" + mID;
     }
+  }
+
+  // The bucket bounds for the number of commands run together.
+  private static final long[] QUEUE_DEPTH_BUCKETS = {1, 2, 4, 8, 16, 32, 64, 128};
+
+  // How often the renderer's update closures are run when rendering on demand.  This is how
+  // often frames were drawn before, so the view follows the sensors as closely as it did.
+  private static final int TICK_INTERVAL_MS = 16;
+
+  // Once this many ticks in a row have drawn nothing, the sky is taken to be still and the tick
+  // slows to IDLE_TICK_INTERVAL_MS.  Sensor changes are still picked up by the slow tick, and
+  // anything which asks for a frame puts the tick back to full speed.
+  private static final int IDLE_TICKS_BEFORE_SLOWING = 30;
+  private static final int IDLE_TICK_INTERVAL_MS = 200;
+
+  // The largest number of applied atomic sections which are kept for reuse.  Each layer only
+  // has one section in flight at a time.
+  private static final int MAX_FREE_ATOMIC_SECTIONS = 16;
+
+  private final EventQueuer mQueuer;
+  private final GLSurfaceView mView;
+  private final ArrayList<AtomicSection> mFreeAtomicSections = new ArrayList<>();
+
+  // Commands waiting for the GL thread.  Rather than posting each command to the view, they're
+  // collected here and run together by mRunCommands, which is posted once for each batch.  The
+  // lists are swapped rather than copied, so queueing commands doesn't allocate.
+  private final Object mCommandLock = new Object();
+  private ArrayList<Runnable> mQueuedCommands = new ArrayList<>();
+  private ArrayList<Runnable> mRunningCommands = new ArrayList<>();
+  private boolean mRunCommandsQueued = false;
+  private long mFirstCommandQueuedTime = 0;
+  private final Timer mCommandLatencyTimer = Metrics.timer("renderer.commands.latency");
+  private final Histogram mCommandQueueDepthHistogram =
+      Metrics.histogram("renderer.commands.queueDepth", QUEUE_DEPTH_BUCKETS);
+
+  private final Runnable mRunCommands = new Runnable() {
+    public void run() {
+      long firstQueuedTime;
+      synchronized (mCommandLock) {
+        ArrayList<Runnable> commands = mQueuedCommands;
+        mQueuedCommands = mRunningCommands;
+        mRunningCommands = commands;
+        mRunCommandsQueued = false;
+        firstQueuedTime = mFirstCommandQueuedTime;
+      }
+      // How long the oldest command waited for the GL thread, and how many were waiting.
+      mCommandLatencyTimer.stop(firstQueuedTime);
+      mCommandQueueDepthHistogram.record(mRunningCommands.size());
+      for (int i = 0; i < mRunningCommands.size(); i++) {
+        mRunningCommands.get(i).run();
+      }
+      mRunningCommands.clear();
+    }
+  };
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private boolean mRenderOnDemand = false;
+  private boolean mTicking = false;
+  // Set while a tick is waiting to run on the GL thread, so that they don't pile up if the GL
+  // thread falls behind.
+  private volatile boolean mTickQueued = false;
+  // The number of ticks in a row which have drawn nothing.  Counted on the GL thread, and reset
+  // from whichever thread asks for a frame.
+  private volatile int mIdleTicks = 0;
 
-    private Queue<Runnable> releaseEvents() {
-      Queue<Runnable> queue = mQueuer.mQueue;
-      mQueuer = new Queuer();
-      return queue;
+  private final Runnable mRunTick = new Runnable() {
+    public void run() {
+      mTickQueued = false;
+      if (mRenderer.tick()) {
+        mIdleTicks = 0;
+      } else {
+        mIdleTicks++;
+      }
     }
+  };
 
-    private static class Queuer implements EventQueuer {
-      private Queue<Runnable> mQueue = new LinkedList<Runnable>();
-      public void queueEvent(Runnable r) {
-        mQueue.add(r);
+  private final Runnable mQueueTick = new Runnable() {
+    public void run() {
+      if (!mTickQueued) {
+        mTickQueued = true;
+        mView.queueEvent(mRunTick);
       }
+      mHandler.postDelayed(this, mIdleTicks < IDLE_TICKS_BEFORE_SLOWING
+          ? TICK_INTERVAL_MS : IDLE_TICK_INTERVAL_MS);
     }
-  }
+  };
 
-  private final EventQueuer mQueuer;
+  // Restarts a slowed tick at full speed.  Runs on the UI thread.
+  private final Runnable mWakeTick = new Runnable() {
+    public void run() {
+      updateTicking();
+    }
+  };
 
   @Override
   protected EventQueuer getQueuer() {
@@ -73,29 +172,101 @@ public class RendererController extends RendererControllerBase {
 
   public RendererController(SkyRenderer renderer, final GLSurfaceView view) {
     super(renderer);
+    mView = view;
     mQueuer = new EventQueuer() {
       public void queueEvent(Runnable r) {
-        view.queueEvent(r);
+        synchronized (mCommandLock) {
+          mQueuedCommands.add(r);
+          if (!mRunCommandsQueued) {
+            mRunCommandsQueued = true;
+            mFirstCommandQueuedTime = Metrics.startTimer();
+            view.queueEvent(mRunCommands);
+          }
+        }
       }
     };
   }
 
+  /**
+   * Only draw frames when something in the sky has changed, rather than
+   * continuously.  This saves a lot of power when the phone is held still.
+   * Must be called on the UI thread, after the view's renderer has been set.
+   */
+  public void setRenderOnDemand(boolean renderOnDemand) {
+    if (renderOnDemand == mRenderOnDemand) {
+      return;
+    }
+    mRenderOnDemand = renderOnDemand;
+    final Runnable requestRender = renderOnDemand ? new Runnable() {
+      public void run() {
+        mView.requestRender();
+        wakeTick();
+      }
+    } : null;
+    queueRunnable("Setting render on demand: " + renderOnDemand, CommandType.View,
+                  new Runnable() { public void run() {
+      mRenderer.setRenderOnDemand(requestRender);
+    }});
+    mView.setRenderMode(renderOnDemand ? GLSurfaceView.RENDERMODE_WHEN_DIRTY
+                                       : GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+    updateTicking();
+  }
+
+  /**
+   * Call when the view is resumed.  When rendering on demand, the renderer's
+   * update closures are run regularly from here until onPause(), less often
+   * while nothing in the sky is changing.
+   */
+  public void onResume() {
+    mTicking = true;
+    mIdleTicks = 0;
+    updateTicking();
+  }
+
+  public void onPause() {
+    mTicking = false;
+    updateTicking();
+  }
+
+  // Something has changed, so the next changes are likely to follow soon.  If the tick has
+  // slowed down, put it back to full speed.  May be called from any thread.
+  private void wakeTick() {
+    if (mIdleTicks >= IDLE_TICKS_BEFORE_SLOWING) {
+      mIdleTicks = 0;
+      mHandler.post(mWakeTick);
+    }
+  }
+
+  private void updateTicking() {
+    mHandler.removeCallbacks(mQueueTick);
+    if (mTicking && mRenderOnDemand) {
+      mHandler.post(mQueueTick);
+    }
+  }
+
   @Override
   public String toString() {
     return "RendererController";
   }
 
   public AtomicSection createAtomic() {
-    return new AtomicSection(mRenderer);
+    synchronized (mFreeAtomicSections) {
+      if (!mFreeAtomicSections.isEmpty()) {
+        return mFreeAtomicSections.remove(mFreeAtomicSections.size() - 1);
+      }
+    }
+    return new AtomicSection(this);
   }
 
   public void queueAtomic(final AtomicSection atomic) {
-    String msg = "Applying " + atomic.toString();
-    queueRunnable(msg, CommandType.Synchronization, new Runnable() { public void run() {
-      Queue<Runnable> events = atomic.releaseEvents();
-      for (Runnable r : events) {
-        r.run();
+    queueRunnable("Applying atomic section", CommandType.Synchronization, atomic.mApply);
+  }
+
+  private void recycleAtomic(AtomicSection atomic) {
+    synchronized (mFreeAtomicSections) {
+      if (mFreeAtomicSections.size() < MAX_FREE_ATOMIC_SECTIONS) {
+        mFreeAtomicSections.add(atomic);
       }
-    }});
+    }
   }
 }
@@ -19,11 +19,15 @@ import com.google.android.stardroid.source.ImageSource;
 import com.google.android.stardroid.source.LineSource;
 import com.google.android.stardroid.source.PointSource;
 import com.google.android.stardroid.source.TextSource;
+import com.google.android.stardroid.renderer.RendererObjectManager.UpdateType;
 import com.google.android.stardroid.units.GeocentricCoordinates;
+import com.google.android.stardroid.util.metrics.Counter;
+import com.google.android.stardroid.util.metrics.Metrics;
 
 import android.os.ConditionVariable;
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -52,10 +56,75 @@ public abstract class RendererControllerBase {
       }});
     }
 
-    public abstract void queueObjects(
-        final List<E> objects,
-        final EnumSet<RendererObjectManager.UpdateType> updateType,
-        RendererControllerBase controller);
+    /**
+     * Queues the name and checksum under which the manager can keep its
+     * objects' geometry between launches.  See GeometryCache.
+     */
+    public void queueGeometryKey(final String name, final long checksum,
+                                 RendererControllerBase controller) {
+      final String msg = "Setting manager geometry key: " + name;
+      controller.queueRunnable(msg, CommandType.Data, new Runnable() { public void run() {
+        mManager.setGeometryKey(name, checksum);
+      }});
+    }
+
+    /**
+     * Queues the objects to be passed to the manager.  The update types are
+     * copied, so the caller can reuse them, but the list isn't, so it mustn't
+     * change until the renderer has taken it.
+     */
+    public void queueObjects(List<E> objects, EnumSet<UpdateType> updateType,
+                             RendererControllerBase controller) {
+      controller.queueRunnable("Setting objects", CommandType.Data,
+                               ObjectsCommand.obtain(this, objects, updateType));
+    }
+
+    // Called on the GL thread.
+    abstract void updateObjects(List<E> objects, EnumSet<UpdateType> updateType);
+  }
+
+  /**
+   * Passes a list of objects to a manager.  Layers whose objects move queue
+   * one of these for each of their managers every frame, so they're pooled
+   * rather than allocated each time.
+   */
+  private static class ObjectsCommand implements Runnable {
+    private static final int MAX_POOL_SIZE = 32;
+    private static final ArrayList<ObjectsCommand> sPool = new ArrayList<>();
+
+    private RenderManager<Object> mRenderManager = null;
+    private List<Object> mObjects = null;
+    private final EnumSet<UpdateType> mUpdateType = EnumSet.noneOf(UpdateType.class);
+
+    @SuppressWarnings("unchecked")
+    static <E> ObjectsCommand obtain(RenderManager<E> manager, List<E> objects,
+                                     EnumSet<UpdateType> updateType) {
+      ObjectsCommand command = null;
+      synchronized (sPool) {
+        if (!sPool.isEmpty()) {
+          command = sPool.remove(sPool.size() - 1);
+        }
+      }
+      if (command == null) {
+        command = new ObjectsCommand();
+      }
+      command.mRenderManager = (RenderManager<Object>) manager;
+      command.mObjects = (List<Object>) objects;
+      command.mUpdateType.clear();
+      command.mUpdateType.addAll(updateType);
+      return command;
+    }
+
+    public void run() {
+      mRenderManager.updateObjects(mObjects, mUpdateType);
+      mRenderManager = null;
+      mObjects = null;
+      synchronized (sPool) {
+        if (sPool.size() < MAX_POOL_SIZE) {
+          sPool.add(this);
+        }
+      }
+    }
   }
 
   // TODO(brent): collapse these into a single class?
@@ -69,13 +138,8 @@ public abstract class RendererControllerBase {
     }
 
     @Override
-    public void queueObjects(final List<PointSource> points,
-                             final EnumSet<RendererObjectManager.UpdateType> updateType,
-                             RendererControllerBase controller) {
-      String msg = "Setting point objects";
-      controller.queueRunnable(msg, CommandType.Data, new Runnable() { public void run() {
-        ((PointObjectManager) mManager).updateObjects(points, updateType);
-      }});
+    void updateObjects(List<PointSource> points, EnumSet<UpdateType> updateType) {
+      ((PointObjectManager) mManager).updateObjects(points, updateType);
     }
   }
 
@@ -88,13 +152,8 @@ public abstract class RendererControllerBase {
     }
 
     @Override
-    public void queueObjects(final List<LineSource> lines,
-                             final EnumSet<RendererObjectManager.UpdateType> updateType,
-                             RendererControllerBase controller) {
-      String msg = "Setting line objects";
-      controller.queueRunnable(msg, CommandType.Data, new Runnable() { public void run() {
-        ((PolyLineObjectManager) mManager).updateObjects(lines, updateType);
-      }});
+    void updateObjects(List<LineSource> lines, EnumSet<UpdateType> updateType) {
+      ((PolyLineObjectManager) mManager).updateObjects(lines, updateType);
     }
   }
 
@@ -107,13 +166,8 @@ public abstract class RendererControllerBase {
     }
 
     @Override
-    public void queueObjects(final List<TextSource> labels,
-                             final EnumSet<RendererObjectManager.UpdateType> updateType,
-                             RendererControllerBase controller) {
-      String msg = "Setting label objects";
-      controller.queueRunnable(msg, CommandType.Data, new Runnable() { public void run() {
-        ((LabelObjectManager) mManager).updateObjects(labels, updateType);
-      }});
+    void updateObjects(List<TextSource> labels, EnumSet<UpdateType> updateType) {
+      ((LabelObjectManager) mManager).updateObjects(labels, updateType);
     }
   }
 
@@ -126,13 +180,8 @@ public abstract class RendererControllerBase {
     }
 
     @Override
-    public void queueObjects(final List<ImageSource> images,
-                             final EnumSet<RendererObjectManager.UpdateType> updateType,
-                             RendererControllerBase controller) {
-      String msg = "Setting image objects";
-      controller.queueRunnable(msg, CommandType.Data, new Runnable() { public void run() {
-        ((ImageObjectManager) mManager).updateObjects(images, updateType);
-      }});
+    void updateObjects(List<ImageSource> images, EnumSet<UpdateType> updateType) {
+      ((ImageObjectManager) mManager).updateObjects(images, updateType);
     }
   }
 
@@ -158,6 +207,47 @@ public abstract class RendererControllerBase {
   private static final boolean SHOULD_LOG_QUEUE = false;
   private static final boolean SHOULD_LOG_RUN = false;
   private static final boolean SHOULD_LOG_FINISH = false;
+  private static final boolean SHOULD_LOG = SHOULD_LOG_QUEUE || SHOULD_LOG_RUN || SHOULD_LOG_FINISH;
+
+  /**
+   * The view settings which are coalesced rather than queued one by one.
+   */
+  private static class ViewState {
+    static final int ORIENTATION = 1;
+    static final int FIELD_OF_VIEW = 2;
+    static final int TEXT_ANGLE = 4;
+    static final int VIEWER_UP = 8;
+
+    // Which of the settings have changed.
+    int changes = 0;
+    final GeocentricCoordinates lookDir = new GeocentricCoordinates(0, 0, 0);
+    final GeocentricCoordinates upDir = new GeocentricCoordinates(0, 0, 0);
+    final GeocentricCoordinates viewerUp = new GeocentricCoordinates(0, 0, 0);
+    float fieldOfView = 0;
+    float textAngle = 0;
+
+    void copyFrom(ViewState other) {
+      changes = other.changes;
+      lookDir.assign(other.lookDir);
+      upDir.assign(other.upDir);
+      viewerUp.assign(other.viewerUp);
+      fieldOfView = other.fieldOfView;
+      textAngle = other.textAngle;
+    }
+  }
+
+  private final Object mViewLock = new Object();
+  private final ViewState mPendingView = new ViewState();
+  // Only used on the GL thread.
+  private final ViewState mAppliedView = new ViewState();
+  private boolean mViewChangeQueued = false;
+  private final Runnable mApplyViewChanges = new Runnable() {
+    public void run() {
+      applyViewChanges();
+    }
+  };
+  private final Counter mViewChangesCoalescedCounter =
+      Metrics.counter("renderer.commands.viewChangesCoalesced");
 
   protected final SkyRenderer mRenderer;
 
@@ -192,33 +282,84 @@ public abstract class RendererControllerBase {
     }});
   }
 
-  public void queueFieldOfView(final float fov) {
-    final String msg = "Setting fov: " + fov;
+  public void queueStarDensity(final float magnitudeOffset) {
+    final String msg = "Setting star density: " + magnitudeOffset;
     queueRunnable(msg, CommandType.View, new Runnable() { public void run() {
-      mRenderer.setRadiusOfView(fov);
+      mRenderer.setStarDensity(magnitudeOffset);
     }});
   }
 
-  public void queueTextAngle(final float angleInRadians) {
-    final String msg = "Setting text angle: " + angleInRadians;
-    queueRunnable(msg, CommandType.View, new Runnable() { public void run() {
-      mRenderer.setTextAngle(angleInRadians);
-    }});
+  // The view commands below are sent with every sensor reading, which can be far more often
+  // than frames are drawn.  Rather than queueing a command for each, they store the latest
+  // values, and a single command applies whatever is latest when it runs.
+
+  public void queueFieldOfView(float fov) {
+    synchronized (mViewLock) {
+      mPendingView.fieldOfView = fov;
+      mPendingView.changes |= ViewState.FIELD_OF_VIEW;
+      queueViewChange();
+    }
   }
 
-  public void queueViewerUpDirection(final GeocentricCoordinates up) {
-    final String msg = "Setting up direction: " + up;
-    queueRunnable(msg, CommandType.View, new Runnable() { public void run() {
-      mRenderer.setViewerUpDirection(up);
-    }});
+  public void queueTextAngle(float angleInRadians) {
+    synchronized (mViewLock) {
+      mPendingView.textAngle = angleInRadians;
+      mPendingView.changes |= ViewState.TEXT_ANGLE;
+      queueViewChange();
+    }
   }
 
-  public void queueSetViewOrientation(final float dirX, final float dirY, final float dirZ,
-                                      final float upX, final float upY, final float upZ) {
-    final String msg = "Setting view orientation";
-    queueRunnable(msg, CommandType.Data, new Runnable() { public void run() {
-    mRenderer.setViewOrientation(dirX, dirY, dirZ, upX, upY, upZ);
-    }});
+  // The direction is copied, so the caller can reuse it.
+  public void queueViewerUpDirection(GeocentricCoordinates up) {
+    synchronized (mViewLock) {
+      mPendingView.viewerUp.assign(up);
+      mPendingView.changes |= ViewState.VIEWER_UP;
+      queueViewChange();
+    }
+  }
+
+  public void queueSetViewOrientation(float dirX, float dirY, float dirZ,
+                                      float upX, float upY, float upZ) {
+    synchronized (mViewLock) {
+      mPendingView.lookDir.assign(dirX, dirY, dirZ);
+      mPendingView.upDir.assign(upX, upY, upZ);
+      mPendingView.changes |= ViewState.ORIENTATION;
+      queueViewChange();
+    }
+  }
+
+  // Must be called with mViewLock held.
+  private void queueViewChange() {
+    if (mViewChangeQueued) {
+      mViewChangesCoalescedCounter.increment();
+      return;
+    }
+    mViewChangeQueued = true;
+    queueRunnable("Applying view changes", CommandType.View, mApplyViewChanges);
+  }
+
+  // Runs on the GL thread.  The values are copied out first, so the sensors aren't kept
+  // waiting while the renderer uses them.
+  private void applyViewChanges() {
+    synchronized (mViewLock) {
+      mAppliedView.copyFrom(mPendingView);
+      mPendingView.changes = 0;
+      mViewChangeQueued = false;
+    }
+    ViewState view = mAppliedView;
+    if ((view.changes & ViewState.ORIENTATION) != 0) {
+      mRenderer.setViewOrientation(view.lookDir.x, view.lookDir.y, view.lookDir.z,
+                                   view.upDir.x, view.upDir.y, view.upDir.z);
+    }
+    if ((view.changes & ViewState.TEXT_ANGLE) != 0) {
+      mRenderer.setTextAngle(view.textAngle);
+    }
+    if ((view.changes & ViewState.VIEWER_UP) != 0) {
+      mRenderer.setViewerUpDirection(view.viewerUp);
+    }
+    if ((view.changes & ViewState.FIELD_OF_VIEW) != 0) {
+      mRenderer.setRadiusOfView(view.fieldOfView);
+    }
   }
 
   public void queueEnableSkyGradient(final GeocentricCoordinates sunPosition) {
@@ -281,6 +422,18 @@ public abstract class RendererControllerBase {
     }});
   }
 
+  /**
+   * Runs applied on the GL thread once everything queued before it has been
+   * applied, and then drawn once the next frame has been drawn.
+   */
+  public void queueFrameCallbacks(final Runnable applied, final Runnable drawn) {
+    String msg = "Queueing frame callbacks";
+    queueRunnable(msg, CommandType.Synchronization, new Runnable() { public void run() {
+      applied.run();
+      mRenderer.runAfterNextFrame(drawn);
+    }});
+  }
+
   public void waitUntilFinished() {
     final ConditionVariable cv = new ConditionVariable();
     String msg = "Waiting until operations have finished";
@@ -294,7 +447,8 @@ public abstract class RendererControllerBase {
 
   protected void queueRunnable(String msg, final CommandType type, final Runnable r) {
     EventQueuer queuer = getQueuer();
-    String fullMessage = toString() + " - " + msg;
+    // Only build the message if it'll be logged, since some commands are queued every frame.
+    String fullMessage = SHOULD_LOG ? toString() + " - " + msg : msg;
     RendererControllerBase.queueRunnable(queuer, fullMessage, type, r);
   }
 
@@ -302,7 +456,7 @@ public abstract class RendererControllerBase {
                                       final CommandType type, final Runnable r) {
     // If we're supposed to log something, then wrap the runnable with the
     // appropriate logging statements.  Otherwise, just queue it.
-    if (SHOULD_LOG_QUEUE || SHOULD_LOG_RUN || SHOULD_LOG_FINISH) {
+    if (SHOULD_LOG) {
       logQueue(msg, type);
       queuer.queueEvent(new Runnable() { public void run() {
         logRun(msg, type);
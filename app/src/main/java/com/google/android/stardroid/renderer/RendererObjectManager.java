@@ -16,8 +16,12 @@ package com.google.android.stardroid.renderer;
 
 import android.util.Log;
 
+import com.google.android.stardroid.renderer.util.GeometryCache;
 import com.google.android.stardroid.renderer.util.TextureManager;
+import com.google.android.stardroid.util.metrics.Metrics;
+import com.google.android.stardroid.util.metrics.Timer;
 
+import java.nio.ByteBuffer;
 import java.util.EnumSet;
 
 import javax.microedition.khronos.opengles.GL10;
@@ -34,6 +38,10 @@ public abstract class RendererObjectManager implements Comparable<RendererObject
   public RendererObjectManager(int layer, TextureManager textureManager) {
     mLayer = layer;
     mTextureManager = textureManager;
+    // Managers of the same type share their timers.
+    String type = getClass().getSimpleName();
+    mDrawTimer = Metrics.timer("renderer.draw." + type);
+    mReloadTimer = Metrics.timer("renderer.reload." + type);
     synchronized(RendererObjectManager.class) {
       mIndex = sIndex++;
     }
@@ -41,10 +49,43 @@ public abstract class RendererObjectManager implements Comparable<RendererObject
 
   public void enable(boolean enable) {
     mEnabled = enable;
+    queueRedraw();
   }
 
   public void setMaxRadiusOfView(float radiusOfView) {
     mMaxRadiusOfView = radiusOfView;
+    queueRedraw();
+  }
+
+  // Tells the manager that its objects look the same every time, so their geometry can be kept in
+  // the GeometryCache under the given name for as long as the objects' checksum stays the same.
+  // Only the point and line managers make use of it.
+  public void setGeometryKey(String name, long checksum) {
+    mGeometryName = name;
+    mGeometryChecksum = checksum;
+  }
+
+  // Returns true if the manager's geometry should be kept in the GeometryCache.
+  protected boolean isGeometryCached() {
+    return mGeometryName != null && mRenderState != null
+        && mRenderState.getGeometryCache() != null;
+  }
+
+  // Returns the snapshot of the manager's geometry in the given format, if one's been kept for
+  // its current objects, or null.
+  protected ByteBuffer readGeometrySnapshot(String format) {
+    if (!isGeometryCached()) {
+      return null;
+    }
+    return mRenderState.getGeometryCache().read(mGeometryName + "." + format, mGeometryChecksum);
+  }
+
+  // Keeps a snapshot of the manager's geometry in the given format for next time.
+  protected void writeGeometrySnapshot(String format, ByteBuffer snapshot) {
+    if (isGeometryCached()) {
+      mRenderState.getGeometryCache().write(
+          mGeometryName + "." + format, mGeometryChecksum, snapshot);
+    }
   }
 
   public int compareTo(RendererObjectManager rom) {
@@ -65,10 +106,24 @@ public abstract class RendererObjectManager implements Comparable<RendererObject
   }
 
   final void draw(GL10 gl) {
-    if (mEnabled && mRenderState.getRadiusOfView() <= mMaxRadiusOfView) {
+    if (isVisible()) {
+      long start = Metrics.startTimer();
       drawInternal(gl);
+      mDrawTimer.stop(start);
     }
   }
+
+  // Calls reload, timing it.  The renderer reloads managers through this.
+  final void timedReload(GL10 gl, boolean fullReload) {
+    long start = Metrics.startTimer();
+    reload(gl, fullReload);
+    mReloadTimer.stop(start);
+  }
+
+  // Returns true if the manager will be drawn in the current frame.
+  final boolean isVisible() {
+    return mEnabled && mRenderState.getRadiusOfView() <= mMaxRadiusOfView;
+  }
   final void setRenderState(RenderStateInterface state) {
     mRenderState = state;
   }
@@ -79,6 +134,9 @@ public abstract class RendererObjectManager implements Comparable<RendererObject
 
   interface UpdateListener {
     void queueForReload(RendererObjectManager rom, boolean fullReload);
+    // Tells the renderer that the manager will draw something different in the next frame.  May
+    // be called from any thread.
+    void queueRedraw();
   }
 
   final void setUpdateListener(UpdateListener listener) {
@@ -90,6 +148,14 @@ public abstract class RendererObjectManager implements Comparable<RendererObject
     mListener.queueForReload(this, fullReload);
   }
 
+  // Notifies the renderer that the next frame will be different, for changes which don't need a
+  // reload.  Does nothing if the manager hasn't been added to the renderer yet.
+  final void queueRedraw() {
+    if (mListener != null) {
+      mListener.queueRedraw();
+    }
+  }
+
   protected void logUpdateMismatch(String managerType, int expectedLength, int actualLength,
                                    EnumSet<RendererObjectManager.UpdateType> type) {
     Log.e("ImageObjectManager",
@@ -119,9 +185,13 @@ public abstract class RendererObjectManager implements Comparable<RendererObject
   private RenderStateInterface mRenderState = null;
   private UpdateListener mListener = null;
   private float mMaxRadiusOfView = 360;  // in degrees
+  private String mGeometryName = null;
+  private long mGeometryChecksum = 0;
   private int mLayer;
   private int mIndex;
   private final TextureManager mTextureManager;
+  private final Timer mDrawTimer;
+  private final Timer mReloadTimer;
   // Used to distinguish between different renderers, so we can have sets of them.
   private static int sIndex = 0;
 }
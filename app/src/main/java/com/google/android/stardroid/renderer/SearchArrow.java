@@ -17,13 +17,16 @@ package com.google.android.stardroid.renderer;
 import android.content.res.Resources;
 
 import com.google.android.stardroid.R;
+import com.google.android.stardroid.renderer.util.GLStateCache;
 import com.google.android.stardroid.renderer.util.SearchHelper;
+import com.google.android.stardroid.renderer.util.SkyShaders;
 import com.google.android.stardroid.renderer.util.TextureManager;
 import com.google.android.stardroid.renderer.util.TextureReference;
 import com.google.android.stardroid.renderer.util.TexturedQuad;
 import com.google.android.stardroid.units.Vector3;
 import com.google.android.stardroid.util.FixedPoint;
 import com.google.android.stardroid.util.MathUtil;
+import com.google.android.stardroid.util.Matrix4x4;
 import com.google.android.stardroid.util.VectorUtil;
 
 import javax.microedition.khronos.opengles.GL10;
@@ -46,12 +49,29 @@ public class SearchArrow {
   
   private TextureReference mArrowTex = null;
   private TextureReference mCircleTex = null;
+
+  // The direction of the arrow, and how far the target is, as worked out by updateDirection.
+  private float mAngle = 0;
+  private float mDistance = 0;
+
+  // Used by drawWithShaders in place of the fixed function matrix stack.
+  private static final Vector3 ROTATION_AXIS = new Vector3(0, 0, -1);
+  private final Matrix4x4 mRotation = Matrix4x4.createIdentity();
+  private final Matrix4x4 mRotated = Matrix4x4.createIdentity();
+  private final Matrix4x4 mTranslation = Matrix4x4.createIdentity();
+  private final Matrix4x4 mTranslated = Matrix4x4.createIdentity();
+  private final Matrix4x4 mScaling = Matrix4x4.createIdentity();
+  private final Matrix4x4 mTransform = Matrix4x4.createIdentity();
   
   public void reloadTextures(GL10 gl, Resources res, TextureManager textureManager) {
     gl.glEnable(GL10.GL_TEXTURE_2D);
     
+    TextureReference oldArrowTex = mArrowTex;
+    TextureReference oldCircleTex = mCircleTex;
     mArrowTex = textureManager.getTextureFromResource(gl, R.drawable.arrow);    
     mCircleTex = textureManager.getTextureFromResource(gl, R.drawable.arrowcircle);
+    textureManager.releaseTexture(gl, oldArrowTex);
+    textureManager.releaseTexture(gl, oldCircleTex);
     
     gl.glDisable(GL10.GL_TEXTURE_2D);
   }
@@ -73,8 +93,8 @@ public class SearchArrow {
     mArrowOffset = mCircleSizeFactor + mArrowSizeFactor;
   }
   
-  public void draw(GL10 gl, Vector3 lookDir, Vector3 upDir, SearchHelper searchHelper,
-                   boolean nightVisionMode) {
+  // Works out which way the arrow points and how far the target is from the look direction.
+  private void updateDirection(Vector3 lookDir, Vector3 upDir) {
     float lookPhi = MathUtil.acos(lookDir.y);
     float lookTheta = MathUtil.atan2(lookDir.z, lookDir.x);
     
@@ -101,19 +121,26 @@ public class SearchArrow {
     // about the look direction in order to get it in the same plane as the up direction.
     float roll = angleBetweenVectorsWithRespectToAxis(new Vector3(0, 1, 0), upDir, lookDir);
     
-    angle += roll;
-    
+    mAngle = angle + roll;
+
     // Distance is a normalized value of the distance.
-    float distance = 1.0f / (1.414f * MathUtil.PI) * 
+    mDistance = 1.0f / (1.414f * MathUtil.PI) *
         MathUtil.sqrt(diffTheta * diffTheta + diffPhi * diffPhi);
-   
-    gl.glEnable(GL10.GL_BLEND);
-    gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+  }
+
+  public void draw(GL10 gl, GLStateCache state, Vector3 lookDir, Vector3 upDir,
+                   SearchHelper searchHelper, boolean nightVisionMode) {
+    updateDirection(lookDir, upDir);
+    float angle = mAngle;
+    float distance = mDistance;
+
+    state.enable(GL10.GL_BLEND);
+    state.blendFunc(gl, GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
     
     gl.glPushMatrix();
     gl.glRotatef(angle * 180.0f / MathUtil.PI, 0, 0, -1);
     
-    gl.glTexEnvf(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE, GL10.GL_BLEND);
+    state.texEnvMode(gl, GL10.GL_BLEND);
     
     // 0 means the circle is not expanded at all.  1 means fully expanded.
     float expandFactor = searchHelper.getTransitionFactor();
@@ -136,14 +163,14 @@ public class SearchArrow {
       gl.glPushMatrix();
       float circleScale = mCircleSizeFactor;
       gl.glScalef(circleScale, circleScale, circleScale);
-      mCircleQuad.draw(gl);
+      mCircleQuad.draw(gl, state);
       gl.glPopMatrix();
     
       gl.glPushMatrix();
       float arrowScale = mArrowSizeFactor;
       gl.glTranslatef(mArrowOffset * 0.5f, 0, 0);
       gl.glScalef(arrowScale, arrowScale, arrowScale);
-      mArrowQuad.draw(gl);
+      mArrowQuad.draw(gl, state);
       gl.glPopMatrix();
     } else {
       gl.glColor4x(FixedPoint.ONE, FixedPoint.ONE, FixedPoint.ONE, 
@@ -156,16 +183,67 @@ public class SearchArrow {
       float circleScale = mFullCircleScaleFactor * expandFactor + 
           mCircleSizeFactor * (1 - expandFactor);
       gl.glScalef(circleScale, circleScale, circleScale);
-      mCircleQuad.draw(gl);
+      mCircleQuad.draw(gl, state);
       gl.glPopMatrix();
     }
     gl.glPopMatrix();
     
-    gl.glTexEnvf(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE, GL10.GL_REPLACE);
+    state.texEnvMode(gl, GL10.GL_REPLACE);
     
-    gl.glDisable(GL10.GL_BLEND);
+    state.disable(GL10.GL_BLEND);
   }
   
+  /**
+   * As draw, but with the general shader program.  screenMatrix maps the
+   * overlay's screen coordinates to device coordinates.  The caller enables
+   * blending.
+   */
+  public void drawWithShaders(GL10 gl, Matrix4x4 screenMatrix, Vector3 lookDir, Vector3 upDir,
+                              SearchHelper searchHelper, boolean nightVisionMode) {
+    updateDirection(lookDir, upDir);
+    mRotation.setRotation(mAngle, ROTATION_AXIS);
+    Matrix4x4.multiplyMM(screenMatrix, mRotation, mRotated);
+
+    // 0 means the circle is not expanded at all.  1 means fully expanded.
+    float expandFactor = searchHelper.getTransitionFactor();
+
+    if (expandFactor == 0) {
+      float redFactor, blueFactor;
+      if (nightVisionMode) {
+        redFactor = 0.6f;
+        blueFactor = 0;
+      } else {
+        redFactor = 1.0f - mDistance;
+        blueFactor = mDistance;
+      }
+      drawQuadWithShaders(gl, mCircleQuad, 0, mCircleSizeFactor, 1, redFactor, 0, blueFactor);
+      drawQuadWithShaders(gl, mArrowQuad, mArrowOffset * 0.5f, mArrowSizeFactor, 1,
+                          redFactor, 0, blueFactor);
+    } else {
+      float circleScale = mFullCircleScaleFactor * expandFactor +
+          mCircleSizeFactor * (1 - expandFactor);
+      drawQuadWithShaders(gl, mCircleQuad, 0, circleScale, 0.7f,
+                          1, nightVisionMode ? 0 : 0.5f, 0);
+    }
+  }
+
+  // Draws the quad moved out along the arrow by offset and then scaled.  As with the GL_BLEND
+  // texture environment in draw, the texture blends white towards the given color.
+  private void drawQuadWithShaders(GL10 gl, TexturedQuad quad, float offset, float scale,
+                                   float alpha, float r, float g, float b) {
+    mTranslation.setTranslation(offset, 0, 0);
+    Matrix4x4.multiplyMM(mRotated, mTranslation, mTranslated);
+    mScaling.setScaling(scale, scale, scale);
+    Matrix4x4.multiplyMM(mTranslated, mScaling, mTransform);
+    if (!SkyShaders.useGeneral(mTransform.getFloatArray(), false, true, -1)) {
+      return;
+    }
+    SkyShaders.setTextureBlendColor(r, g, b);
+    SkyShaders.setConstantAttribute(SkyShaders.ATTRIBUTE_COLOR, 1, 1, 1, alpha);
+    quad.drawWithShaders(gl);
+    SkyShaders.restoreAttribute(SkyShaders.ATTRIBUTE_COLOR);
+  }
+
   public void setTarget(Vector3 position) {
     position = VectorUtil.normalized(position);
     mTargetPhi = MathUtil.acos(position.y);
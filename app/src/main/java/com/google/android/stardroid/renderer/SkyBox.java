@@ -14,15 +14,19 @@
 
 package com.google.android.stardroid.renderer;
 
+import android.opengl.GLES20;
 import android.util.Log;
 
 import com.google.android.stardroid.renderer.util.ColorBuffer;
+import com.google.android.stardroid.renderer.util.GLStateCache;
 import com.google.android.stardroid.renderer.util.IndexBuffer;
+import com.google.android.stardroid.renderer.util.SkyShaders;
 import com.google.android.stardroid.renderer.util.TextureManager;
 import com.google.android.stardroid.renderer.util.VertexBuffer;
 import com.google.android.stardroid.units.GeocentricCoordinates;
 import com.google.android.stardroid.units.Vector3;
 import com.google.android.stardroid.util.MathUtil;
+import com.google.android.stardroid.util.Matrix4x4;
 import com.google.android.stardroid.util.VectorUtil;
 
 import javax.microedition.khronos.opengles.GL10;
@@ -129,6 +133,11 @@ public class SkyBox extends RendererObjectManager {
   public void setSunPosition(GeocentricCoordinates pos) {
     mSunPos = pos.copy();
     //Log.d("SkyBox", "SunPos: " + pos.toString());
+    // Work out the rotation which takes the sky box to the position of the sun here, rather
+    // than every frame.
+    mRotationAxis.assign(VectorUtil.normalized(VectorUtil.crossProduct(UP, mSunPos)));
+    mRotationAngle = MathUtil.acos(mSunPos.y);
+    mRotation.setRotation(mRotationAngle, mRotationAxis);
   }
   
   @Override
@@ -136,32 +145,54 @@ public class SkyBox extends RendererObjectManager {
     if (getRenderState().getNightVisionMode()) {
       return;
     }
+    if (getRenderState().isUsingGles2()) {
+      drawWithShaders(gl);
+      return;
+    }
     
-    gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-    gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
-    gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    GLStateCache state = getRenderState().getGLState();
+    state.enableClientState(GL10.GL_VERTEX_ARRAY);
+    state.enableClientState(GL10.GL_COLOR_ARRAY);
+    state.disableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
     
-    gl.glEnable(GL10.GL_CULL_FACE);
-    gl.glFrontFace(GL10.GL_CW);
-    gl.glCullFace(GL10.GL_BACK);
+    state.enable(GL10.GL_CULL_FACE);
+    state.frontFace(gl, GL10.GL_CW);
+    state.cullFace(gl, GL10.GL_BACK);
     
     gl.glShadeModel(GL10.GL_SMOOTH);
     
     gl.glPushMatrix();
 
     // Rotate the sky box to the position of the sun.
-    Vector3 cp = VectorUtil.crossProduct(new Vector3(0, 1, 0), mSunPos);
-    cp = VectorUtil.normalized(cp);
-    float angle = 180.0f / MathUtil.PI * MathUtil.acos(mSunPos.y);
-    gl.glRotatef(angle, cp.x, cp.y, cp.z);
+    gl.glRotatef(MathUtil.RADIANS_TO_DEGREES * mRotationAngle,
+                 mRotationAxis.x, mRotationAxis.y, mRotationAxis.z);
     
     mVertexBuffer.set(gl);
     mColorBuffer.set(gl);
     
+    state.apply(gl);
     mIndexBuffer.draw(gl, GL10.GL_TRIANGLES);
     
     gl.glPopMatrix();
   }
+
+  private void drawWithShaders(GL10 gl) {
+    // Rotate the sky box to the position of the sun.
+    Matrix4x4.multiplyMM(getRenderState().getTransformToDeviceMatrix(), mRotation, mTransform);
+    if (!SkyShaders.useGeneral(mTransform.getFloatArray(), false, false, -1)) {
+      return;
+    }
+    GLES20.glEnable(GLES20.GL_CULL_FACE);
+    GLES20.glFrontFace(GLES20.GL_CW);
+    GLES20.glCullFace(GLES20.GL_BACK);
+
+    // The sky box isn't textured.
+    SkyShaders.setConstantAttribute(SkyShaders.ATTRIBUTE_TEX_COORD, 0, 0, 0, 1);
+    mVertexBuffer.setAttrib(gl, SkyShaders.ATTRIBUTE_POSITION);
+    mColorBuffer.setAttrib(gl, SkyShaders.ATTRIBUTE_COLOR);
+    mIndexBuffer.draw(gl, GL10.GL_TRIANGLES);
+    SkyShaders.restoreAttribute(SkyShaders.ATTRIBUTE_TEX_COORD);
+  }
   
   private static final short NUM_VERTEX_BANDS = 8;
   // This number MUST be even
@@ -175,4 +206,10 @@ public class SkyBox extends RendererObjectManager {
   ColorBuffer mColorBuffer = new ColorBuffer(true);
   IndexBuffer mIndexBuffer = new IndexBuffer(true);
   GeocentricCoordinates mSunPos = new GeocentricCoordinates(0, 1, 0);
+
+  private static final Vector3 UP = new Vector3(0, 1, 0);
+  private final Vector3 mRotationAxis = new Vector3(1, 0, 0);
+  private float mRotationAngle = 0;
+  private final Matrix4x4 mRotation = Matrix4x4.createIdentity();
+  private final Matrix4x4 mTransform = Matrix4x4.createIdentity();
 }
@@ -15,19 +15,27 @@
 package com.google.android.stardroid.renderer;
 
 import android.content.res.Resources;
+import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLU;
 import android.util.Log;
 
 import com.google.android.stardroid.renderer.util.GLBuffer;
+import com.google.android.stardroid.renderer.util.GeometryCache;
+import com.google.android.stardroid.renderer.util.GLStateCache;
+import com.google.android.stardroid.renderer.util.LabelPlacer;
 import com.google.android.stardroid.renderer.util.SkyRegionMap;
+import com.google.android.stardroid.renderer.util.SkyShaders;
 import com.google.android.stardroid.renderer.util.TextureManager;
 import com.google.android.stardroid.renderer.util.UpdateClosure;
 import com.google.android.stardroid.units.GeocentricCoordinates;
 import com.google.android.stardroid.units.Vector3;
 import com.google.android.stardroid.util.MathUtil;
 import com.google.android.stardroid.util.Matrix4x4;
-import com.google.android.stardroid.util.VectorUtil;
+import com.google.android.stardroid.util.metrics.Counter;
+import com.google.android.stardroid.util.metrics.Histogram;
+import com.google.android.stardroid.util.metrics.Metrics;
+import com.google.android.stardroid.util.metrics.Timer;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -44,9 +52,21 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
   private OverlayManager mOverlayManager = null;
 
   private RenderState mRenderState = new RenderState();
-
-  private Matrix4x4 mProjectionMatrix;
-  private Matrix4x4 mViewMatrix;
+  // The fixed function state, which the managers change through the render state.
+  private final GLStateCache mGLState = mRenderState.getGLState();
+
+  // Recomputed in place every frame, so that we don't allocate a new one each time.
+  private final SkyRegionMap.ActiveRegionData mActiveSkyRegions =
+      new SkyRegionMap.ActiveRegionData();
+
+  // The matrices are recomputed in place when the view changes, so that a steady stream of
+  // view changes doesn't allocate anything.
+  private final Matrix4x4 mProjectionMatrix = new Matrix4x4();
+  private final Matrix4x4 mViewMatrix = new Matrix4x4();
+  private final Matrix4x4 mTransformToDevice = new Matrix4x4();
+  private final Matrix4x4 mTransformToScreen = new Matrix4x4();
+  private final Matrix4x4 mDeviceToScreen = new Matrix4x4();
+  private final Vector3 mRightDir = new Vector3(0, 0, 0);
 
   // Indicates whether the transformation matrix has changed since the last
   // time we started rendering
@@ -54,17 +74,64 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
   private boolean mMustUpdateProjection = true;
 
   private Set<UpdateClosure> mUpdateClosures = new TreeSet<UpdateClosure>();
+  // The update closures in the order they're run, walked by index so that running them doesn't
+  // allocate an iterator every frame.
+  private final ArrayList<UpdateClosure> mUpdateClosureList = new ArrayList<>();
+  // Run once the next frame has been drawn, and then dropped.
+  private final ArrayList<Runnable> mAfterFrameCallbacks = new ArrayList<>();
+
+  // Changes in the view direction which would move the sky by less than this many pixels don't
+  // cause a redraw when rendering on demand, so that sensor noise doesn't keep the screen busy
+  // while the phone is held still.  The small movements still add up: they're measured against
+  // the direction the last frame was drawn with.
+  private static final float JITTER_THRESHOLD_PIXELS = 0.5f;
+  // If true, periodically log how many frames were drawn and skipped when rendering on demand.
+  private static final boolean LOG_FRAME_STATS = false;
+  private static final int TICKS_PER_STATS_LOG = 600;
+  // Buckets for the number of state changes which reach OpenGL in a frame.
+  private static final long[] STATE_CHANGE_BUCKETS = {0, 4, 8, 16, 32, 64, 128};
+
+  // If not null, frames are only drawn when something has changed, by running this to ask for
+  // one.  Otherwise we draw continuously.  Managers may ask for a frame from other threads.
+  private volatile Runnable mRequestRender = null;
+  // The view direction the last frame was drawn with.
+  private final Vector3 mDrawnLookDir = new Vector3(0, 0, 0);
+  private final Vector3 mDrawnUpDir = new Vector3(0, 0, 0);
+  // Counts of frames drawn, and of ticks in which there was nothing new to draw.
+  private long mNumFramesRendered = 0;
+  private long mNumFramesSkipped = 0;
+  private long mNumFramesRenderedAtLastTick = 0;
+  private int mNumTicksSinceStatsLog = 0;
+
+  private final Timer mFrameTimer = Metrics.timer("renderer.frame");
+  private final Timer mPlaceLabelsTimer = Metrics.timer("renderer.placeLabels");
+  private final Timer mUpdateClosuresTimer = Metrics.timer("renderer.updateClosures");
+  private final Counter mFramesSkippedCounter = Metrics.counter("renderer.framesSkipped");
+  private final Counter mStateChangesAvoidedCounter =
+      Metrics.counter("renderer.glState.changesAvoided");
+  private final Histogram mStateChangesIssuedHistogram =
+      Metrics.histogram("renderer.glState.changesPerFrame", STATE_CHANGE_BUCKETS);
 
   private RendererObjectManager.UpdateListener mUpdateListener =
       new RendererObjectManager.UpdateListener() {
         public void queueForReload(RendererObjectManager rom, boolean fullReload) {
           mManagersToReload.add(new ManagerReloadData(rom, fullReload));
+          markDirty();
+        }
+
+        public void queueRedraw() {
+          markDirty();
         }
       };
 
   // All managers - we need to reload all of these when we recreate the surface.
   private Set<RendererObjectManager> mAllManagers = new TreeSet<RendererObjectManager>();
 
+  // The label managers, with the highest layer first.  Their labels are placed in this order
+  // every frame, so that labels in higher layers take precedence over those below them.
+  private final ArrayList<LabelObjectManager> mLabelManagers = new ArrayList<>();
+  private final LabelPlacer mLabelPlacer = new LabelPlacer();
+
   protected final TextureManager mTextureManager;
 
   private static class ManagerReloadData {
@@ -83,9 +150,20 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
   // Maps an integer indicating render order to a list of objects at that level.  The managers
   // will be rendered in order, with the lowest number coming first.
   private TreeMap<Integer, Set<RendererObjectManager>> mLayersToManagersMap = null;
+  // The same managers, flattened into the order they're drawn.  Rebuilt whenever a manager is
+  // added or removed, so that drawing a frame doesn't allocate iterators.
+  private final ArrayList<RendererObjectManager> mDrawOrder = new ArrayList<>();
 
   public SkyRenderer(Resources res) {
+    this(res, false);
+  }
+
+  // If useGles2 is set, the surface must have been created with an OpenGL ES 2.0 context, and
+  // everything is drawn with the shaders in SkyShaders rather than the fixed function pipeline.
+  public SkyRenderer(Resources res, boolean useGles2) {
     mRenderState.setResources(res);
+    mRenderState.setUsingGles2(useGles2);
+    mRenderState.setActiveSkyRegions(mActiveSkyRegions);
 
     mLayersToManagersMap = new TreeMap<Integer, Set<RendererObjectManager>>();
 
@@ -105,40 +183,139 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
 
   // Returns true if the buffers should be swapped, false otherwise.
   public void onDrawFrame(GL10 gl) {
+    long frameStart = Metrics.startTimer();
     // Initialize any of the unloaded managers.
-    for (ManagerReloadData data : mManagersToReload) {
-      data.manager.reload(gl, data.fullReload);
+    if (!mManagersToReload.isEmpty()) {
+      for (ManagerReloadData data : mManagersToReload) {
+        data.manager.timedReload(gl, data.fullReload);
+      }
+      mManagersToReload.clear();
+      // Reloading binds textures, and may change other state, behind the cache's back.
+      mGLState.invalidate();
     }
-    mManagersToReload.clear();
 
     maybeUpdateMatrices(gl);
 
     // Determine which sky regions should be rendered.
-    mRenderState.setActiveSkyRegions(
-        SkyRegionMap.getActiveRegions(
-            mRenderState.getLookDir(),
-            mRenderState.getRadiusOfView(),
-            (float) mRenderState.getScreenWidth() / mRenderState.getScreenHeight()));
+    mActiveSkyRegions.update(
+        mRenderState.getLookDir(),
+        mRenderState.getRadiusOfView(),
+        (float) mRenderState.getScreenWidth() / mRenderState.getScreenHeight());
+
+    // Decide which labels to draw before drawing anything.
+    long placeLabelsStart = Metrics.startTimer();
+    mLabelPlacer.reset(mRenderState.getScreenWidth(), mRenderState.getScreenHeight());
+    for (int i = 0; i < mLabelManagers.size(); i++) {
+      LabelObjectManager manager = mLabelManagers.get(i);
+      if (manager.isVisible()) {
+        manager.placeLabels(mLabelPlacer);
+      }
+    }
+    mPlaceLabelsTimer.stop(placeLabelsStart);
 
     gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
 
-    for (int layer : mLayersToManagersMap.keySet()) {
-      Set<RendererObjectManager> managers = mLayersToManagersMap.get(layer);
-      for (RendererObjectManager rom : managers) {
-        rom.draw(gl);
-      }
+    for (int i = 0; i < mDrawOrder.size(); i++) {
+      mDrawOrder.get(i).draw(gl);
     }
     checkForErrors(gl);
+    if (!mRenderState.isUsingGles2()) {
+      mStateChangesAvoidedCounter.add(mGLState.getNumAvoided());
+      mStateChangesIssuedHistogram.record(mGLState.getNumIssued());
+      mGLState.resetCounts();
+    }
+    mFrameTimer.stop(frameStart);
+    if (!mAfterFrameCallbacks.isEmpty()) {
+      for (int i = 0; i < mAfterFrameCallbacks.size(); i++) {
+        mAfterFrameCallbacks.get(i).run();
+      }
+      mAfterFrameCallbacks.clear();
+    }
+
+    mNumFramesRendered++;
+    mDrawnLookDir.assign(mRenderState.getLookDir());
+    mDrawnUpDir.assign(mRenderState.getUpDir());
+    // The search overlay animates, so keep drawing while it's up.
+    if (mOverlayManager.isSearching()) {
+      markDirty();
+    }
+
+    // Queue updates for the next frame.  When rendering on demand, the updates are run by
+    // tick() instead, since there may not be a next frame.
+    if (mRequestRender == null) {
+      runUpdateClosures();
+    }
+  }
+
+  /**
+   * Switches between drawing continuously, and only drawing when something
+   * has changed.  To render on demand, the view should be set to
+   * RENDERMODE_WHEN_DIRTY, and requestRender should ask it for a frame.
+   * tick() must then be called regularly on the GL thread to run the update
+   * closures.  Pass null to draw continuously again.
+   */
+  public void setRenderOnDemand(Runnable requestRender) {
+    mRequestRender = requestRender;
+    markDirty();
+  }
+
+  /**
+   * Runs the update closures when rendering on demand.  They queue any
+   * changes to the view or the objects, which ask for a frame if they need
+   * one.  Must be called on the GL thread.
+   *
+   * @return whether a frame was drawn since the previous tick
+   */
+  public boolean tick() {
+    boolean drewFrame = mNumFramesRendered != mNumFramesRenderedAtLastTick;
+    if (!drewFrame) {
+      mNumFramesSkipped++;
+      mFramesSkippedCounter.increment();
+    }
+    mNumFramesRenderedAtLastTick = mNumFramesRendered;
+    if (LOG_FRAME_STATS && ++mNumTicksSinceStatsLog == TICKS_PER_STATS_LOG) {
+      Log.d("SkyRenderer", "Frames rendered: " + mNumFramesRendered
+          + ", skipped: " + mNumFramesSkipped);
+      mNumTicksSinceStatsLog = 0;
+    }
+    runUpdateClosures();
+    return drewFrame;
+  }
 
-    // Queue updates for the next frame.
-    for (UpdateClosure update : mUpdateClosures) {
-      update.run();
+  // The number of frames drawn so far.
+  public long getNumFramesRendered() {
+    return mNumFramesRendered;
+  }
+
+  // The number of ticks so far in which nothing had changed, so no frame was drawn.
+  public long getNumFramesSkipped() {
+    return mNumFramesSkipped;
+  }
+
+  private void runUpdateClosures() {
+    long start = Metrics.startTimer();
+    for (int i = 0; i < mUpdateClosureList.size(); i++) {
+      mUpdateClosureList.get(i).run();
+    }
+    mUpdateClosuresTimer.stop(start);
+  }
+
+  // Notes that the next frame will look different, and asks for it to be drawn if we're
+  // rendering on demand.
+  private void markDirty() {
+    if (mRequestRender != null) {
+      mRequestRender.run();
     }
   }
 
   public void onSurfaceCreated(GL10 gl, EGLConfig config) {
     Log.d("SkyRenderer", "surfaceCreated");
 
+    if (mRenderState.isUsingGles2()) {
+      onGles2SurfaceCreated(gl);
+      return;
+    }
+
     gl.glEnable(GL10.GL_DITHER);
 
     /*
@@ -149,7 +326,8 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
               GL10.GL_FASTEST);
 
     gl.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-    gl.glEnable(GL10.GL_CULL_FACE);
+    mGLState.reset();
+    mGLState.enable(GL10.GL_CULL_FACE);
     gl.glShadeModel(GL10.GL_SMOOTH);
     gl.glDisable(GL10.GL_DEPTH_TEST);
 
@@ -190,8 +368,30 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
 
     // Reload all of the managers.
     for (RendererObjectManager rom : mAllManagers) {
-      rom.reload(gl, true);
+      rom.timedReload(gl, true);
+    }
+    mGLState.invalidate();
+    markDirty();
+  }
+
+  private void onGles2SurfaceCreated(GL10 gl) {
+    GLES20.glEnable(GLES20.GL_DITHER);
+    GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+    GLES20.glEnable(GLES20.GL_CULL_FACE);
+    GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+
+    // Release references to all of the old textures and programs.
+    mTextureManager.reset();
+    SkyShaders.reload();
+
+    // Buffer objects are part of OpenGL ES 2.0, so there's no extension to check for.
+    Log.i("SkyRenderer", "Using OpenGL ES 2.0, VBOs enabled");
+    GLBuffer.setCanUseVBO(true);
+
+    for (RendererObjectManager rom : mAllManagers) {
+      rom.timedReload(gl, true);
     }
+    markDirty();
   }
 
   public void onSurfaceChanged(GL10 gl, int width, int height) {
@@ -207,22 +407,37 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
     Log.d("SkyRenderer", "Changing viewport size");
 
     gl.glViewport(0, 0, width, height);
+    markDirty();
 
     Log.d("SkyRenderer", "Done with sizeChanged");
   }
 
   public void setRadiusOfView(float degrees) {
     // Log.d("SkyRenderer", "setRadiusOfView(" + degrees + ")");
+    if (degrees == mRenderState.getRadiusOfView()) {
+      return;
+    }
     mRenderState.setRadiusOfView(degrees);
     mMustUpdateProjection = true;
+    markDirty();
   }
 
   public void addUpdateClosure(UpdateClosure update) {
     mUpdateClosures.add(update);
+    mUpdateClosureList.clear();
+    mUpdateClosureList.addAll(mUpdateClosures);
+  }
+
+  /** Runs the callback once the next frame has been drawn.  Must be called on the GL thread. */
+  public void runAfterNextFrame(Runnable callback) {
+    mAfterFrameCallbacks.add(callback);
+    markDirty();
   }
 
   public void removeUpdateCallback(UpdateClosure update) {
     mUpdateClosures.remove(update);
+    mUpdateClosureList.clear();
+    mUpdateClosureList.addAll(mUpdateClosures);
   }
 
   // Sets up from the perspective of the viewer.
@@ -238,6 +453,7 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
 
     // It needs to be reloaded before we try to draw it.
     mManagersToReload.add(new ManagerReloadData(m, true));
+    markDirty();
 
     // Add it to the appropriate layer.
     Set<RendererObjectManager> managers = mLayersToManagersMap.get(m.getLayer());
@@ -246,6 +462,15 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
       mLayersToManagersMap.put(m.getLayer(), managers);
     }
     managers.add(m);
+    rebuildDrawOrder();
+
+    if (m instanceof LabelObjectManager) {
+      int i = 0;
+      while (i < mLabelManagers.size() && mLabelManagers.get(i).getLayer() >= m.getLayer()) {
+        i++;
+      }
+      mLabelManagers.add(i, (LabelObjectManager) m);
+    }
   }
 
   public void removeObjectManager(RendererObjectManager m) {
@@ -255,27 +480,60 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
     // managers shouldn't ever be null, so don't bother checking.  Let it crash if it is so we
     // know there's a bug.
     managers.remove(m);
+    rebuildDrawOrder();
+
+    mLabelManagers.remove(m);
+    markDirty();
+  }
+
+  // Within a layer the managers are sorted by type, so the ones which set the same state and
+  // share a texture are drawn together, and the state cache skips most of the changes between
+  // them.  The layers themselves have to stay in order, and so do the types within a layer:
+  // images come before labels, which the planets need so that their names aren't hidden.
+  private void rebuildDrawOrder() {
+    mDrawOrder.clear();
+    for (Set<RendererObjectManager> managers : mLayersToManagersMap.values()) {
+      mDrawOrder.addAll(managers);
+    }
   }
 
   public void enableSkyGradient(GeocentricCoordinates sunPosition) {
     mSkyBox.setSunPosition(sunPosition);
     mSkyBox.enable(true);
+    markDirty();
   }
 
   public void disableSkyGradient() {
     mSkyBox.enable(false);
+    markDirty();
   }
 
   public void enableSearchOverlay(GeocentricCoordinates target, String targetName) {
     mOverlayManager.enableSearchOverlay(target, targetName);
+    markDirty();
   }
 
   public void disableSearchOverlay() {
     mOverlayManager.disableSearchOverlay();
+    markDirty();
   }
 
   public void setNightVisionMode(boolean enabled) {
     mRenderState.setNightVisionMode(enabled);
+    markDirty();
+  }
+
+  // Sets how many more (or fewer) magnitudes of stars than the default should be drawn at
+  // any given field of view.
+  public void setStarDensity(float magnitudeOffset) {
+    mRenderState.setStarDensity(magnitudeOffset);
+    markDirty();
+  }
+
+  // Lets the managers keep the geometry of layers which look the same every time between
+  // launches.  This must be called before the renderer is attached to its view.
+  public void setGeometryCache(GeometryCache cache) {
+    mRenderState.setGeometryCache(cache);
   }
 
   // Used to set the orientation of the text.  The angle parameter is the roll
@@ -286,8 +544,12 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
     final float PI_OVER_TWO = (float)Math.PI / 2.0f;
 
     float newAngle = Math.round(angleInRadians * TWO_OVER_PI) * PI_OVER_TWO;
+    if (newAngle == mRenderState.getUpAngle()) {
+      return;
+    }
 
     mRenderState.setUpAngle(newAngle);
+    markDirty();
   }
 
   public void setViewOrientation(float dirX, float dirY, float dirZ,
@@ -313,13 +575,35 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
     upY *= oneOverUpLen;
     upZ *= oneOverUpLen;
 
-    mRenderState.setLookDir(new GeocentricCoordinates(dirX, dirY, dirZ));
-    mRenderState.setUpDir(new GeocentricCoordinates(upX, upY, upZ));
+    mRenderState.setLookDir(dirX, dirY, dirZ);
+    mRenderState.setUpDir(upX, upY, upZ);
 
     mMustUpdateView = true;
+    if (movesMoreThanJitter(dirX, dirY, dirZ, upX, upY, upZ)) {
+      markDirty();
+    }
+
+    mOverlayManager.setViewOrientation(mRenderState.getLookDir(), mRenderState.getUpDir());
+  }
 
-    mOverlayManager.setViewOrientation(new GeocentricCoordinates(dirX, dirY, dirZ),
-                                       new GeocentricCoordinates(upX, upY, upZ));
+  // Returns true if looking in the given direction would move the sky by more than
+  // JITTER_THRESHOLD_PIXELS from where it was in the last frame.  Both directions must be
+  // normalized.
+  private boolean movesMoreThanJitter(float dirX, float dirY, float dirZ,
+                                      float upX, float upY, float upZ) {
+    // For small angles, the distance between two unit vectors is the angle between them, and
+    // the center of the screen moves by about this many pixels per radian.
+    float pixelsPerRadian = 0.5f * mRenderState.getScreenHeight()
+        / MathUtil.tan(mRenderState.getRadiusOfView() * MathUtil.PI / 360.0f);
+    float dx = dirX - mDrawnLookDir.x;
+    float dy = dirY - mDrawnLookDir.y;
+    float dz = dirZ - mDrawnLookDir.z;
+    float lookChange = MathUtil.sqrt(dx * dx + dy * dy + dz * dz);
+    dx = upX - mDrawnUpDir.x;
+    dy = upY - mDrawnUpDir.y;
+    dz = upZ - mDrawnUpDir.z;
+    float upChange = MathUtil.sqrt(dx * dx + dy * dy + dz * dz);
+    return Math.max(lookChange, upChange) * pixelsPerRadian > JITTER_THRESHOLD_PIXELS;
   }
 
   protected int getWidth() { return mRenderState.getScreenWidth(); }
@@ -348,20 +632,29 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
     // lookDir cross up.
     Vector3 lookDir = mRenderState.getLookDir();
     Vector3 upDir = mRenderState.getUpDir();
-    Vector3 right = VectorUtil.crossProduct(lookDir, upDir);
+    mRightDir.assign(lookDir.y * upDir.z - lookDir.z * upDir.y,
+                     lookDir.z * upDir.x - lookDir.x * upDir.z,
+                     lookDir.x * upDir.y - lookDir.y * upDir.x);
 
-    mViewMatrix = Matrix4x4.createView(lookDir, upDir, right);
+    mViewMatrix.setView(lookDir, upDir, mRightDir);
 
+    // OpenGL ES 2.0 has no matrix stack; the shaders are given the combined matrix instead.
+    if (mRenderState.isUsingGles2()) {
+      return;
+    }
     gl.glMatrixMode(GL10.GL_MODELVIEW);
     gl.glLoadMatrixf(mViewMatrix.getFloatArray(), 0);
   }
 
   private void updatePerspective(GL10 gl) {
-    mProjectionMatrix = Matrix4x4.createPerspectiveProjection(
+    mProjectionMatrix.setPerspectiveProjection(
         mRenderState.getScreenWidth(),
         mRenderState.getScreenHeight(),
         mRenderState.getRadiusOfView() * 3.141593f / 360.0f);
 
+    if (mRenderState.isUsingGles2()) {
+      return;
+    }
     gl.glMatrixMode(GL10.GL_PROJECTION);
     gl.glLoadMatrixf(mProjectionMatrix.getFloatArray(), 0);
 
@@ -385,17 +678,23 @@ public class SkyRenderer implements GLSurfaceView.Renderer {
       // are useful in different circumstances, so we'll pre-compute
       // matrices to do the transformations from world coordinates
       // into each of these.
-      Matrix4x4 transformToDevice = Matrix4x4.multiplyMM(mProjectionMatrix, mViewMatrix);
-
-      Matrix4x4 translate = Matrix4x4.createTranslation(1, 1, 0);
-      Matrix4x4 scale = Matrix4x4.createScaling(mRenderState.getScreenWidth() * 0.5f,
-                                                mRenderState.getScreenHeight() * 0.5f, 1);
-
-      Matrix4x4 transformToScreen =
-          Matrix4x4.multiplyMM(Matrix4x4.multiplyMM(scale, translate),
-                               transformToDevice);
+      Matrix4x4.multiplyMM(mProjectionMatrix, mViewMatrix, mTransformToDevice);
+
+      // Translating by (1, 1) and then scaling by half the screen size is the same as scaling
+      // and then translating by half the screen size.
+      float halfWidth = mRenderState.getScreenWidth() * 0.5f;
+      float halfHeight = mRenderState.getScreenHeight() * 0.5f;
+      mDeviceToScreen.setScaling(halfWidth, halfHeight, 1);
+      Matrix4x4.multiplyMM(mDeviceToScreen, mTransformToDevice, mTransformToScreen);
+      float[] screen = mTransformToScreen.getFloatArray();
+      float[] device = mTransformToDevice.getFloatArray();
+      for (int column = 0; column < 4; column++) {
+        // Adds the translation times the w row.
+        screen[4 * column] += halfWidth * device[4 * column + 3];
+        screen[4 * column + 1] += halfHeight * device[4 * column + 3];
+      }
 
-      mRenderState.setTransformationMatrices(transformToDevice, transformToScreen);
+      mRenderState.setTransformationMatrices(mTransformToDevice, mTransformToScreen);
     }
   }
 
@@ -436,7 +735,15 @@ interface RenderStateInterface {
   public Matrix4x4 getTransformToScreenMatrix();
   public Resources getResources();
   public boolean getNightVisionMode();
+  public float getStarDensity();
   public SkyRegionMap.ActiveRegionData getActiveSkyRegions();
+  // True if drawing with OpenGL ES 2.0 shaders rather than the fixed function pipeline.
+  public boolean isUsingGles2();
+  // The fixed function state.  Managers must change it through this, rather than directly,
+  // when not using OpenGL ES 2.0.
+  public GLStateCache getGLState();
+  // Where managers keep geometry between launches, or null if it isn't kept.
+  public GeometryCache getGeometryCache();
 }
 
 // TODO(jpowell): RenderState is a bad name.  This class is a grab-bag of
@@ -456,11 +763,15 @@ class RenderState implements RenderStateInterface {
   public Matrix4x4 getTransformToScreenMatrix() { return mTransformToScreen; }
   public Resources getResources() { return mRes; }
   public boolean getNightVisionMode() { return mNightVisionMode; }
+  public float getStarDensity() { return mStarDensity; }
   public SkyRegionMap.ActiveRegionData getActiveSkyRegions() { return mActiveSkyRegionSet; }
+  public boolean isUsingGles2() { return mUsingGles2; }
+  public GLStateCache getGLState() { return mGLState; }
+  public GeometryCache getGeometryCache() { return mGeometryCache; }
 
   public void setCameraPos(GeocentricCoordinates pos) { mCameraPos = pos.copy(); }
-  public void setLookDir(GeocentricCoordinates dir) { mLookDir = dir.copy(); }
-  public void setUpDir(GeocentricCoordinates dir) { mUpDir = dir.copy(); }
+  public void setLookDir(float x, float y, float z) { mLookDir.assign(x, y, z); }
+  public void setUpDir(float x, float y, float z) { mUpDir.assign(x, y, z); }
   public void setRadiusOfView(float radius) { mRadiusOfView = radius; }
   public void setUpAngle(float angle) {
     mUpAngle = angle;
@@ -478,13 +789,17 @@ class RenderState implements RenderStateInterface {
   }
   public void setResources(Resources res) { mRes = res; }
   public void setNightVisionMode(boolean enabled) { mNightVisionMode = enabled; }
+  public void setStarDensity(float density) { mStarDensity = density; }
   public void setActiveSkyRegions(SkyRegionMap.ActiveRegionData set) {
     mActiveSkyRegionSet = set;
   }
+  public void setUsingGles2(boolean usingGles2) { mUsingGles2 = usingGles2; }
+  public void setGeometryCache(GeometryCache cache) { mGeometryCache = cache; }
 
   private GeocentricCoordinates mCameraPos = new GeocentricCoordinates(0, 0, 0);
-  private GeocentricCoordinates mLookDir = new GeocentricCoordinates(1, 0, 0);
-  private GeocentricCoordinates mUpDir = new GeocentricCoordinates(0, 1, 0);
+  // These are updated in place every frame, so callers mustn't hold on to them.
+  private final GeocentricCoordinates mLookDir = new GeocentricCoordinates(1, 0, 0);
+  private final GeocentricCoordinates mUpDir = new GeocentricCoordinates(0, 1, 0);
   private float mRadiusOfView = 45;  // in degrees
   private float mUpAngle = 0;
   private float mCosUpAngle = 1;
@@ -495,5 +810,10 @@ class RenderState implements RenderStateInterface {
   private Matrix4x4 mTransformToScreen = Matrix4x4.createIdentity();
   private Resources mRes;
   private boolean mNightVisionMode = false;
+  // Added to the limiting magnitude for the current field of view.
+  private float mStarDensity = 0;
   private SkyRegionMap.ActiveRegionData mActiveSkyRegionSet = null;
+  private boolean mUsingGles2 = false;
+  private final GLStateCache mGLState = new GLStateCache();
+  private GeometryCache mGeometryCache = null;
 }
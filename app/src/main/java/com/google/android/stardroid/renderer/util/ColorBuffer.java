@@ -14,6 +14,8 @@
 
 package com.google.android.stardroid.renderer.util;
 
+import android.opengl.GLES20;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
@@ -45,11 +47,34 @@ public class ColorBuffer {
     regenerateBuffer();
   }
 
+  // Sets how often the contents are expected to change, which decides how they're uploaded
+  // when using VBOs.
+  public void setUsage(GLBuffer.Usage usage) {
+    mGLBuffer.setUsage(usage);
+  }
+
   // Call this when we have to re-create the surface and reloading all OpenGL resources.
   public void reload() {
     mGLBuffer.reload();
   }
 
+  // The number of bytes writeTo() writes.
+  public int getSizeInBytes() {
+    return 4 * mNumVertices;
+  }
+
+  // Copies the colors into a GeometryCache snapshot.
+  public void writeTo(ByteBuffer out) {
+    GeometryCache.writeInts(out, mColorBuffer, mNumVertices);
+  }
+
+  // Takes the colors of numVertices vertices from a snapshot written by writeTo(), without
+  // copying them.
+  public void readFrom(ByteBuffer in, int numVertices) {
+    mNumVertices = numVertices;
+    mColorBuffer = GeometryCache.readInts(in, numVertices);
+  }
+
   public void addColor(int a, int r, int g, int b) {
     addColor(((a & 0xff) << 24) | ((b & 0xff) << 16) | ((g & 0xff) << 8) | (r & 0xff));
   }
@@ -58,7 +83,18 @@ public class ColorBuffer {
     mColorBuffer.put(abgr);
   }
 
+  // Overwrites the color of the vertex at the given index, which must already have been added.
+  public void setColor(int index, int abgr) {
+    mColorBuffer.put(index, abgr);
+    mGLBuffer.markDirty(index, 1);
+  }
+
   public void set(GL10 gl) {
+    set(gl, 0);
+  }
+
+  // Points the color array at the colors, starting with the given vertex.  See VertexBuffer.
+  public void set(GL10 gl, int firstVertex) {
     if (mNumVertices == 0) {
       return;
     }
@@ -67,9 +103,34 @@ public class ColorBuffer {
     if (mUseVBO && GLBuffer.canUseVBO()) {
       GL11 gl11 = (GL11)gl;
       mGLBuffer.bind(gl11, mColorBuffer, 4 * mColorBuffer.capacity());
-      gl11.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, 0);
+      gl11.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, 4 * firstVertex);
     } else {
+      mColorBuffer.position(firstVertex);
       gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, mColorBuffer);
+      mColorBuffer.position(0);
+    }
+  }
+
+  // For the OpenGL ES 2.0 renderer: points the given vertex attribute at the colors.
+  public void setAttrib(GL10 gl, int attribute) {
+    setAttrib(gl, attribute, 0);
+  }
+
+  public void setAttrib(GL10 gl, int attribute, int firstVertex) {
+    if (mNumVertices == 0) {
+      return;
+    }
+    mColorBuffer.position(0);
+
+    if (mUseVBO && GLBuffer.canUseVBO()) {
+      GL11 gl11 = (GL11)gl;
+      mGLBuffer.bind(gl11, mColorBuffer, 4 * mColorBuffer.capacity());
+      GLES20.glVertexAttribPointer(attribute, 4, GLES20.GL_UNSIGNED_BYTE, true, 0,
+                                   4 * firstVertex);
+    } else {
+      mColorBuffer.position(firstVertex);
+      GLES20.glVertexAttribPointer(attribute, 4, GLES20.GL_UNSIGNED_BYTE, true, 0, mColorBuffer);
+      mColorBuffer.position(0);
     }
   }
 
@@ -78,6 +139,14 @@ public class ColorBuffer {
       return;
     }
 
+    // If the size hasn't changed, reuse the existing buffer.  It's all about to be rewritten, so
+    // the whole thing needs uploading again.
+    if (mColorBuffer != null && mColorBuffer.capacity() == mNumVertices) {
+      mColorBuffer.position(0);
+      mGLBuffer.markDirty(0, mColorBuffer.capacity());
+      return;
+    }
+
     ByteBuffer bb = ByteBuffer.allocateDirect(4 * mNumVertices);
     bb.order(ByteOrder.nativeOrder());
     IntBuffer ib = bb.asIntBuffer();
@@ -87,6 +156,6 @@ public class ColorBuffer {
 
   private IntBuffer mColorBuffer = null;
   private int mNumVertices;
-  private GLBuffer mGLBuffer = new GLBuffer(GL11.GL_ARRAY_BUFFER);
+  private GLBuffer mGLBuffer = new GLBuffer(GL11.GL_ARRAY_BUFFER, 4);
   private boolean mUseVBO;
 }
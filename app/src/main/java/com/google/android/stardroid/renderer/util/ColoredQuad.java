@@ -14,6 +14,8 @@
 
 package com.google.android.stardroid.renderer.util;
 
+import android.opengl.GLES20;
+
 import javax.microedition.khronos.opengles.GL10;
 
 public class ColoredQuad {
@@ -42,32 +44,44 @@ public class ColoredQuad {
     mA = a;
   }
   
-  public void draw(GL10 gl) {
-    gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-    gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
-    gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
+  public void draw(GL10 gl, GLStateCache state) {
+    state.enableClientState(GL10.GL_VERTEX_ARRAY);
+    state.disableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    state.disableClientState(GL10.GL_COLOR_ARRAY);
 
     // Enable blending if alpha != 1.
     if (mA != 1) {
-      gl.glEnable(GL10.GL_BLEND);
-      gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+      state.enable(GL10.GL_BLEND);
+      state.blendFunc(gl, GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
     }
     
-    gl.glDisable(GL10.GL_TEXTURE_2D);
+    state.disable(GL10.GL_TEXTURE_2D);
     
     mPosition.set(gl);
     gl.glColor4f(mR, mG, mB, mA);
     
+    state.apply(gl);
     gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, 4);
     
-    gl.glEnable(GL10.GL_TEXTURE_2D);
+    state.enable(GL10.GL_TEXTURE_2D);
 
     // Disable blending if alpha != 1.
     if (mA != 1) {
-      gl.glDisable(GL10.GL_BLEND);
+      state.disable(GL10.GL_BLEND);
     }    
   }
   
+  // Draws the quad with the general shader program, which must already be in use without a
+  // texture.  Blending is left to the caller.
+  public void drawWithShaders(GL10 gl) {
+    SkyShaders.setConstantAttribute(SkyShaders.ATTRIBUTE_COLOR, mR, mG, mB, mA);
+    SkyShaders.setConstantAttribute(SkyShaders.ATTRIBUTE_TEX_COORD, 0, 0, 0, 1);
+    mPosition.setAttrib(gl, SkyShaders.ATTRIBUTE_POSITION);
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    SkyShaders.restoreAttribute(SkyShaders.ATTRIBUTE_TEX_COORD);
+    SkyShaders.restoreAttribute(SkyShaders.ATTRIBUTE_COLOR);
+  }
+
   private VertexBuffer mPosition = null;
   private float mR, mG, mB, mA;
 }
@@ -19,6 +19,7 @@ import android.util.Log;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.Buffer;
+import java.util.Arrays;
 
 import javax.microedition.khronos.opengles.GL11;
 
@@ -36,14 +37,56 @@ public class GLBuffer {
   // when I get a chance.
   private static boolean sCanUseVBO = false;
 
+  /**
+   * How often the contents of a buffer are expected to change.
+   */
+  public enum Usage {
+    // Written once and drawn many times.  Changes are uploaded in place.
+    STATIC,
+    // Changed every so often, usually a few objects at a time.  Small changes are uploaded in
+    // place, but large ones replace the buffer's storage, so the driver can give us fresh memory
+    // rather than waiting for draws which use the old contents to finish.
+    DYNAMIC,
+    // Rewritten most of the times it's drawn.  The buffer cycles through several buffer objects,
+    // so each upload goes to one which the GPU is unlikely to still be reading from.
+    STREAM
+  }
+
+  // The number of buffer objects a STREAM buffer cycles through.  Drivers usually have at most a
+  // couple of frames in flight.
+  private static final int NUM_STREAM_BUFFERS = 3;
+
   private Buffer mBuffer = null;
   private int mBufferSize = 0;
-  private int mGLBufferID = -1;
+  private final int[] mGLBufferIDs = new int[NUM_STREAM_BUFFERS];
+  // The buffer object which holds the current contents.
+  private int mCurrentBuffer = 0;
   private int mBufferType;
+  private int mBytesPerElement;
+  private Usage mUsage = Usage.STATIC;
   private boolean mHasLoggedStackTraceOnError = false;
 
-  GLBuffer(int bufferType) {
+  // The elements in [mDirtyStart, mDirtyEnd) have been changed since the buffer was last
+  // uploaded.  The range is empty if nothing has changed.
+  private int mDirtyStart = 0;
+  private int mDirtyEnd = 0;
+
+  GLBuffer(int bufferType, int bytesPerElement) {
     mBufferType = bufferType;
+    mBytesPerElement = bytesPerElement;
+    Arrays.fill(mGLBufferIDs, -1);
+  }
+
+  public void setUsage(Usage usage) {
+    if (usage != mUsage) {
+      mUsage = usage;
+      // Upload the whole buffer again with the new usage hint.
+      mBuffer = null;
+    }
+  }
+
+  public Usage getUsage() {
+    return mUsage;
   }
 
   public static void setCanUseVBO(boolean canUseVBO) {
@@ -68,7 +111,7 @@ public class GLBuffer {
   public void bind(GL11 gl, Buffer buffer, int bufferSize) {
     if (canUseVBO()) {
       maybeRegenerateBuffer(gl, buffer, bufferSize);
-      gl.glBindBuffer(mBufferType, mGLBufferID);
+      gl.glBindBuffer(mBufferType, mGLBufferIDs[mCurrentBuffer]);
     } else {
       Log.e("GLBuffer", "Trying to use a VBO, but they are unsupported");
       // Log a stack trace the first time we see this for any given buffer.
@@ -86,23 +129,71 @@ public class GLBuffer {
     // to maybeRegenerateBuffer.
     mBuffer = null;
     mBufferSize = 0;
-    mGLBufferID = -1;
+    Arrays.fill(mGLBufferIDs, -1);
+    mCurrentBuffer = 0;
+    mDirtyStart = mDirtyEnd = 0;
+  }
+
+  // Records that count elements, starting at start, have been changed in the client side buffer.
+  // The next bind only uploads the changed part of the buffer, rather than all of it.  Separate
+  // changes are merged into a single range which covers all of them.
+  public void markDirty(int start, int count) {
+    if (count <= 0) {
+      return;
+    }
+    if (mDirtyStart == mDirtyEnd) {
+      mDirtyStart = start;
+      mDirtyEnd = start + count;
+    } else {
+      mDirtyStart = Math.min(mDirtyStart, start);
+      mDirtyEnd = Math.max(mDirtyEnd, start + count);
+    }
   }
 
   private void maybeRegenerateBuffer(GL11 gl, Buffer buffer, int bufferSize) {
-    if (buffer != mBuffer || bufferSize != mBufferSize) {
-      mBuffer = buffer;
-      mBufferSize = bufferSize;
+    boolean bufferChanged = buffer != mBuffer || bufferSize != mBufferSize;
+    if (!bufferChanged && mDirtyStart == mDirtyEnd) {
+      return;
+    }
 
-      // Allocate the buffer ID if we don't already have one.
-      if (mGLBufferID == -1) {
-        int[] buffers = new int[1];
-        gl.glGenBuffers(1, buffers, 0);
-        mGLBufferID = buffers[0];
-      }
+    boolean uploadAll = bufferChanged;
+    switch (mUsage) {
+      case STREAM:
+        // Move on to the next buffer object, and replace all of its contents.
+        mCurrentBuffer = (mCurrentBuffer + 1) % NUM_STREAM_BUFFERS;
+        uploadAll = true;
+        break;
+      case DYNAMIC:
+        // If most of the buffer has changed, it's better to replace its storage than to overwrite
+        // memory which might still be in use.
+        uploadAll |= 2 * (mDirtyEnd - mDirtyStart) * mBytesPerElement > bufferSize;
+        break;
+      default:
+        break;
+    }
+
+    // Allocate the buffer ID if we don't already have one.
+    if (mGLBufferIDs[mCurrentBuffer] == -1) {
+      int[] buffers = new int[1];
+      gl.glGenBuffers(1, buffers, 0);
+      mGLBufferIDs[mCurrentBuffer] = buffers[0];
+    }
+    gl.glBindBuffer(mBufferType, mGLBufferIDs[mCurrentBuffer]);
 
-      gl.glBindBuffer(mBufferType, mGLBufferID);
-      gl.glBufferData(mBufferType, bufferSize, buffer, GL11.GL_STATIC_DRAW);
+    if (uploadAll) {
+      mBuffer = buffer;
+      mBufferSize = bufferSize;
+      // OpenGL ES 1.1 doesn't have GL_STREAM_DRAW, so the closest we can do is GL_DYNAMIC_DRAW.
+      int usage = mUsage == Usage.STATIC ? GL11.GL_STATIC_DRAW : GL11.GL_DYNAMIC_DRAW;
+      gl.glBufferData(mBufferType, bufferSize, buffer, usage);
+    } else {
+      // Only upload the elements which have changed.  glBufferSubData reads from the buffer's
+      // current position.
+      buffer.position(mDirtyStart);
+      gl.glBufferSubData(mBufferType, mDirtyStart * mBytesPerElement,
+                         (mDirtyEnd - mDirtyStart) * mBytesPerElement, buffer);
+      buffer.position(0);
     }
+    mDirtyStart = mDirtyEnd = 0;
   }
 }
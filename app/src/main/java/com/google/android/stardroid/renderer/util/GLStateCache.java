@@ -0,0 +1,241 @@
+package com.google.android.stardroid.renderer.util;
+
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Tracks the fixed function state which the object managers change, so that
+ * calls which wouldn't change anything aren't passed on to OpenGL.
+ *
+ * Managers ask for the state they need before drawing and put it back
+ * afterwards, just as they did when calling OpenGL directly.  But the
+ * capabilities and client arrays which they enable and disable are only
+ * changed on the context when something is drawn, by {@link #apply}.  So when
+ * one manager disables texturing at the end of its draw and the next one
+ * enables it again, neither call reaches OpenGL.  Texture bindings and the
+ * blend, alpha test, texture environment and face culling settings take effect
+ * straight away, but only if they've changed.
+ *
+ * Anything which changes this state without going through the cache, such as
+ * uploading a texture, must call {@link #invalidate} or
+ * {@link #invalidateTexture} afterwards.  Only used on the GL thread.
+ */
+public class GLStateCache {
+  private static final int[] CAPABILITIES = {
+      GL10.GL_TEXTURE_2D, GL10.GL_BLEND, GL10.GL_ALPHA_TEST, GL10.GL_CULL_FACE,
+  };
+  private static final int[] CLIENT_STATES = {
+      GL10.GL_VERTEX_ARRAY, GL10.GL_COLOR_ARRAY, GL10.GL_TEXTURE_COORD_ARRAY,
+  };
+
+  // The states of a capability or client array on the context.
+  private static final byte OFF = 0;
+  private static final byte ON = 1;
+  private static final byte UNKNOWN = 2;
+
+  // Not a valid value for any of the enums which are cached.
+  private static final int UNKNOWN_ENUM = -1;
+
+  // What the managers have asked for, and what the context has.
+  private final boolean[] mWantedCapabilities = new boolean[CAPABILITIES.length];
+  private final byte[] mCapabilities = new byte[CAPABILITIES.length];
+  private final boolean[] mWantedClientStates = new boolean[CLIENT_STATES.length];
+  private final byte[] mClientStates = new byte[CLIENT_STATES.length];
+
+  private TextureReference mBoundTexture;
+  // The bound texture's name, which changes if the texture is evicted while it's bound.
+  private int mBoundTextureID;
+  private int mBlendSrc;
+  private int mBlendDst;
+  private int mAlphaFunc;
+  private float mAlphaRef;
+  private int mTexEnvMode;
+  private int mFrontFace;
+  private int mCullFace;
+
+  // Calls asked for, and calls made, since the counts were last reset.
+  private int mNumRequested = 0;
+  private int mNumIssued = 0;
+
+  public GLStateCache() {
+    reset();
+  }
+
+  /**
+   * Forgets everything, for a new context.  All of the capabilities and client
+   * arrays are taken to be disabled, which is how a new context starts out.
+   */
+  public void reset() {
+    for (int i = 0; i < CAPABILITIES.length; i++) {
+      mWantedCapabilities[i] = false;
+    }
+    for (int i = 0; i < CLIENT_STATES.length; i++) {
+      mWantedClientStates[i] = false;
+    }
+    invalidate();
+  }
+
+  /**
+   * Forgets what the context has, after something has changed it directly.
+   * The next calls to the cache will all be passed on.
+   */
+  public void invalidate() {
+    for (int i = 0; i < CAPABILITIES.length; i++) {
+      mCapabilities[i] = UNKNOWN;
+    }
+    for (int i = 0; i < CLIENT_STATES.length; i++) {
+      mClientStates[i] = UNKNOWN;
+    }
+    mBoundTexture = null;
+    mBlendSrc = UNKNOWN_ENUM;
+    mBlendDst = UNKNOWN_ENUM;
+    mAlphaFunc = UNKNOWN_ENUM;
+    mAlphaRef = Float.NaN;
+    mTexEnvMode = UNKNOWN_ENUM;
+    mFrontFace = UNKNOWN_ENUM;
+    mCullFace = UNKNOWN_ENUM;
+  }
+
+  // Forgets the bound texture, after a texture has been bound directly to upload it.
+  public void invalidateTexture() {
+    mBoundTexture = null;
+  }
+
+  // The capability is enabled by the next call to apply, unless it's disabled again first.
+  public void enable(int capability) {
+    mWantedCapabilities[indexOf(CAPABILITIES, capability)] = true;
+    mNumRequested++;
+  }
+
+  public void disable(int capability) {
+    mWantedCapabilities[indexOf(CAPABILITIES, capability)] = false;
+    mNumRequested++;
+  }
+
+  public void enableClientState(int array) {
+    mWantedClientStates[indexOf(CLIENT_STATES, array)] = true;
+    mNumRequested++;
+  }
+
+  public void disableClientState(int array) {
+    mWantedClientStates[indexOf(CLIENT_STATES, array)] = false;
+    mNumRequested++;
+  }
+
+  /**
+   * Makes the context's capabilities and client arrays match what has been
+   * asked for.  Must be called before each draw call.
+   */
+  public void apply(GL10 gl) {
+    for (int i = 0; i < CAPABILITIES.length; i++) {
+      byte wanted = mWantedCapabilities[i] ? ON : OFF;
+      if (mCapabilities[i] != wanted) {
+        if (wanted == ON) {
+          gl.glEnable(CAPABILITIES[i]);
+        } else {
+          gl.glDisable(CAPABILITIES[i]);
+        }
+        mCapabilities[i] = wanted;
+        mNumIssued++;
+      }
+    }
+    for (int i = 0; i < CLIENT_STATES.length; i++) {
+      byte wanted = mWantedClientStates[i] ? ON : OFF;
+      if (mClientStates[i] != wanted) {
+        if (wanted == ON) {
+          gl.glEnableClientState(CLIENT_STATES[i]);
+        } else {
+          gl.glDisableClientState(CLIENT_STATES[i]);
+        }
+        mClientStates[i] = wanted;
+        mNumIssued++;
+      }
+    }
+  }
+
+  public void bindTexture(GL10 gl, TextureReference texture) {
+    mNumRequested++;
+    if (texture != mBoundTexture || texture.getID() != mBoundTextureID) {
+      texture.bind(gl);
+      mBoundTexture = texture;
+      mBoundTextureID = texture.getID();
+      mNumIssued++;
+    }
+  }
+
+  public void blendFunc(GL10 gl, int src, int dst) {
+    mNumRequested++;
+    if (src != mBlendSrc || dst != mBlendDst) {
+      gl.glBlendFunc(src, dst);
+      mBlendSrc = src;
+      mBlendDst = dst;
+      mNumIssued++;
+    }
+  }
+
+  public void alphaFunc(GL10 gl, int func, float ref) {
+    mNumRequested++;
+    if (func != mAlphaFunc || ref != mAlphaRef) {
+      gl.glAlphaFunc(func, ref);
+      mAlphaFunc = func;
+      mAlphaRef = ref;
+      mNumIssued++;
+    }
+  }
+
+  // Sets GL_TEXTURE_ENV_MODE.
+  public void texEnvMode(GL10 gl, int mode) {
+    mNumRequested++;
+    if (mode != mTexEnvMode) {
+      gl.glTexEnvx(GL10.GL_TEXTURE_ENV, GL10.GL_TEXTURE_ENV_MODE, mode);
+      mTexEnvMode = mode;
+      mNumIssued++;
+    }
+  }
+
+  public void frontFace(GL10 gl, int mode) {
+    mNumRequested++;
+    if (mode != mFrontFace) {
+      gl.glFrontFace(mode);
+      mFrontFace = mode;
+      mNumIssued++;
+    }
+  }
+
+  public void cullFace(GL10 gl, int mode) {
+    mNumRequested++;
+    if (mode != mCullFace) {
+      gl.glCullFace(mode);
+      mCullFace = mode;
+      mNumIssued++;
+    }
+  }
+
+  // The number of state changes asked for since the counts were reset.
+  public int getNumRequested() {
+    return mNumRequested;
+  }
+
+  // The number of state changes which were passed on to OpenGL since the counts were reset.
+  public int getNumIssued() {
+    return mNumIssued;
+  }
+
+  // The number of state changes which didn't need to reach OpenGL since the counts were reset.
+  public int getNumAvoided() {
+    return mNumRequested - mNumIssued;
+  }
+
+  public void resetCounts() {
+    mNumRequested = 0;
+    mNumIssued = 0;
+  }
+
+  private static int indexOf(int[] values, int value) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == value) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Untracked state: " + value);
+  }
+}
@@ -0,0 +1,209 @@
+package com.google.android.stardroid.renderer.util;
+
+import android.util.Log;
+
+import com.google.android.stardroid.util.MiscUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the geometry which the renderer builds for layers that look the same
+ * every time, so that later launches can map it straight back into their
+ * buffers rather than building it again.  Each snapshot is kept in its own
+ * file, named by the manager which wrote it, behind a header which says what
+ * it was made from:
+ * <pre>
+ *   int    MAGIC
+ *   int    FORMAT_VERSION
+ *   int    the version of the app which wrote it
+ *   long   the checksum of the objects it was made from
+ *   int    the size of the snapshot which follows
+ * </pre>
+ * Everything is in the device's byte order, so that the buffers can be handed
+ * to OpenGL as they are.  A snapshot whose header doesn't match is stale, and
+ * is ignored until the manager replaces it.
+ *
+ * Bump FORMAT_VERSION whenever a manager changes what it writes.  A new
+ * version of the app ignores all the old snapshots anyway, since the code
+ * which makes the objects may have changed too.
+ */
+public class GeometryCache {
+  private static final String TAG = MiscUtil.getTag(GeometryCache.class);
+
+  public static final int FORMAT_VERSION = 1;
+
+  private static final int MAGIC = 0x53474d43;
+  private static final int HEADER_SIZE = 4 * 4 + 8;
+  private static final String FILE_EXTENSION = ".geometry";
+  private static final long WRITER_TIMEOUT_SECONDS = 5;
+
+  // Snapshots are only written when the cache misses, which is rarely, so the thread which writes
+  // them is let go once it's done.
+  private static final ThreadPoolExecutor WRITER_EXECUTOR = new ThreadPoolExecutor(1, 1,
+      WRITER_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+  static {
+    WRITER_EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+
+  private final File directory;
+  private final int appVersion;
+  private final Executor writer;
+
+  public GeometryCache(File directory, int appVersion) {
+    this(directory, appVersion, WRITER_EXECUTOR);
+  }
+
+  public GeometryCache(File directory, int appVersion, Executor writer) {
+    this.directory = directory;
+    this.appVersion = appVersion;
+    this.writer = writer;
+  }
+
+  /** Returns an empty buffer of the given size for a manager to write a snapshot into. */
+  public static ByteBuffer allocate(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Maps the named snapshot into memory, if there's one made from objects
+   * with the given checksum by this version of the app.  Returns null if
+   * there isn't.  The mapping is private, so the buffers made from it can be
+   * changed without changing the file.
+   */
+  public ByteBuffer read(String name, long checksum) {
+    File file = getFile(name);
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      RandomAccessFile in = new RandomAccessFile(file, "rw");
+      ByteBuffer buffer;
+      try {
+        // The mapping stays valid after the file is closed.
+        buffer = in.getChannel().map(FileChannel.MapMode.PRIVATE, 0, in.length());
+      } finally {
+        in.close();
+      }
+      buffer.order(ByteOrder.nativeOrder());
+      if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC
+          || buffer.getInt() != FORMAT_VERSION || buffer.getInt() != appVersion
+          || buffer.getLong() != checksum || buffer.getInt() != buffer.remaining()) {
+        Log.i(TAG, "Snapshot of " + name + " is stale");
+        return null;
+      }
+      return buffer.slice().order(ByteOrder.nativeOrder());
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read snapshot of " + name, e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes a snapshot in the background, replacing any existing one.  The
+   * snapshot is everything from the buffer's position to its limit, and
+   * mustn't be changed afterwards.
+   */
+  public void write(final String name, final long checksum, final ByteBuffer snapshot) {
+    writer.execute(new Runnable() {
+      public void run() {
+        writeNow(name, checksum, snapshot.duplicate());
+      }
+    });
+  }
+
+  private void writeNow(String name, long checksum, ByteBuffer snapshot) {
+    ByteBuffer header = allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(appVersion).putLong(checksum)
+        .putInt(snapshot.remaining());
+    header.flip();
+
+    // The snapshot is written to one side and then moved into place, so that one which is cut
+    // off halfway can't be read.
+    File temp = new File(directory, name + ".tmp");
+    try {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Unable to create " + directory);
+      }
+      FileOutputStream out = new FileOutputStream(temp);
+      try {
+        FileChannel channel = out.getChannel();
+        while (header.hasRemaining()) {
+          channel.write(header);
+        }
+        while (snapshot.hasRemaining()) {
+          channel.write(snapshot);
+        }
+      } finally {
+        out.close();
+      }
+      if (!temp.renameTo(getFile(name))) {
+        throw new IOException("Unable to rename " + temp);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to write snapshot of " + name, e);
+      temp.delete();
+    }
+  }
+
+  private File getFile(String name) {
+    return new File(directory, name + FILE_EXTENSION);
+  }
+
+  // The buffers write themselves into snapshots with these, and read themselves back as views of
+  // the snapshot, rather than copies.  Either way the snapshot's position is moved past them.
+
+  static void writeInts(ByteBuffer out, IntBuffer ints, int count) {
+    if (count > 0) {
+      IntBuffer source = ints.duplicate();
+      source.position(0);
+      source.limit(count);
+      out.asIntBuffer().put(source);
+      out.position(out.position() + 4 * count);
+    }
+  }
+
+  static IntBuffer readInts(ByteBuffer in, int count) {
+    ByteBuffer bytes = readBytes(in, 4 * count);
+    return bytes.asIntBuffer();
+  }
+
+  // Shorts are padded to a whole number of ints, so that whatever follows them stays aligned.
+  static int getSizeOfShorts(int count) {
+    return 4 * ((count + 1) / 2);
+  }
+
+  static void writeShorts(ByteBuffer out, ShortBuffer shorts, int count) {
+    if (count > 0) {
+      ShortBuffer source = shorts.duplicate();
+      source.position(0);
+      source.limit(count);
+      out.asShortBuffer().put(source);
+      out.position(out.position() + getSizeOfShorts(count));
+    }
+  }
+
+  static ShortBuffer readShorts(ByteBuffer in, int count) {
+    ByteBuffer bytes = readBytes(in, getSizeOfShorts(count));
+    bytes.limit(2 * count);
+    return bytes.asShortBuffer();
+  }
+
+  static ByteBuffer readBytes(ByteBuffer in, int size) {
+    ByteBuffer bytes = in.slice().order(ByteOrder.nativeOrder());
+    bytes.limit(size);
+    in.position(in.position() + size);
+    return bytes;
+  }
+}
@@ -0,0 +1,273 @@
+package com.google.android.stardroid.renderer.util;
+
+import com.google.android.stardroid.units.Vector3;
+import com.google.android.stardroid.util.MathUtil;
+
+/**
+ * A hierarchical index of the unit sphere, used to decide which parts of the
+ * sky are on screen.
+ *
+ * The sphere is projected onto the six faces of a cube, and each face is
+ * recursively split into four quadrants.  At depth d there are 6 * 4^d cells.
+ * To keep the cells roughly the same size, the face coordinates are
+ * equi-angular (ie, we subdivide the angle, not the tangent plane).  Every
+ * cell edge lies on a great circle, so a cell is contained in the spherical
+ * cap which is centered on the cell's center and passes through its furthest
+ * corner.
+ *
+ * Cells are numbered in nested order: the four children of cell n at depth d
+ * are 4n, 4n + 1, 4n + 2 and 4n + 3 at depth d + 1.  This means that all of
+ * the descendants of a cell at a finer depth form a single contiguous range
+ * of IDs, so culling can stop at a coarse depth and accept whole ranges of
+ * fine cells at once.
+ */
+public final class HierarchicalSkyIndex {
+  /** The finest depth supported.  Cells at this depth are about 2 degrees across. */
+  public static final int MAX_DEPTH = 6;
+
+  private static final int NUM_FACES = 6;
+
+  // The normal, and the two in-plane axes of each cube face.  A point p maps to the face
+  // coordinates (p.U / p.N, p.V / p.N) on the face whose normal N it is closest to.
+  private static final float[][] FACE_N = {
+      {1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+  private static final float[][] FACE_U = {
+      {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}, {1, 0, 0}, {-1, 0, 0}};
+  private static final float[][] FACE_V = {
+      {0, 0, 1}, {0, 0, 1}, {1, 0, 0}, {1, 0, 0}, {0, 1, 0}, {0, 1, 0}};
+
+  private static final float PI_OVER_FOUR = MathUtil.PI / 4;
+
+  private static final int CELLS_PER_SIDE_AT_MAX_DEPTH = 1 << MAX_DEPTH;
+
+  // The face coordinate of each cell boundary at the finest depth, from -1 to 1.  Since the
+  // cells are equi-angular these aren't evenly spaced.
+  private static final float[] sCellBoundaries = new float[CELLS_PER_SIDE_AT_MAX_DEPTH + 1];
+
+  // A lookup table which splits the face coordinate range [-1, 1] into evenly sized bins, and
+  // gives the finest cell containing the start of each bin.  The bins are narrower than the
+  // narrowest cell, so a bin overlaps at most two cells and we can find the cell for any
+  // coordinate with one table lookup and at most one comparison, rather than an arctan.
+  private static final int LOOKUP_TABLE_SIZE = 4 * CELLS_PER_SIDE_AT_MAX_DEPTH;
+  private static final byte[] sLookupTable = new byte[LOOKUP_TABLE_SIZE];
+
+  // Lazily computed cell centers (x, y, z triples) for each depth.
+  private static final float[][] sCellCenters = new float[MAX_DEPTH + 1][];
+  // The largest angle between any cell's center and one of its corners, for each depth.
+  private static final float[] sCellRadii = new float[MAX_DEPTH + 1];
+
+  static {
+    for (int i = 0; i <= CELLS_PER_SIDE_AT_MAX_DEPTH; i++) {
+      sCellBoundaries[i] = faceCoordinate(i, CELLS_PER_SIDE_AT_MAX_DEPTH);
+    }
+    int cell = 0;
+    for (int bin = 0; bin < LOOKUP_TABLE_SIZE; bin++) {
+      float binStart = 2.0f * bin / LOOKUP_TABLE_SIZE - 1;
+      while (cell < CELLS_PER_SIDE_AT_MAX_DEPTH - 1 && binStart >= sCellBoundaries[cell + 1]) {
+        cell++;
+      }
+      sLookupTable[bin] = (byte) cell;
+    }
+    for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+      sCellRadii[depth] = computeMaxCellRadius(depth);
+    }
+  }
+
+  private HierarchicalSkyIndex() {}
+
+  /** Returns the number of cells at the given depth. */
+  public static int getNumCells(int depth) {
+    return NUM_FACES << (2 * depth);
+  }
+
+  /**
+   * Returns an upper bound on the angle (in radians) between the center of a
+   * cell at this depth and any point in that cell.
+   */
+  public static float getCellRadius(int depth) {
+    return sCellRadii[depth];
+  }
+
+  /**
+   * Returns the coarsest depth at which the cells are no bigger than the given
+   * angle (in radians), or MAX_DEPTH if no depth is that fine.
+   */
+  public static int getDepthForAngle(float angleInRadians) {
+    for (int depth = 0; depth < MAX_DEPTH; depth++) {
+      if (sCellRadii[depth] <= angleInRadians) {
+        return depth;
+      }
+    }
+    return MAX_DEPTH;
+  }
+
+  /**
+   * Returns a depth which puts roughly objectsPerCell objects in each cell, if
+   * numObjects objects are spread evenly over the sky.
+   */
+  public static int getDepthForObjectCount(int numObjects, int objectsPerCell) {
+    int depth = 0;
+    while (depth < MAX_DEPTH && getNumCells(depth + 1) * objectsPerCell <= numObjects) {
+      depth++;
+    }
+    return depth;
+  }
+
+  /**
+   * Returns the ID of the cell at the given depth which contains the point.
+   * The point does not need to be normalized.
+   */
+  public static int getCell(int depth, float x, float y, float z) {
+    float ax = Math.abs(x);
+    float ay = Math.abs(y);
+    float az = Math.abs(z);
+    int face;
+    if (ax >= ay && ax >= az) {
+      face = x >= 0 ? 0 : 1;
+    } else if (ay >= az) {
+      face = y >= 0 ? 2 : 3;
+    } else {
+      face = z >= 0 ? 4 : 5;
+    }
+    float[] n = FACE_N[face];
+    float[] u = FACE_U[face];
+    float[] v = FACE_V[face];
+    float oneOverPDotN = 1.0f / (x * n[0] + y * n[1] + z * n[2]);
+    float pu = (x * u[0] + y * u[1] + z * u[2]) * oneOverPDotN;
+    float pv = (x * v[0] + y * v[1] + z * v[2]) * oneOverPDotN;
+
+    int shift = MAX_DEPTH - depth;
+    int i = toCellCoordinate(pu) >> shift;
+    int j = toCellCoordinate(pv) >> shift;
+    return (face << (2 * depth)) | interleave(i, j);
+  }
+
+  public static int getCell(int depth, Vector3 p) {
+    return getCell(depth, p.x, p.y, p.z);
+  }
+
+  /** Returns the ID of the cell at a coarser depth which contains the given cell. */
+  public static int getAncestor(int cell, int depth, int ancestorDepth) {
+    return cell >> (2 * (depth - ancestorDepth));
+  }
+
+  /**
+   * Returns the unit vector at the center of a cell as an (x, y, z) triple,
+   * starting at 3 * cell in the returned array.  The array must not be
+   * modified.
+   */
+  public static float[] getCellCenters(int depth) {
+    float[] centers = sCellCenters[depth];
+    if (centers == null) {
+      centers = computeCellCenters(depth);
+      sCellCenters[depth] = centers;
+    }
+    return centers;
+  }
+
+  // Returns the column (or row) of the cell at the finest depth which contains the given face
+  // coordinate.
+  private static int toCellCoordinate(float faceCoordinate) {
+    int bin = (int) ((faceCoordinate + 1) * (0.5f * LOOKUP_TABLE_SIZE));
+    if (bin < 0) {
+      bin = 0;
+    } else if (bin >= LOOKUP_TABLE_SIZE) {
+      bin = LOOKUP_TABLE_SIZE - 1;
+    }
+    int i = sLookupTable[bin];
+    if (i < CELLS_PER_SIDE_AT_MAX_DEPTH - 1 && faceCoordinate >= sCellBoundaries[i + 1]) {
+      i++;
+    }
+    return i;
+  }
+
+  // Returns the face coordinate of the boundary at the given position (in units of cells).
+  private static float faceCoordinate(float i, int cellsPerSide) {
+    return MathUtil.tan((2 * i / cellsPerSide - 1) * PI_OVER_FOUR);
+  }
+
+  // Interleaves the bits of i and j (i in the even bits) to give the index of a cell
+  // within its face.
+  private static int interleave(int i, int j) {
+    return spreadBits(i) | (spreadBits(j) << 1);
+  }
+
+  private static int spreadBits(int i) {
+    i &= 0x0000ffff;
+    i = (i | (i << 8)) & 0x00ff00ff;
+    i = (i | (i << 4)) & 0x0f0f0f0f;
+    i = (i | (i << 2)) & 0x33333333;
+    i = (i | (i << 1)) & 0x55555555;
+    return i;
+  }
+
+  private static int compactBits(int i) {
+    i &= 0x55555555;
+    i = (i | (i >> 1)) & 0x33333333;
+    i = (i | (i >> 2)) & 0x0f0f0f0f;
+    i = (i | (i >> 4)) & 0x00ff00ff;
+    i = (i | (i >> 8)) & 0x0000ffff;
+    return i;
+  }
+
+  // Converts an equi-angular face coordinate (in units of cells) into a point on the face
+  // of the cube, and writes the normalized direction into out.
+  private static void facePointToDirection(int face, float i, float j, int cellsPerSide,
+                                           float[] out) {
+    float pu = faceCoordinate(i, cellsPerSide);
+    float pv = faceCoordinate(j, cellsPerSide);
+    float[] n = FACE_N[face];
+    float[] u = FACE_U[face];
+    float[] v = FACE_V[face];
+    float x = n[0] + pu * u[0] + pv * v[0];
+    float y = n[1] + pu * u[1] + pv * v[1];
+    float z = n[2] + pu * u[2] + pv * v[2];
+    float oneOverLength = 1.0f / MathUtil.sqrt(x * x + y * y + z * z);
+    out[0] = x * oneOverLength;
+    out[1] = y * oneOverLength;
+    out[2] = z * oneOverLength;
+  }
+
+  private static synchronized float[] computeCellCenters(int depth) {
+    if (sCellCenters[depth] != null) {
+      return sCellCenters[depth];
+    }
+    int cellsPerSide = 1 << depth;
+    int cellsPerFace = cellsPerSide * cellsPerSide;
+    float[] centers = new float[3 * getNumCells(depth)];
+    float[] dir = new float[3];
+    for (int cell = 0; cell < getNumCells(depth); cell++) {
+      int face = cell / cellsPerFace;
+      int index = cell % cellsPerFace;
+      int i = compactBits(index);
+      int j = compactBits(index >> 1);
+      facePointToDirection(face, i + 0.5f, j + 0.5f, cellsPerSide, dir);
+      centers[3 * cell] = dir[0];
+      centers[3 * cell + 1] = dir[1];
+      centers[3 * cell + 2] = dir[2];
+    }
+    return centers;
+  }
+
+  private static float computeMaxCellRadius(int depth) {
+    // Every face is the same, and within a face the cells nearest the corner of the cube
+    // are the most distorted, but it's cheap enough to just check one face fully.
+    int cellsPerSide = 1 << depth;
+    float[] center = new float[3];
+    float[] corner = new float[3];
+    float minDotProduct = 1;
+    for (int i = 0; i < cellsPerSide; i++) {
+      for (int j = 0; j < cellsPerSide; j++) {
+        facePointToDirection(0, i + 0.5f, j + 0.5f, cellsPerSide, center);
+        for (int c = 0; c < 4; c++) {
+          facePointToDirection(0, i + (c & 1), j + (c >> 1), cellsPerSide, corner);
+          float dotProduct =
+              center[0] * corner[0] + center[1] * corner[1] + center[2] * corner[2];
+          minDotProduct = Math.min(minDotProduct, dotProduct);
+        }
+      }
+    }
+    // Pad slightly to allow for floating point error.
+    return MathUtil.acos(minDotProduct) * 1.001f;
+  }
+}
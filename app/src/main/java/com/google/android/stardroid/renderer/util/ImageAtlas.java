@@ -0,0 +1,383 @@
+package com.google.android.stardroid.renderer.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import com.google.android.stardroid.util.MiscUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * A set of textures holding images, such as the planets, so that they can all
+ * be drawn with a single texture bind.
+ *
+ * Each image goes in a square cell whose side is the next power of two up
+ * from its width and height.  The cells are laid out largest first along a
+ * Z-order curve, which leaves every cell aligned to a multiple of its own
+ * size, so the pages can be mipmapped without any cell's mipmaps mixing with
+ * its neighbours'.  The images aren't scaled, so an image which isn't a power
+ * of two in size leaves a transparent gap at the edge of its cell.  When a
+ * page is full we start another, and the last page is only as big as it needs
+ * to be.
+ *
+ * The red versions of the pages for night vision are only made when they're
+ * first asked for.  Only the version which is being drawn is held on to: the
+ * other is given up to the TextureManager, which may delete it to make room
+ * for other textures.  Textures are drawn and uploaded when they're first
+ * bound, and again if they're bound after being deleted.  Everything here must
+ * be called on the GL thread.
+ */
+public class ImageAtlas {
+  private static final String TAG = MiscUtil.getTag(ImageAtlas.class);
+
+  /** The largest width and height of a page, unless an image is bigger than this. */
+  public static final int MAX_PAGE_SIZE = 512;
+
+  /** Where an image is in the atlas. */
+  public static class Entry {
+    private final Bitmap mBitmap;
+    private final int mCellSize;
+    private int mPage;
+    // The top left corner of the image in its page, in pixels.
+    private int mX;
+    private int mY;
+    private float mU0;
+    private float mV0;
+    private float mU1;
+    private float mV1;
+
+    private Entry(Bitmap bitmap) {
+      mBitmap = bitmap;
+      mCellSize = nextPowerOfTwo(Math.max(bitmap.getWidth(), bitmap.getHeight()));
+    }
+
+    public int getPage() {
+      return mPage;
+    }
+
+    // The texture coordinates of the image's edges.  The top of the image is at v0.
+    public float getU0() {
+      return mU0;
+    }
+
+    public float getV0() {
+      return mV0;
+    }
+
+    public float getU1() {
+      return mU1;
+    }
+
+    public float getV1() {
+      return mV1;
+    }
+  }
+
+  private static class Page {
+    Page(int size) {
+      this.size = size;
+    }
+    final int size;
+    final ArrayList<Entry> entries = new ArrayList<Entry>();
+    // The next free position along the Z-order curve, in pixels.
+    int nextPosition = 0;
+
+    // Only created when they're needed.
+    TextureReference texture = null;
+    TextureReference redTexture = null;
+  }
+
+  private final TextureManager mTextureManager;
+  private final ArrayList<Page> mPages = new ArrayList<Page>();
+  // Pages which have been replaced, whose textures still need deleting.
+  private final ArrayList<Page> mOldPages = new ArrayList<Page>();
+  private boolean mNeedsUpload = false;
+  // Whether the red textures are the ones being drawn.
+  private boolean mNightVisionMode = false;
+
+  public ImageAtlas(TextureManager textureManager) {
+    mTextureManager = textureManager;
+  }
+
+  /**
+   * Replaces the images in the atlas, returning the entry for each one.  The
+   * same bitmap used for several images gets a single entry.  The new pages'
+   * textures are made by the next call to update().
+   */
+  public Entry[] setImages(Bitmap[] images) {
+    mOldPages.addAll(mPages);
+    mPages.clear();
+
+    Map<Bitmap, Entry> entryForBitmap = new IdentityHashMap<Bitmap, Entry>();
+    Entry[] entries = new Entry[images.length];
+    for (int i = 0; i < images.length; i++) {
+      Entry entry = entryForBitmap.get(images[i]);
+      if (entry == null) {
+        entry = new Entry(images[i]);
+        entryForBitmap.put(images[i], entry);
+      }
+      entries[i] = entry;
+    }
+
+    // Largest first, so that every cell starts at a multiple of its own area along the curve.
+    Entry[] sorted = entryForBitmap.values().toArray(new Entry[entryForBitmap.size()]);
+    Arrays.sort(sorted, new Comparator<Entry>() {
+      public int compare(Entry a, Entry b) {
+        return b.mCellSize - a.mCellSize;
+      }
+    });
+    int start = 0;
+    while (start < sorted.length) {
+      start = fillPage(sorted, start);
+    }
+    mNeedsUpload = true;
+    return entries;
+  }
+
+  // Lays out as many of the sorted entries as fit in a new page, starting with the given one,
+  // and returns the index of the first which doesn't fit.
+  private int fillPage(Entry[] sorted, int start) {
+    int maxSize = Math.max(MAX_PAGE_SIZE, sorted[start].mCellSize);
+    int maxArea = maxSize * maxSize;
+    int end = start;
+    int area = 0;
+    while (end < sorted.length) {
+      int cellArea = sorted[end].mCellSize * sorted[end].mCellSize;
+      if (area + cellArea > maxArea) {
+        break;
+      }
+      area += cellArea;
+      end++;
+    }
+    // The smallest square page which holds all of the cells.  The curve fills a square of side
+    // 2^k after 4^k pixels.
+    int size = 1;
+    while (size * size < area) {
+      size *= 2;
+    }
+
+    Page page = new Page(size);
+    int pageIndex = mPages.size();
+    mPages.add(page);
+    float texel = 1.0f / size;
+    for (int i = start; i < end; i++) {
+      Entry entry = sorted[i];
+      int position = page.nextPosition;
+      page.nextPosition += entry.mCellSize * entry.mCellSize;
+      int x = compactBits(position);
+      int y = compactBits(position >> 1);
+      entry.mPage = pageIndex;
+      entry.mX = x;
+      entry.mY = y;
+      // Stay half a texel inside the image, so the edges aren't blended with the next cell.
+      entry.mU0 = (x + 0.5f) * texel;
+      entry.mV0 = (y + 0.5f) * texel;
+      entry.mU1 = (x + entry.mBitmap.getWidth() - 0.5f) * texel;
+      entry.mV1 = (y + entry.mBitmap.getHeight() - 0.5f) * texel;
+      page.entries.add(entry);
+    }
+    return end;
+  }
+
+  /**
+   * Deletes the textures of pages which have been replaced and makes the
+   * textures of any new pages.  Returns true if there was anything to do, in
+   * which case the bound texture may have changed.
+   */
+  public boolean update(GL10 gl) {
+    if (mOldPages.isEmpty() && !mNeedsUpload) {
+      return false;
+    }
+    for (Page page : mOldPages) {
+      deleteTextures(gl, page);
+    }
+    mOldPages.clear();
+    if (!mNightVisionMode) {
+      for (Page page : mPages) {
+        if (page.texture == null) {
+          page.texture = createTexture(gl, page, false);
+        }
+      }
+    }
+    mNeedsUpload = false;
+    return true;
+  }
+
+  /**
+   * Sets whether the red pages are the ones being drawn.  The other version of
+   * each page is given up, so it may be deleted to make room for other
+   * textures.
+   */
+  public void setNightVisionMode(GL10 gl, boolean enabled) {
+    if (enabled == mNightVisionMode) {
+      return;
+    }
+    mNightVisionMode = enabled;
+    for (Page page : mPages) {
+      if (enabled) {
+        // The red pages are made when they're first asked for.
+        if (page.redTexture != null) {
+          mTextureManager.retainTexture(page.redTexture);
+        }
+        mTextureManager.releaseTexture(gl, page.texture);
+      } else {
+        if (page.texture == null) {
+          page.texture = createTexture(gl, page, false);
+        } else {
+          mTextureManager.retainTexture(page.texture);
+        }
+        mTextureManager.releaseTexture(gl, page.redTexture);
+      }
+    }
+  }
+
+  /**
+   * Call when the GL surface has been recreated.  The old textures are gone,
+   * so the pages are uploaded to new ones at the next update.
+   */
+  public void reload() {
+    for (Page page : mPages) {
+      page.texture = null;
+      page.redTexture = null;
+    }
+    mOldPages.clear();
+    mNeedsUpload = true;
+  }
+
+  public int getNumPages() {
+    return mPages.size();
+  }
+
+  public TextureReference getTexture(int page) {
+    return mPages.get(page).texture;
+  }
+
+  /**
+   * Returns the night vision version of a page, in shades of red, making it if
+   * this is the first time it's been asked for.  It's only held on to in night
+   * vision mode.
+   */
+  public TextureReference getRedTexture(GL10 gl, int pageIndex) {
+    Page page = mPages.get(pageIndex);
+    if (page.redTexture == null) {
+      page.redTexture = createTexture(gl, page, true);
+      if (!mNightVisionMode) {
+        mTextureManager.releaseTexture(gl, page.redTexture);
+      }
+    }
+    return page.redTexture;
+  }
+
+  private static void deleteTextures(GL10 gl, Page page) {
+    if (page.texture != null) {
+      page.texture.delete(gl);
+      page.texture = null;
+    }
+    if (page.redTexture != null) {
+      page.redTexture.delete(gl);
+      page.redTexture = null;
+    }
+  }
+
+  private static Bitmap drawPage(Page page) {
+    Bitmap bitmap = Bitmap.createBitmap(page.size, page.size, Bitmap.Config.ARGB_8888);
+    bitmap.eraseColor(0);
+    Canvas canvas = new Canvas(bitmap);
+    for (Entry entry : page.entries) {
+      canvas.drawBitmap(entry.mBitmap, entry.mX, entry.mY, null);
+    }
+    return bitmap;
+  }
+
+  // Makes a texture for the page, or its red version, which is drawn when it's loaded.
+  private TextureReference createTexture(GL10 gl, final Page page, final boolean red) {
+    return mTextureManager.createTexture(gl, new TextureManager.Loader() {
+      public int load(GL10 gl) {
+        Bitmap bitmap = drawPage(page);
+        if (red) {
+          Bitmap redBitmap = createRedImage(bitmap);
+          bitmap.recycle();
+          bitmap = redBitmap;
+        }
+        int sizeInBytes = upload(gl, bitmap);
+        bitmap.recycle();
+        return sizeInBytes;
+      }
+    });
+  }
+
+  // Uploads the bitmap to the bound texture, along with all of its mipmaps, and returns their
+  // size in bytes.  Each level is made by halving the one before, which keeps the cells apart
+  // since they're all aligned to their size.
+  private static int upload(GL10 gl, Bitmap bitmap) {
+    gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER,
+                       GL10.GL_LINEAR_MIPMAP_NEAREST);
+    gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
+    gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
+    gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
+    GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, bitmap, 0);
+    int sizeInBytes = bitmap.getRowBytes() * bitmap.getHeight();
+
+    Bitmap level = bitmap;
+    int size = bitmap.getWidth();
+    for (int i = 1; size > 1; i++) {
+      size /= 2;
+      Bitmap next = Bitmap.createScaledBitmap(level, size, size, true);
+      if (level != bitmap) {
+        level.recycle();
+      }
+      GLUtils.texImage2D(GL10.GL_TEXTURE_2D, i, next, 0);
+      sizeInBytes += next.getRowBytes() * next.getHeight();
+      level = next;
+    }
+    if (level != bitmap) {
+      level.recycle();
+    }
+    Log.d(TAG, "Uploaded a " + bitmap.getWidth() + "x" + bitmap.getHeight() + " image page");
+    return sizeInBytes;
+  }
+
+  // Makes a copy of the bitmap in shades of red, with the same alpha.
+  private static Bitmap createRedImage(Bitmap bmp) {
+    int width = bmp.getWidth();
+    int height = bmp.getHeight();
+    int[] pixels = new int[width * height];
+    bmp.getPixels(pixels, 0, width, 0, 0, width, height);
+    for (int j = 0; j < pixels.length; j++) {
+      int r = (pixels[j] >> 16) & 0xff;
+      int g = (pixels[j] >> 8) & 0xff;
+      int b = pixels[j] & 0xff;
+      int alphaMask = pixels[j] & 0xff000000;
+      pixels[j] = alphaMask | (((r + g + b) / 3) << 16);
+    }
+    Bitmap red = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    red.setPixels(pixels, 0, width, 0, 0, width, height);
+    return red;
+  }
+
+  // Returns the even numbered bits of value, packed together.  This turns a position along the
+  // Z-order curve into an x coordinate, or into a y coordinate if shifted right by one first.
+  private static int compactBits(int value) {
+    int result = 0;
+    for (int bit = 0; 2 * bit < 31; bit++) {
+      result |= ((value >> (2 * bit)) & 1) << bit;
+    }
+    return result;
+  }
+
+  private static int nextPowerOfTwo(int value) {
+    int result = 1;
+    while (result < value) {
+      result *= 2;
+    }
+    return result;
+  }
+}
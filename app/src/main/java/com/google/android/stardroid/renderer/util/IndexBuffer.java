@@ -22,6 +22,10 @@ import javax.microedition.khronos.opengles.GL10;
 import javax.microedition.khronos.opengles.GL11;
 
 public class IndexBuffer {
+  // The indices are unsigned shorts, so one draw can use at most this many vertices.  Anything
+  // bigger has to be split into chunks, with the vertex arrays pointed at each chunk in turn.
+  public static final int MAX_VERTICES_PER_DRAW = 0xffff;
+
   public IndexBuffer(int numVertices) {
     this(numVertices, false);
   }
@@ -49,6 +53,12 @@ public class IndexBuffer {
     regenerateBuffer();
   }
 
+  // Sets how often the contents are expected to change, which decides how they're uploaded
+  // when using VBOs.
+  public void setUsage(GLBuffer.Usage usage) {
+    mGLBuffer.setUsage(usage);
+  }
+
   // Call this when we have to re-create the surface and reloading all OpenGL resources.
   public void reload() {
     mGLBuffer.reload();
@@ -59,6 +69,14 @@ public class IndexBuffer {
       return;
     }
 
+    // If the size hasn't changed, reuse the existing buffer.  It's all about to be rewritten, so
+    // the whole thing needs uploading again.
+    if (mIndexBuffer != null && mIndexBuffer.capacity() == mNumIndices) {
+      mIndexBuffer.position(0);
+      mGLBuffer.markDirty(0, mIndexBuffer.capacity());
+      return;
+    }
+
     ByteBuffer bb = ByteBuffer.allocateDirect(2 * mNumIndices);
     bb.order(ByteOrder.nativeOrder());
     ShortBuffer ib = bb.asShortBuffer();
@@ -66,27 +84,56 @@ public class IndexBuffer {
     mIndexBuffer = ib;
   }
 
+  // The number of bytes writeTo() writes.
+  public int getSizeInBytes() {
+    return GeometryCache.getSizeOfShorts(mNumIndices);
+  }
+
+  // Copies the indices into a GeometryCache snapshot.
+  public void writeTo(ByteBuffer out) {
+    GeometryCache.writeShorts(out, mIndexBuffer, mNumIndices);
+  }
+
+  // Takes numIndices indices from a snapshot written by writeTo(), without copying them.
+  public void readFrom(ByteBuffer in, int numIndices) {
+    mNumIndices = numIndices;
+    mIndexBuffer = GeometryCache.readShorts(in, numIndices);
+  }
+
   public void addIndex(short index) {
     mIndexBuffer.put(index);
   }
 
   public void draw(GL10 gl, int primitiveType) {
-    if (mNumIndices == 0) {
+    draw(gl, primitiveType, mNumIndices);
+  }
+
+  // Draws only the first numIndices indices in the buffer.
+  public void draw(GL10 gl, int primitiveType, int numIndices) {
+    draw(gl, primitiveType, 0, numIndices);
+  }
+
+  // Draws numIndices indices from the buffer, starting with the given one.
+  public void draw(GL10 gl, int primitiveType, int start, int numIndices) {
+    if (numIndices <= 0 || mNumIndices == 0 || start >= mNumIndices) {
       return;
     }
+    numIndices = Math.min(numIndices, mNumIndices - start);
     mIndexBuffer.position(0);
     if (mUseVbo && GLBuffer.canUseVBO()) {
       GL11 gl11 = (GL11)gl;
       mGLBuffer.bind(gl11, mIndexBuffer, 2 * mIndexBuffer.capacity());
-      gl11.glDrawElements(primitiveType, size(), GL10.GL_UNSIGNED_SHORT, 0);
+      gl11.glDrawElements(primitiveType, numIndices, GL10.GL_UNSIGNED_SHORT, 2 * start);
       GLBuffer.unbind(gl11);
     } else {
-      gl.glDrawElements(primitiveType, size(), GL10.GL_UNSIGNED_SHORT, mIndexBuffer);
+      mIndexBuffer.position(start);
+      gl.glDrawElements(primitiveType, numIndices, GL10.GL_UNSIGNED_SHORT, mIndexBuffer);
+      mIndexBuffer.position(0);
     }
   }
 
   private ShortBuffer mIndexBuffer = null;
   private int mNumIndices = 0;
-  private GLBuffer mGLBuffer = new GLBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER);
+  private GLBuffer mGLBuffer = new GLBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 2);
   private boolean mUseVbo = false;
 }
@@ -0,0 +1,505 @@
+package com.google.android.stardroid.renderer.util;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+import com.google.android.stardroid.util.MiscUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * A set of textures holding rendered text labels, which are packed in as
+ * they are needed rather than all at once.
+ *
+ * The labels are packed into fixed size pages, each with its own texture.
+ * Each page is divided into horizontal shelves, and a label goes at the end of
+ * the shortest shelf which it fits on, or on a new shelf if there isn't one.
+ * When a page is full we start another.  Labels which are no longer used just
+ * leave a gap, and once the gaps take up more space than the labels in use,
+ * the whole atlas is repacked.
+ *
+ * Measuring and drawing the text happens on a background thread, so adding
+ * labels never stalls the GL thread.  The GL thread calls update() every
+ * frame, which uploads any pages which have changed and then makes the new
+ * labels available for drawing.  The page bitmaps are kept, so when the GL
+ * surface is recreated the textures are uploaded again rather than redrawn.
+ * Likewise, the textures of pages with no labels in use are given up to the
+ * TextureManager, which may delete them to make room for other textures, and
+ * they're uploaded again if they're needed.
+ *
+ * Apart from the background work, everything here must be called on the GL
+ * thread.
+ */
+public class LabelAtlas {
+  private static final String TAG = MiscUtil.getTag(LabelAtlas.class);
+
+  /** The width and height of each page, in pixels. */
+  public static final int PAGE_SIZE = 512;
+
+  // Text for all of the atlases is drawn on this thread, one batch at a time.
+  private static final Executor RASTERIZER = Executors.newSingleThreadExecutor();
+
+  /**
+   * A label in the atlas.  Labels with the same text, size and color share an
+   * entry.
+   */
+  public static class Entry {
+    private final String mText;
+    private final int mFontSize;
+    private final int mColor;
+
+    // Where the label is in the atlas.  Only valid once the label is ready.
+    private boolean mReady = false;
+    private int mPage = -1;
+    private int mU;
+    private int mV;
+    private int mWidth;
+    private int mHeight;
+    // Incremented every time the label moves, so users know to update their texture
+    // coordinates.
+    private int mVersion = 0;
+
+    // Whether a label set on the atlas still uses this entry.
+    private boolean mInUse = false;
+
+    private Entry(String text, int fontSize, int color) {
+      mText = text;
+      mFontSize = fontSize;
+      mColor = color;
+    }
+
+    /** Returns true once the label has been drawn and uploaded to its page's texture. */
+    public boolean isReady() {
+      return mReady;
+    }
+
+    public int getPage() {
+      return mPage;
+    }
+
+    public int getVersion() {
+      return mVersion;
+    }
+
+    /** Sets the label's size and texture coordinates from this entry. */
+    public void applyTo(LabelMaker.LabelData label) {
+      float texel = 1.0f / PAGE_SIZE;
+      // The bitmap's rows are upside down compared to the texture, so flip the crop rectangle.
+      label.setTextureData(mWidth, mHeight, mU, mV + mHeight, mWidth, -mHeight, texel, texel);
+    }
+  }
+
+  private static class Page {
+    Page(Bitmap.Config config) {
+      bitmap = Bitmap.createBitmap(PAGE_SIZE, PAGE_SIZE, config);
+      bitmap.eraseColor(0);
+      canvas = new Canvas(bitmap);
+    }
+
+    final Bitmap bitmap;
+    // Only used by the background thread.
+    final Canvas canvas;
+    final ArrayList<Shelf> shelves = new ArrayList<Shelf>();
+    int nextShelfV = 0;
+
+    // Only used by the GL thread.
+    TextureReference texture = null;
+    // Whether we hold a reference to the texture, which we do while any labels in the page are
+    // in use.
+    boolean textureHeld = false;
+
+    // Guarded by this page, as is the bitmap.
+    boolean needsUpload = false;
+  }
+
+  private static class Shelf {
+    Shelf(int page, int v, int height) {
+      this.page = page;
+      this.v = v;
+      this.height = height;
+    }
+    final int page;
+    final int v;
+    final int height;
+    int nextU = 0;
+  }
+
+  // Where the background thread put an entry.
+  private static class Placement {
+    Placement(Entry entry, int page, int u, int v, int width, int height) {
+      this.entry = entry;
+      this.page = page;
+      this.u = u;
+      this.v = v;
+      this.width = width;
+      this.height = height;
+    }
+    final Entry entry;
+    final int page;
+    final int u;
+    final int v;
+    final int width;
+    final int height;
+  }
+
+  // The result of one batch of background work.
+  private static class Result {
+    // If true, the atlas was repacked and the new pages replace all of the old ones.
+    boolean replacesPages = false;
+    final ArrayList<Page> newPages = new ArrayList<Page>();
+    final ArrayList<Placement> placements = new ArrayList<Placement>();
+  }
+
+  private final TextureManager mTextureManager;
+  private final Paint mPaint;
+  private final Bitmap.Config mConfig;
+  private final float mDensity;
+  private final int mMaxWidth;
+
+  // Used by the GL thread.
+  private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+  private final ArrayList<Page> mPages = new ArrayList<Page>();
+  // The area of the pages taken up by labels which have been dropped.
+  private int mAreaWasted = 0;
+  // Set when labels have been dropped, so some pages may not be needed any more.
+  private boolean mPagesInUseChanged = false;
+
+  // Used by the background thread.
+  private final ArrayList<Page> mWorkerPages = new ArrayList<Page>();
+
+  // Finished work waiting to be picked up by the GL thread.  Guarded by itself.
+  private final ArrayList<Result> mResults = new ArrayList<Result>();
+  // Run on the background thread whenever new results are waiting.
+  private volatile Runnable mResultsListener = null;
+
+  /**
+   * @param paint the paint to draw the labels with.  The atlas takes it over,
+   *        and it mustn't be used elsewhere.
+   * @param fullColor true if we want a full color backing store (4444),
+   *        otherwise we generate a grey L8 backing store.
+   */
+  public LabelAtlas(Paint paint, boolean fullColor, Resources res,
+                    TextureManager textureManager) {
+    mTextureManager = textureManager;
+    mPaint = paint;
+    mConfig = fullColor ? Bitmap.Config.ARGB_4444 : Bitmap.Config.ALPHA_8;
+    mDensity = res.getDisplayMetrics().density;
+    mMaxWidth = Math.min(PAGE_SIZE, res.getDisplayMetrics().widthPixels);
+  }
+
+  /**
+   * Sets a listener to be told when newly drawn labels are waiting for
+   * update().  It's run on the background thread.
+   */
+  public void setResultsListener(Runnable listener) {
+    mResultsListener = listener;
+  }
+
+  /**
+   * Sets the labels which are in use, returning the entry for each one.  New
+   * labels are drawn in the background, and their entries become ready in a
+   * later call to update().  Labels which aren't in the array any more are
+   * dropped from the atlas.
+   */
+  public Entry[] setLabels(LabelMaker.LabelData[] labels) {
+    for (Entry entry : mEntries.values()) {
+      entry.mInUse = false;
+    }
+    Entry[] entries = new Entry[labels.length];
+    ArrayList<Entry> newEntries = new ArrayList<Entry>();
+    for (int i = 0; i < labels.length; i++) {
+      LabelMaker.LabelData label = labels[i];
+      String key = getKey(label.getText(), label.getFontSize(), label.getColor());
+      Entry entry = mEntries.get(key);
+      if (entry == null) {
+        entry = new Entry(label.getText(), label.getFontSize(), label.getColor());
+        mEntries.put(key, entry);
+        newEntries.add(entry);
+      }
+      entry.mInUse = true;
+      entries[i] = entry;
+    }
+
+    // Forget the labels we don't need any more.  Their space in the pages is wasted until we
+    // repack.
+    int areaInUse = 0;
+    Iterator<Entry> it = mEntries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      int area = entry.mReady ? entry.mWidth * entry.mHeight : 0;
+      if (entry.mInUse) {
+        areaInUse += area;
+      } else {
+        it.remove();
+        mAreaWasted += area;
+        mPagesInUseChanged = true;
+      }
+    }
+
+    if (mPages.size() > 1 && mAreaWasted > areaInUse) {
+      Log.d(TAG, "Repacking label atlas with " + mEntries.size() + " labels");
+      mAreaWasted = 0;
+      rasterizeInBackground(new ArrayList<Entry>(mEntries.values()), true);
+    } else if (!newEntries.isEmpty()) {
+      rasterizeInBackground(newEntries, false);
+    }
+    return entries;
+  }
+
+  /**
+   * Returns true if there's anything for update to do, in which case it may
+   * bind the atlas's textures.
+   */
+  public boolean needsUpdate() {
+    synchronized (mResults) {
+      return !mResults.isEmpty() || anyPageNeedsUpload() || mPagesInUseChanged;
+    }
+  }
+
+  /**
+   * Uploads any pages which have changed, and marks the labels in them as
+   * ready.  Returns true if any label became ready or moved, in which case
+   * users should check their entries' versions.
+   */
+  public boolean update(GL10 gl) {
+    ArrayList<Result> results;
+    synchronized (mResults) {
+      if (mResults.isEmpty() && !anyPageNeedsUpload() && !mPagesInUseChanged) {
+        return false;
+      }
+      results = new ArrayList<Result>(mResults);
+      mResults.clear();
+    }
+
+    for (Result result : results) {
+      if (result.replacesPages) {
+        deletePages(gl);
+      }
+      mPages.addAll(result.newPages);
+    }
+    for (Page page : mPages) {
+      maybeUpload(gl, page);
+    }
+    boolean changed = false;
+    for (Result result : results) {
+      for (Placement placement : result.placements) {
+        Entry entry = placement.entry;
+        if (!entry.mInUse) {
+          // Dropped while it was being drawn.
+          continue;
+        }
+        entry.mPage = placement.page;
+        entry.mU = placement.u;
+        entry.mV = placement.v;
+        entry.mWidth = placement.width;
+        entry.mHeight = placement.height;
+        entry.mVersion++;
+        entry.mReady = true;
+        changed = true;
+      }
+    }
+    updatePageReferences(gl);
+    return changed;
+  }
+
+  /**
+   * Call when the GL surface has been recreated.  The old textures are gone,
+   * so the pages are uploaded to new ones at the next update.
+   */
+  public void reload(GL10 gl) {
+    for (Page page : mPages) {
+      page.texture = null;
+      page.textureHeld = false;
+      synchronized (page) {
+        page.needsUpload = true;
+      }
+    }
+    mPagesInUseChanged = true;
+  }
+
+  public int getNumPages() {
+    return mPages.size();
+  }
+
+  public TextureReference getTexture(int page) {
+    return mPages.get(page).texture;
+  }
+
+  private static String getKey(String text, int fontSize, int color) {
+    return fontSize + ":" + Integer.toHexString(color) + ":" + text;
+  }
+
+  private boolean anyPageNeedsUpload() {
+    for (int i = 0; i < mPages.size(); i++) {
+      Page page = mPages.get(i);
+      synchronized (page) {
+        if (page.needsUpload) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void deletePages(GL10 gl) {
+    for (Page page : mPages) {
+      if (page.texture != null) {
+        page.texture.delete(gl);
+        page.texture = null;
+      }
+      page.bitmap.recycle();
+    }
+    mPages.clear();
+  }
+
+  // Holds the textures of the pages with labels in use, and gives up the others.
+  private void updatePageReferences(GL10 gl) {
+    mPagesInUseChanged = false;
+    boolean[] inUse = new boolean[mPages.size()];
+    for (Entry entry : mEntries.values()) {
+      if (entry.mReady && entry.mPage < inUse.length) {
+        inUse[entry.mPage] = true;
+      }
+    }
+    for (int i = 0; i < inUse.length; i++) {
+      Page page = mPages.get(i);
+      if (page.texture == null || page.textureHeld == inUse[i]) {
+        continue;
+      }
+      if (inUse[i]) {
+        mTextureManager.retainTexture(page.texture);
+      } else {
+        mTextureManager.releaseTexture(gl, page.texture);
+      }
+      page.textureHeld = inUse[i];
+    }
+  }
+
+  // Makes the page's texture, or uploads the page again if it has changed.  The texture is
+  // loaded from the page's bitmap whenever it's bound after being deleted.
+  private void maybeUpload(GL10 gl, final Page page) {
+    if (page.texture == null) {
+      page.texture = mTextureManager.createTexture(gl, new TextureManager.Loader() {
+        public int load(GL10 gl) {
+          gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_NEAREST);
+          gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_NEAREST);
+          gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
+          gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
+          synchronized (page) {
+            GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, page.bitmap, 0);
+            page.needsUpload = false;
+            return page.bitmap.getRowBytes() * page.bitmap.getHeight();
+          }
+        }
+      });
+      page.textureHeld = true;
+    }
+    boolean needsUpload;
+    synchronized (page) {
+      needsUpload = page.needsUpload;
+      page.needsUpload = false;
+    }
+    if (needsUpload) {
+      // If the texture isn't loaded, it will get the new labels when it is.
+      mTextureManager.reloadTexture(gl, page.texture);
+    }
+  }
+
+  private void rasterizeInBackground(final List<Entry> entries, final boolean repack) {
+    RASTERIZER.execute(new Runnable() {
+      public void run() {
+        Result result = rasterize(entries, repack);
+        synchronized (mResults) {
+          mResults.add(result);
+        }
+        Runnable listener = mResultsListener;
+        if (listener != null) {
+          listener.run();
+        }
+      }
+    });
+  }
+
+  // Runs on the background thread.
+  private Result rasterize(List<Entry> entries, boolean repack) {
+    Result result = new Result();
+    if (repack) {
+      mWorkerPages.clear();
+      result.replacesPages = true;
+    }
+    for (Entry entry : entries) {
+      // If the text is too wide, make it smaller until it fits.
+      // TODO(jpowell): We should really split this up among multiple lines, but just making
+      // the text smaller is much easier.
+      int fontSize = entry.mFontSize;
+      int ascent;
+      int width;
+      int height;
+      do {
+        mPaint.setColor(0xff000000 | entry.mColor);
+        mPaint.setTextSize(fontSize * mDensity);
+        // Paint.ascent is negative, so negate it.
+        ascent = (int) Math.ceil(-mPaint.ascent());
+        int descent = (int) Math.ceil(mPaint.descent());
+        width = (int) Math.ceil(mPaint.measureText(entry.mText));
+        height = ascent + descent;
+        fontSize--;
+      } while (fontSize > 0 && width > mMaxWidth);
+
+      Shelf shelf = findShelf(width, height, result);
+      Page page = mWorkerPages.get(shelf.page);
+      int u = shelf.nextU;
+      shelf.nextU += width;
+      synchronized (page) {
+        page.canvas.drawText(entry.mText, u, shelf.v + ascent, mPaint);
+        page.needsUpload = true;
+      }
+      result.placements.add(new Placement(entry, shelf.page, u, shelf.v, width, height));
+    }
+    return result;
+  }
+
+  // Runs on the background thread.  Returns the shortest shelf with room for a label of the
+  // given size, in the first page which has one, adding a new shelf or page if needed.
+  private Shelf findShelf(int width, int height, Result result) {
+    for (int i = 0; i < mWorkerPages.size(); i++) {
+      Page page = mWorkerPages.get(i);
+      Shelf best = null;
+      for (Shelf shelf : page.shelves) {
+        if (shelf.height >= height && shelf.nextU + width <= PAGE_SIZE
+            && (best == null || shelf.height < best.height)) {
+          best = shelf;
+        }
+      }
+      if (best != null) {
+        return best;
+      }
+      if (page.nextShelfV + height <= PAGE_SIZE) {
+        return addShelf(page, i, height);
+      }
+    }
+    Page page = new Page(mConfig);
+    mWorkerPages.add(page);
+    result.newPages.add(page);
+    return addShelf(page, mWorkerPages.size() - 1, height);
+  }
+
+  private static Shelf addShelf(Page page, int pageIndex, int height) {
+    Shelf shelf = new Shelf(pageIndex, page.nextShelfV, height);
+    page.shelves.add(shelf);
+    page.nextShelfV += height;
+    return shelf;
+  }
+}
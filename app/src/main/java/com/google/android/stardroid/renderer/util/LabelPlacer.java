@@ -0,0 +1,167 @@
+package com.google.android.stardroid.renderer.util;
+
+import java.util.Arrays;
+
+/**
+ * Decides which labels to draw each frame, so that they don't pile up on top
+ * of each other.
+ *
+ * Labels are offered in order of decreasing priority.  A label is accepted if
+ * its rectangle on the screen doesn't overlap any label accepted before it in
+ * the same frame, and the frame's budget of labels hasn't been used up.  The
+ * accepted rectangles are bucketed into a coarse grid of screen cells, so each
+ * new label is only checked against the labels near it.
+ *
+ * All of the storage is reused from frame to frame, so once it has grown big
+ * enough placing labels doesn't allocate any memory.
+ */
+public class LabelPlacer {
+  /** The default maximum number of labels accepted in one frame. */
+  public static final int DEFAULT_MAX_LABELS_PER_FRAME = 100;
+
+  // The width and height of a grid cell, in pixels.  This is roughly the size of a short label,
+  // so most labels only touch a few cells.
+  private static final int CELL_SIZE = 64;
+
+  private static final int NO_ENTRY = -1;
+
+  private int mMaxLabelsPerFrame;
+
+  private int mScreenWidth = 0;
+  private int mScreenHeight = 0;
+  private int mNumColumns = 0;
+  private int mNumRows = 0;
+
+  // The rectangles accepted this frame, stored as (minX, minY, maxX, maxY).
+  private float[] mRects = new float[4 * 32];
+  private int mNumRects = 0;
+
+  // For each grid cell, the index of the first entry for that cell, or NO_ENTRY.  Each entry
+  // refers to an accepted rectangle which touches the cell, and links to the next entry for the
+  // same cell.
+  private int[] mCellHeads = new int[0];
+  private int[] mEntryRects = new int[64];
+  private int[] mEntryNext = new int[64];
+  private int mNumEntries = 0;
+
+  private int mNumRejected = 0;
+
+  public LabelPlacer() {
+    this(DEFAULT_MAX_LABELS_PER_FRAME);
+  }
+
+  public LabelPlacer(int maxLabelsPerFrame) {
+    mMaxLabelsPerFrame = maxLabelsPerFrame;
+  }
+
+  public void setMaxLabelsPerFrame(int maxLabelsPerFrame) {
+    mMaxLabelsPerFrame = maxLabelsPerFrame;
+  }
+
+  public int getMaxLabelsPerFrame() {
+    return mMaxLabelsPerFrame;
+  }
+
+  /** Forgets all of the labels placed so far.  Call this at the start of each frame. */
+  public void reset(int screenWidth, int screenHeight) {
+    if (screenWidth != mScreenWidth || screenHeight != mScreenHeight) {
+      mScreenWidth = screenWidth;
+      mScreenHeight = screenHeight;
+      mNumColumns = Math.max(1, (screenWidth + CELL_SIZE - 1) / CELL_SIZE);
+      mNumRows = Math.max(1, (screenHeight + CELL_SIZE - 1) / CELL_SIZE);
+      // This only happens when the screen size changes.
+      mCellHeads = new int[mNumColumns * mNumRows];
+    }
+    Arrays.fill(mCellHeads, NO_ENTRY);
+    mNumRects = 0;
+    mNumEntries = 0;
+    mNumRejected = 0;
+  }
+
+  /**
+   * Tries to place a label with the given screen rectangle.  Returns true if
+   * the label should be drawn, or false if it is entirely off screen,
+   * overlaps a label which has already been placed, or there are already too
+   * many labels this frame.
+   */
+  public boolean place(float minX, float minY, float maxX, float maxY) {
+    if (maxX < 0 || maxY < 0 || minX > mScreenWidth || minY > mScreenHeight) {
+      return false;
+    }
+    if (mNumRects >= mMaxLabelsPerFrame) {
+      mNumRejected++;
+      return false;
+    }
+
+    int minColumn = toCell(minX, mNumColumns);
+    int maxColumn = toCell(maxX, mNumColumns);
+    int minRow = toCell(minY, mNumRows);
+    int maxRow = toCell(maxY, mNumRows);
+
+    for (int row = minRow; row <= maxRow; row++) {
+      for (int column = minColumn; column <= maxColumn; column++) {
+        for (int entry = mCellHeads[row * mNumColumns + column]; entry != NO_ENTRY;
+             entry = mEntryNext[entry]) {
+          int rect = 4 * mEntryRects[entry];
+          if (minX < mRects[rect + 2] && mRects[rect] < maxX
+              && minY < mRects[rect + 3] && mRects[rect + 1] < maxY) {
+            mNumRejected++;
+            return false;
+          }
+        }
+      }
+    }
+
+    int rectIndex = addRect(minX, minY, maxX, maxY);
+    for (int row = minRow; row <= maxRow; row++) {
+      for (int column = minColumn; column <= maxColumn; column++) {
+        addEntry(row * mNumColumns + column, rectIndex);
+      }
+    }
+    return true;
+  }
+
+  /** Returns the number of labels placed since the last reset. */
+  public int getNumPlaced() {
+    return mNumRects;
+  }
+
+  /**
+   * Returns the number of on-screen labels rejected since the last reset,
+   * because they overlapped another label or were over the budget.
+   */
+  public int getNumRejected() {
+    return mNumRejected;
+  }
+
+  private static int toCell(float coordinate, int numCells) {
+    int cell = (int) coordinate / CELL_SIZE;
+    if (cell < 0) {
+      return 0;
+    }
+    return cell < numCells ? cell : numCells - 1;
+  }
+
+  private int addRect(float minX, float minY, float maxX, float maxY) {
+    if (4 * mNumRects + 4 > mRects.length) {
+      mRects = Arrays.copyOf(mRects, 2 * mRects.length);
+    }
+    int rect = 4 * mNumRects;
+    mRects[rect] = minX;
+    mRects[rect + 1] = minY;
+    mRects[rect + 2] = maxX;
+    mRects[rect + 3] = maxY;
+    return mNumRects++;
+  }
+
+  private void addEntry(int cell, int rectIndex) {
+    if (mNumEntries == mEntryRects.length) {
+      mEntryRects = Arrays.copyOf(mEntryRects, 2 * mEntryRects.length);
+      mEntryNext = Arrays.copyOf(mEntryNext, 2 * mEntryNext.length);
+    }
+    mEntryRects[mNumEntries] = rectIndex;
+    mEntryNext[mNumEntries] = mCellHeads[cell];
+    mCellHeads[cell] = mNumEntries;
+    mNumEntries++;
+  }
+}
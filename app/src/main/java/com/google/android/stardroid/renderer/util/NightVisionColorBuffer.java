@@ -14,6 +14,8 @@
 
 package com.google.android.stardroid.renderer.util;
 
+import java.nio.ByteBuffer;
+
 import javax.microedition.khronos.opengles.GL10;
 
 /// Encapsulates a color vertex buffer where night vision can be enabled or diabled by a function call.
@@ -41,18 +43,58 @@ public class NightVisionColorBuffer {
     mRedBuffer.reset(numVertices);
   }
   
+  // Sets how often the contents are expected to change, which decides how they're uploaded
+  // when using VBOs.
+  public void setUsage(GLBuffer.Usage usage) {
+    mNormalBuffer.setUsage(usage);
+    mRedBuffer.setUsage(usage);
+  }
+  
   // Call this when we have to re-create the surface and reloading all OpenGL resources.
   public void reload() {
     mNormalBuffer.reload();
     mRedBuffer.reload();
   }
   
+  // The number of bytes writeTo() writes.
+  public int getSizeInBytes() {
+    return mNormalBuffer.getSizeInBytes() + mRedBuffer.getSizeInBytes();
+  }
+
+  // Copies the normal and then the red colors into a GeometryCache snapshot.
+  public void writeTo(ByteBuffer out) {
+    mNormalBuffer.writeTo(out);
+    mRedBuffer.writeTo(out);
+  }
+
+  // Takes the colors of numVertices vertices from a snapshot written by writeTo(), without
+  // copying them.
+  public void readFrom(ByteBuffer in, int numVertices) {
+    mNormalBuffer.readFrom(in, numVertices);
+    mRedBuffer.readFrom(in, numVertices);
+  }
+
   public void addColor(int a, int r, int g, int b) {
     mNormalBuffer.addColor(a, r, g, b);
+    mRedBuffer.addColor(toRed(a, r, g, b));
+  }
+
+  // Overwrites the color of the vertex at the given index, which must already have been added.
+  public void setColor(int index, int abgr) {
+    int a = (abgr >> 24) & 0xff;
+    int b = (abgr >> 16) & 0xff;
+    int g = (abgr >> 8) & 0xff;
+    int r = abgr & 0xff;
+    mNormalBuffer.setColor(index, abgr);
+    mRedBuffer.setColor(index, toRed(a, r, g, b));
+  }
+
+  // Returns the night vision version of a color, as ABGR.
+  private static int toRed(int a, int r, int g, int b) {
     // I tried luminance here first, but many objects we care a lot about weren't very noticable because they were
     // bluish.  An average gets a better result.
     int avg = (r + g + b) / 3;
-    mRedBuffer.addColor(a, avg, 0, 0);
+    return ((a & 0xff) << 24) | (avg & 0xff);
   }
   
   public void addColor(int abgr) {
@@ -63,11 +105,26 @@ public class NightVisionColorBuffer {
     addColor(a, r, g, b);
   }
   
+  // For the OpenGL ES 2.0 renderer, which applies night vision in the shaders: points the given
+  // vertex attribute at the normal colors.
+  public void setAttrib(GL10 gl, int attribute) {
+    setAttrib(gl, attribute, 0);
+  }
+
+  public void setAttrib(GL10 gl, int attribute, int firstVertex) {
+    mNormalBuffer.setAttrib(gl, attribute, firstVertex);
+  }
+
   public void set(GL10 gl, boolean nightVisionMode) {
+    set(gl, nightVisionMode, 0);
+  }
+
+  // Points the color array at the colors, starting with the given vertex.  See VertexBuffer.
+  public void set(GL10 gl, boolean nightVisionMode, int firstVertex) {
     if (nightVisionMode) {
-      mRedBuffer.set(gl);
+      mRedBuffer.set(gl, firstVertex);
     } else {
-      mNormalBuffer.set(gl);
+      mNormalBuffer.set(gl, firstVertex);
     }
   }
 
@@ -0,0 +1,143 @@
+package com.google.android.stardroid.renderer.util;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+/**
+ * Holds one record per point for the OpenGL ES 2.0 renderer, which expands
+ * the points into squares in the vertex shader.  Each record is the point's
+ * position, its color, and its size and the offset of its image in the
+ * texture, interleaved in a single buffer.
+ *
+ * Compared with the four vertices and six indices per point used by the
+ * fixed function renderer, this is about a fifth of the memory.
+ */
+public class PointSpriteBuffer {
+  // x, y, z, color, size, texture offset.
+  private static final int INTS_PER_POINT = 6;
+  private static final int STRIDE = 4 * INTS_PER_POINT;
+  private static final int COLOR_OFFSET = 4 * 3;
+  private static final int SPRITE_OFFSET = 4 * 4;
+
+  private ByteBuffer mBytes = null;
+  private IntBuffer mPoints = null;
+  private int mNumPoints = 0;
+  private GLBuffer mGLBuffer = new GLBuffer(GL11.GL_ARRAY_BUFFER, 4);
+  private boolean mUseVBO = false;
+
+  public PointSpriteBuffer(boolean useVBO) {
+    mUseVBO = useVBO;
+  }
+
+  public int size() {
+    return mNumPoints;
+  }
+
+  public void reset(int numPoints) {
+    mNumPoints = numPoints;
+    if (numPoints == 0) {
+      return;
+    }
+    // If the size hasn't changed, reuse the existing buffer.  It's all about to be rewritten, so
+    // the whole thing needs uploading again.
+    if (mPoints != null && mPoints.capacity() == INTS_PER_POINT * numPoints) {
+      mGLBuffer.markDirty(0, mPoints.capacity());
+      return;
+    }
+    mBytes = ByteBuffer.allocateDirect(STRIDE * numPoints).order(ByteOrder.nativeOrder());
+    mPoints = mBytes.asIntBuffer();
+  }
+
+  // Sets how often the contents are expected to change, which decides how they're uploaded
+  // when using VBOs.
+  public void setUsage(GLBuffer.Usage usage) {
+    mGLBuffer.setUsage(usage);
+  }
+
+  // Call this when we have to re-create the surface and reloading all OpenGL resources.
+  public void reload() {
+    mGLBuffer.reload();
+  }
+
+  // The number of bytes writeTo() writes.
+  public int getSizeInBytes() {
+    return STRIDE * mNumPoints;
+  }
+
+  // Copies the points into a GeometryCache snapshot.
+  public void writeTo(ByteBuffer out) {
+    GeometryCache.writeInts(out, mPoints, INTS_PER_POINT * mNumPoints);
+  }
+
+  // Takes numPoints points from a snapshot written by writeTo(), without copying them.
+  public void readFrom(ByteBuffer in, int numPoints) {
+    mNumPoints = numPoints;
+    mBytes = GeometryCache.readBytes(in, STRIDE * numPoints);
+    mPoints = mBytes.asIntBuffer();
+  }
+
+  public void setPoint(int index, float x, float y, float z, int abgr, float size,
+                       float texOffset) {
+    int offset = INTS_PER_POINT * index;
+    mPoints.put(offset, Float.floatToRawIntBits(x));
+    mPoints.put(offset + 1, Float.floatToRawIntBits(y));
+    mPoints.put(offset + 2, Float.floatToRawIntBits(z));
+    mPoints.put(offset + 3, abgr);
+    mPoints.put(offset + 4, Float.floatToRawIntBits(size));
+    mPoints.put(offset + 5, Float.floatToRawIntBits(texOffset));
+    mGLBuffer.markDirty(offset, INTS_PER_POINT);
+  }
+
+  // Moves the point at the given index, which must already have been set.
+  public void setPosition(int index, float x, float y, float z) {
+    int offset = INTS_PER_POINT * index;
+    mPoints.put(offset, Float.floatToRawIntBits(x));
+    mPoints.put(offset + 1, Float.floatToRawIntBits(y));
+    mPoints.put(offset + 2, Float.floatToRawIntBits(z));
+    mGLBuffer.markDirty(offset, 3);
+  }
+
+  // Points the SkyShaders.POINT_SPRITES attributes at the points.
+  public void set(GL10 gl) {
+    if (mNumPoints == 0) {
+      return;
+    }
+    mPoints.position(0);
+    if (mUseVBO && GLBuffer.canUseVBO()) {
+      mGLBuffer.bind((GL11) gl, mPoints, STRIDE * mNumPoints);
+      GLES20.glVertexAttribPointer(SkyShaders.ATTRIBUTE_POSITION, 3, GLES20.GL_FLOAT, false,
+                                   STRIDE, 0);
+      GLES20.glVertexAttribPointer(SkyShaders.ATTRIBUTE_COLOR, 4, GLES20.GL_UNSIGNED_BYTE, true,
+                                   STRIDE, COLOR_OFFSET);
+      GLES20.glVertexAttribPointer(SkyShaders.ATTRIBUTE_SPRITE, 2, GLES20.GL_FLOAT, false,
+                                   STRIDE, SPRITE_OFFSET);
+    } else {
+      // The attribute pointers start at the buffer's position.
+      mBytes.position(0);
+      GLES20.glVertexAttribPointer(SkyShaders.ATTRIBUTE_POSITION, 3, GLES20.GL_FLOAT, false,
+                                   STRIDE, mBytes);
+      mBytes.position(COLOR_OFFSET);
+      GLES20.glVertexAttribPointer(SkyShaders.ATTRIBUTE_COLOR, 4, GLES20.GL_UNSIGNED_BYTE, true,
+                                   STRIDE, mBytes);
+      mBytes.position(SPRITE_OFFSET);
+      GLES20.glVertexAttribPointer(SkyShaders.ATTRIBUTE_SPRITE, 2, GLES20.GL_FLOAT, false,
+                                   STRIDE, mBytes);
+      mBytes.position(0);
+    }
+  }
+
+  // Draws the first numPoints points.
+  public void draw(GL10 gl, int numPoints) {
+    numPoints = Math.min(numPoints, mNumPoints);
+    if (numPoints > 0) {
+      GLES20.glDrawArrays(GLES20.GL_POINTS, 0, numPoints);
+      GLBuffer.unbind((GL11) gl);
+    }
+  }
+}
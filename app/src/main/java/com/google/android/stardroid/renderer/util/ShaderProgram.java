@@ -0,0 +1,129 @@
+package com.google.android.stardroid.renderer.util;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import com.google.android.stardroid.util.MiscUtil;
+
+/**
+ * An OpenGL ES 2.0 program, made from a vertex and a fragment shader.
+ *
+ * The program is compiled the first time it is used.  Vertex attributes are
+ * bound to fixed locations before linking: the i'th name passed to the
+ * constructor gets location i, so callers can use constants rather than
+ * looking the locations up.  Uniform locations are looked up once, after
+ * linking, and are also fetched by their index in the list of names.
+ *
+ * Programs are lost along with everything else when the surface is
+ * recreated, so reload() must be called then.  The program is compiled
+ * again the next time it's used.
+ */
+public class ShaderProgram {
+  private static final String TAG = MiscUtil.getTag(ShaderProgram.class);
+
+  // The number of vertex attribute arrays enabled by the last program used.
+  private static int sNumEnabledAttributes = 0;
+
+  private final String mName;
+  private final String mVertexSource;
+  private final String mFragmentSource;
+  private final String[] mAttributes;
+  private final String[] mUniforms;
+  private final int[] mUniformLocations;
+
+  private int mProgram = 0;
+  // Set if the program didn't compile, so that we don't keep trying every frame.
+  private boolean mFailed = false;
+
+  public ShaderProgram(String name, String vertexSource, String fragmentSource,
+                       String[] attributes, String[] uniforms) {
+    mName = name;
+    mVertexSource = vertexSource;
+    mFragmentSource = fragmentSource;
+    mAttributes = attributes;
+    mUniforms = uniforms;
+    mUniformLocations = new int[uniforms.length];
+  }
+
+  /**
+   * Makes this the current program, compiling it first if necessary, and
+   * enables its vertex attribute arrays.  Returns false if the program can't
+   * be used, in which case nothing should be drawn with it.
+   */
+  public boolean use() {
+    if (mProgram == 0 && !mFailed) {
+      mProgram = link();
+      mFailed = mProgram == 0;
+    }
+    if (mFailed) {
+      return false;
+    }
+    GLES20.glUseProgram(mProgram);
+    for (int i = sNumEnabledAttributes; i < mAttributes.length; i++) {
+      GLES20.glEnableVertexAttribArray(i);
+    }
+    for (int i = mAttributes.length; i < sNumEnabledAttributes; i++) {
+      GLES20.glDisableVertexAttribArray(i);
+    }
+    sNumEnabledAttributes = mAttributes.length;
+    return true;
+  }
+
+  /** Returns the location of the uniform with the given index in the list of names. */
+  public int getUniform(int index) {
+    return mUniformLocations[index];
+  }
+
+  /** Forgets the program, which must be done when the GL context is lost. */
+  public void reload() {
+    mProgram = 0;
+    mFailed = false;
+    sNumEnabledAttributes = 0;
+  }
+
+  private int link() {
+    int vertexShader = compile(GLES20.GL_VERTEX_SHADER, mVertexSource);
+    int fragmentShader = compile(GLES20.GL_FRAGMENT_SHADER, mFragmentSource);
+    if (vertexShader == 0 || fragmentShader == 0) {
+      return 0;
+    }
+
+    int program = GLES20.glCreateProgram();
+    GLES20.glAttachShader(program, vertexShader);
+    GLES20.glAttachShader(program, fragmentShader);
+    for (int i = 0; i < mAttributes.length; i++) {
+      GLES20.glBindAttribLocation(program, i, mAttributes[i]);
+    }
+    GLES20.glLinkProgram(program);
+    // The shaders are only deleted once the program is.
+    GLES20.glDeleteShader(vertexShader);
+    GLES20.glDeleteShader(fragmentShader);
+
+    int[] status = new int[1];
+    GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+    if (status[0] == 0) {
+      Log.e(TAG, "Couldn't link " + mName + ": " + GLES20.glGetProgramInfoLog(program));
+      GLES20.glDeleteProgram(program);
+      return 0;
+    }
+
+    for (int i = 0; i < mUniforms.length; i++) {
+      mUniformLocations[i] = GLES20.glGetUniformLocation(program, mUniforms[i]);
+    }
+    return program;
+  }
+
+  private int compile(int type, String source) {
+    int shader = GLES20.glCreateShader(type);
+    GLES20.glShaderSource(shader, source);
+    GLES20.glCompileShader(shader);
+    int[] status = new int[1];
+    GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+    if (status[0] == 0) {
+      Log.e(TAG, "Couldn't compile " + mName + ": " + GLES20.glGetShaderInfoLog(shader));
+      GLES20.glDeleteShader(shader);
+      return 0;
+    }
+    return shader;
+  }
+}
@@ -0,0 +1,185 @@
+package com.google.android.stardroid.renderer.util;
+
+import android.opengl.GLES20;
+
+/**
+ * The shader programs used by the OpenGL ES 2.0 renderer.
+ *
+ * There are two: one which draws each star as a single point sprite, sized
+ * in the vertex shader, and a general one for colored, and optionally
+ * textured, triangles, which draws everything else.  Both apply the night
+ * vision tint in the fragment shader, so no separate red colors or textures
+ * are needed.
+ *
+ * The programs share the same attribute locations and uniform names, so the
+ * same constants work with either.
+ */
+public final class SkyShaders {
+  // Vertex attribute locations.
+  public static final int ATTRIBUTE_POSITION = 0;
+  public static final int ATTRIBUTE_COLOR = 1;
+  // The texture coordinates for the general program, or the sprite size and texture offset for
+  // point sprites.
+  public static final int ATTRIBUTE_TEX_COORD = 2;
+  public static final int ATTRIBUTE_SPRITE = 2;
+
+  // Uniform indices, to pass to ShaderProgram.getUniform.
+  public static final int UNIFORM_MATRIX = 0;
+  public static final int UNIFORM_NIGHT_VISION = 1;
+  public static final int UNIFORM_USE_TEXTURE = 2;
+  public static final int UNIFORM_ALPHA_THRESHOLD = 3;
+  public static final int UNIFORM_POINT_SCALE = 4;
+  public static final int UNIFORM_SPRITE_WIDTH = 5;
+  public static final int UNIFORM_TEXTURE_BLEND = 6;
+  public static final int UNIFORM_BLEND_COLOR = 7;
+
+  private static final String[] UNIFORMS = {
+      "u_Matrix", "u_NightVision", "u_UseTexture", "u_AlphaThreshold", "u_PointScale",
+      "u_SpriteWidth", "u_TextureBlend", "u_BlendColor"};
+
+  // Night vision shows everything in shades of red, with the average of the color's components.
+  private static final String NIGHT_VISION =
+      "uniform float u_NightVision;\n"
+      + "vec4 applyNightVision(vec4 color) {\n"
+      + "  float red = (color.r + color.g + color.b) / 3.0;\n"
+      + "  return mix(color, vec4(red, 0.0, 0.0, color.a), u_NightVision);\n"
+      + "}\n";
+
+  private static final String POINT_SPRITE_VERTEX_SHADER =
+      "uniform mat4 u_Matrix;\n"
+      + "uniform float u_PointScale;\n"
+      + "attribute vec4 a_Position;\n"
+      + "attribute vec4 a_Color;\n"
+      // The point's size, and the left edge of its image in the texture.
+      + "attribute vec2 a_Sprite;\n"
+      + "varying vec4 v_Color;\n"
+      + "varying float v_TexOffset;\n"
+      + "void main() {\n"
+      + "  gl_Position = u_Matrix * a_Position;\n"
+      + "  gl_PointSize = a_Sprite.x * u_PointScale;\n"
+      + "  v_Color = a_Color;\n"
+      + "  v_TexOffset = a_Sprite.y;\n"
+      + "}\n";
+
+  private static final String POINT_SPRITE_FRAGMENT_SHADER =
+      "precision mediump float;\n"
+      + "uniform sampler2D u_Texture;\n"
+      + "uniform float u_SpriteWidth;\n"
+      + NIGHT_VISION
+      + "varying vec4 v_Color;\n"
+      + "varying float v_TexOffset;\n"
+      + "void main() {\n"
+      + "  vec2 texCoord = vec2(v_TexOffset + u_SpriteWidth * gl_PointCoord.x, gl_PointCoord.y);\n"
+      + "  vec4 color = texture2D(u_Texture, texCoord) * v_Color;\n"
+      + "  if (color.a <= 0.5) {\n"
+      + "    discard;\n"
+      + "  }\n"
+      + "  gl_FragColor = applyNightVision(color);\n"
+      + "}\n";
+
+  private static final String GENERAL_VERTEX_SHADER =
+      "uniform mat4 u_Matrix;\n"
+      + "attribute vec4 a_Position;\n"
+      + "attribute vec4 a_Color;\n"
+      + "attribute vec2 a_TexCoord;\n"
+      + "varying vec4 v_Color;\n"
+      + "varying vec2 v_TexCoord;\n"
+      + "void main() {\n"
+      + "  gl_Position = u_Matrix * a_Position;\n"
+      + "  v_Color = a_Color;\n"
+      + "  v_TexCoord = a_TexCoord;\n"
+      + "}\n";
+
+  private static final String GENERAL_FRAGMENT_SHADER =
+      "precision mediump float;\n"
+      + "uniform sampler2D u_Texture;\n"
+      + "uniform float u_UseTexture;\n"
+      // If set, the texture blends the color towards u_BlendColor instead of multiplying it, like
+      // the fixed function GL_BLEND texture environment.
+      + "uniform float u_TextureBlend;\n"
+      + "uniform vec3 u_BlendColor;\n"
+      // Fragments with an alpha no greater than this are discarded.
+      + "uniform float u_AlphaThreshold;\n"
+      + NIGHT_VISION
+      + "varying vec4 v_Color;\n"
+      + "varying vec2 v_TexCoord;\n"
+      + "void main() {\n"
+      + "  vec4 color = v_Color;\n"
+      + "  if (u_UseTexture > 0.5) {\n"
+      + "    vec4 texel = texture2D(u_Texture, v_TexCoord);\n"
+      + "    if (u_TextureBlend > 0.5) {\n"
+      + "      color = vec4(mix(color.rgb, u_BlendColor, texel.rgb), color.a * texel.a);\n"
+      + "    } else {\n"
+      + "      color *= texel;\n"
+      + "    }\n"
+      + "  }\n"
+      + "  if (color.a <= u_AlphaThreshold) {\n"
+      + "    discard;\n"
+      + "  }\n"
+      + "  gl_FragColor = applyNightVision(color);\n"
+      + "}\n";
+
+  /** Draws points as textured, colored squares, with a size for each point. */
+  public static final ShaderProgram POINT_SPRITES = new ShaderProgram(
+      "point sprites", POINT_SPRITE_VERTEX_SHADER, POINT_SPRITE_FRAGMENT_SHADER,
+      new String[] {"a_Position", "a_Color", "a_Sprite"}, UNIFORMS);
+
+  /** Draws colored triangles, optionally modulated by a texture. */
+  public static final ShaderProgram GENERAL = new ShaderProgram(
+      "general", GENERAL_VERTEX_SHADER, GENERAL_FRAGMENT_SHADER,
+      new String[] {"a_Position", "a_Color", "a_TexCoord"}, UNIFORMS);
+
+  private SkyShaders() {}
+
+  /**
+   * Makes the general program current and sets its uniforms.  Returns false
+   * if the program can't be used.  An alphaThreshold of less than zero
+   * doesn't discard anything.
+   */
+  public static boolean useGeneral(float[] matrix, boolean nightVision, boolean useTexture,
+                                   float alphaThreshold) {
+    if (!GENERAL.use()) {
+      return false;
+    }
+    setMatrixAndNightVision(GENERAL, matrix, nightVision);
+    GLES20.glUniform1f(GENERAL.getUniform(UNIFORM_USE_TEXTURE), useTexture ? 1 : 0);
+    GLES20.glUniform1f(GENERAL.getUniform(UNIFORM_ALPHA_THRESHOLD), alphaThreshold);
+    GLES20.glUniform1f(GENERAL.getUniform(UNIFORM_TEXTURE_BLEND), 0);
+    return true;
+  }
+
+  /**
+   * Makes the general program's texture blend the color towards the given
+   * one, rather than multiplying it, until useGeneral is next called.
+   */
+  public static void setTextureBlendColor(float r, float g, float b) {
+    GLES20.glUniform1f(GENERAL.getUniform(UNIFORM_TEXTURE_BLEND), 1);
+    GLES20.glUniform3f(GENERAL.getUniform(UNIFORM_BLEND_COLOR), r, g, b);
+  }
+
+  public static void setMatrixAndNightVision(ShaderProgram program, float[] matrix,
+                                             boolean nightVision) {
+    GLES20.glUniformMatrix4fv(program.getUniform(UNIFORM_MATRIX), 1, false, matrix, 0);
+    GLES20.glUniform1f(program.getUniform(UNIFORM_NIGHT_VISION), nightVision ? 1 : 0);
+  }
+
+  /**
+   * Gives a vertex attribute of the general program the same value for every
+   * vertex, for things which don't have per-vertex colors or texture
+   * coordinates.  Call restoreAttribute once the drawing is done.
+   */
+  public static void setConstantAttribute(int attribute, float x, float y, float z, float w) {
+    GLES20.glDisableVertexAttribArray(attribute);
+    GLES20.glVertexAttrib4f(attribute, x, y, z, w);
+  }
+
+  public static void restoreAttribute(int attribute) {
+    GLES20.glEnableVertexAttribArray(attribute);
+  }
+
+  /** Forgets the compiled programs.  Call this when the surface is recreated. */
+  public static void reload() {
+    POINT_SPRITES.reload();
+    GENERAL.reload();
+  }
+}
@@ -14,6 +14,7 @@
 
 package com.google.android.stardroid.renderer.util;
 
+import android.opengl.GLES20;
 import android.util.Log;
 
 import com.google.android.stardroid.util.FixedPoint;
@@ -52,17 +53,55 @@ public class TexCoordBuffer {
     regenerateBuffer();
   }
 
+  // Sets how often the contents are expected to change, which decides how they're uploaded
+  // when using VBOs.
+  public void setUsage(GLBuffer.Usage usage) {
+    mGLBuffer.setUsage(usage);
+  }
+
   // Call this when we have to re-create the surface and reloading all OpenGL resources.
   public void reload() {
     mGLBuffer.reload();
   }
   
+  // The number of bytes writeTo() writes.
+  public int getSizeInBytes() {
+    return 4 * 2 * mNumVertices;
+  }
+
+  // Copies the texture coordinates into a GeometryCache snapshot.
+  public void writeTo(ByteBuffer out) {
+    GeometryCache.writeInts(out, mTexCoordBuffer, 2 * mNumVertices);
+  }
+
+  // Takes the texture coordinates of numVertices vertices from a snapshot written by writeTo(),
+  // without copying them.
+  public void readFrom(ByteBuffer in, int numVertices) {
+    mNumVertices = numVertices;
+    mTexCoordBuffer = GeometryCache.readInts(in, 2 * numVertices);
+  }
+
   public void addTexCoords(float u, float v) {
     mTexCoordBuffer.put(FixedPoint.floatToFixedPoint(u));
     mTexCoordBuffer.put(FixedPoint.floatToFixedPoint(v));
   }
   
+  // Overwrites the texture coordinates of the vertex at the given index, which must already have
+  // been added.
+  public void setTexCoords(int index, float u, float v) {
+    int offset = 2 * index;
+    mTexCoordBuffer.put(offset, FixedPoint.floatToFixedPoint(u));
+    mTexCoordBuffer.put(offset + 1, FixedPoint.floatToFixedPoint(v));
+    mGLBuffer.markDirty(offset, 2);
+  }
+
   public void set(GL10 gl) {
+    set(gl, 0);
+  }
+
+  // Points the texture coordinate array at the coordinates, starting with the given vertex.  See
+  // VertexBuffer.
+  public void set(GL10 gl, int firstVertex) {
     if (mNumVertices == 0) {
       return;
     }
@@ -71,17 +110,49 @@ public class TexCoordBuffer {
     if (mUseVBO && GLBuffer.canUseVBO()) {
       GL11 gl11 = (GL11)gl;
       mGLBuffer.bind(gl11, mTexCoordBuffer, 4 * mTexCoordBuffer.capacity());
-      gl11.glTexCoordPointer(2, GL10.GL_FIXED, 0, 0);
+      gl11.glTexCoordPointer(2, GL10.GL_FIXED, 0, 4 * 2 * firstVertex);
     } else {
+      mTexCoordBuffer.position(2 * firstVertex);
       gl.glTexCoordPointer(2, GL10.GL_FIXED, 0, mTexCoordBuffer);
+      mTexCoordBuffer.position(0);
     }
   }
   
+  // For the OpenGL ES 2.0 renderer: points the given vertex attribute at the texture coordinates.
+  public void setAttrib(GL10 gl, int attribute) {
+    setAttrib(gl, attribute, 0);
+  }
+
+  public void setAttrib(GL10 gl, int attribute, int firstVertex) {
+    if (mNumVertices == 0) {
+      return;
+    }
+    mTexCoordBuffer.position(0);
+
+    if (mUseVBO && GLBuffer.canUseVBO()) {
+      GL11 gl11 = (GL11)gl;
+      mGLBuffer.bind(gl11, mTexCoordBuffer, 4 * mTexCoordBuffer.capacity());
+      GLES20.glVertexAttribPointer(attribute, 2, GLES20.GL_FIXED, false, 0, 4 * 2 * firstVertex);
+    } else {
+      mTexCoordBuffer.position(2 * firstVertex);
+      GLES20.glVertexAttribPointer(attribute, 2, GLES20.GL_FIXED, false, 0, mTexCoordBuffer);
+      mTexCoordBuffer.position(0);
+    }
+  }
+
   private void regenerateBuffer() {
     if (mNumVertices == 0) {
       return;
     }
     
+    // If the size hasn't changed, reuse the existing buffer.  It's all about to be rewritten, so
+    // the whole thing needs uploading again.
+    if (mTexCoordBuffer != null && mTexCoordBuffer.capacity() == 2 * mNumVertices) {
+      mTexCoordBuffer.position(0);
+      mGLBuffer.markDirty(0, mTexCoordBuffer.capacity());
+      return;
+    }
+
     ByteBuffer bb = ByteBuffer.allocateDirect(4 * 2 * mNumVertices);
     bb.order(ByteOrder.nativeOrder());
     IntBuffer ib = bb.asIntBuffer();
@@ -91,6 +162,6 @@ public class TexCoordBuffer {
 
   private IntBuffer mTexCoordBuffer = null;
   private int mNumVertices = 0;
-  private GLBuffer mGLBuffer = new GLBuffer(GL11.GL_ARRAY_BUFFER);
+  private GLBuffer mGLBuffer = new GLBuffer(GL11.GL_ARRAY_BUFFER, 4);
   private boolean mUseVBO = false;
 }
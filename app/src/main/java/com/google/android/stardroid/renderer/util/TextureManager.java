@@ -21,10 +21,15 @@ import android.graphics.BitmapFactory.Options;
 import android.opengl.GLUtils;
 import android.util.Log;
 
+import com.google.android.stardroid.util.metrics.Counter;
+import com.google.android.stardroid.util.metrics.Metrics;
+
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 
 import javax.microedition.khronos.opengles.GL10;
@@ -33,6 +38,18 @@ import javax.microedition.khronos.opengles.GL10;
  * Manages all textures used by the application.  Useful to make sure that we don't accidentally
  * use deleted textures and don't leak textures, and that we don't create multiple instances of the
  * same texture.
+ *
+ * Textures loaded from resources, and textures made with a Loader, are
+ * reference counted: each call to getTextureFromResource(),
+ * createTexture(gl, loader) or retainTexture() should be matched by a call to
+ * releaseTexture() once the texture isn't needed.  A texture which nothing is
+ * using stays resident in case it's wanted again, until the textures take up
+ * more memory than the budget allows, when the least recently released ones
+ * are deleted.  If one of those is asked for again, the same reference is
+ * returned and the texture is loaded again, as it is if a released reference
+ * is bound.  Textures made with createTexture(gl) belong to their callers, who
+ * should tell us how big they are with recordUpload() so that they count
+ * against the budget.
  * 
  * TODO(jpowell): We only ever need one instance of this class, but it would be cleaner if it was
  * a normal class instead of a global singleton, so I should change it when I get a chance.  
@@ -41,62 +58,240 @@ import javax.microedition.khronos.opengles.GL10;
  *
  */
 public final class TextureManager {
+  /**
+   * Makes the image for a texture, so that the texture can be deleted when
+   * it isn't needed and loaded again when it's next bound.
+   */
+  public interface Loader {
+    /**
+     * Uploads the image to the texture, which is bound, and sets its
+     * parameters.  Returns the size of the image data uploaded, in bytes.
+     */
+    int load(GL10 gl);
+  }
+
+  /** The default for how much memory the textures may take up, in bytes. */
+  public static final int DEFAULT_MEMORY_BUDGET = 8 * 1024 * 1024;
+
   private final Resources mRes;
-  private Map<Integer, TextureData> mResourceIdToTextureMap = 
-      new HashMap<Integer, TextureData>();
+  private Map<Integer, TextureReferenceImpl> mResourceIdToTextureMap =
+      new HashMap<Integer, TextureReferenceImpl>();
   private ArrayList<TextureReferenceImpl> mAllTextures =
       new ArrayList<TextureReferenceImpl>();
+  // Resident textures with loaders which nothing is using, least recently released first.
+  private LinkedHashSet<TextureReferenceImpl> mUnreferencedTextures =
+      new LinkedHashSet<TextureReferenceImpl>();
+
+  private int mMemoryBudget = DEFAULT_MEMORY_BUDGET;
+  private long mResidentBytes = 0;
+  private int mNumUploads = 0;
+  private int mNumEvictions = 0;
+
+  private final Counter mUploadCounter = Metrics.counter("textures.uploads");
+  private final Counter mBytesUploadedCounter = Metrics.counter("textures.bytesUploaded");
+  private final Counter mEvictionCounter = Metrics.counter("textures.evictions");
   
   public TextureManager(Resources res) {
     mRes = res;
   }
   
   public TextureReference createTexture(GL10 gl) {
-    return createTextureInternal(gl);
+    return createTextureInternal(gl, -1, null);
   }
 
+  /**
+   * Makes a texture whose image is made by the loader.  It isn't loaded until
+   * it's first bound.  The caller holds the first reference to it.
+   */
+  public TextureReference createTexture(GL10 gl, Loader loader) {
+    TextureReferenceImpl tex = createTextureInternal(gl, -1, loader);
+    tex.mRefCount = 1;
+    return tex;
+  }
   
   public TextureReference getTextureFromResource(GL10 gl, int resourceID) {
     // If the texture already exists, return it.
-    TextureData texData = mResourceIdToTextureMap.get(resourceID);
-    if (texData != null) {
-      // Increment the reference count
-      texData.refCount++;
-      return texData.ref;
+    TextureReferenceImpl tex = mResourceIdToTextureMap.get(resourceID);
+    if (tex == null) {
+      tex = createTextureInternal(gl, resourceID, new ResourceLoader(resourceID));
+      mResourceIdToTextureMap.put(resourceID, tex);
+    }
+    retainTexture(tex);
+    if (!tex.isResident()) {
+      tex.upload(gl);
     }
-    
-    TextureReferenceImpl tex = createTextureFromResource(gl, resourceID);
-    
-    // Add it to the map.
-    TextureData data = new TextureData();
-    data.ref = tex;
-    data.refCount = 1;
-    mResourceIdToTextureMap.put(resourceID, data);
-    
     return tex;
   }
+
+  /**
+   * Takes another reference to a texture from getTextureFromResource() or
+   * createTexture(gl, loader), so that it won't be deleted.  If it already
+   * has been, it's loaded again when it's next bound.
+   */
+  public void retainTexture(TextureReference texture) {
+    TextureReferenceImpl tex = (TextureReferenceImpl) texture;
+    if (tex.mRefCount++ == 0) {
+      mUnreferencedTextures.remove(tex);
+    }
+  }
+
+  /**
+   * Gives up a reference to a texture from getTextureFromResource(),
+   * createTexture(gl, loader) or retainTexture().  Once nothing refers to it,
+   * it may be deleted to make room for other textures.  Does nothing if the
+   * texture is null, or was made for an earlier surface.
+   */
+  public void releaseTexture(GL10 gl, TextureReference texture) {
+    TextureReferenceImpl tex = (TextureReferenceImpl) texture;
+    if (tex == null || !tex.mValid || tex.mLoader == null) {
+      return;
+    }
+    if (tex.mRefCount <= 0) {
+      Log.e("TextureManager", "Releasing unreferenced texture " + tex.mTextureID);
+      return;
+    }
+    if (--tex.mRefCount == 0 && tex.isResident()) {
+      mUnreferencedTextures.add(tex);
+      evictIfNeeded(gl);
+    }
+  }
+
+  /**
+   * Loads a texture from createTexture(gl, loader) again, after its image has
+   * changed.  If it isn't loaded, this does nothing, since it will be loaded
+   * when it's next bound.  Binds the texture.
+   */
+  public void reloadTexture(GL10 gl, TextureReference texture) {
+    TextureReferenceImpl tex = (TextureReferenceImpl) texture;
+    if (tex.isResident()) {
+      tex.upload(gl);
+    }
+  }
+
+  /**
+   * Records that a texture from createTexture() has had sizeInBytes of image
+   * data uploaded to it, replacing whatever it held before.
+   */
+  public void recordUpload(TextureReference texture, int sizeInBytes) {
+    TextureReferenceImpl tex = (TextureReferenceImpl) texture;
+    mResidentBytes += sizeInBytes - tex.mSizeInBytes;
+    tex.mSizeInBytes = sizeInBytes;
+    countUpload(sizeInBytes);
+  }
+
+  /**
+   * Sets how much memory the textures may take up, in bytes.  Textures which
+   * are in use are never deleted, so they can take up more than this.
+   */
+  public void setMemoryBudget(GL10 gl, int bytes) {
+    mMemoryBudget = bytes;
+    evictIfNeeded(gl);
+  }
+
+  public int getMemoryBudget() {
+    return mMemoryBudget;
+  }
+
+  /** Returns the memory taken up by the textures we know the size of, in bytes. */
+  public long getResidentBytes() {
+    return mResidentBytes;
+  }
+
+  /** Returns the number of times image data has been uploaded to a texture. */
+  public int getNumUploads() {
+    return mNumUploads;
+  }
+
+  /** Returns the number of unused textures which have been deleted to stay within the budget. */
+  public int getNumEvictions() {
+    return mNumEvictions;
+  }
   
   public void reset() {
     mResourceIdToTextureMap.clear();
+    mUnreferencedTextures.clear();
     for (TextureReferenceImpl ref : mAllTextures) {
       ref.invalidate();
     }
     mAllTextures.clear();
+    mResidentBytes = 0;
+  }
+
+  // Deletes the least recently released textures until we're within the budget.
+  private void evictIfNeeded(GL10 gl) {
+    Iterator<TextureReferenceImpl> it = mUnreferencedTextures.iterator();
+    while (mResidentBytes > mMemoryBudget && it.hasNext()) {
+      TextureReferenceImpl tex = it.next();
+      it.remove();
+      tex.evict(gl);
+      mNumEvictions++;
+      mEvictionCounter.increment();
+    }
+  }
+
+  private void countUpload(int sizeInBytes) {
+    mNumUploads++;
+    mUploadCounter.increment();
+    mBytesUploadedCounter.add(sizeInBytes);
+  }
+
+  // Loads a texture from a resource.
+  private class ResourceLoader implements Loader {
+    private final int mResourceID;
+
+    ResourceLoader(int resourceID) {
+      mResourceID = resourceID;
+    }
+
+    public int load(GL10 gl) {
+      Options opts = new Options();
+      opts.inScaled = false;
+      Bitmap bmp = BitmapFactory.decodeResource(mRes, mResourceID, opts);
+      gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_LINEAR);
+      gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
+      gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
+      gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
+
+      GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, bmp, 0);
+
+      int sizeInBytes = bmp.getRowBytes() * bmp.getHeight();
+      bmp.recycle();
+      return sizeInBytes;
+    }
   }
 
-  private static class TextureReferenceImpl implements TextureReference {
-    public TextureReferenceImpl(int id) {
+  private class TextureReferenceImpl implements TextureReference {
+    public TextureReferenceImpl(int id, int resourceID, Loader loader) {
       mTextureID = id;
+      mResourceID = resourceID;
+      mLoader = loader;
     }
     
     public void bind(GL10 gl) {
       checkValid();
+      if (!isResident() && mLoader != null) {
+        // It was evicted, or hasn't been loaded yet, so load it.
+        upload(gl);
+        if (mRefCount == 0) {
+          // Nothing holds a reference to it, so it may be evicted again.
+          mUnreferencedTextures.add(this);
+        }
+      }
       gl.glBindTexture(GL10.GL_TEXTURE_2D, mTextureID);
     }
     
     public void delete(GL10 gl) {
       checkValid();
-      gl.glDeleteTextures(1, new int[] {mTextureID}, 0);
+      if (isResident()) {
+        gl.glDeleteTextures(1, new int[] {mTextureID}, 0);
+      }
+      mResidentBytes -= mSizeInBytes;
+      mSizeInBytes = 0;
+      if (mResourceID >= 0) {
+        mResourceIdToTextureMap.remove(mResourceID);
+      }
+      mUnreferencedTextures.remove(this);
+      mAllTextures.remove(this);
       invalidate();
     }
     
@@ -107,6 +302,30 @@ public final class TextureManager {
     public void invalidate() {
       mValid = false;
     }
+
+    boolean isResident() {
+      return mTextureID != 0;
+    }
+
+    // Loads the texture with its loader.
+    void upload(GL10 gl) {
+      if (!isResident()) {
+        int[] texID = new int[1];
+        gl.glGenTextures(1, texID, 0);
+        mTextureID = texID[0];
+      }
+      gl.glBindTexture(GL10.GL_TEXTURE_2D, mTextureID);
+      recordUpload(this, mLoader.load(gl));
+      evictIfNeeded(gl);
+    }
+
+    // Deletes the texture, but keeps the reference so it can be loaded again.
+    void evict(GL10 gl) {
+      gl.glDeleteTextures(1, new int[] {mTextureID}, 0);
+      mTextureID = 0;
+      mResidentBytes -= mSizeInBytes;
+      mSizeInBytes = 0;
+    }
     
     private void checkValid() {
       if (!mValid) {
@@ -118,37 +337,25 @@ public final class TextureManager {
     }
     
     private int mTextureID;
+    // The resource the texture is loaded from, or -1 if it wasn't.
+    private final int mResourceID;
+    // Makes the texture's image, or null if it was made with createTexture(gl), in which case
+    // it's never evicted.
+    private final Loader mLoader;
+    private int mRefCount = 0;
+    private int mSizeInBytes = 0;
     private boolean mValid = true;
   }
   
-  private static class TextureData {
-    public TextureReferenceImpl ref = null;
-    public int refCount = 0;
-  }
-  
-  private TextureReferenceImpl createTextureFromResource(GL10 gl, int resourceID) {
-    // The texture hasn't been loaded yet, so load it.
-    TextureReferenceImpl tex = createTextureInternal(gl);
-    Options opts = new Options();
-    opts.inScaled = false;
-    Bitmap bmp = BitmapFactory.decodeResource(mRes, resourceID, opts);
-    tex.bind(gl);
-    gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_LINEAR);
-    gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
-    gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
-    gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
-    
-    GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, bmp, 0);
-    
-    bmp.recycle();
-    return tex;
-  }
-  
-  private TextureReferenceImpl createTextureInternal(GL10 gl) {
-    // The texture hasn't been loaded yet, so load it.
-    int[] texID = new int[1];
-    gl.glGenTextures(1, texID, 0);
-    TextureReferenceImpl tex = new TextureReferenceImpl(texID[0]);
+  // Textures with loaders are given an ID when they're loaded.
+  private TextureReferenceImpl createTextureInternal(GL10 gl, int resourceID, Loader loader) {
+    int textureID = 0;
+    if (loader == null) {
+      int[] texID = new int[1];
+      gl.glGenTextures(1, texID, 0);
+      textureID = texID[0];
+    }
+    TextureReferenceImpl tex = new TextureReferenceImpl(textureID, resourceID, loader);
     mAllTextures.add(tex);
     return tex;
   }
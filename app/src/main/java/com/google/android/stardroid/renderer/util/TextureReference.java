@@ -41,4 +41,11 @@ public interface TextureReference {
    * @param gl
    */
   void delete(GL10 gl);
+
+  /**
+   * Returns the OpenGL name of the texture, which changes if it's deleted to
+   * make room for other textures and loaded again, and is 0 while it isn't
+   * loaded.
+   */
+  int getID();
 }
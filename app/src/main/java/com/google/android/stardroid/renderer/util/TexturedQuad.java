@@ -14,6 +14,8 @@
 
 package com.google.android.stardroid.renderer.util;
 
+import android.opengl.GLES20;
+
 import javax.microedition.khronos.opengles.GL10;
 
 /**
@@ -73,23 +75,35 @@ public class TexturedQuad {
     mTexture = tex;
   }
 
-  public void draw(GL10 gl) {
-    gl.glEnable(GL10.GL_TEXTURE_2D);
-    mTexture.bind(gl);
+  public void draw(GL10 gl, GLStateCache state) {
+    state.enable(GL10.GL_TEXTURE_2D);
+    state.bindTexture(gl, mTexture);
 
-    gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-    gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
-    gl.glDisableClientState(GL10.GL_COLOR_ARRAY);
+    state.enableClientState(GL10.GL_VERTEX_ARRAY);
+    state.enableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    state.disableClientState(GL10.GL_COLOR_ARRAY);
 
     mPosition.set(gl);
     mTexCoords.set(gl);
 
+    state.apply(gl);
     gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, 4);
 
-    gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-    gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
-    gl.glEnableClientState(GL10.GL_COLOR_ARRAY);
+    state.enableClientState(GL10.GL_VERTEX_ARRAY);
+    state.disableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    state.enableClientState(GL10.GL_COLOR_ARRAY);
+
+    state.disable(GL10.GL_TEXTURE_2D);
+  }
 
-    gl.glDisable(GL10.GL_TEXTURE_2D);
+  /**
+   * Draws the quad with the general shader program, which must already be in
+   * use with its texture enabled.  The color attribute must already be set.
+   */
+  public void drawWithShaders(GL10 gl) {
+    mTexture.bind(gl);
+    mPosition.setAttrib(gl, SkyShaders.ATTRIBUTE_POSITION);
+    mTexCoords.setAttrib(gl, SkyShaders.ATTRIBUTE_TEX_COORD);
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
   }
 }
@@ -14,6 +14,8 @@
 
 package com.google.android.stardroid.renderer.util;
 
+import android.opengl.GLES20;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
@@ -55,11 +57,34 @@ public class VertexBuffer {
     regenerateBuffer();
   }
 
+  // Sets how often the contents are expected to change, which decides how they're uploaded
+  // when using VBOs.
+  public void setUsage(GLBuffer.Usage usage) {
+    mGLBuffer.setUsage(usage);
+  }
+
   // Call this when we have to re-create the surface and reloading all OpenGL resources.
   public void reload() {
     mGLBuffer.reload();
   }
 
+  // The number of bytes writeTo() writes.
+  public int getSizeInBytes() {
+    return 4 * 3 * mNumVertices;
+  }
+
+  // Copies the positions into a GeometryCache snapshot.
+  public void writeTo(ByteBuffer out) {
+    GeometryCache.writeInts(out, mPositionBuffer, 3 * mNumVertices);
+  }
+
+  // Takes the positions of numVertices vertices from a snapshot written by writeTo(), without
+  // copying them.
+  public void readFrom(ByteBuffer in, int numVertices) {
+    mNumVertices = numVertices;
+    mPositionBuffer = GeometryCache.readInts(in, 3 * numVertices);
+  }
+
   public void addPoint(Vector3 p) {
     addPoint(p.x, p.y, p.z);
   }
@@ -70,7 +95,23 @@ public class VertexBuffer {
     mPositionBuffer.put(FixedPoint.floatToFixedPoint(z));
   }
 
+  // Overwrites the position of the vertex at the given index, which must already have been added.
+  public void setPoint(int index, float x, float y, float z) {
+    int offset = 3 * index;
+    mPositionBuffer.put(offset, FixedPoint.floatToFixedPoint(x));
+    mPositionBuffer.put(offset + 1, FixedPoint.floatToFixedPoint(y));
+    mPositionBuffer.put(offset + 2, FixedPoint.floatToFixedPoint(z));
+    mGLBuffer.markDirty(offset, 3);
+  }
+
   public void set(GL10 gl) {
+    set(gl, 0);
+  }
+
+  // Points the vertex array at the positions, starting with the given vertex, so that index 0
+  // refers to it.  Indices can't reach past IndexBuffer.MAX_VERTICES_PER_DRAW vertices, so bigger
+  // buffers are drawn in chunks which each start further along.
+  public void set(GL10 gl, int firstVertex) {
     if (mNumVertices == 0) {
       return;
     }
@@ -80,9 +121,33 @@ public class VertexBuffer {
     if (mUseVBO && GLBuffer.canUseVBO()) {
       GL11 gl11 = (GL11)gl;
       mGLBuffer.bind(gl11, mPositionBuffer, 4 * mPositionBuffer.capacity());
-      gl11.glVertexPointer(3, GL10.GL_FIXED, 0, 0);
+      gl11.glVertexPointer(3, GL10.GL_FIXED, 0, 4 * 3 * firstVertex);
     } else {
+      mPositionBuffer.position(3 * firstVertex);
       gl.glVertexPointer(3, GL10.GL_FIXED, 0, mPositionBuffer);
+      mPositionBuffer.position(0);
+    }
+  }
+
+  // For the OpenGL ES 2.0 renderer: points the given vertex attribute at the positions.
+  public void setAttrib(GL10 gl, int attribute) {
+    setAttrib(gl, attribute, 0);
+  }
+
+  public void setAttrib(GL10 gl, int attribute, int firstVertex) {
+    if (mNumVertices == 0) {
+      return;
+    }
+    mPositionBuffer.position(0);
+
+    if (mUseVBO && GLBuffer.canUseVBO()) {
+      GL11 gl11 = (GL11)gl;
+      mGLBuffer.bind(gl11, mPositionBuffer, 4 * mPositionBuffer.capacity());
+      GLES20.glVertexAttribPointer(attribute, 3, GLES20.GL_FIXED, false, 0, 4 * 3 * firstVertex);
+    } else {
+      mPositionBuffer.position(3 * firstVertex);
+      GLES20.glVertexAttribPointer(attribute, 3, GLES20.GL_FIXED, false, 0, mPositionBuffer);
+      mPositionBuffer.position(0);
     }
   }
 
@@ -91,6 +156,14 @@ public class VertexBuffer {
       return;
     }
 
+    // If the size hasn't changed, reuse the existing buffer.  It's all about to be rewritten, so
+    // the whole thing needs uploading again.
+    if (mPositionBuffer != null && mPositionBuffer.capacity() == 3 * mNumVertices) {
+      mPositionBuffer.position(0);
+      mGLBuffer.markDirty(0, mPositionBuffer.capacity());
+      return;
+    }
+
     ByteBuffer bb = ByteBuffer.allocateDirect(4 * 3 * mNumVertices);
     bb.order(ByteOrder.nativeOrder());
     IntBuffer ib = bb.asIntBuffer();
@@ -100,6 +173,6 @@ public class VertexBuffer {
 
   private IntBuffer mPositionBuffer = null;
   private int mNumVertices = 0;
-  private GLBuffer mGLBuffer = new GLBuffer(GL11.GL_ARRAY_BUFFER);
+  private GLBuffer mGLBuffer = new GLBuffer(GL11.GL_ARRAY_BUFFER, 4);
   private boolean mUseVBO = false;
 }
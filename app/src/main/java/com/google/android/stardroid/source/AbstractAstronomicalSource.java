@@ -35,8 +35,7 @@ public abstract class AbstractAstronomicalSource implements AstronomicalSource,
   }
 
   @Override
-  public EnumSet<UpdateType> update() {
-    return EnumSet.noneOf(UpdateType.class);
+  public void update(EnumSet<UpdateType> updateTypes) {
   }
 
   /** Implementors of this method must implement {@link #getSearchLocation}. */
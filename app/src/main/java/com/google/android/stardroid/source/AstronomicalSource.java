@@ -64,8 +64,9 @@ public interface AstronomicalSource {
    * Updates the {@link Sources} of this {@link AstronomicalSource} in response
    * to a change in the user's location or current time. Changes can be caused
    * by the user moving to a new location or time progressing, or by the user
-   * manually selecting a different location. Returns the minimal Set of
-   * UpdateType required to enact the changes required by this update.
+   * manually selecting a different location. Adds the minimal Set of
+   * UpdateType required to enact the changes required by this update to
+   * updateTypes.  This is called every frame, so shouldn't allocate.
    */
-  EnumSet<UpdateType> update();
+  void update(EnumSet<UpdateType> updateTypes);
 }
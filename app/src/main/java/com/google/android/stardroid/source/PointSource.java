@@ -51,6 +51,13 @@ public interface PointSource extends Colorable, PositionSource {
    */
   public int getSize();
 
+  /**
+   * Returns the apparent magnitude of the point, which decides how far the
+   * view must be zoomed in before it's drawn, or NaN if it isn't known, in
+   * which case the point is always drawn.
+   */
+  public float getMagnitude();
+
   /**
    * Returns the Shape of the image used to render the point in the texture file.
    */
@@ -0,0 +1,125 @@
+package com.google.android.stardroid.source.columnar;
+
+import android.content.res.Resources;
+
+import com.google.android.stardroid.source.AbstractAstronomicalSource;
+import com.google.android.stardroid.source.AstronomicalSource;
+import com.google.android.stardroid.source.LineSource;
+import com.google.android.stardroid.source.PointSource;
+import com.google.android.stardroid.source.TextSource;
+import com.google.android.stardroid.source.impl.LineSourceImpl;
+import com.google.android.stardroid.source.impl.PointSourceImpl;
+import com.google.android.stardroid.source.impl.TextSourceImpl;
+import com.google.android.stardroid.units.GeocentricCoordinates;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Implementation of the {@link AstronomicalSource} interface for one of the
+ * sources in a {@link ColumnarCatalog}.  Its elements are made straight from
+ * the catalog's columns when they're asked for.
+ */
+public class ColumnarAstronomicalSource extends AbstractAstronomicalSource {
+  private final ColumnarCatalog catalog;
+  private final int index;
+  // The catalog's string table, shared by all of its sources.
+  private final String[] strings;
+
+  ColumnarAstronomicalSource(ColumnarCatalog catalog, int index, String[] strings) {
+    this.catalog = catalog;
+    this.index = index;
+    this.strings = strings;
+  }
+
+  /** Returns the sources in the catalog, looking up each of its strings once. */
+  public static List<AstronomicalSource> createSources(ColumnarCatalog catalog,
+                                                       Resources resources) {
+    String[] strings = new String[catalog.getNumStrings()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = resources.getString(catalog.getStringResourceId(i));
+    }
+    List<AstronomicalSource> sources = new ArrayList<AstronomicalSource>(catalog.getNumSources());
+    for (int i = 0; i < catalog.getNumSources(); i++) {
+      sources.add(new ColumnarAstronomicalSource(catalog, i, strings));
+    }
+    return sources;
+  }
+
+  @Override
+  public List<String> getNames() {
+    int first = catalog.firstNames[index];
+    int end = catalog.firstNames[index + 1];
+    if (first == end) {
+      return Collections.emptyList();
+    }
+    ArrayList<String> names = new ArrayList<String>(end - first);
+    for (int i = first; i < end; i++) {
+      names.add(strings[catalog.names[i]]);
+    }
+    return names;
+  }
+
+  @Override
+  public GeocentricCoordinates getSearchLocation() {
+    return getCoords(catalog.searchLocations, index);
+  }
+
+  @Override
+  public List<PointSource> getPoints() {
+    int first = catalog.firstPoints[index];
+    int end = catalog.firstPoints[index + 1];
+    if (first == end) {
+      return Collections.<PointSource>emptyList();
+    }
+    ArrayList<PointSource> points = new ArrayList<PointSource>(end - first);
+    for (int i = first; i < end; i++) {
+      points.add(new PointSourceImpl(getCoords(catalog.pointPositions, i),
+          catalog.pointColors[i], catalog.pointSizes[i], catalog.getPointShape(i),
+          catalog.pointMagnitudes[i]));
+    }
+    return points;
+  }
+
+  @Override
+  public List<TextSource> getLabels() {
+    int first = catalog.firstLabels[index];
+    int end = catalog.firstLabels[index + 1];
+    if (first == end) {
+      return Collections.<TextSource>emptyList();
+    }
+    ArrayList<TextSource> labels = new ArrayList<TextSource>(end - first);
+    for (int i = first; i < end; i++) {
+      labels.add(new TextSourceImpl(getCoords(catalog.labelPositions, i),
+          strings[catalog.labelStrings[i]], catalog.labelColors[i], catalog.labelOffsets[i],
+          catalog.labelFontSizes[i]));
+    }
+    return labels;
+  }
+
+  @Override
+  public List<LineSource> getLines() {
+    int first = catalog.firstLines[index];
+    int end = catalog.firstLines[index + 1];
+    if (first == end) {
+      return Collections.<LineSource>emptyList();
+    }
+    ArrayList<LineSource> lines = new ArrayList<LineSource>(end - first);
+    for (int i = first; i < end; i++) {
+      int firstVertex = catalog.firstVertices[i];
+      int endVertex = catalog.firstVertices[i + 1];
+      ArrayList<GeocentricCoordinates> vertices =
+          new ArrayList<GeocentricCoordinates>(endVertex - firstVertex);
+      for (int j = firstVertex; j < endVertex; j++) {
+        vertices.add(getCoords(catalog.vertexPositions, j));
+      }
+      lines.add(new LineSourceImpl(catalog.lineColors[i], vertices, catalog.lineWidths[i]));
+    }
+    return lines;
+  }
+
+  private static GeocentricCoordinates getCoords(float[] positions, int i) {
+    return new GeocentricCoordinates(positions[3 * i], positions[3 * i + 1], positions[3 * i + 2]);
+  }
+}
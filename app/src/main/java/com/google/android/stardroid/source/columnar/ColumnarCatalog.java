@@ -0,0 +1,382 @@
+package com.google.android.stardroid.source.columnar;
+
+import com.google.android.stardroid.source.PointSource.Shape;
+import com.google.android.stardroid.source.proto.ProtobufAstronomicalSource;
+import com.google.android.stardroid.source.proto.SourceProto.AstronomicalSourceProto;
+import com.google.android.stardroid.source.proto.SourceProto.GeocentricCoordinatesProto;
+import com.google.android.stardroid.source.proto.SourceProto.LabelElementProto;
+import com.google.android.stardroid.source.proto.SourceProto.LineElementProto;
+import com.google.android.stardroid.source.proto.SourceProto.PointElementProto;
+import com.google.android.stardroid.units.GeocentricCoordinates;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A catalog of sources stored column by column, so that it can be read with
+ * a handful of bulk copies rather than a call per field and an object per
+ * element.  Positions are stored as xyz on the unit sphere, so nothing needs
+ * converting from right ascension and declination when it's read.
+ *
+ * Names and labels are indices into a string table of string resource ids,
+ * each of which is only looked up once however many sources use it.  The
+ * file is laid out as follows, in big endian order:
+ * <pre>
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    the number of strings, sources, names, points, labels, lines and
+ *          line vertices
+ *   int    the string table
+ *   float  each source's search location, as xyz
+ *   int    each source's first name, first point, first label and first
+ *          line, in four columns with an extra entry for the end of the last
+ *          source
+ *   int    the names
+ *   float  each point's position, as xyz
+ *   int    each point's color, then each point's size
+ *   float  each point's magnitude, or NaN if it isn't a star
+ *   float  each label's position, as xyz
+ *   int    each label's color, string and font size
+ *   float  each label's offset
+ *   int    each line's color
+ *   float  each line's width
+ *   int    each line's first vertex, with an extra entry for the end
+ *   float  each vertex's position, as xyz
+ *   byte   each point's shape, as the ordinal of its PointSource.Shape
+ * </pre>
+ * The bytes come last so that everything else stays aligned.  Use
+ * {@link Writer} to make one from the protocol buffer sources.
+ */
+public class ColumnarCatalog {
+  public static final String FILE_EXTENSION = ".columns";
+
+  private static final int MAGIC = 0x53434f4c;
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 9 * 4;
+  private static final Shape[] SHAPES = Shape.values();
+
+  // These are read by ColumnarAstronomicalSource, and must not be changed.
+  final int[] strings;
+
+  final float[] searchLocations;
+  final int[] firstNames;
+  final int[] firstPoints;
+  final int[] firstLabels;
+  final int[] firstLines;
+  final int[] names;
+
+  final float[] pointPositions;
+  final int[] pointColors;
+  final int[] pointSizes;
+  final float[] pointMagnitudes;
+  final byte[] pointShapes;
+
+  final float[] labelPositions;
+  final int[] labelColors;
+  final int[] labelStrings;
+  final int[] labelFontSizes;
+  final float[] labelOffsets;
+
+  final int[] lineColors;
+  final float[] lineWidths;
+  final int[] firstVertices;
+  final float[] vertexPositions;
+
+  /**
+   * Reads a catalog from the given buffer, which is typically a memory
+   * mapped asset.  The columns are copied out, so the buffer isn't needed
+   * afterwards.
+   */
+  public ColumnarCatalog(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC
+        || buffer.getInt() != VERSION) {
+      throw new IOException("Not a columnar catalog, or the wrong version");
+    }
+    int numStrings = buffer.getInt();
+    int numSources = buffer.getInt();
+    int numNames = buffer.getInt();
+    int numPoints = buffer.getInt();
+    int numLabels = buffer.getInt();
+    int numLines = buffer.getInt();
+    int numVertices = buffer.getInt();
+    long size = 4L * (numStrings + 3 * numSources + 4 * (numSources + 1) + numNames
+        + 6 * numPoints + 7 * numLabels + 3 * numLines + 1 + 3 * numVertices) + numPoints;
+    if (numStrings < 0 || numSources < 0 || numNames < 0 || numPoints < 0 || numLabels < 0
+        || numLines < 0 || numVertices < 0 || size > buffer.remaining()) {
+      throw new IOException("Columnar catalog is truncated");
+    }
+
+    strings = readInts(buffer, numStrings);
+
+    searchLocations = readFloats(buffer, 3 * numSources);
+    firstNames = readInts(buffer, numSources + 1);
+    firstPoints = readInts(buffer, numSources + 1);
+    firstLabels = readInts(buffer, numSources + 1);
+    firstLines = readInts(buffer, numSources + 1);
+    names = readInts(buffer, numNames);
+
+    pointPositions = readFloats(buffer, 3 * numPoints);
+    pointColors = readInts(buffer, numPoints);
+    pointSizes = readInts(buffer, numPoints);
+    pointMagnitudes = readFloats(buffer, numPoints);
+
+    labelPositions = readFloats(buffer, 3 * numLabels);
+    labelColors = readInts(buffer, numLabels);
+    labelStrings = readInts(buffer, numLabels);
+    labelFontSizes = readInts(buffer, numLabels);
+    labelOffsets = readFloats(buffer, numLabels);
+
+    lineColors = readInts(buffer, numLines);
+    lineWidths = readFloats(buffer, numLines);
+    firstVertices = readInts(buffer, numLines + 1);
+    vertexPositions = readFloats(buffer, 3 * numVertices);
+
+    pointShapes = new byte[numPoints];
+    buffer.get(pointShapes);
+    for (byte shape : pointShapes) {
+      if (shape < 0 || shape >= SHAPES.length) {
+        throw new IOException("Unknown shape in columnar catalog: " + shape);
+      }
+    }
+  }
+
+  public int getNumSources() {
+    return firstPoints.length - 1;
+  }
+
+  public int getNumPoints() {
+    return pointColors.length;
+  }
+
+  public int getNumLabels() {
+    return labelColors.length;
+  }
+
+  public int getNumLines() {
+    return lineColors.length;
+  }
+
+  public int getNumStrings() {
+    return strings.length;
+  }
+
+  /** Returns the resource id of the given entry in the string table. */
+  public int getStringResourceId(int string) {
+    return strings[string];
+  }
+
+  /** Returns the point's magnitude, or NaN if it isn't a star. */
+  public float getPointMagnitude(int point) {
+    return pointMagnitudes[point];
+  }
+
+  Shape getPointShape(int point) {
+    return SHAPES[pointShapes[point]];
+  }
+
+  /** Returns roughly how much memory the columns take up, in bytes. */
+  public int getSizeInBytes() {
+    return 4 * (strings.length + searchLocations.length + firstNames.length + firstPoints.length
+        + firstLabels.length + firstLines.length + names.length + pointPositions.length
+        + pointColors.length + pointSizes.length + pointMagnitudes.length
+        + labelPositions.length + labelColors.length
+        + labelStrings.length + labelFontSizes.length + labelOffsets.length + lineColors.length
+        + lineWidths.length + firstVertices.length + vertexPositions.length)
+        + pointShapes.length;
+  }
+
+  private static int[] readInts(ByteBuffer buffer, int count) {
+    int[] values = new int[count];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + 4 * count);
+    return values;
+  }
+
+  private static float[] readFloats(ByteBuffer buffer, int count) {
+    float[] values = new float[count];
+    buffer.asFloatBuffer().get(values);
+    buffer.position(buffer.position() + 4 * count);
+    return values;
+  }
+
+  /** Converts protocol buffer sources into a columnar catalog. */
+  public static class Writer {
+    private final List<AstronomicalSourceProto> sources = new ArrayList<AstronomicalSourceProto>();
+    private final List<float[]> magnitudes = new ArrayList<float[]>();
+
+    /** Adds a source whose points aren't stars, so have no magnitudes. */
+    public void add(AstronomicalSourceProto source) {
+      float[] none = new float[source.getPointCount()];
+      Arrays.fill(none, Float.NaN);
+      add(source, none);
+    }
+
+    /** Adds a source along with the magnitude of each of its points. */
+    public void add(AstronomicalSourceProto source, float[] pointMagnitudes) {
+      if (pointMagnitudes.length != source.getPointCount()) {
+        throw new IllegalArgumentException("Need a magnitude for each of the "
+            + source.getPointCount() + " points, not " + pointMagnitudes.length);
+      }
+      sources.add(source);
+      magnitudes.add(pointMagnitudes);
+    }
+
+    public void write(OutputStream out) throws IOException {
+      // The string table, in the order the strings are first used.
+      Map<Integer, Integer> stringIndices = new LinkedHashMap<Integer, Integer>();
+      int numNames = 0;
+      int numPoints = 0;
+      int numLabels = 0;
+      int numLines = 0;
+      int numVertices = 0;
+      for (AstronomicalSourceProto source : sources) {
+        for (int id : source.getNameIdsList()) {
+          addString(stringIndices, id);
+        }
+        for (LabelElementProto label : source.getLabelList()) {
+          addString(stringIndices, label.getStringIndex());
+        }
+        numNames += source.getNameIdsCount();
+        numPoints += source.getPointCount();
+        numLabels += source.getLabelCount();
+        numLines += source.getLineCount();
+        for (LineElementProto line : source.getLineList()) {
+          numVertices += line.getVertexCount();
+        }
+      }
+
+      DataOutputStream data = new DataOutputStream(out);
+      data.writeInt(MAGIC);
+      data.writeInt(VERSION);
+      data.writeInt(stringIndices.size());
+      data.writeInt(sources.size());
+      data.writeInt(numNames);
+      data.writeInt(numPoints);
+      data.writeInt(numLabels);
+      data.writeInt(numLines);
+      data.writeInt(numVertices);
+
+      for (int id : stringIndices.keySet()) {
+        data.writeInt(id);
+      }
+
+      for (AstronomicalSourceProto source : sources) {
+        writeCoords(data, source.getSearchLocation());
+      }
+      int first = 0;
+      for (AstronomicalSourceProto source : sources) {
+        data.writeInt(first);
+        first += source.getNameIdsCount();
+      }
+      data.writeInt(first);
+      first = 0;
+      for (AstronomicalSourceProto source : sources) {
+        data.writeInt(first);
+        first += source.getPointCount();
+      }
+      data.writeInt(first);
+      first = 0;
+      for (AstronomicalSourceProto source : sources) {
+        data.writeInt(first);
+        first += source.getLabelCount();
+      }
+      data.writeInt(first);
+      first = 0;
+      for (AstronomicalSourceProto source : sources) {
+        data.writeInt(first);
+        first += source.getLineCount();
+      }
+      data.writeInt(first);
+      for (AstronomicalSourceProto source : sources) {
+        for (int id : source.getNameIdsList()) {
+          data.writeInt(stringIndices.get(id));
+        }
+      }
+
+      List<PointElementProto> points = new ArrayList<PointElementProto>(numPoints);
+      List<LabelElementProto> labels = new ArrayList<LabelElementProto>(numLabels);
+      List<LineElementProto> lines = new ArrayList<LineElementProto>(numLines);
+      for (AstronomicalSourceProto source : sources) {
+        points.addAll(source.getPointList());
+        labels.addAll(source.getLabelList());
+        lines.addAll(source.getLineList());
+      }
+
+      for (PointElementProto point : points) {
+        writeCoords(data, point.getLocation());
+      }
+      for (PointElementProto point : points) {
+        data.writeInt(point.getColor());
+      }
+      for (PointElementProto point : points) {
+        data.writeInt(point.getSize());
+      }
+      for (float[] sourceMagnitudes : magnitudes) {
+        for (float magnitude : sourceMagnitudes) {
+          data.writeFloat(magnitude);
+        }
+      }
+
+      for (LabelElementProto label : labels) {
+        writeCoords(data, label.getLocation());
+      }
+      for (LabelElementProto label : labels) {
+        data.writeInt(label.getColor());
+      }
+      for (LabelElementProto label : labels) {
+        data.writeInt(stringIndices.get(label.getStringIndex()));
+      }
+      for (LabelElementProto label : labels) {
+        data.writeInt(label.getFontSize());
+      }
+      for (LabelElementProto label : labels) {
+        data.writeFloat(label.getOffset());
+      }
+
+      for (LineElementProto line : lines) {
+        data.writeInt(line.getColor());
+      }
+      for (LineElementProto line : lines) {
+        data.writeFloat(line.getLineWidth());
+      }
+      first = 0;
+      for (LineElementProto line : lines) {
+        data.writeInt(first);
+        first += line.getVertexCount();
+      }
+      data.writeInt(first);
+      for (LineElementProto line : lines) {
+        for (GeocentricCoordinatesProto vertex : line.getVertexList()) {
+          writeCoords(data, vertex);
+        }
+      }
+
+      for (PointElementProto point : points) {
+        data.writeByte(ProtobufAstronomicalSource.getShape(point.getShape()).ordinal());
+      }
+      data.flush();
+    }
+
+    private static void addString(Map<Integer, Integer> stringIndices, int id) {
+      if (!stringIndices.containsKey(id)) {
+        stringIndices.put(id, stringIndices.size());
+      }
+    }
+
+    private static void writeCoords(DataOutputStream data, GeocentricCoordinatesProto proto)
+        throws IOException {
+      GeocentricCoordinates coords =
+          GeocentricCoordinates.getInstance(proto.getRightAscension(), proto.getDeclination());
+      data.writeFloat(coords.x);
+      data.writeFloat(coords.y);
+      data.writeFloat(coords.z);
+    }
+  }
+}
@@ -16,13 +16,14 @@ package com.google.android.stardroid.source.impl;
 
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
-import android.graphics.BitmapFactory.Options;
+import android.util.DisplayMetrics;
 
 import com.google.android.stardroid.source.ImageSource;
 import com.google.android.stardroid.units.GeocentricCoordinates;
 import com.google.android.stardroid.units.Vector3;
+import com.google.android.stardroid.util.BitmapCache;
+import com.google.android.stardroid.util.MathUtil;
 import com.google.android.stardroid.util.VectorUtil;
 
 /**
@@ -33,6 +34,14 @@ public class ImageSourceImpl extends AbstractSource implements ImageSource {
 
   static Vector3 up = new Vector3(0.0f, 1.0f, 0.0f);
 
+  // The images of all of the sources are shared through this cache.
+  private static final int MAX_CACHED_IMAGE_BYTES = 4 * 1024 * 1024;
+  private static final BitmapCache bitmapCache = new BitmapCache(MAX_CACHED_IMAGE_BYTES);
+
+  // Images are decoded big enough to be sharp when zoomed in this far, in degrees.  Zooming in
+  // further just magnifies them.
+  private static final float SHARPEST_FIELD_OF_VIEW = 10;
+
 
   // These two vectors, along with Source.xyz, determine the position of the
   // image object.  The corners are as follows
@@ -76,25 +85,28 @@ public class ImageSourceImpl extends AbstractSource implements ImageSource {
     super(coords, Color.WHITE);
     this.imageScale = imageScale;
 
-    // TODO(jpowell): We're never freeing this resource, so we leak it every
-    // time we create a new ImageSourceImpl and garbage collect an old one.
-    // We need to make sure it gets freed.
-    // We should also cache this so we don't have to keep reloading these
-    // which is really slow and adds noticeable lag to the application when it
-    // happens.
     this.resources = res;
     setUpVector(upVec);
     setImageId(id);
   }
 
   public void setImageId(int imageId) {
-    Options opts = new Options();
-    opts.inScaled = false;
+    this.image = bitmapCache.get(resources, imageId, getLargestSizeOnScreen());
+  }
+
+  /** Returns the cache which the images of all sources are decoded through. */
+  public static BitmapCache getBitmapCache() {
+    return bitmapCache;
+  }
 
-    this.image = BitmapFactory.decodeResource(resources, imageId, opts);
-    if (image == null) {
-      throw new RuntimeException("Coud not decode image " + imageId);
-    }
+  // Returns the most pixels across that the image will cover, when zoomed in as far as we keep
+  // images sharp.  imageScale is half the image's width on the unit sphere.
+  private int getLargestSizeOnScreen() {
+    DisplayMetrics metrics = resources.getDisplayMetrics();
+    int screenSize = Math.max(metrics.widthPixels, metrics.heightPixels);
+    float screenWidth = 2 * MathUtil.tan(SHARPEST_FIELD_OF_VIEW * MathUtil.DEGREES_TO_RADIANS / 2);
+    float size = screenSize * 2 * imageScale / screenWidth;
+    return (int) Math.ceil(Math.min(size, screenSize));
   }
 
   public Bitmap getImage() {
@@ -26,6 +26,8 @@ import com.google.android.stardroid.units.GeocentricCoordinates;
 public class PointSourceImpl extends AbstractSource implements PointSource {
   public final int size;
   private final Shape pointShape;
+  // NaN if it isn't known, as for anything but a star from a catalog.
+  private final float magnitude;
 
   public PointSourceImpl(float ra, float dec, int color, int size) {
     this(GeocentricCoordinates.getInstance(ra, dec), color, size);
@@ -36,9 +38,15 @@ public class PointSourceImpl extends AbstractSource implements PointSource {
   }
 
   public PointSourceImpl(GeocentricCoordinates coords, int color, int size, Shape pointShape) {
+    this(coords, color, size, pointShape, Float.NaN);
+  }
+
+  public PointSourceImpl(GeocentricCoordinates coords, int color, int size, Shape pointShape,
+                         float magnitude) {
     super(coords, color);
     this.size = size;
     this.pointShape = pointShape;
+    this.magnitude = magnitude;
   }
 
   @Override
@@ -46,6 +54,11 @@ public class PointSourceImpl extends AbstractSource implements PointSource {
     return size;
   }
 
+  @Override
+  public float getMagnitude() {
+    return magnitude;
+  }
+
   @Override
   public Shape getPointShape() {
     return pointShape;
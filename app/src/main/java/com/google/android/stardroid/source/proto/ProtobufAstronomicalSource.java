@@ -60,11 +60,18 @@ public class ProtobufAstronomicalSource extends AbstractAstronomicalSource {
     shapeMap.put(SourceProto.Shape.HUBBLE_DEEP_FIELD, PointSource.Shape.HUBBLE_DEEP_FIELD);
   }
 
-  private final AstronomicalSourceProto proto;
+  // Dropped once it's decoded.
+  private AstronomicalSourceProto proto;
   private final Resources resources;
 
-  // Lazily construct the names.
+  // Decoded from the proto the first time any of them is asked for, and then shared by every
+  // call.  Elements at the same place share one instance of their coordinates, so these must not
+  // be changed.
   private ArrayList<String> names;
+  private GeocentricCoordinates searchLocation;
+  private List<PointSource> points;
+  private List<TextSource> labels;
+  private List<LineSource> lines;
 
   public ProtobufAstronomicalSource(AstronomicalSourceProto proto, Resources resources) {
     this.proto = proto;
@@ -73,66 +80,118 @@ public class ProtobufAstronomicalSource extends AbstractAstronomicalSource {
 
   @Override
   public synchronized ArrayList<String> getNames() {
-    if (names == null) {
-      names = new ArrayList<String>(proto.getNameIdsCount());
-      for (int id : proto.getNameIdsList()) {
-        names.add(resources.getString(id));
-      }
-    }
+    decode();
     return names;
   }
 
   @Override
-  public GeocentricCoordinates getSearchLocation() {
-    return getCoords(proto.getSearchLocation());
+  public synchronized GeocentricCoordinates getSearchLocation() {
+    decode();
+    return searchLocation;
   }
 
   @Override
-  public List<PointSource> getPoints() {
-    if (proto.getPointCount() == 0) {
-      return Collections.<PointSource>emptyList();
-    }
-    ArrayList<PointSource> points = new ArrayList<PointSource>(proto.getPointCount());
-    for (PointElementProto element : proto.getPointList()) {
-      points.add(new PointSourceImpl(getCoords(element.getLocation()),
-          element.getColor(), element.getSize(), shapeMap.get(element.getShape())));
-    }
+  public synchronized List<PointSource> getPoints() {
+    decode();
     return points;
   }
 
   @Override
-  public List<TextSource> getLabels() {
-    if (proto.getLabelCount() == 0) {
-      return Collections.<TextSource>emptyList();
+  public synchronized List<TextSource> getLabels() {
+    decode();
+    return labels;
+  }
+
+  @Override
+  public synchronized List<LineSource> getLines() {
+    decode();
+    return lines;
+  }
+
+  private void decode() {
+    if (proto == null) {
+      return;
     }
-    ArrayList<TextSource> points = new ArrayList<TextSource>(proto.getLabelCount());
-    for (LabelElementProto element : proto.getLabelList()) {
-      points.add(new TextSourceImpl(getCoords(element.getLocation()),
-          resources.getString(element.getStringIndex()),
-          element.getColor(), element.getOffset(), element.getFontSize()));
+    names = new ArrayList<String>(proto.getNameIdsCount());
+    for (int id : proto.getNameIdsList()) {
+      names.add(resources.getString(id));
     }
-    return points;
 
-  }
+    CoordsCache coordsCache = new CoordsCache();
+    searchLocation = coordsCache.get(proto.getSearchLocation());
 
-  @Override
-  public List<LineSource> getLines() {
-    if (proto.getLineCount() == 0) {
-      return Collections.<LineSource>emptyList();
+    if (proto.getPointCount() == 0) {
+      points = Collections.<PointSource>emptyList();
+    } else {
+      ArrayList<PointSource> points = new ArrayList<PointSource>(proto.getPointCount());
+      for (PointElementProto element : proto.getPointList()) {
+        points.add(new PointSourceImpl(coordsCache.get(element.getLocation()),
+            element.getColor(), element.getSize(), getShape(element.getShape())));
+      }
+      this.points = points;
     }
-    ArrayList<LineSource> points = new ArrayList<LineSource>(proto.getLineCount());
-    for (LineElementProto element : proto.getLineList()) {
-      ArrayList<GeocentricCoordinates> vertices =
-          new ArrayList<GeocentricCoordinates>(element.getVertexCount());
-      for (GeocentricCoordinatesProto elementVertex : element.getVertexList()) {
-        vertices.add(getCoords(elementVertex));
+
+    if (proto.getLabelCount() == 0) {
+      labels = Collections.<TextSource>emptyList();
+    } else {
+      ArrayList<TextSource> labels = new ArrayList<TextSource>(proto.getLabelCount());
+      for (LabelElementProto element : proto.getLabelList()) {
+        labels.add(new TextSourceImpl(coordsCache.get(element.getLocation()),
+            resources.getString(element.getStringIndex()),
+            element.getColor(), element.getOffset(), element.getFontSize()));
       }
-      points.add(new LineSourceImpl(element.getColor(), vertices, element.getLineWidth()));
+      this.labels = labels;
     }
-    return points;
+
+    if (proto.getLineCount() == 0) {
+      lines = Collections.<LineSource>emptyList();
+    } else {
+      ArrayList<LineSource> lines = new ArrayList<LineSource>(proto.getLineCount());
+      for (LineElementProto element : proto.getLineList()) {
+        ArrayList<GeocentricCoordinates> vertices =
+            new ArrayList<GeocentricCoordinates>(element.getVertexCount());
+        for (GeocentricCoordinatesProto elementVertex : element.getVertexList()) {
+          vertices.add(coordsCache.get(elementVertex));
+        }
+        lines.add(new LineSourceImpl(element.getColor(), vertices, element.getLineWidth()));
+      }
+      this.lines = lines;
+    }
+    proto = null;
   }
 
-  private static GeocentricCoordinates getCoords(GeocentricCoordinatesProto proto) {
-    return GeocentricCoordinates.getInstance(proto.getRightAscension(), proto.getDeclination());
+  /** Returns the shape a point with the given shape in its protocol buffer is drawn with. */
+  public static PointSource.Shape getShape(SourceProto.Shape shape) {
+    return shapeMap.get(shape);
+  }
+
+  /**
+   * The coordinates most recently decoded for a source.  A star's point,
+   * label and search location are usually all in the same place, as are the
+   * ends of the consecutive lines in a constellation, so looking through the
+   * last few saves most of the trig, and lets them share one instance.
+   */
+  private static class CoordsCache {
+    private static final int SIZE = 4;
+    private final float[] ras = new float[SIZE];
+    private final float[] decs = new float[SIZE];
+    private final GeocentricCoordinates[] coords = new GeocentricCoordinates[SIZE];
+    private int count = 0;
+
+    GeocentricCoordinates get(GeocentricCoordinatesProto proto) {
+      float ra = proto.getRightAscension();
+      float dec = proto.getDeclination();
+      for (int i = Math.min(count, SIZE) - 1; i >= 0; i--) {
+        if (ras[i] == ra && decs[i] == dec) {
+          return coords[i];
+        }
+      }
+      GeocentricCoordinates result = GeocentricCoordinates.getInstance(ra, dec);
+      int i = count++ % SIZE;
+      ras[i] = ra;
+      decs[i] = dec;
+      coords[i] = result;
+      return result;
+    }
   }
 }
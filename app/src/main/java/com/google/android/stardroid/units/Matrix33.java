@@ -71,6 +71,13 @@ public class Matrix33 implements Cloneable {
    * they're row vectors.
    */
   public Matrix33(Vector3 v1, Vector3 v2, Vector3 v3, boolean columnVectors) {
+    assign(v1, v2, v3, columnVectors);
+  }
+
+  /**
+   * Sets the matrix from three vectors, as the constructor above does.
+   */
+  public void assign(Vector3 v1, Vector3 v2, Vector3 v3, boolean columnVectors) {
     if (columnVectors) {
       this.xx = v1.x;
       this.yx = v1.y;
@@ -0,0 +1,136 @@
+package com.google.android.stardroid.util;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
+
+import com.google.android.stardroid.util.metrics.Counter;
+import com.google.android.stardroid.util.metrics.Metrics;
+
+/**
+ * A cache of bitmaps decoded from resources, so that sources showing the same
+ * image share one bitmap rather than each decoding their own.
+ *
+ * Images are decoded no larger than they need to be: the caller says how big
+ * the image will get on screen, and the bitmap is subsampled by the largest
+ * power of two which still leaves it at least that big.  Bitmaps are keyed by
+ * resource and subsampling, so asking for slightly different sizes usually
+ * finds the same bitmap.  The least recently used bitmaps are dropped once
+ * the cache holds more than its limit, but they aren't recycled, since a
+ * source may still be showing them.
+ *
+ * Safe to use from any thread.
+ */
+public class BitmapCache {
+  private static final String TAG = MiscUtil.getTag(BitmapCache.class);
+
+  private final LruCache<String, Bitmap> mBitmaps;
+  // The full size of each resource we've seen, as {width, height}, so they're only read once.
+  private final SparseArray<int[]> mResourceSizes = new SparseArray<int[]>();
+
+  private final Counter mHitCounter = Metrics.counter("images.bitmapCache.hits");
+  private final Counter mMissCounter = Metrics.counter("images.bitmapCache.misses");
+  private final Counter mBytesDecodedCounter = Metrics.counter("images.bitmapCache.bytesDecoded");
+
+  /**
+   * @param maxBytes the most memory the cached bitmaps should take up.
+   */
+  public BitmapCache(int maxBytes) {
+    mBitmaps = new LruCache<String, Bitmap>(maxBytes) {
+      @Override
+      protected int sizeOf(String key, Bitmap bitmap) {
+        return getSizeInBytes(bitmap);
+      }
+    };
+  }
+
+  /**
+   * Returns the image in the given resource, decoded at the smallest size
+   * which is at least targetSize pixels across in its larger dimension.  A
+   * targetSize of 0 or less gets the image at its full size.  The image isn't
+   * scaled for the screen density.
+   */
+  public Bitmap get(Resources res, int resourceId, int targetSize) {
+    int sampleSize = getSampleSize(res, resourceId, targetSize);
+    String key = resourceId + "/" + sampleSize;
+    Bitmap bitmap = mBitmaps.get(key);
+    if (bitmap != null) {
+      mHitCounter.increment();
+      return bitmap;
+    }
+
+    mMissCounter.increment();
+    BitmapFactory.Options opts = new BitmapFactory.Options();
+    opts.inScaled = false;
+    opts.inSampleSize = sampleSize;
+    bitmap = BitmapFactory.decodeResource(res, resourceId, opts);
+    if (bitmap == null) {
+      throw new RuntimeException("Could not decode image " + resourceId);
+    }
+    mBytesDecodedCounter.add(getSizeInBytes(bitmap));
+    // If another thread decoded the same image meanwhile, either copy is fine to use.
+    mBitmaps.put(key, bitmap);
+    return bitmap;
+  }
+
+  public int getHitCount() {
+    return mBitmaps.hitCount();
+  }
+
+  public int getMissCount() {
+    return mBitmaps.missCount();
+  }
+
+  /** Returns the memory taken up by the bitmaps in the cache, in bytes. */
+  public int getSizeInBytes() {
+    return mBitmaps.size();
+  }
+
+  public int getMaxSizeInBytes() {
+    return mBitmaps.maxSize();
+  }
+
+  /** Drops all of the bitmaps.  Anything still using them can carry on doing so. */
+  public void clear() {
+    mBitmaps.evictAll();
+  }
+
+  // Returns the largest power of two which the image can be subsampled by and still be at least
+  // targetSize pixels across.
+  private int getSampleSize(Resources res, int resourceId, int targetSize) {
+    if (targetSize <= 0) {
+      return 1;
+    }
+    int[] size;
+    synchronized (mResourceSizes) {
+      size = mResourceSizes.get(resourceId);
+    }
+    if (size == null) {
+      BitmapFactory.Options opts = new BitmapFactory.Options();
+      opts.inScaled = false;
+      opts.inJustDecodeBounds = true;
+      BitmapFactory.decodeResource(res, resourceId, opts);
+      size = new int[] {opts.outWidth, opts.outHeight};
+      synchronized (mResourceSizes) {
+        mResourceSizes.put(resourceId, size);
+      }
+    }
+    int largest = Math.max(size[0], size[1]);
+    int sampleSize = 1;
+    while (largest / (2 * sampleSize) >= targetSize) {
+      sampleSize *= 2;
+    }
+    if (sampleSize > 1) {
+      Log.d(TAG, "Subsampling image " + resourceId + " by " + sampleSize + " to fit "
+          + targetSize + " pixels");
+    }
+    return sampleSize;
+  }
+
+  private static int getSizeInBytes(Bitmap bitmap) {
+    return bitmap.getRowBytes() * bitmap.getHeight();
+  }
+}
@@ -138,6 +138,22 @@ public class Geometry {
                         m1.zx*m2.xz + m1.zy*m2.yz + m1.zz*m2.zz);
   }
 
+  /**
+   * As matrixMultiply above, but writes the result into out rather than
+   * allocating a new matrix.  out must not be m1 or m2.
+   */
+  public static void matrixMultiply(Matrix33 m1, Matrix33 m2, Matrix33 out) {
+    out.xx = m1.xx*m2.xx + m1.xy*m2.yx + m1.xz*m2.zx;
+    out.xy = m1.xx*m2.xy + m1.xy*m2.yy + m1.xz*m2.zy;
+    out.xz = m1.xx*m2.xz + m1.xy*m2.yz + m1.xz*m2.zz;
+    out.yx = m1.yx*m2.xx + m1.yy*m2.yx + m1.yz*m2.zx;
+    out.yy = m1.yx*m2.xy + m1.yy*m2.yy + m1.yz*m2.zy;
+    out.yz = m1.yx*m2.xz + m1.yy*m2.yz + m1.yz*m2.zz;
+    out.zx = m1.zx*m2.xx + m1.zy*m2.yx + m1.zz*m2.zx;
+    out.zy = m1.zx*m2.xy + m1.zy*m2.yy + m1.zz*m2.zy;
+    out.zz = m1.zx*m2.xz + m1.zy*m2.yz + m1.zz*m2.zz;
+  }
+
   /**
    * Calculate w = m * v where m is a 3X3 matrix and v a column vector.
    */
@@ -147,6 +163,16 @@ public class Geometry {
                        m.zx*v.x + m.zy*v.y + m.zz*v.z);
   }
 
+  /**
+   * As matrixVectorMultiply above, but writes the result into out rather
+   * than allocating a new vector.  out may be the same object as v.
+   */
+  public static void matrixVectorMultiply(Matrix33 m, Vector3 v, Vector3 out) {
+    out.assign(m.xx*v.x + m.xy*v.y + m.xz*v.z,
+               m.yx*v.x + m.yy*v.y + m.yz*v.z,
+               m.zx*v.x + m.zy*v.y + m.zz*v.z);
+  }
+
   /**
    * Calculate the rotation matrix for a certain number of degrees about the
    * give axis.
@@ -32,25 +32,61 @@ public class Matrix4x4 {
   }
 
   public static Matrix4x4 createScaling(float x, float y, float z) {
-    return new Matrix4x4(new float[] {
-        x, 0, 0, 0,
+    Matrix4x4 result = new Matrix4x4();
+    result.setScaling(x, y, z);
+    return result;
+  }
+
+  public static Matrix4x4 createTranslation(float x, float y, float z) {
+    Matrix4x4 result = new Matrix4x4();
+    result.setTranslation(x, y, z);
+    return result;
+  }
+
+  // axis MUST be normalized.
+  public static Matrix4x4 createRotation(float angle, Vector3 axis) {
+    Matrix4x4 result = new Matrix4x4();
+    result.setRotation(angle, axis);
+    return result;
+  }
+
+  public static Matrix4x4 createPerspectiveProjection(float width, float height, float fovyInRadians) {
+    Matrix4x4 result = new Matrix4x4();
+    result.setPerspectiveProjection(width, height, fovyInRadians);
+    return result;
+  }
+
+  public static Matrix4x4 createView(Vector3 lookDir, Vector3 up, Vector3 right) {
+    Matrix4x4 result = new Matrix4x4();
+    result.setView(lookDir, up, right);
+    return result;
+  }
+
+  public static Matrix4x4 multiplyMM(Matrix4x4 mat1, Matrix4x4 mat2) {
+    Matrix4x4 result = new Matrix4x4();
+    multiplyMM(mat1, mat2, result);
+    return result;
+  }
+
+  // The set methods below overwrite this matrix in place, so that matrices which are recomputed
+  // every frame don't need to be reallocated.
+
+  public void setScaling(float x, float y, float z) {
+    set(x, 0, 0, 0,
         0, y, 0, 0,
         0, 0, z, 0,
-        0, 0, 0, 1});
+        0, 0, 0, 1);
   }
 
-  public static Matrix4x4 createTranslation(float x, float y, float z) {
-    return new Matrix4x4(new float[] {
-        1, 0, 0, 0,
+  public void setTranslation(float x, float y, float z) {
+    set(1, 0, 0, 0,
         0, 1, 0, 0,
         0, 0, 1, 0,
-        x, y, z, 1});
+        x, y, z, 1);
   }
 
   // axis MUST be normalized.
-  public static Matrix4x4 createRotation(float angle, Vector3 axis) {
-    float[] m = new float[16];
-
+  public void setRotation(float angle, Vector3 axis) {
     float xSqr = axis.x * axis.x;
     float ySqr = axis.y * axis.y;
     float zSqr = axis.z * axis.z;
@@ -70,30 +106,28 @@ public class Matrix4x4 {
     float xzOneMinusCosAngle = axis.x * zOneMinusCosAngle;
     float yzOneMinusCosAngle = axis.y * zOneMinusCosAngle;
 
-    m[0] = xSqr + (ySqr + zSqr) * cosAngle;
-    m[1] = xyOneMinusCosAngle + zSinAngle;
-    m[2] = xzOneMinusCosAngle - ySinAngle;
-    m[3] = 0;
-
-    m[4] = xyOneMinusCosAngle - zSinAngle;
-    m[5] = ySqr + (xSqr + zSqr) * cosAngle;
-    m[6] = yzOneMinusCosAngle + xSinAngle;
-    m[7] = 0;
+    set(xSqr + (ySqr + zSqr) * cosAngle,
+        xyOneMinusCosAngle + zSinAngle,
+        xzOneMinusCosAngle - ySinAngle,
+        0,
 
-    m[8] = xzOneMinusCosAngle + ySinAngle;
-    m[9] = yzOneMinusCosAngle - xSinAngle;
-    m[10] = zSqr + (xSqr + ySqr) * cosAngle;
-    m[11] = 0;
+        xyOneMinusCosAngle - zSinAngle,
+        ySqr + (xSqr + zSqr) * cosAngle,
+        yzOneMinusCosAngle + xSinAngle,
+        0,
 
-    m[12] = 0;
-    m[13] = 0;
-    m[14] = 0;
-    m[15] = 1;
+        xzOneMinusCosAngle + ySinAngle,
+        yzOneMinusCosAngle - xSinAngle,
+        zSqr + (xSqr + ySqr) * cosAngle,
+        0,
 
-    return new Matrix4x4(m);
+        0,
+        0,
+        0,
+        1);
   }
 
-  public static Matrix4x4 createPerspectiveProjection(float width, float height, float fovyInRadians) {
+  public void setPerspectiveProjection(float width, float height, float fovyInRadians) {
     float near = 0.01f;
     float far = 10000.0f;
 
@@ -101,8 +135,7 @@ public class Matrix4x4 {
 
     float oneOverTanHalfRadiusOfView = 1.0f / MathUtil.tan(fovyInRadians);
 
-    return new Matrix4x4(new float[]{
-        inverseAspectRatio * oneOverTanHalfRadiusOfView,
+    set(inverseAspectRatio * oneOverTanHalfRadiusOfView,
         0,
         0,
         0,
@@ -120,12 +153,11 @@ public class Matrix4x4 {
         0,
         0,
         -2*far*near / (far - near),
-        0});
+        0);
   }
 
-  public static Matrix4x4 createView(Vector3 lookDir, Vector3 up, Vector3 right) {
-    return new Matrix4x4(new float[] {
-        right.x,
+  public void setView(Vector3 lookDir, Vector3 up, Vector3 right) {
+    set(right.x,
         up.x,
         -lookDir.x,
         0,
@@ -143,14 +175,18 @@ public class Matrix4x4 {
         0,
         0,
         0,
-        1,});
+        1);
   }
 
-  public static Matrix4x4 multiplyMM(Matrix4x4 mat1, Matrix4x4 mat2) {
+  /**
+   * As multiplyMM above, but writes mat1 * mat2 into out rather than
+   * allocating a new matrix.  out must not be mat1 or mat2.
+   */
+  public static void multiplyMM(Matrix4x4 mat1, Matrix4x4 mat2, Matrix4x4 out) {
     float[] m = mat1.mValues;
     float[] n = mat2.mValues;
 
-    return new Matrix4x4(new float[] {
+    out.set(
         m[0]*n[0] + m[4]*n[1] + m[8]*n[2] + m[12]*n[3],
         m[1]*n[0] + m[5]*n[1] + m[9]*n[2] + m[13]*n[3],
         m[2]*n[0] + m[6]*n[1] + m[10]*n[2] + m[14]*n[3],
@@ -169,7 +205,31 @@ public class Matrix4x4 {
         m[0]*n[12] + m[4]*n[13] + m[8]*n[14] + m[12]*n[15],
         m[1]*n[12] + m[5]*n[13] + m[9]*n[14] + m[13]*n[15],
         m[2]*n[12] + m[6]*n[13] + m[10]*n[14] + m[14]*n[15],
-        m[3]*n[12] + m[7]*n[13] + m[11]*n[14] + m[15]*n[15]});
+        m[3]*n[12] + m[7]*n[13] + m[11]*n[14] + m[15]*n[15]);
+  }
+
+  // Sets the values in column major order.
+  private void set(float m0, float m1, float m2, float m3,
+                   float m4, float m5, float m6, float m7,
+                   float m8, float m9, float m10, float m11,
+                   float m12, float m13, float m14, float m15) {
+    float[] m = mValues;
+    m[0] = m0;
+    m[1] = m1;
+    m[2] = m2;
+    m[3] = m3;
+    m[4] = m4;
+    m[5] = m5;
+    m[6] = m6;
+    m[7] = m7;
+    m[8] = m8;
+    m[9] = m9;
+    m[10] = m10;
+    m[11] = m11;
+    m[12] = m12;
+    m[13] = m13;
+    m[14] = m14;
+    m[15] = m15;
   }
 
   public static Vector3 multiplyMV(Matrix4x4 mat, Vector3 v) {
@@ -196,6 +256,19 @@ public class Matrix4x4 {
     return trans;
   }
 
+  /**
+   * As transformVector above, but writes the result into out rather than
+   * allocating a new vector.  out may be the same object as v.
+   */
+  public static void transformVector(Matrix4x4 mat, Vector3 v, Vector3 out) {
+    float[] m = mat.mValues;
+    float oneOverW = 1.0f / (m[3]*v.x + m[7]*v.y + m[11]*v.z + m[15]);
+    float x = (m[0]*v.x + m[4]*v.y + m[8]*v.z + m[12]) * oneOverW;
+    float y = (m[1]*v.x + m[5]*v.y + m[9]*v.z + m[13]) * oneOverW;
+    float z = m[2]*v.x + m[6]*v.y + m[10]*v.z + m[14];
+    out.assign(x, y, z);
+  }
+
   public float[] getFloatArray() {
     return mValues;
   }
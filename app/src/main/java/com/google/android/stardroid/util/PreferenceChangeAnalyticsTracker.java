@@ -39,7 +39,7 @@ public class PreferenceChangeAnalyticsTracker implements OnSharedPreferenceChang
   }
 
   private Set<String> stringPreferenceWhiteList = new HashSet<String>(Arrays.asList(new String[] {
-      "sensor_speed", "sensor_damping"
+      "sensor_speed", "sensor_damping", "star_density"
   }));
 
   private void trackPreferenceChange(SharedPreferences sharedPreferences, String key) {
@@ -21,11 +21,20 @@ import android.graphics.Color;
  *
  */
 public class StarAttributeCalculator {
-  // Much above this and the app crashes - best guess we run out of some openGL resource.
-  // TODO(jontayler): find out why.
-  public static final float MAX_MAGNITUDE = 5.6f;
+  // The faintest stars we draw.  This used to be 5.6, since the crowded regions of anything
+  // much fainter had more vertices than 16 bit indices can reach, and the app crashed.  Buffers
+  // that big are now drawn in chunks.
+  public static final float MAX_MAGNITUDE = 10.0f;
+  // Stars fade with magnitude down to this one, and any fainter are drawn as dimly as it.
+  private static final float FADED_MAGNITUDE = 5.6f;
   private static final int MAX_SIZE = 5;
 
+  // The limiting magnitude when fully zoomed out, at the default star density: about the faintest
+  // stars the eye can see.  The bundled catalog stops at FADED_MAGNITUDE, so it's always drawn in
+  // full unless the user asks for fewer stars.  Only deeper catalogs are thinned out.
+  private static final float WIDE_FIELD_LIMITING_MAGNITUDE = 6.0f;
+  private static final float WIDE_FIELD_OF_VIEW = 90;
+
   private enum Channel {
     A(24), R(16), G(8), B(0);
 
@@ -56,7 +65,7 @@ public class StarAttributeCalculator {
     if (magnitude > MAX_MAGNITUDE) return Color.BLACK;
     if (magnitude <= 0.0) return baseColor;
 
-    float shade = 1.0f - magnitude/(MAX_MAGNITUDE + 3.0f);
+    float shade = 1.0f - Math.min(magnitude, FADED_MAGNITUDE)/(FADED_MAGNITUDE + 3.0f);
 
     int result = 0xFF000000;
     for (Channel c : Channel.values()) {
@@ -87,4 +96,37 @@ public class StarAttributeCalculator {
   public static int getSize(float magnitude) {
     return (int) Math.max(MAX_SIZE - magnitude, 1);
   }
+
+  /**
+   * Estimates the magnitude of a star which was given its size and color by
+   * getSize and getColor, with white as the base color.  This is only a last
+   * resort, for converting star catalogs which didn't keep their magnitudes,
+   * and is wrong for points of any other color.  The shade of the color gives
+   * the magnitude, and the size bounds it.  Stars fainter than
+   * FADED_MAGNITUDE all look the same, so they come out at about that
+   * magnitude.
+   */
+  public static float estimateMagnitude(int size, int color) {
+    int brightest = Math.max((color >> Channel.R.getOffset()) & 0xFF,
+        Math.max((color >> Channel.G.getOffset()) & 0xFF, (color >> Channel.B.getOffset()) & 0xFF));
+    // getColor rounds the channels down, so take the middle of the values which round to this.
+    float shade = Math.min((brightest + 0.5f) / 0xFF, 1);
+    float magnitude = (1 - shade) * (FADED_MAGNITUDE + 3.0f);
+    // getSize gives this size to magnitudes greater than MAX_SIZE - size - 1 and up to
+    // MAX_SIZE - size, or to anything fainter for the smallest size.
+    float brightestForSize = MAX_SIZE - size - 1;
+    float faintestForSize = size <= 1 ? Float.MAX_VALUE : MAX_SIZE - size;
+    return Math.min(Math.max(magnitude, brightestForSize), faintestForSize);
+  }
+
+  /**
+   * Returns the faintest magnitude worth drawing for the given field of view
+   * (in degrees).  As with a telescope, halving the field of view reveals
+   * stars about 1.5 magnitudes fainter.  densityOffset is added to the
+   * result, so that the user can ask for more or fewer stars.
+   */
+  public static float getLimitingMagnitude(float fieldOfView, float densityOffset) {
+    return WIDE_FIELD_LIMITING_MAGNITUDE + densityOffset
+        + 5 * (float) Math.log10(WIDE_FIELD_OF_VIEW / fieldOfView);
+  }
 }
\ No newline at end of file
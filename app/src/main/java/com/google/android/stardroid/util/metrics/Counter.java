@@ -0,0 +1,41 @@
+package com.google.android.stardroid.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count of how often something happened, such as a frame being skipped.
+ */
+public class Counter {
+  private final String mName;
+  private final AtomicLong mCount = new AtomicLong();
+
+  Counter(String name) {
+    mName = name;
+  }
+
+  public String getName() {
+    return mName;
+  }
+
+  public void increment() {
+    add(1);
+  }
+
+  public void add(long amount) {
+    if (Metrics.isEnabled()) {
+      mCount.addAndGet(amount);
+    }
+  }
+
+  public long getCount() {
+    return mCount.get();
+  }
+
+  void reset() {
+    mCount.set(0);
+  }
+
+  void appendTo(StringBuilder out) {
+    out.append("counter ").append(mName).append(" count=").append(mCount.get()).append('\n');
+  }
+}
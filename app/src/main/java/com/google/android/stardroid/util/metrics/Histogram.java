@@ -0,0 +1,100 @@
+package com.google.android.stardroid.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values in a fixed set of buckets.  Bucket i holds the values no
+ * greater than the i'th bound, and greater than the one before it.  One extra
+ * bucket at the end holds everything larger than the last bound.
+ *
+ * Recording a value doesn't allocate or lock, so it's safe to call from the
+ * render loop.
+ */
+public class Histogram {
+  private final String mName;
+  private final long[] mBounds;
+  private final AtomicLongArray mCounts;
+
+  Histogram(String name, long[] bounds) {
+    for (int i = 1; i < bounds.length; i++) {
+      if (bounds[i] <= bounds[i - 1]) {
+        throw new IllegalArgumentException("Bucket bounds must increase: " + name);
+      }
+    }
+    mName = name;
+    mBounds = bounds.clone();
+    mCounts = new AtomicLongArray(bounds.length + 1);
+  }
+
+  public String getName() {
+    return mName;
+  }
+
+  public void record(long value) {
+    if (Metrics.isEnabled()) {
+      recordAlways(value);
+    }
+  }
+
+  // Records the value even if metrics are disabled, for timers, which check when they start.
+  void recordAlways(long value) {
+    int bucket = 0;
+    while (bucket < mBounds.length && value > mBounds[bucket]) {
+      bucket++;
+    }
+    mCounts.incrementAndGet(bucket);
+  }
+
+  public int getNumBuckets() {
+    return mCounts.length();
+  }
+
+  public long getCount(int bucket) {
+    return mCounts.get(bucket);
+  }
+
+  public long getTotalCount() {
+    long total = 0;
+    for (int i = 0; i < mCounts.length(); i++) {
+      total += mCounts.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the given fraction of the
+   * values, so 0.9 gives a value which at least 90% of the values are no
+   * greater than.  Returns Long.MAX_VALUE if that's in the overflow bucket,
+   * and 0 if nothing has been recorded.
+   */
+  public long getPercentileBound(double fraction) {
+    long total = getTotalCount();
+    if (total == 0) {
+      return 0;
+    }
+    long needed = (long) Math.ceil(fraction * total);
+    long seen = 0;
+    for (int i = 0; i < mBounds.length; i++) {
+      seen += mCounts.get(i);
+      if (seen >= needed) {
+        return mBounds[i];
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  void reset() {
+    for (int i = 0; i < mCounts.length(); i++) {
+      mCounts.set(i, 0);
+    }
+  }
+
+  void appendTo(StringBuilder out) {
+    out.append("histogram ").append(mName);
+    for (int i = 0; i < mCounts.length(); i++) {
+      out.append(i < mBounds.length ? " <=" + mBounds[i] : " >" + mBounds[mBounds.length - 1]);
+      out.append(':').append(mCounts.get(i));
+    }
+    out.append('\n');
+  }
+}
@@ -0,0 +1,119 @@
+package com.google.android.stardroid.util.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A registry of performance counters, timers and histograms, shared by the
+ * whole app so that the renderer, the layers and the model can all report
+ * where the time goes.
+ *
+ * Metrics are looked up by name, once, and kept in a field; asking for the
+ * same name again returns the same object.  Recording is off by default.
+ * While it's off each instrumentation point costs no more than reading a
+ * static boolean, so they can be left in release builds.  Snapshots list the
+ * metrics in name order, one per line, so that they're easy to compare
+ * between builds and devices.
+ */
+public final class Metrics {
+  private static volatile boolean sEnabled = false;
+
+  private static final Map<String, Counter> sCounters = new TreeMap<>();
+  private static final Map<String, Timer> sTimers = new TreeMap<>();
+  private static final Map<String, Histogram> sHistograms = new TreeMap<>();
+
+  private Metrics() {}
+
+  public static boolean isEnabled() {
+    return sEnabled;
+  }
+
+  public static void setEnabled(boolean enabled) {
+    sEnabled = enabled;
+  }
+
+  /** Returns the time to pass to {@link Timer#stop}, or 0 if metrics are disabled. */
+  public static long startTimer() {
+    return sEnabled ? System.nanoTime() : 0;
+  }
+
+  public static synchronized Counter counter(String name) {
+    Counter counter = sCounters.get(name);
+    if (counter == null) {
+      counter = new Counter(name);
+      sCounters.put(name, counter);
+    }
+    return counter;
+  }
+
+  public static synchronized Timer timer(String name) {
+    Timer timer = sTimers.get(name);
+    if (timer == null) {
+      timer = new Timer(name);
+      sTimers.put(name, timer);
+    }
+    return timer;
+  }
+
+  /**
+   * Returns the histogram with the given name, creating it with the given
+   * bucket bounds if necessary.  The bounds must increase.
+   */
+  public static synchronized Histogram histogram(String name, long[] bounds) {
+    Histogram histogram = sHistograms.get(name);
+    if (histogram == null) {
+      histogram = new Histogram(name, bounds);
+      sHistograms.put(name, histogram);
+    }
+    return histogram;
+  }
+
+  /** Zeroes all of the metrics, for starting a fresh measurement. */
+  public static synchronized void reset() {
+    for (Counter counter : sCounters.values()) {
+      counter.reset();
+    }
+    for (Timer timer : sTimers.values()) {
+      timer.reset();
+    }
+    for (Histogram histogram : sHistograms.values()) {
+      histogram.reset();
+    }
+  }
+
+  /** Returns the current values of all the metrics, one per line. */
+  public static synchronized String getSnapshot() {
+    StringBuilder out = new StringBuilder();
+    for (Counter counter : sCounters.values()) {
+      counter.appendTo(out);
+    }
+    for (Timer timer : sTimers.values()) {
+      timer.appendTo(out);
+    }
+    for (Histogram histogram : sHistograms.values()) {
+      histogram.appendTo(out);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Writes a snapshot to the given file, after the header, which should say
+   * which build and device it came from, followed by the startup timeline.
+   */
+  public static void writeSnapshot(File file, String header) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(header);
+      writer.write('\n');
+      writer.write(getSnapshot());
+      writer.write(StartupTimeline.getSnapshot());
+    } finally {
+      writer.close();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.google.android.stardroid.util.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records when each layer reaches each stage of starting up, so that we can
+ * see what's holding up the first frame.  Unlike the other metrics it's
+ * always on, since startup is over before anyone could turn recording on, and
+ * it only records a handful of times per layer.
+ *
+ * Only the first time each track reaches a stage is kept.  Times are measured
+ * from the first stage recorded for any track.
+ */
+public final class StartupTimeline {
+  public enum Stage {
+    /** Waiting for a thread, or for the layers it depends on. */
+    QUEUED,
+    /** Started initializing. */
+    STARTED,
+    /** Read its data, made its sources and queued them for the renderer. */
+    PARSED,
+    /** Its sources have been turned into geometry by the renderer. */
+    TESSELLATED,
+    /** The first frame showing it has been drawn. */
+    FIRST_DRAWN
+  }
+
+  private static final Stage[] STAGES = Stage.values();
+  private static final Map<String, long[]> sTracks = new LinkedHashMap<>();
+  private static long sStartNanos = -1;
+
+  private StartupTimeline() {}
+
+  public static synchronized void record(String track, Stage stage) {
+    long now = System.nanoTime();
+    if (sStartNanos < 0) {
+      sStartNanos = now;
+    }
+    long[] times = sTracks.get(track);
+    if (times == null) {
+      times = new long[STAGES.length];
+      Arrays.fill(times, -1);
+      sTracks.put(track, times);
+    }
+    if (times[stage.ordinal()] < 0) {
+      times[stage.ordinal()] = now - sStartNanos;
+    }
+  }
+
+  /** Returns when the track reached the stage, in nanoseconds, or -1 if it hasn't yet. */
+  public static synchronized long getTimeNanos(String track, Stage stage) {
+    long[] times = sTracks.get(track);
+    return times == null ? -1 : times[stage.ordinal()];
+  }
+
+  public static synchronized void reset() {
+    sTracks.clear();
+    sStartNanos = -1;
+  }
+
+  /** Returns the times of each track, one per line, in the order they were first recorded. */
+  public static synchronized String getSnapshot() {
+    StringBuilder out = new StringBuilder();
+    for (Map.Entry<String, long[]> entry : sTracks.entrySet()) {
+      out.append("startup ").append(entry.getKey());
+      long[] times = entry.getValue();
+      for (Stage stage : STAGES) {
+        out.append(' ').append(stage.name().toLowerCase(Locale.US)).append('=');
+        long time = times[stage.ordinal()];
+        out.append(time < 0 ? "-" : String.format(Locale.US, "%.1fms", time / 1e6));
+      }
+      out.append('\n');
+    }
+    return out.toString();
+  }
+}
@@ -0,0 +1,97 @@
+package com.google.android.stardroid.util.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long something takes.  Time it like this:
+ *
+ * <pre>
+ *   long start = Metrics.startTimer();
+ *   doSomething();
+ *   timer.stop(start);
+ * </pre>
+ *
+ * When metrics are disabled startTimer doesn't read the clock, and stop does
+ * nothing.  Besides the count, total and maximum, the times are kept in a
+ * histogram of microseconds, from which the percentiles are estimated.
+ */
+public class Timer {
+  // The histogram buckets, in microseconds.  16667us is one frame at 60fps.
+  private static final long[] BUCKET_BOUNDS_MICROS = {
+      50, 100, 250, 500, 1000, 2500, 5000, 10000, 16667, 33333, 50000, 100000, 250000,
+      500000, 1000000, 5000000};
+
+  private final String mName;
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mTotalNanos = new AtomicLong();
+  private final AtomicLong mMaxNanos = new AtomicLong();
+  private final Histogram mHistogram;
+
+  Timer(String name) {
+    mName = name;
+    mHistogram = new Histogram(name, BUCKET_BOUNDS_MICROS);
+  }
+
+  public String getName() {
+    return mName;
+  }
+
+  /** Records the time since start, which came from {@link Metrics#startTimer}. */
+  public void stop(long start) {
+    if (start != 0) {
+      record(System.nanoTime() - start);
+    }
+  }
+
+  void record(long nanos) {
+    mCount.incrementAndGet();
+    mTotalNanos.addAndGet(nanos);
+    long max = mMaxNanos.get();
+    while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+      max = mMaxNanos.get();
+    }
+    mHistogram.recordAlways(nanos / 1000);
+  }
+
+  public long getCount() {
+    return mCount.get();
+  }
+
+  public long getTotalNanos() {
+    return mTotalNanos.get();
+  }
+
+  public long getMaxNanos() {
+    return mMaxNanos.get();
+  }
+
+  public Histogram getHistogram() {
+    return mHistogram;
+  }
+
+  void reset() {
+    mCount.set(0);
+    mTotalNanos.set(0);
+    mMaxNanos.set(0);
+    mHistogram.reset();
+  }
+
+  void appendTo(StringBuilder out) {
+    long count = mCount.get();
+    double meanMillis = count == 0 ? 0 : mTotalNanos.get() / 1e6 / count;
+    out.append(String.format(Locale.US,
+        "timer %s count=%d total=%.1fms mean=%.3fms max=%.3fms p50<=%s p90<=%s p99<=%s\n",
+        mName, count, mTotalNanos.get() / 1e6, meanMillis, mMaxNanos.get() / 1e6,
+        formatBound(mHistogram.getPercentileBound(0.5)),
+        formatBound(mHistogram.getPercentileBound(0.9)),
+        formatBound(mHistogram.getPercentileBound(0.99))));
+  }
+
+  private static String formatBound(long micros) {
+    if (micros == Long.MAX_VALUE) {
+      return "inf";
+    }
+    return String.format(Locale.US, "%.3fms", micros / 1000.0);
+  }
+}
@@ -0,0 +1,153 @@
+package com.google.android.stardroid.layers;
+
+import com.google.android.stardroid.renderer.RendererController;
+import com.google.android.stardroid.search.SearchResult;
+import com.google.android.stardroid.util.metrics.StartupTimeline;
+import com.google.android.stardroid.util.metrics.StartupTimeline.Stage;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests for the {@link LayerInitializer}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class LayerInitializerTest {
+  private final List<Layer> initialized = new ArrayList<>();
+  // Holds the layers' initialization until the test runs it.
+  private final List<Runnable> pending = new ArrayList<>();
+  private final Executor executor = new Executor() {
+    public void execute(Runnable runnable) {
+      pending.add(runnable);
+    }
+  };
+
+  private class FakeLayer implements Layer {
+    private final boolean fails;
+
+    FakeLayer(boolean fails) {
+      this.fails = fails;
+    }
+
+    public void initialize() {
+      initialized.add(this);
+      if (fails) {
+        throw new RuntimeException("Couldn't read the file");
+      }
+    }
+
+    public void registerWithRenderer(RendererController controller) {}
+
+    public int getLayerDepthOrder() {
+      return 0;
+    }
+
+    public String getPreferenceId() {
+      return "fake";
+    }
+
+    public String getLayerName() {
+      return "Fake";
+    }
+
+    public void setVisible(boolean visible) {}
+
+    public List<SearchResult> searchByObjectName(String name) {
+      return Collections.emptyList();
+    }
+
+    public Set<String> getObjectNamesMatchingPrefix(String prefix) {
+      return Collections.emptySet();
+    }
+  }
+
+  private void runPending() {
+    Runnable runnable = pending.remove(0);
+    runnable.run();
+  }
+
+  @Before
+  public void setUp() {
+    StartupTimeline.reset();
+  }
+
+  @Test
+  public void layerInitializer_testWaitsForDependencies() {
+    Layer stars = new FakeLayer(false);
+    Layer constellations = new FakeLayer(false);
+    Layer planets = new FakeLayer(false);
+    LayerInitializer initializer = new LayerInitializer(executor);
+    initializer.addLayer(stars, Collections.<Layer>emptyList());
+    initializer.addLayer(constellations, Arrays.asList(stars));
+    initializer.addLayer(planets, Collections.<Layer>emptyList());
+    initializer.start();
+
+    // Only the layers without dependencies are started straight away.
+    assertEquals(2, pending.size());
+    runPending();
+    assertEquals(Arrays.asList(stars), initialized);
+    // Now the stars are done, the constellations join the queue behind the planets.
+    assertEquals(2, pending.size());
+    runPending();
+    runPending();
+    assertEquals(Arrays.asList(stars, planets, constellations), initialized);
+    assertTrue(pending.isEmpty());
+  }
+
+  @Test
+  public void layerInitializer_testFailureReleasesDependents() {
+    Layer stars = new FakeLayer(true);
+    Layer constellations = new FakeLayer(false);
+    LayerInitializer initializer = new LayerInitializer(executor);
+    initializer.addLayer(stars, Collections.<Layer>emptyList());
+    initializer.addLayer(constellations, Arrays.asList(stars));
+    initializer.start();
+    runPending();
+    runPending();
+    assertEquals(Arrays.asList(stars, constellations), initialized);
+  }
+
+  @Test
+  public void layerInitializer_testRecordsTimeline() {
+    Layer layer = new FakeLayer(false);
+    String track = LayerInitializer.getTrack(layer);
+    LayerInitializer initializer = new LayerInitializer(executor);
+    initializer.addLayer(layer, Collections.<Layer>emptyList());
+    initializer.start();
+    assertEquals(0, StartupTimeline.getTimeNanos(track, Stage.QUEUED));
+    assertEquals(-1, StartupTimeline.getTimeNanos(track, Stage.STARTED));
+
+    runPending();
+    long started = StartupTimeline.getTimeNanos(track, Stage.STARTED);
+    assertTrue(started >= 0);
+    assertTrue(StartupTimeline.getTimeNanos(track, Stage.PARSED) >= started);
+    assertEquals(-1, StartupTimeline.getTimeNanos(track, Stage.FIRST_DRAWN));
+    assertTrue(StartupTimeline.getSnapshot().startsWith("startup FakeLayer queued=0.0ms"));
+  }
+
+  @Test
+  public void layerInitializer_testRejectsUnknownDependency() {
+    LayerInitializer initializer = new LayerInitializer(executor);
+    try {
+      initializer.addLayer(new FakeLayer(false), Arrays.<Layer>asList(new FakeLayer(false)));
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package com.google.android.stardroid.renderer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.opengl.GLSurfaceView;
+import android.preference.PreferenceManager;
+
+import com.google.android.stardroid.BuildConfig;
+import com.google.android.stardroid.activities.util.RendererModelUpdateClosure;
+import com.google.android.stardroid.control.AstronomerModelImpl;
+import com.google.android.stardroid.control.Clock;
+import com.google.android.stardroid.control.ZeroMagneticDeclinationCalculator;
+import com.google.android.stardroid.layers.GridLayer;
+import com.google.android.stardroid.layers.HorizonLayer;
+import com.google.android.stardroid.layers.Layer;
+import com.google.android.stardroid.layers.NewStarsLayer;
+import com.google.android.stardroid.renderer.debug.CountingGL;
+import com.google.android.stardroid.renderer.debug.ShadowCountingGLUtils;
+import com.google.android.stardroid.units.GeocentricCoordinates;
+import com.google.android.stardroid.units.LatLong;
+import com.google.android.stardroid.units.Vector3;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that drawing a frame in the steady state, when only the phone's
+ * orientation and the field of view are changing, doesn't allocate anything,
+ * so that the garbage collector doesn't make the sky stutter.  The frames are
+ * driven the way the app drives them: the activity's update closure sends the
+ * model's pointing through a {@link RendererController} to a renderer which
+ * is drawing the stars, grid and horizon layers.  Allocation counts come from
+ * the JVM's per-thread allocation counter, so this only runs on a HotSpot-like
+ * JVM.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = {ShadowCountingGLUtils.class})
+public class RenderLoopAllocationTest {
+  private static final int NUM_FRAMES = 100;
+  // While the JIT is still compiling the loop, it allocates now and then when it swaps compiled
+  // code for interpreted, so the frames are measured a few times, and the fewest bytes allocated
+  // are what the frames themselves allocate.
+  private static final int NUM_ROUNDS = 5;
+  // Enough frames for the layers to reach the managers and for their buffers to be built.
+  private static final int NUM_WARM_UP_FRAMES = 50;
+  private static final int SCREEN_WIDTH = 800;
+  private static final int SCREEN_HEIGHT = 480;
+
+  private static com.sun.management.ThreadMXBean getThreadBean() {
+    return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  }
+
+  private final CountingGL mGL = new CountingGL();
+  private final Vector3 mAcceleration = new Vector3(0, 0, -9.8f);
+  private final Vector3 mMagneticField = new Vector3(0, -20, -40);
+
+  // The time doesn't move, so the model never needs to recalculate its celestial axes.
+  private static class FixedClock implements Clock {
+    @Override
+    public long getTimeInMillisSinceEpoch() {
+      return 1500000000000L;
+    }
+  }
+
+  // Stands in for the GL thread: the events which the controller queues on the view are kept
+  // until the next frame, and then run before it's drawn.
+  private static class QueueingSurfaceView extends GLSurfaceView {
+    private ArrayList<Runnable> mQueuedEvents = new ArrayList<>();
+    private ArrayList<Runnable> mRunningEvents = new ArrayList<>();
+
+    QueueingSurfaceView(Context context) {
+      super(context);
+    }
+
+    @Override
+    public void queueEvent(Runnable r) {
+      mQueuedEvents.add(r);
+    }
+
+    void runQueuedEvents() {
+      ArrayList<Runnable> events = mQueuedEvents;
+      mQueuedEvents = mRunningEvents;
+      mRunningEvents = events;
+      for (int i = 0; i < mRunningEvents.size(); i++) {
+        mRunningEvents.get(i).run();
+      }
+      mRunningEvents.clear();
+    }
+  }
+
+  private AstronomerModelImpl createModel() {
+    AstronomerModelImpl model =
+        new AstronomerModelImpl(new ZeroMagneticDeclinationCalculator());
+    model.setClock(new FixedClock());
+    model.setLocation(new LatLong(37.4f, -122.1f));
+    model.setPhoneSensorValues(mAcceleration, mMagneticField);
+    return model;
+  }
+
+  // Does what the activity and the GL thread do each frame: reads the sensors into the model,
+  // runs the controller's commands and draws, which runs the update closures.  The phone wobbles
+  // a little and the user zooms in and out, so the matrices change every frame.
+  private void runFrames(AstronomerModelImpl model, QueueingSurfaceView view,
+                         SkyRenderer renderer, int numFrames) {
+    for (int frame = 0; frame < numFrames; frame++) {
+      float wobble = (frame % 50) * 0.02f;
+      mAcceleration.assign(wobble, 0.5f - wobble, -9.8f);
+      mMagneticField.assign(-wobble, -20, -40 + wobble);
+      model.setPhoneSensorValues(mAcceleration, mMagneticField);
+      model.setFieldOfView(40 + frame % 20);
+      view.runQueuedEvents();
+      renderer.onDrawFrame(mGL);
+    }
+  }
+
+  @Test
+  public void renderLoop_testSteadyStateFramesDoNotAllocate() {
+    Context context = RuntimeEnvironment.application;
+    Resources resources = context.getResources();
+    SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+    com.sun.management.ThreadMXBean threadBean = getThreadBean();
+    long threadId = Thread.currentThread().getId();
+    AstronomerModelImpl model = createModel();
+
+    SkyRenderer renderer = new SkyRenderer(resources);
+    renderer.onSurfaceCreated(mGL, null);
+    renderer.onSurfaceChanged(mGL, SCREEN_WIDTH, SCREEN_HEIGHT);
+    renderer.enableSkyGradient(GeocentricCoordinates.getInstance(120, 30));
+    QueueingSurfaceView view = new QueueingSurfaceView(context);
+    RendererController controller = new RendererController(renderer, view);
+    controller.addUpdateClosure(new RendererModelUpdateClosure(model, controller, preferences));
+
+    Layer[] layers = {
+        new NewStarsLayer(context.getAssets(), resources),
+        new GridLayer(resources, 24, 19),
+        new HorizonLayer(model, resources),
+    };
+    for (Layer layer : layers) {
+      layer.registerWithRenderer(controller);
+      layer.initialize();
+    }
+
+    runFrames(model, view, renderer, NUM_WARM_UP_FRAMES);
+
+    long drawCallsBefore = mGL.getDrawCalls();
+    long bytes = Long.MAX_VALUE;
+    for (int round = 0; round < NUM_ROUNDS; round++) {
+      long before = threadBean.getThreadAllocatedBytes(threadId);
+      runFrames(model, view, renderer, NUM_FRAMES);
+      bytes = Math.min(bytes, threadBean.getThreadAllocatedBytes(threadId) - before);
+    }
+
+    assertEquals(NUM_WARM_UP_FRAMES + NUM_ROUNDS * NUM_FRAMES, renderer.getNumFramesRendered());
+    // Something was drawn, or there'd be nothing to allocate.
+    assertTrue(mGL.getDrawCalls() > drawCallsBefore);
+    assertEquals("Bytes allocated in " + NUM_FRAMES + " frames", 0, bytes);
+  }
+}
@@ -0,0 +1,166 @@
+package com.google.android.stardroid.renderer;
+
+import com.google.android.stardroid.renderer.RendererObjectManager.UpdateType;
+import com.google.android.stardroid.source.PointSource;
+import com.google.android.stardroid.source.impl.PointSourceImpl;
+import com.google.android.stardroid.units.GeocentricCoordinates;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Tests for the command queueing in {@link RendererControllerBase}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RendererControllerBaseTest {
+  // Records the view changes which reach the renderer.
+  private static class RecordingRenderer extends SkyRenderer {
+    int numOrientations = 0;
+    float lastDirX;
+    int numFieldsOfView = 0;
+    float lastFieldOfView;
+    int numViewerUps = 0;
+    final GeocentricCoordinates lastViewerUp = new GeocentricCoordinates(0, 0, 0);
+    final List<EnumSet<UpdateType>> pointUpdateTypes = new ArrayList<>();
+
+    RecordingRenderer() {
+      super(null);
+    }
+
+    @Override
+    public void setViewOrientation(float dirX, float dirY, float dirZ,
+                                   float upX, float upY, float upZ) {
+      numOrientations++;
+      lastDirX = dirX;
+      super.setViewOrientation(dirX, dirY, dirZ, upX, upY, upZ);
+    }
+
+    @Override
+    public void setRadiusOfView(float degrees) {
+      numFieldsOfView++;
+      lastFieldOfView = degrees;
+      super.setRadiusOfView(degrees);
+    }
+
+    @Override
+    public void setViewerUpDirection(GeocentricCoordinates up) {
+      numViewerUps++;
+      lastViewerUp.assign(up);
+      super.setViewerUpDirection(up);
+    }
+
+    @Override
+    public PointObjectManager createPointManager(int layer) {
+      return new PointObjectManager(layer, mTextureManager) {
+        @Override
+        public void updateObjects(List<PointSource> points, EnumSet<UpdateType> updateType) {
+          pointUpdateTypes.add(EnumSet.copyOf(updateType));
+        }
+      };
+    }
+  }
+
+  // Holds on to the commands until the test runs them, like the GL thread.
+  private static class QueueingController extends RendererControllerBase {
+    final List<Runnable> queue = new ArrayList<>();
+    private final EventQueuer mQueuer = new EventQueuer() {
+      public void queueEvent(Runnable r) {
+        queue.add(r);
+      }
+    };
+
+    QueueingController(SkyRenderer renderer) {
+      super(renderer);
+    }
+
+    @Override
+    protected EventQueuer getQueuer() {
+      return mQueuer;
+    }
+
+    void runQueue() {
+      List<Runnable> commands = new ArrayList<>(queue);
+      queue.clear();
+      for (Runnable r : commands) {
+        r.run();
+      }
+    }
+  }
+
+  private RecordingRenderer renderer;
+  private QueueingController controller;
+
+  @Before
+  public void setUp() {
+    renderer = new RecordingRenderer();
+    controller = new QueueingController(renderer);
+  }
+
+  @Test
+  public void viewChanges_testCoalescedIntoOneCommand() {
+    for (int i = 1; i <= 10; i++) {
+      controller.queueSetViewOrientation(i, 1, 0, 0, 0, 1);
+      controller.queueFieldOfView(10 * i);
+    }
+    assertEquals(1, controller.queue.size());
+
+    controller.runQueue();
+    assertEquals(1, renderer.numOrientations);
+    assertEquals(10f, renderer.lastDirX);
+    assertEquals(1, renderer.numFieldsOfView);
+    assertEquals(100f, renderer.lastFieldOfView);
+    // The viewer's up direction wasn't changed, so it isn't passed on.
+    assertEquals(0, renderer.numViewerUps);
+  }
+
+  @Test
+  public void viewChanges_testQueuedAgainAfterBeingApplied() {
+    controller.queueFieldOfView(30);
+    controller.runQueue();
+    controller.queueFieldOfView(40);
+    assertEquals(1, controller.queue.size());
+    controller.runQueue();
+    assertEquals(2, renderer.numFieldsOfView);
+    assertEquals(40f, renderer.lastFieldOfView);
+  }
+
+  @Test
+  public void viewerUpDirection_testIsCopied() {
+    GeocentricCoordinates up = new GeocentricCoordinates(0, 0, 1);
+    controller.queueViewerUpDirection(up);
+    up.assign(1, 0, 0);
+    controller.runQueue();
+    assertEquals(1, renderer.numViewerUps);
+    assertEquals(0f, renderer.lastViewerUp.x);
+    assertEquals(1f, renderer.lastViewerUp.z);
+  }
+
+  @Test
+  public void queueObjects_testUpdateTypesAreCopied() {
+    RendererControllerBase.PointManager pointManager = controller.createPointManager(0);
+    List<PointSource> points = Collections.<PointSource>singletonList(
+        new PointSourceImpl(new GeocentricCoordinates(1, 0, 0), 0xffffffff, 2));
+
+    EnumSet<UpdateType> updateTypes = EnumSet.of(UpdateType.Reset);
+    pointManager.queueObjects(points, updateTypes, controller);
+    updateTypes.clear();
+    updateTypes.add(UpdateType.UpdatePositions);
+    pointManager.queueObjects(points, updateTypes, controller);
+    controller.runQueue();
+
+    assertEquals(2, renderer.pointUpdateTypes.size());
+    assertEquals(EnumSet.of(UpdateType.Reset), renderer.pointUpdateTypes.get(0));
+    assertEquals(EnumSet.of(UpdateType.UpdatePositions), renderer.pointUpdateTypes.get(1));
+  }
+}
@@ -0,0 +1,143 @@
+package com.google.android.stardroid.renderer.debug;
+
+import com.google.android.stardroid.units.Vector3;
+import com.google.android.stardroid.util.MathUtil;
+
+/**
+ * A scripted sequence of frames for the render benchmark.  For each frame it
+ * gives where the phone is pointing, as an azimuth and an altitude, the field
+ * of view, and the time, so that the benchmark can drive the model through
+ * its sensor inputs just as the phone would.
+ */
+public abstract class CameraPath {
+  private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+  private static final float GRAVITY = 9.8f;
+  // The strength of the horizontal and vertical parts of the Earth's magnetic field, in uT.
+  private static final float MAGNETIC_HORIZONTAL = 20;
+  private static final float MAGNETIC_VERTICAL = 40;
+
+  private final String mName;
+  private final int mNumFrames;
+  private final long mStartTimeMillis;
+
+  protected CameraPath(String name, int numFrames, long startTimeMillis) {
+    mName = name;
+    mNumFrames = numFrames;
+    mStartTimeMillis = startTimeMillis;
+  }
+
+  public String getName() {
+    return mName;
+  }
+
+  public int getNumFrames() {
+    return mNumFrames;
+  }
+
+  protected long getStartTimeMillis() {
+    return mStartTimeMillis;
+  }
+
+  // Degrees east of north.
+  public abstract float getAzimuth(int frame);
+
+  // Degrees above the horizon.
+  public abstract float getAltitude(int frame);
+
+  // Degrees.
+  public abstract float getFieldOfView(int frame);
+
+  public long getTimeMillis(int frame) {
+    return mStartTimeMillis;
+  }
+
+  /**
+   * Sets the accelerometer and magnetometer readings of a phone held upright,
+   * looking out of its back at the given frame's azimuth and altitude.
+   */
+  public void getSensorValues(int frame, Vector3 acceleration, Vector3 magneticField) {
+    float azimuth = getAzimuth(frame) * MathUtil.DEGREES_TO_RADIANS;
+    float altitude = getAltitude(frame) * MathUtil.DEGREES_TO_RADIANS;
+    float sinAz = MathUtil.sin(azimuth);
+    float cosAz = MathUtil.cos(azimuth);
+    float sinAlt = MathUtil.sin(altitude);
+    float cosAlt = MathUtil.cos(altitude);
+    // In the phone's coordinates, which have x to the right of the screen, y to its top and z
+    // out of it, local up is (0, cosAlt, -sinAlt) and north is
+    // (-sinAz, -sinAlt * cosAz, -cosAlt * cosAz).  The field points north and down.
+    acceleration.assign(0, GRAVITY * cosAlt, -GRAVITY * sinAlt);
+    magneticField.assign(-MAGNETIC_HORIZONTAL * sinAz,
+                         -MAGNETIC_HORIZONTAL * sinAlt * cosAz - MAGNETIC_VERTICAL * cosAlt,
+                         -MAGNETIC_HORIZONTAL * cosAlt * cosAz + MAGNETIC_VERTICAL * sinAlt);
+  }
+
+  /** Turns once around the horizon, bobbing up and down. */
+  public static CameraPath pan(int numFrames, long startTimeMillis) {
+    return new CameraPath("pan", numFrames, startTimeMillis) {
+      @Override
+      public float getAzimuth(int frame) {
+        return 360f * frame / getNumFrames();
+      }
+
+      @Override
+      public float getAltitude(int frame) {
+        return 35 + 25 * MathUtil.sin(4 * MathUtil.TWO_PI * frame / getNumFrames());
+      }
+
+      @Override
+      public float getFieldOfView(int frame) {
+        return 45;
+      }
+    };
+  }
+
+  /** Looks south, zooming all the way out and back in again. */
+  public static CameraPath zoom(int numFrames, long startTimeMillis) {
+    return new CameraPath("zoom", numFrames, startTimeMillis) {
+      @Override
+      public float getAzimuth(int frame) {
+        return 180;
+      }
+
+      @Override
+      public float getAltitude(int frame) {
+        return 40;
+      }
+
+      @Override
+      public float getFieldOfView(int frame) {
+        // From 5 degrees to 120 degrees and back, changing by the same factor each frame.
+        float phase = 1 - Math.abs(2f * frame / getNumFrames() - 1);
+        return 5 * MathUtil.pow(24, phase);
+      }
+    };
+  }
+
+  /**
+   * Holds the phone still while time runs forward at six hours a frame, so
+   * that the sky turns and the planets move.
+   */
+  public static CameraPath timeTravel(int numFrames, long startTimeMillis) {
+    return new CameraPath("timeTravel", numFrames, startTimeMillis) {
+      @Override
+      public float getAzimuth(int frame) {
+        return 150;
+      }
+
+      @Override
+      public float getAltitude(int frame) {
+        return 30;
+      }
+
+      @Override
+      public float getFieldOfView(int frame) {
+        return 60;
+      }
+
+      @Override
+      public long getTimeMillis(int frame) {
+        return getStartTimeMillis() + frame * 6 * HOUR_MILLIS;
+      }
+    };
+  }
+}
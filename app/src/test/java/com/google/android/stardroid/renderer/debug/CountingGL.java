@@ -0,0 +1,171 @@
+package com.google.android.stardroid.renderer.debug;
+
+import android.graphics.Bitmap;
+
+import com.google.android.stardroid.renderer.NoOpGL;
+
+import java.nio.Buffer;
+
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * A {@link NoOpGL} which counts the work the renderer asks the GPU to do:
+ * draw calls, the vertices they submit, the bytes uploaded into buffer
+ * objects and textures, and the fixed function state changes.  It claims to support VBOs, as most phones do, so
+ * that the renderer takes the same path as it would on a real device.
+ *
+ * Textures made from bitmaps are uploaded with GLUtils rather than through
+ * the GL object, so {@link ShadowCountingGLUtils} passes those on to
+ * {@link #countBitmapUpload}.
+ */
+public class CountingGL extends NoOpGL {
+  private long mDrawCalls = 0;
+  private long mVertices = 0;
+  private long mBytesUploaded = 0;
+  private long mStateChanges = 0;
+
+  public long getDrawCalls() {
+    return mDrawCalls;
+  }
+
+  public long getVertices() {
+    return mVertices;
+  }
+
+  public long getBytesUploaded() {
+    return mBytesUploaded;
+  }
+
+  // The calls which enable, disable or set the state that GLStateCache tracks.
+  public long getStateChanges() {
+    return mStateChanges;
+  }
+
+  public void countBitmapUpload(Bitmap bitmap) {
+    if (bitmap != null) {
+      mBytesUploaded += bitmap.getRowBytes() * bitmap.getHeight();
+    }
+  }
+
+  @Override
+  public String glGetString(int name) {
+    return name == GL10.GL_EXTENSIONS ? "GL_OES_vertex_buffer_object" : "";
+  }
+
+  @Override
+  public void glDrawArrays(int mode, int first, int count) {
+    mDrawCalls++;
+    mVertices += count;
+  }
+
+  @Override
+  public void glDrawElements(int mode, int count, int type, Buffer indices) {
+    mDrawCalls++;
+    mVertices += count;
+  }
+
+  @Override
+  public void glDrawElements(int mode, int count, int type, int offset) {
+    mDrawCalls++;
+    mVertices += count;
+  }
+
+  @Override
+  public void glBufferData(int target, int size, Buffer data, int usage) {
+    // A null buffer only allocates storage, which is filled in later with glBufferSubData.
+    if (data != null) {
+      mBytesUploaded += size;
+    }
+  }
+
+  @Override
+  public void glBufferSubData(int target, int offset, int size, Buffer data) {
+    mBytesUploaded += size;
+  }
+
+  @Override
+  public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+                           int border, int format, int type, Buffer pixels) {
+    if (pixels != null) {
+      mBytesUploaded += (long) width * height * getBytesPerPixel(format, type);
+    }
+  }
+
+  @Override
+  public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width,
+                              int height, int format, int type, Buffer pixels) {
+    mBytesUploaded += (long) width * height * getBytesPerPixel(format, type);
+  }
+
+  @Override
+  public void glEnable(int cap) {
+    mStateChanges++;
+  }
+
+  @Override
+  public void glDisable(int cap) {
+    mStateChanges++;
+  }
+
+  @Override
+  public void glEnableClientState(int array) {
+    mStateChanges++;
+  }
+
+  @Override
+  public void glDisableClientState(int array) {
+    mStateChanges++;
+  }
+
+  @Override
+  public void glBindTexture(int target, int texture) {
+    mStateChanges++;
+  }
+
+  @Override
+  public void glBlendFunc(int sfactor, int dfactor) {
+    mStateChanges++;
+  }
+
+  @Override
+  public void glAlphaFunc(int func, float ref) {
+    mStateChanges++;
+  }
+
+  @Override
+  public void glTexEnvf(int target, int pname, float param) {
+    mStateChanges++;
+  }
+
+  @Override
+  public void glTexEnvx(int target, int pname, int param) {
+    mStateChanges++;
+  }
+
+  @Override
+  public void glFrontFace(int mode) {
+    mStateChanges++;
+  }
+
+  @Override
+  public void glCullFace(int mode) {
+    mStateChanges++;
+  }
+
+  private static int getBytesPerPixel(int format, int type) {
+    if (type != GL10.GL_UNSIGNED_BYTE) {
+      // The packed 16 bit formats.
+      return 2;
+    }
+    switch (format) {
+      case GL10.GL_RGBA:
+        return 4;
+      case GL10.GL_RGB:
+        return 3;
+      case GL10.GL_LUMINANCE_ALPHA:
+        return 2;
+      default:
+        return 1;
+    }
+  }
+}
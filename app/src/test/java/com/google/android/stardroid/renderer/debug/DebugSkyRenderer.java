@@ -0,0 +1,55 @@
+// Copyright 2008 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.android.stardroid.renderer.debug;
+
+import android.content.res.Resources;
+
+import com.google.android.stardroid.renderer.SkyRenderer;
+
+// This class is for debugging the sky renderer.  It draws with a CountingGL instead of a real
+// GL context, and records how much work each frame took in a FrameStats.
+public class DebugSkyRenderer extends SkyRenderer {
+  private final CountingGL mGL;
+  private FrameStats mStats = null;
+
+  public DebugSkyRenderer(Resources res, CountingGL gl) {
+    super(res);
+    mGL = gl;
+  }
+
+  // Starts recording frames in the given stats, or stops recording if it's null.
+  public void setFrameStats(FrameStats stats) {
+    mStats = stats;
+  }
+
+  // Draws a frame with the counting GL.  updateNanos is the time spent getting the frame ready,
+  // which is recorded along with the frame.
+  public void drawFrame(long updateNanos) {
+    long drawCalls = mGL.getDrawCalls();
+    long vertices = mGL.getVertices();
+    long bytesUploaded = mGL.getBytesUploaded();
+    long stateChanges = mGL.getStateChanges();
+
+    long start = System.nanoTime();
+    onDrawFrame(mGL);
+    long drawNanos = System.nanoTime() - start;
+
+    if (mStats != null) {
+      mStats.record(updateNanos, drawNanos, mGL.getDrawCalls() - drawCalls,
+                    mGL.getVertices() - vertices, mGL.getBytesUploaded() - bytesUploaded,
+                    mGL.getStateChanges() - stateChanges);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.google.android.stardroid.renderer.debug;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The work done in each of a sequence of frames: the CPU time spent getting
+ * the frame ready and drawing it, the draw calls and vertices submitted, the
+ * bytes uploaded to the GPU, and the state changes made.
+ */
+public class FrameStats {
+  private final long[] mUpdateNanos;
+  private final long[] mDrawNanos;
+  private final long[] mDrawCalls;
+  private final long[] mVertices;
+  private final long[] mBytesUploaded;
+  private final long[] mStateChanges;
+  private int mNumFrames = 0;
+
+  public FrameStats(int maxFrames) {
+    mUpdateNanos = new long[maxFrames];
+    mDrawNanos = new long[maxFrames];
+    mDrawCalls = new long[maxFrames];
+    mVertices = new long[maxFrames];
+    mBytesUploaded = new long[maxFrames];
+    mStateChanges = new long[maxFrames];
+  }
+
+  public void record(long updateNanos, long drawNanos, long drawCalls, long vertices,
+                     long bytesUploaded, long stateChanges) {
+    mUpdateNanos[mNumFrames] = updateNanos;
+    mDrawNanos[mNumFrames] = drawNanos;
+    mDrawCalls[mNumFrames] = drawCalls;
+    mVertices[mNumFrames] = vertices;
+    mBytesUploaded[mNumFrames] = bytesUploaded;
+    mStateChanges[mNumFrames] = stateChanges;
+    mNumFrames++;
+  }
+
+  public int getNumFrames() {
+    return mNumFrames;
+  }
+
+  public long getTotalDrawCalls() {
+    return sum(mDrawCalls);
+  }
+
+  public long getTotalVertices() {
+    return sum(mVertices);
+  }
+
+  public long getTotalBytesUploaded() {
+    return sum(mBytesUploaded);
+  }
+
+  public long getTotalStateChanges() {
+    return sum(mStateChanges);
+  }
+
+  /** Returns the CPU time of the frame at the given fraction of the sorted frames, in ms. */
+  public double getCpuMillisPercentile(double fraction) {
+    if (mNumFrames == 0) {
+      return 0;
+    }
+    long[] cpuNanos = new long[mNumFrames];
+    for (int i = 0; i < mNumFrames; i++) {
+      cpuNanos[i] = mUpdateNanos[i] + mDrawNanos[i];
+    }
+    Arrays.sort(cpuNanos);
+    int index = (int) Math.ceil(fraction * mNumFrames) - 1;
+    return cpuNanos[Math.max(0, Math.min(index, mNumFrames - 1))] / 1e6;
+  }
+
+  /**
+   * Returns a one line summary, so that runs of the same path can be compared
+   * between builds.
+   */
+  public String format(String name) {
+    int frames = Math.max(1, mNumFrames);
+    return String.format(Locale.US,
+        "%-12s frames=%d cpu mean=%.3fms (update=%.3fms draw=%.3fms) p50=%.3fms p90=%.3fms "
+        + "p99=%.3fms max=%.3fms drawCalls/frame=%.1f vertices/frame=%.0f "
+        + "uploaded=%.1fKB (%.2fKB/frame) stateChanges/frame=%.1f",
+        name, mNumFrames,
+        (sum(mUpdateNanos) + sum(mDrawNanos)) / 1e6 / frames,
+        sum(mUpdateNanos) / 1e6 / frames,
+        sum(mDrawNanos) / 1e6 / frames,
+        getCpuMillisPercentile(0.5),
+        getCpuMillisPercentile(0.9),
+        getCpuMillisPercentile(0.99),
+        getCpuMillisPercentile(1.0),
+        (double) getTotalDrawCalls() / frames,
+        (double) getTotalVertices() / frames,
+        getTotalBytesUploaded() / 1024.0,
+        getTotalBytesUploaded() / 1024.0 / frames,
+        (double) getTotalStateChanges() / frames);
+  }
+
+  private long sum(long[] values) {
+    long total = 0;
+    for (int i = 0; i < mNumFrames; i++) {
+      total += values[i];
+    }
+    return total;
+  }
+}
@@ -0,0 +1,357 @@
+package com.google.android.stardroid.renderer.debug;
+
+import android.content.SharedPreferences;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.graphics.Color;
+import android.preference.PreferenceManager;
+
+import com.google.android.stardroid.BuildConfig;
+import com.google.android.stardroid.control.AstronomerModel.Pointing;
+import com.google.android.stardroid.control.AstronomerModelImpl;
+import com.google.android.stardroid.control.Clock;
+import com.google.android.stardroid.control.ZeroMagneticDeclinationCalculator;
+import com.google.android.stardroid.provider.ephemeris.Planet;
+import com.google.android.stardroid.provider.ephemeris.PlanetSource;
+import com.google.android.stardroid.renderer.RendererControllerBase;
+import com.google.android.stardroid.renderer.RendererObjectManager.UpdateType;
+import com.google.android.stardroid.source.AbstractAstronomicalSource;
+import com.google.android.stardroid.source.AstronomicalSource;
+import com.google.android.stardroid.source.ImageSource;
+import com.google.android.stardroid.source.LineSource;
+import com.google.android.stardroid.source.PointSource;
+import com.google.android.stardroid.source.Sources;
+import com.google.android.stardroid.source.TextSource;
+import com.google.android.stardroid.source.columnar.ColumnarAstronomicalSource;
+import com.google.android.stardroid.source.columnar.ColumnarCatalog;
+import com.google.android.stardroid.source.impl.PointSourceImpl;
+import com.google.android.stardroid.units.GeocentricCoordinates;
+import com.google.android.stardroid.units.LatLong;
+import com.google.android.stardroid.units.Vector3;
+import com.google.android.stardroid.util.MathUtil;
+import com.google.android.stardroid.util.StarAttributeCalculator;
+import com.google.android.stardroid.util.metrics.Metrics;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * A benchmark of the CPU cost of the render pipeline, which doesn't need a
+ * phone or a GPU.  The sources from the star, constellation, Messier and
+ * planet layers are loaded into a {@link DebugSkyRenderer}, which then replays
+ * scripted {@link CameraPath}s against a {@link CountingGL}.  For each path
+ * it prints the CPU time per frame, the vertices submitted, the draw calls
+ * made and the bytes uploaded, followed by the renderer's metrics.
+ *
+ * Each path is run once to warm up the JIT and to upload the static
+ * geometry, and then again to measure it.  The numbers are only meaningful
+ * relative to other runs on the same machine, so compare them before and
+ * after a change.
+ *
+ * It takes a while, so it only runs when asked for, with
+ * {@code ./gradlew test -Pbenchmarks}.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, shadows = {ShadowCountingGLUtils.class})
+public class RenderBenchmark {
+  private static final int NUM_FRAMES = 600;
+  private static final int SCREEN_WIDTH = 800;
+  private static final int SCREEN_HEIGHT = 480;
+  private static final LatLong LOCATION = new LatLong(37.4f, -122.1f);
+  private static final long START_TIME_MILLIS = 1500000000000L;
+
+  // The same depths as the layers which own these sources.
+  private static final int CONSTELLATIONS_DEPTH = 10;
+  private static final int MESSIER_DEPTH = 20;
+  private static final int STARS_DEPTH = 30;
+  private static final int PLANETS_DEPTH = 60;
+
+  // Roughly how many stars there are down to magnitude 9.5, which is about twenty times as many
+  // as we ship.
+  private static final int NUM_DEEP_CATALOG_STARS = 120000;
+
+  // Runs the renderer commands straight away, on the benchmark's thread, which stands in for
+  // the GL thread.
+  private static class ImmediateController extends RendererControllerBase {
+    private final EventQueuer mQueuer = new EventQueuer() {
+      public void queueEvent(Runnable r) {
+        r.run();
+      }
+    };
+
+    ImmediateController(DebugSkyRenderer renderer) {
+      super(renderer);
+    }
+
+    @Override
+    protected EventQueuer getQueuer() {
+      return mQueuer;
+    }
+
+    @Override
+    public String toString() {
+      return "ImmediateController";
+    }
+  }
+
+  private static class BenchmarkClock implements Clock {
+    long timeMillis = START_TIME_MILLIS;
+
+    @Override
+    public long getTimeInMillisSinceEpoch() {
+      return timeMillis;
+    }
+  }
+
+  /**
+   * Hands a layer's sources to the renderer in the same way that
+   * AbstractSourceLayer does, but through the immediate controller.
+   */
+  private static class BenchmarkLayer {
+    private final List<AstronomicalSource> sources;
+    private final ArrayList<TextSource> textSources = new ArrayList<>();
+    private final ArrayList<PointSource> pointSources = new ArrayList<>();
+    private final ArrayList<LineSource> lineSources = new ArrayList<>();
+    private final ArrayList<ImageSource> imageSources = new ArrayList<>();
+    private final EnumSet<UpdateType> updateTypes = EnumSet.noneOf(UpdateType.class);
+    private final RendererControllerBase controller;
+    private RendererControllerBase.LabelManager labelManager = null;
+    private RendererControllerBase.PointManager pointManager = null;
+    private RendererControllerBase.LineManager lineManager = null;
+    private RendererControllerBase.ImageManager imageManager = null;
+
+    BenchmarkLayer(int depth, List<AstronomicalSource> sources,
+                   RendererControllerBase controller) {
+      this.sources = sources;
+      this.controller = controller;
+      for (AstronomicalSource source : sources) {
+        Sources renderables = source.initialize();
+        textSources.addAll(renderables.getLabels());
+        pointSources.addAll(renderables.getPoints());
+        lineSources.addAll(renderables.getLines());
+        imageSources.addAll(renderables.getImages());
+      }
+      if (!textSources.isEmpty()) {
+        labelManager = controller.createLabelManager(depth);
+      }
+      if (!pointSources.isEmpty()) {
+        pointManager = controller.createPointManager(depth);
+      }
+      if (!lineSources.isEmpty()) {
+        lineManager = controller.createLineManager(depth);
+      }
+      if (!imageSources.isEmpty()) {
+        imageManager = controller.createImageManager(depth);
+      }
+      redraw(EnumSet.of(UpdateType.Reset));
+    }
+
+    // Like AbstractSourceLayer.refreshSources(), which runs every frame.
+    void refresh() {
+      updateTypes.clear();
+      for (int i = 0; i < sources.size(); i++) {
+        sources.get(i).update(updateTypes);
+      }
+      if (!updateTypes.isEmpty()) {
+        redraw(updateTypes);
+      }
+    }
+
+    private void redraw(EnumSet<UpdateType> updateTypes) {
+      if (labelManager != null) {
+        labelManager.queueObjects(textSources, updateTypes, controller);
+      }
+      if (pointManager != null) {
+        pointManager.queueObjects(pointSources, updateTypes, controller);
+      }
+      if (lineManager != null) {
+        lineManager.queueObjects(lineSources, updateTypes, controller);
+      }
+      if (imageManager != null) {
+        imageManager.queueObjects(imageSources, updateTypes, controller);
+      }
+    }
+  }
+
+  private final CountingGL mGL = new CountingGL();
+  private final BenchmarkClock mClock = new BenchmarkClock();
+  private final Vector3 mAcceleration = new Vector3(0, 0, 0);
+  private final Vector3 mMagneticField = new Vector3(0, 0, 0);
+  private AstronomerModelImpl mModel;
+  private DebugSkyRenderer mRenderer;
+  private ImmediateController mController;
+  private final List<BenchmarkLayer> mLayers = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    // build.gradle sets this when the benchmarks are asked for.
+    assumeTrue(Boolean.getBoolean("stardroid.benchmarks"));
+    ShadowCountingGLUtils.setGL(mGL);
+    Resources resources = RuntimeEnvironment.application.getResources();
+    AssetManager assets = RuntimeEnvironment.application.getAssets();
+    SharedPreferences preferences =
+        PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application);
+
+    mModel = new AstronomerModelImpl(new ZeroMagneticDeclinationCalculator());
+    mModel.setClock(mClock);
+    mModel.setLocation(LOCATION);
+
+    mRenderer = new DebugSkyRenderer(resources, mGL);
+    mRenderer.onSurfaceCreated(mGL, null);
+    mRenderer.onSurfaceChanged(mGL, SCREEN_WIDTH, SCREEN_HEIGHT);
+    mController = new ImmediateController(mRenderer);
+
+    mLayers.add(new BenchmarkLayer(
+        CONSTELLATIONS_DEPTH, readSources(assets, resources, "constellations.columns"),
+        mController));
+    mLayers.add(new BenchmarkLayer(
+        MESSIER_DEPTH, readSources(assets, resources, "messier.columns"), mController));
+    mLayers.add(new BenchmarkLayer(
+        STARS_DEPTH, readSources(assets, resources, "stars.columns"), mController));
+    List<AstronomicalSource> planets = new ArrayList<>();
+    for (Planet planet : Planet.values()) {
+      planets.add(new PlanetSource(planet, resources, mModel, preferences));
+    }
+    mLayers.add(new BenchmarkLayer(PLANETS_DEPTH, planets, mController));
+
+    Metrics.reset();
+    Metrics.setEnabled(true);
+  }
+
+  @After
+  public void tearDown() {
+    Metrics.setEnabled(false);
+    Metrics.reset();
+    ShadowCountingGLUtils.setGL(null);
+  }
+
+  // Reads a layer's columnar catalog, as AbstractFileBasedLayer does when it can't map it.
+  private static List<AstronomicalSource> readSources(
+      AssetManager assets, Resources resources, String fileName) throws IOException {
+    InputStream in = assets.open(fileName, AssetManager.ACCESS_STREAMING);
+    try {
+      return ColumnarAstronomicalSource.createSources(
+          new ColumnarCatalog(ByteBuffer.wrap(ByteStreams.toByteArray(in))), resources);
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  // Makes a catalog of stars down to StarAttributeCalculator.MAX_MAGNITUDE, scattered at random
+  // over the sky.  As in the real sky, each magnitude has about three times as many stars as the
+  // one before.
+  private static List<AstronomicalSource> createDeepCatalog() {
+    Random random = new Random(1);
+    final List<PointSource> points = new ArrayList<>(NUM_DEEP_CATALOG_STARS);
+    for (int i = 0; i < NUM_DEEP_CATALOG_STARS; i++) {
+      float z = 2 * random.nextFloat() - 1;
+      float angle = 2 * MathUtil.PI * random.nextFloat();
+      float r = MathUtil.sqrt(1 - z * z);
+      float magnitude = Math.max(-1, StarAttributeCalculator.MAX_MAGNITUDE
+          + 2 * (float) Math.log10(1 - random.nextFloat()));
+      points.add(new PointSourceImpl(
+          new GeocentricCoordinates(r * MathUtil.cos(angle), r * MathUtil.sin(angle), z),
+          StarAttributeCalculator.getColor(magnitude, Color.WHITE),
+          StarAttributeCalculator.getSize(magnitude), PointSource.Shape.CIRCLE, magnitude));
+    }
+    AstronomicalSource catalog = new AbstractAstronomicalSource() {
+      @Override
+      public List<? extends PointSource> getPoints() {
+        return points;
+      }
+    };
+    return Collections.singletonList(catalog);
+  }
+
+  // Does what the activity, the layers' update closures and the renderer controller do to draw
+  // a frame of the path.
+  private void runFrame(CameraPath path, int frame) {
+    long start = System.nanoTime();
+    mClock.timeMillis = path.getTimeMillis(frame);
+    path.getSensorValues(frame, mAcceleration, mMagneticField);
+    mModel.setPhoneSensorValues(mAcceleration, mMagneticField);
+    mModel.setFieldOfView(path.getFieldOfView(frame));
+    for (int i = 0; i < mLayers.size(); i++) {
+      mLayers.get(i).refresh();
+    }
+
+    Pointing pointing = mModel.getPointing();
+    mController.queueSetViewOrientation(
+        pointing.getLineOfSightX(), pointing.getLineOfSightY(), pointing.getLineOfSightZ(),
+        pointing.getPerpendicularX(), pointing.getPerpendicularY(),
+        pointing.getPerpendicularZ());
+    Vector3 up = mModel.getPhoneUpDirection();
+    mController.queueTextAngle(MathUtil.atan2(up.x, up.y));
+    mController.queueViewerUpDirection(mModel.getZenith());
+    mController.queueFieldOfView(mModel.getFieldOfView());
+    mRenderer.drawFrame(System.nanoTime() - start);
+  }
+
+  private void runPath(CameraPath path) {
+    FrameStats load = new FrameStats(1);
+    mRenderer.setFrameStats(load);
+    runFrame(path, 0);
+    System.out.println(load.format("load"));
+
+    mRenderer.setFrameStats(null);
+    for (int frame = 1; frame < path.getNumFrames(); frame++) {
+      runFrame(path, frame);
+    }
+    Metrics.reset();
+
+    FrameStats stats = new FrameStats(path.getNumFrames());
+    mRenderer.setFrameStats(stats);
+    for (int frame = 0; frame < path.getNumFrames(); frame++) {
+      runFrame(path, frame);
+    }
+    mRenderer.setFrameStats(null);
+
+    System.out.println(stats.format(path.getName()));
+    System.out.print(Metrics.getSnapshot());
+    assertEquals(path.getNumFrames(), stats.getNumFrames());
+    assertTrue(stats.getTotalDrawCalls() > 0);
+    assertTrue(stats.getTotalVertices() > 0);
+  }
+
+  @Test
+  public void benchmark_pan() {
+    runPath(CameraPath.pan(NUM_FRAMES, START_TIME_MILLIS));
+  }
+
+  @Test
+  public void benchmark_zoom() {
+    runPath(CameraPath.zoom(NUM_FRAMES, START_TIME_MILLIS));
+  }
+
+  @Test
+  public void benchmark_timeTravel() {
+    runPath(CameraPath.timeTravel(NUM_FRAMES, START_TIME_MILLIS));
+  }
+
+  // Zooms in on a catalog far fainter than the one we ship, on top of the usual layers.
+  @Test
+  public void benchmark_deepCatalog() {
+    mLayers.add(new BenchmarkLayer(STARS_DEPTH, createDeepCatalog(), mController));
+    runPath(CameraPath.zoom(NUM_FRAMES, START_TIME_MILLIS));
+  }
+}
@@ -0,0 +1,28 @@
+package com.google.android.stardroid.renderer.debug;
+
+import android.graphics.Bitmap;
+import android.opengl.GLUtils;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+
+/**
+ * Counts the bitmaps uploaded as textures with GLUtils in the {@link CountingGL}
+ * being used, since GLUtils goes straight to the GL context rather than through
+ * the GL object.
+ */
+@Implements(GLUtils.class)
+public class ShadowCountingGLUtils {
+  private static CountingGL sGL = null;
+
+  public static void setGL(CountingGL gl) {
+    sGL = gl;
+  }
+
+  @Implementation
+  public static void texImage2D(int target, int level, Bitmap bitmap, int border) {
+    if (sGL != null) {
+      sGL.countBitmapUpload(bitmap);
+    }
+  }
+}
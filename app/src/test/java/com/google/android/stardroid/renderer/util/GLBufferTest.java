@@ -0,0 +1,130 @@
+package com.google.android.stardroid.renderer.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.microedition.khronos.opengles.GL11;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+
+/**
+ * Tests for the {@link GLBuffer} upload strategies.
+ */
+public class GLBufferTest {
+  // Records the buffer calls made on a fake GL, as strings like "glBufferSubData 8 12".
+  private final List<String> mCalls = new ArrayList<String>();
+  private int mNextBufferId = 1;
+  private GL11 mGL;
+  private boolean mCouldUseVBO;
+
+  @Before
+  public void setUp() {
+    mCouldUseVBO = GLBuffer.canUseVBO();
+    GLBuffer.setCanUseVBO(true);
+    mGL = (GL11) Proxy.newProxyInstance(
+        GL11.class.getClassLoader(), new Class<?>[] {GL11.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("glGenBuffers")) {
+              ((int[]) args[1])[(Integer) args[2]] = mNextBufferId++;
+            } else if (name.equals("glBindBuffer")) {
+              mCalls.add(name + " " + args[1]);
+            } else if (name.equals("glBufferData")) {
+              mCalls.add(name + " " + args[1]);
+            } else if (name.equals("glBufferSubData")) {
+              mCalls.add(name + " " + args[1] + " " + args[2]);
+            }
+            return null;
+          }
+        });
+  }
+
+  @After
+  public void tearDown() {
+    GLBuffer.setCanUseVBO(mCouldUseVBO);
+  }
+
+  private static IntBuffer newBuffer(int size) {
+    return ByteBuffer.allocateDirect(4 * size).order(ByteOrder.nativeOrder()).asIntBuffer();
+  }
+
+  // Returns the upload calls made since the last call, ignoring the binds.
+  private List<String> takeUploads() {
+    List<String> uploads = new ArrayList<String>();
+    for (String call : mCalls) {
+      if (!call.startsWith("glBindBuffer")) {
+        uploads.add(call);
+      }
+    }
+    mCalls.clear();
+    return uploads;
+  }
+
+  @Test
+  public void glBuffer_testStaticUploadsOnlyDirtyRange() {
+    GLBuffer glBuffer = new GLBuffer(GL11.GL_ARRAY_BUFFER, 4);
+    IntBuffer buffer = newBuffer(100);
+    glBuffer.bind(mGL, buffer, 400);
+    assertEquals("[glBufferData 400]", takeUploads().toString());
+
+    // Nothing changed, so nothing to upload.
+    glBuffer.bind(mGL, buffer, 400);
+    assertEquals("[]", takeUploads().toString());
+
+    // Separate changes are merged into one range.
+    glBuffer.markDirty(10, 3);
+    glBuffer.markDirty(20, 2);
+    glBuffer.bind(mGL, buffer, 400);
+    assertEquals("[glBufferSubData 40 48]", takeUploads().toString());
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  public void glBuffer_testDynamicReplacesStorageForLargeChanges() {
+    GLBuffer glBuffer = new GLBuffer(GL11.GL_ARRAY_BUFFER, 4);
+    glBuffer.setUsage(GLBuffer.Usage.DYNAMIC);
+    IntBuffer buffer = newBuffer(100);
+    glBuffer.bind(mGL, buffer, 400);
+    takeUploads();
+
+    glBuffer.markDirty(0, 10);
+    glBuffer.bind(mGL, buffer, 400);
+    assertEquals("[glBufferSubData 0 40]", takeUploads().toString());
+
+    glBuffer.markDirty(0, 80);
+    glBuffer.bind(mGL, buffer, 400);
+    assertEquals("[glBufferData 400]", takeUploads().toString());
+  }
+
+  @Test
+  public void glBuffer_testStreamCyclesThroughBufferObjects() {
+    GLBuffer glBuffer = new GLBuffer(GL11.GL_ARRAY_BUFFER, 4);
+    glBuffer.setUsage(GLBuffer.Usage.STREAM);
+    IntBuffer buffer = newBuffer(100);
+    List<String> boundBuffers = new ArrayList<String>();
+    for (int i = 0; i < 4; i++) {
+      glBuffer.markDirty(0, 1);
+      glBuffer.bind(mGL, buffer, 400);
+      // The last bind is the one the buffer is drawn from.
+      boundBuffers.add(mCalls.get(mCalls.size() - 1));
+      // Even a small change is uploaded in full, since the next buffer object is out of date.
+      assertEquals("[glBufferData 400]", takeUploads().toString());
+    }
+    assertEquals(4, boundBuffers.size());
+    assertEquals(boundBuffers.get(0), boundBuffers.get(3));
+    assertFalse(boundBuffers.get(0).equals(boundBuffers.get(1)));
+    assertFalse(boundBuffers.get(1).equals(boundBuffers.get(2)));
+  }
+}
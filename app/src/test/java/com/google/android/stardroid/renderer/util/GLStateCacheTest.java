@@ -0,0 +1,177 @@
+package com.google.android.stardroid.renderer.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for {@link GLStateCache}.
+ */
+public class GLStateCacheTest {
+  // Records the calls made on a fake GL, as strings like "glEnable 3553".
+  private final List<String> mCalls = new ArrayList<String>();
+  private GL10 mGL;
+  private GLStateCache mState;
+
+  private static class FakeTexture implements TextureReference {
+    // Changes when the texture is evicted and loaded again.
+    private int mId;
+
+    FakeTexture(int id) {
+      mId = id;
+    }
+
+    @Override
+    public void bind(GL10 gl) {
+      gl.glBindTexture(GL10.GL_TEXTURE_2D, mId);
+    }
+
+    @Override
+    public void delete(GL10 gl) {}
+
+    @Override
+    public int getID() {
+      return mId;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    mGL = (GL10) Proxy.newProxyInstance(
+        GL10.class.getClassLoader(), new Class<?>[] {GL10.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            StringBuilder call = new StringBuilder(method.getName());
+            // The target of glBindTexture and glTexEnvx is always the same, so leave it out.
+            int first = args.length > 2 || method.getName().equals("glBindTexture") ? 1 : 0;
+            for (int i = first; i < args.length; i++) {
+              call.append(' ').append(args[i]);
+            }
+            mCalls.add(call.toString());
+            return null;
+          }
+        });
+    mState = new GLStateCache();
+    mState.apply(mGL);
+    mCalls.clear();
+    mState.resetCounts();
+  }
+
+  // Returns the calls made since the last call.
+  private List<String> takeCalls() {
+    List<String> calls = new ArrayList<String>(mCalls);
+    mCalls.clear();
+    return calls;
+  }
+
+  @Test
+  public void apply_testStateIsOnlySetWhenDrawing() {
+    mState.enable(GL10.GL_BLEND);
+    mState.enableClientState(GL10.GL_VERTEX_ARRAY);
+    assertEquals(0, takeCalls().size());
+
+    mState.apply(mGL);
+    assertEquals(Arrays.asList("glEnable " + GL10.GL_BLEND,
+                               "glEnableClientState " + GL10.GL_VERTEX_ARRAY),
+                 takeCalls());
+  }
+
+  @Test
+  public void apply_testDisablingThenEnablingAgainDoesNothing() {
+    // One manager draws with texturing and then turns it off...
+    mState.enable(GL10.GL_TEXTURE_2D);
+    mState.apply(mGL);
+    mState.disable(GL10.GL_TEXTURE_2D);
+    takeCalls();
+    // ...and the next turns it on again.
+    mState.enable(GL10.GL_TEXTURE_2D);
+    mState.apply(mGL);
+    assertEquals(0, takeCalls().size());
+
+    assertEquals(3, mState.getNumRequested());
+    assertEquals(1, mState.getNumIssued());
+    assertEquals(2, mState.getNumAvoided());
+  }
+
+  @Test
+  public void apply_testDisablesWhatTheNextDrawDoesntUse() {
+    mState.enable(GL10.GL_ALPHA_TEST);
+    mState.apply(mGL);
+    mState.disable(GL10.GL_ALPHA_TEST);
+    takeCalls();
+
+    mState.apply(mGL);
+    assertEquals(Arrays.asList("glDisable " + GL10.GL_ALPHA_TEST), takeCalls());
+  }
+
+  @Test
+  public void values_testOnlySetWhenChanged() {
+    TextureReference stars = new FakeTexture(1);
+    TextureReference lines = new FakeTexture(2);
+    mState.bindTexture(mGL, stars);
+    mState.bindTexture(mGL, stars);
+    mState.blendFunc(mGL, GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+    mState.blendFunc(mGL, GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+    mState.alphaFunc(mGL, GL10.GL_GREATER, 0.5f);
+    mState.alphaFunc(mGL, GL10.GL_GREATER, 0.5f);
+    mState.texEnvMode(mGL, GL10.GL_MODULATE);
+    mState.texEnvMode(mGL, GL10.GL_MODULATE);
+    mState.bindTexture(mGL, lines);
+
+    assertEquals(Arrays.asList("glBindTexture 1",
+                               "glBlendFunc " + GL10.GL_SRC_ALPHA + " "
+                                   + GL10.GL_ONE_MINUS_SRC_ALPHA,
+                               "glAlphaFunc " + GL10.GL_GREATER + " 0.5",
+                               "glTexEnvx " + GL10.GL_TEXTURE_ENV_MODE + " " + GL10.GL_MODULATE,
+                               "glBindTexture 2"),
+                 takeCalls());
+    assertEquals(4, mState.getNumAvoided());
+  }
+
+  @Test
+  public void invalidate_testStateIsSetAgain() {
+    TextureReference stars = new FakeTexture(1);
+    mState.enable(GL10.GL_CULL_FACE);
+    mState.bindTexture(mGL, stars);
+    mState.apply(mGL);
+    takeCalls();
+
+    // Something else changed the context, such as a texture upload.
+    mState.invalidate();
+    mState.bindTexture(mGL, stars);
+    mState.apply(mGL);
+    List<String> calls = takeCalls();
+    assertEquals("glBindTexture 1", calls.get(0));
+    assertTrue(calls.contains("glEnable " + GL10.GL_CULL_FACE));
+    assertTrue(calls.contains("glDisable " + GL10.GL_BLEND));
+  }
+
+  @Test
+  public void invalidateTexture_testTextureIsBoundAgain() {
+    TextureReference stars = new FakeTexture(1);
+    mState.bindTexture(mGL, stars);
+    mState.invalidateTexture();
+    mState.bindTexture(mGL, stars);
+    assertEquals(Arrays.asList("glBindTexture 1", "glBindTexture 1"), takeCalls());
+  }
+
+  @Test
+  public void bindTexture_testEvictedTextureIsBoundAgain() {
+    FakeTexture stars = new FakeTexture(1);
+    mState.bindTexture(mGL, stars);
+    stars.mId = 5;
+    mState.bindTexture(mGL, stars);
+    assertEquals(Arrays.asList("glBindTexture 1", "glBindTexture 5"), takeCalls());
+  }
+}
@@ -0,0 +1,198 @@
+package com.google.android.stardroid.renderer.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests for the {@link GeometryCache}, and the buffers' snapshots.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class GeometryCacheTest {
+  private static final int APP_VERSION = 1480;
+  private static final long CHECKSUM = 0x12345678L;
+
+  // Writes the snapshots straight away, so that they can be read back.
+  private final Executor directExecutor = new Executor() {
+    public void execute(Runnable runnable) {
+      runnable.run();
+    }
+  };
+
+  private File directory;
+  private boolean couldUseVBO;
+
+  @Before
+  public void setUp() throws IOException {
+    couldUseVBO = GLBuffer.canUseVBO();
+    directory = File.createTempFile("geometry", "");
+    directory.delete();
+  }
+
+  @After
+  public void tearDown() {
+    GLBuffer.setCanUseVBO(couldUseVBO);
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  private GeometryCache createCache(int appVersion) {
+    return new GeometryCache(directory, appVersion, directExecutor);
+  }
+
+  private static ByteBuffer createSnapshot(int... values) {
+    ByteBuffer snapshot = GeometryCache.allocate(4 * values.length);
+    for (int value : values) {
+      snapshot.putInt(value);
+    }
+    snapshot.flip();
+    return snapshot;
+  }
+
+  @Test
+  public void geometryCache_testRoundTrip() {
+    GeometryCache cache = createCache(APP_VERSION);
+    assertNull(cache.read("NewStarsLayer.PointSource.quads", CHECKSUM));
+    cache.write("NewStarsLayer.PointSource.quads", CHECKSUM, createSnapshot(3, 1, 4, 1, 5));
+
+    ByteBuffer snapshot = cache.read("NewStarsLayer.PointSource.quads", CHECKSUM);
+    assertNotNull(snapshot);
+    assertEquals(20, snapshot.remaining());
+    assertEquals(createSnapshot(3, 1, 4, 1, 5), snapshot);
+    assertNull(cache.read("NewStarsLayer.PointSource.sprites", CHECKSUM));
+  }
+
+  @Test
+  public void geometryCache_testIgnoresStaleSnapshots() {
+    createCache(APP_VERSION).write("GridLayer.LineSource.strips", CHECKSUM, createSnapshot(1, 2));
+    assertNull(createCache(APP_VERSION).read("GridLayer.LineSource.strips", CHECKSUM + 1));
+    assertNull(createCache(APP_VERSION + 1).read("GridLayer.LineSource.strips", CHECKSUM));
+
+    // Writing it again replaces the stale one.
+    createCache(APP_VERSION + 1).write(
+        "GridLayer.LineSource.strips", CHECKSUM, createSnapshot(1, 2));
+    assertNotNull(createCache(APP_VERSION + 1).read("GridLayer.LineSource.strips", CHECKSUM));
+  }
+
+  @Test
+  public void geometryCache_testIgnoresTruncatedSnapshots() throws IOException {
+    GeometryCache cache = createCache(APP_VERSION);
+    cache.write("EclipticLayer.LineSource.strips", CHECKSUM, createSnapshot(1, 2, 3));
+    RandomAccessFile file =
+        new RandomAccessFile(new File(directory, "EclipticLayer.LineSource.strips.geometry"), "rw");
+    try {
+      file.setLength(file.length() - 4);
+    } finally {
+      file.close();
+    }
+    assertNull(cache.read("EclipticLayer.LineSource.strips", CHECKSUM));
+  }
+
+  // Returns a GL which records the contents of each buffer uploaded to it.
+  private static GL11 createRecordingGL(final List<String> uploads) {
+    GLBuffer.setCanUseVBO(true);
+    return (GL11) Proxy.newProxyInstance(
+        GL11.class.getClassLoader(), new Class<?>[] {GL11.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("glBufferData")) {
+              uploads.add(args[1] + " " + toString((Buffer) args[2]));
+            }
+            return null;
+          }
+
+          private String toString(Buffer buffer) {
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < buffer.capacity(); i++) {
+              values.append(buffer instanceof IntBuffer
+                  ? ((IntBuffer) buffer).get(i) : ((ShortBuffer) buffer).get(i)).append(',');
+            }
+            return values.toString();
+          }
+        });
+  }
+
+  // Uploads the buffers, and returns what was uploaded.
+  private static List<String> upload(VertexBuffer vertices, IndexBuffer indices,
+                                     ColorBuffer colors) {
+    List<String> uploads = new ArrayList<String>();
+    GL11 gl = createRecordingGL(uploads);
+    vertices.set(gl);
+    indices.draw(gl, GL10.GL_TRIANGLES);
+    colors.set(gl);
+    return uploads;
+  }
+
+  @Test
+  public void geometryCache_testBuffersUploadTheSameAfterRestoring() {
+    VertexBuffer vertices = new VertexBuffer(3, true);
+    vertices.addPoint(1, 0, 0);
+    vertices.addPoint(0, 1, 0);
+    vertices.addPoint(0, 0, 1);
+    // An odd number of indices, so that the colors after them need realigning.
+    IndexBuffer indices = new IndexBuffer(3, true);
+    indices.addIndex((short) 0);
+    indices.addIndex((short) 1);
+    indices.addIndex((short) 2);
+    ColorBuffer colors = new ColorBuffer(true);
+    colors.reset(3);
+    colors.addColor(0xff0000ff);
+    colors.addColor(0xff00ff00);
+    colors.addColor(0xffff0000);
+
+    ByteBuffer snapshot = GeometryCache.allocate(vertices.getSizeInBytes()
+        + indices.getSizeInBytes() + colors.getSizeInBytes());
+    vertices.writeTo(snapshot);
+    indices.writeTo(snapshot);
+    colors.writeTo(snapshot);
+    assertEquals(0, snapshot.remaining());
+    snapshot.flip();
+    GeometryCache cache = createCache(APP_VERSION);
+    cache.write("Test", CHECKSUM, snapshot);
+
+    ByteBuffer restored = cache.read("Test", CHECKSUM);
+    VertexBuffer restoredVertices = new VertexBuffer(true);
+    IndexBuffer restoredIndices = new IndexBuffer(true);
+    ColorBuffer restoredColors = new ColorBuffer(true);
+    restoredVertices.readFrom(restored, 3);
+    restoredIndices.readFrom(restored, 3);
+    restoredColors.readFrom(restored, 3);
+    assertEquals(0, restored.remaining());
+    assertEquals(3, restoredVertices.size());
+    assertEquals(3, restoredIndices.size());
+
+    List<String> uploads = upload(vertices, indices, colors);
+    assertEquals(3, uploads.size());
+    assertEquals(uploads, upload(restoredVertices, restoredIndices, restoredColors));
+  }
+}
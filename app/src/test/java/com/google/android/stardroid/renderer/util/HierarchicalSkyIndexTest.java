@@ -0,0 +1,85 @@
+package com.google.android.stardroid.renderer.util;
+
+import com.google.android.stardroid.units.GeocentricCoordinates;
+import com.google.android.stardroid.util.MathUtil;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the {@link HierarchicalSkyIndex}.
+ */
+public class HierarchicalSkyIndexTest {
+  private static final int NUM_RANDOM_POINTS = 2000;
+
+  @Test
+  public void hierarchicalSkyIndex_testNumCells() {
+    assertEquals(6, HierarchicalSkyIndex.getNumCells(0));
+    assertEquals(24, HierarchicalSkyIndex.getNumCells(1));
+    assertEquals(6 * 4096, HierarchicalSkyIndex.getNumCells(HierarchicalSkyIndex.MAX_DEPTH));
+  }
+
+  @Test
+  public void hierarchicalSkyIndex_testCellCentersMapToTheirCells() {
+    for (int depth = 0; depth <= 4; depth++) {
+      float[] centers = HierarchicalSkyIndex.getCellCenters(depth);
+      for (int cell = 0; cell < HierarchicalSkyIndex.getNumCells(depth); cell++) {
+        assertEquals(cell, HierarchicalSkyIndex.getCell(
+            depth, centers[3 * cell], centers[3 * cell + 1], centers[3 * cell + 2]));
+      }
+    }
+  }
+
+  @Test
+  public void hierarchicalSkyIndex_testPointsAreWithinCellRadius() {
+    Random random = new Random(42);
+    for (int i = 0; i < NUM_RANDOM_POINTS; i++) {
+      GeocentricCoordinates p = GeocentricCoordinates.getInstance(
+          random.nextFloat() * 360, random.nextFloat() * 180 - 90);
+      for (int depth = 0; depth <= HierarchicalSkyIndex.MAX_DEPTH; depth++) {
+        int cell = HierarchicalSkyIndex.getCell(depth, p);
+        float[] centers = HierarchicalSkyIndex.getCellCenters(depth);
+        float dotProduct = p.x * centers[3 * cell] + p.y * centers[3 * cell + 1]
+            + p.z * centers[3 * cell + 2];
+        assertTrue(dotProduct >= MathUtil.cos(HierarchicalSkyIndex.getCellRadius(depth)));
+      }
+    }
+  }
+
+  @Test
+  public void hierarchicalSkyIndex_testCellsAreNested() {
+    Random random = new Random(7);
+    int maxDepth = HierarchicalSkyIndex.MAX_DEPTH;
+    for (int i = 0; i < NUM_RANDOM_POINTS; i++) {
+      GeocentricCoordinates p = GeocentricCoordinates.getInstance(
+          random.nextFloat() * 360, random.nextFloat() * 180 - 90);
+      int finestCell = HierarchicalSkyIndex.getCell(maxDepth, p);
+      for (int depth = 0; depth < maxDepth; depth++) {
+        assertEquals(HierarchicalSkyIndex.getCell(depth, p),
+            HierarchicalSkyIndex.getAncestor(finestCell, maxDepth, depth));
+      }
+    }
+  }
+
+  @Test
+  public void hierarchicalSkyIndex_testCellsShrinkWithDepth() {
+    for (int depth = 1; depth <= HierarchicalSkyIndex.MAX_DEPTH; depth++) {
+      assertTrue(HierarchicalSkyIndex.getCellRadius(depth)
+          < HierarchicalSkyIndex.getCellRadius(depth - 1));
+    }
+    assertEquals(0, HierarchicalSkyIndex.getDepthForAngle(MathUtil.PI));
+    assertEquals(HierarchicalSkyIndex.MAX_DEPTH, HierarchicalSkyIndex.getDepthForAngle(0));
+  }
+
+  @Test
+  public void hierarchicalSkyIndex_testDepthForObjectCount() {
+    assertEquals(0, HierarchicalSkyIndex.getDepthForObjectCount(10, 50));
+    assertEquals(1, HierarchicalSkyIndex.getDepthForObjectCount(24 * 50, 50));
+    assertEquals(HierarchicalSkyIndex.MAX_DEPTH,
+        HierarchicalSkyIndex.getDepthForObjectCount(Integer.MAX_VALUE / 2, 1));
+  }
+}
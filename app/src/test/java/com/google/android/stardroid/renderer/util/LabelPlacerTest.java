@@ -0,0 +1,94 @@
+package com.google.android.stardroid.renderer.util;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the {@link LabelPlacer}.
+ */
+public class LabelPlacerTest {
+  @Test
+  public void labelPlacer_testOverlappingLabelsAreRejected() {
+    LabelPlacer placer = new LabelPlacer();
+    placer.reset(480, 800);
+    assertTrue(placer.place(100, 100, 200, 120));
+    // Overlaps the first label, so should be rejected.
+    assertFalse(placer.place(150, 110, 250, 130));
+    // Touching, but not overlapping, is fine.
+    assertTrue(placer.place(200, 100, 300, 120));
+    // Spans several grid cells, and overlaps the first label in only one of them.
+    assertFalse(placer.place(0, 115, 400, 300));
+    assertEquals(2, placer.getNumPlaced());
+    assertEquals(2, placer.getNumRejected());
+  }
+
+  @Test
+  public void labelPlacer_testOffScreenLabelsAreRejected() {
+    LabelPlacer placer = new LabelPlacer();
+    placer.reset(480, 800);
+    assertFalse(placer.place(-100, 100, -10, 120));
+    assertFalse(placer.place(100, 900, 200, 920));
+    // Partly on screen is fine.
+    assertTrue(placer.place(-50, 100, 50, 120));
+    assertTrue(placer.place(450, 790, 550, 810));
+    assertEquals(0, placer.getNumRejected());
+  }
+
+  @Test
+  public void labelPlacer_testBudget() {
+    LabelPlacer placer = new LabelPlacer(3);
+    placer.reset(480, 800);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(placer.place(0, 30 * i, 100, 30 * i + 20));
+    }
+    assertFalse(placer.place(0, 300, 100, 320));
+    assertEquals(3, placer.getNumPlaced());
+
+    // The budget is per frame.
+    placer.reset(480, 800);
+    assertTrue(placer.place(0, 300, 100, 320));
+  }
+
+  @Test
+  public void labelPlacer_testResetForgetsLabels() {
+    LabelPlacer placer = new LabelPlacer();
+    placer.reset(480, 800);
+    assertTrue(placer.place(100, 100, 200, 120));
+    placer.reset(800, 480);
+    assertTrue(placer.place(100, 100, 200, 120));
+    assertEquals(1, placer.getNumPlaced());
+  }
+
+  private static int placeGrid(LabelPlacer placer) {
+    placer.reset(480, 800);
+    int numPlaced = 0;
+    for (int x = 0; x < 480; x += 7) {
+      for (int y = 0; y < 800; y += 5) {
+        if (placer.place(x, y, x + 60, y + 14)) {
+          numPlaced++;
+        }
+      }
+    }
+    return numPlaced;
+  }
+
+  @Test
+  public void labelPlacer_testPlacingDoesNotAllocate() {
+    com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    LabelPlacer placer = new LabelPlacer(1000);
+    // The first frame grows the storage to fit.
+    int expected = placeGrid(placer);
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    for (int frame = 0; frame < 100; frame++) {
+      assertEquals(expected, placeGrid(placer));
+    }
+    assertEquals(0, threadBean.getThreadAllocatedBytes(threadId) - before);
+  }
+}
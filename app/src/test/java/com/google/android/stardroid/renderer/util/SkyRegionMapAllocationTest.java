@@ -0,0 +1,92 @@
+package com.google.android.stardroid.renderer.util;
+
+import com.google.android.stardroid.units.GeocentricCoordinates;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures the garbage generated by the per-frame {@link SkyRegionMap} calls
+ * which the renderer makes.  Allocation counts come from the JVM's per-thread
+ * allocation counter, so these only run on a HotSpot-like JVM.
+ */
+public class SkyRegionMapAllocationTest {
+  private static final int NUM_FRAMES = 2000;
+  private static final int DEPTH = 4;
+
+  private static com.sun.management.ThreadMXBean getThreadBean() {
+    return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  }
+
+  private static SkyRegionMap<Integer> createMap() {
+    SkyRegionMap<Integer> map = new SkyRegionMap<Integer>(DEPTH);
+    for (int region = 0; region < HierarchicalSkyIndex.getNumCells(DEPTH); region += 3) {
+      map.setRegionData(region, region);
+    }
+    map.setRegionData(SkyRegionMap.CATCHALL_REGION_ID, -1);
+    return map;
+  }
+
+  private static GeocentricCoordinates[] createLookDirs() {
+    GeocentricCoordinates[] lookDirs = new GeocentricCoordinates[64];
+    for (int i = 0; i < lookDirs.length; i++) {
+      lookDirs[i] = GeocentricCoordinates.getInstance(i * 37 % 360, i * 13 % 180 - 90);
+    }
+    return lookDirs;
+  }
+
+  private static int runReusedFrames(SkyRegionMap<Integer> map, GeocentricCoordinates[] lookDirs,
+                                     SkyRegionMap.ActiveRegionData activeRegions,
+                                     ArrayList<Integer> out) {
+    int total = 0;
+    for (int frame = 0; frame < NUM_FRAMES; frame++) {
+      activeRegions.update(lookDirs[frame % lookDirs.length], 20 + frame % 60, 0.6f);
+      total += map.getDataForActiveRegions(activeRegions, out).size();
+    }
+    return total;
+  }
+
+  private static int runAllocatingFrames(SkyRegionMap<Integer> map,
+                                         GeocentricCoordinates[] lookDirs) {
+    int total = 0;
+    for (int frame = 0; frame < NUM_FRAMES; frame++) {
+      SkyRegionMap.ActiveRegionData activeRegions = SkyRegionMap.getActiveRegions(
+          lookDirs[frame % lookDirs.length], 20 + frame % 60, 0.6f);
+      total += map.getDataForActiveRegions(activeRegions).size();
+    }
+    return total;
+  }
+
+  @Test
+  public void skyRegionMap_testPerFrameCallsDoNotAllocate() {
+    com.sun.management.ThreadMXBean threadBean = getThreadBean();
+    long threadId = Thread.currentThread().getId();
+    SkyRegionMap<Integer> map = createMap();
+    GeocentricCoordinates[] lookDirs = createLookDirs();
+    SkyRegionMap.ActiveRegionData activeRegions = new SkyRegionMap.ActiveRegionData();
+    ArrayList<Integer> out = new ArrayList<Integer>();
+
+    // Warm up, so that the output list has reached its final capacity.
+    int expected = runReusedFrames(map, lookDirs, activeRegions, out);
+    int allocatingTotal = runAllocatingFrames(map, lookDirs);
+    assertEquals(expected, allocatingTotal);
+
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    int reusedTotal = runReusedFrames(map, lookDirs, activeRegions, out);
+    long reusedBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+    before = threadBean.getThreadAllocatedBytes(threadId);
+    allocatingTotal = runAllocatingFrames(map, lookDirs);
+    long allocatingBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+    assertEquals(expected, reusedTotal);
+    assertEquals("Bytes allocated in " + NUM_FRAMES + " reused frames", 0, reusedBytes);
+    assertTrue("Bytes allocated in " + NUM_FRAMES + " allocating frames: " + allocatingBytes,
+        allocatingBytes > 0);
+  }
+}
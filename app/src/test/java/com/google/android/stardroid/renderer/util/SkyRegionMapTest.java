@@ -0,0 +1,84 @@
+package com.google.android.stardroid.renderer.util;
+
+import com.google.android.stardroid.units.GeocentricCoordinates;
+import com.google.android.stardroid.util.MathUtil;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the {@link SkyRegionMap}.
+ */
+public class SkyRegionMapTest {
+  private static SkyRegionMap<Integer> createFullMap(int depth) {
+    SkyRegionMap<Integer> map = new SkyRegionMap<Integer>(depth);
+    for (int region = 0; region < HierarchicalSkyIndex.getNumCells(depth); region++) {
+      map.setRegionData(region, region);
+    }
+    return map;
+  }
+
+  @Test
+  public void skyRegionMap_testVisiblePointsAreInActiveRegions() {
+    Random random = new Random(3);
+    for (int depth = 0; depth <= 4; depth++) {
+      SkyRegionMap<Integer> map = createFullMap(depth);
+      for (float fov : new float[] {90, 45, 10, 2}) {
+        GeocentricCoordinates lookDir = GeocentricCoordinates.getInstance(
+            random.nextFloat() * 360, random.nextFloat() * 180 - 90);
+        ArrayList<Integer> active = map.getDataForActiveRegions(
+            SkyRegionMap.getActiveRegions(lookDir, fov, 1));
+        // Any point which is within half the field of view of the look direction is
+        // certainly on screen, so its region must be active.
+        float threshold = MathUtil.cos(fov * 0.5f * MathUtil.DEGREES_TO_RADIANS);
+        for (int i = 0; i < 500; i++) {
+          GeocentricCoordinates p = GeocentricCoordinates.getInstance(
+              random.nextFloat() * 360, random.nextFloat() * 180 - 90);
+          if (p.x * lookDir.x + p.y * lookDir.y + p.z * lookDir.z > threshold) {
+            assertTrue(active.contains(map.getObjectRegion(p)));
+          }
+        }
+        assertTrue(active.contains(map.getObjectRegion(lookDir)));
+      }
+    }
+  }
+
+  @Test
+  public void skyRegionMap_testZoomingInReducesActiveRegions() {
+    int depth = 4;
+    SkyRegionMap<Integer> map = createFullMap(depth);
+    GeocentricCoordinates lookDir = GeocentricCoordinates.getInstance(30, 20);
+    int wide = map.getDataForActiveRegions(
+        SkyRegionMap.getActiveRegions(lookDir, 90, 1)).size();
+    int narrow = map.getDataForActiveRegions(
+        SkyRegionMap.getActiveRegions(lookDir, 5, 1)).size();
+    assertTrue(narrow < wide);
+    assertTrue(narrow < HierarchicalSkyIndex.getNumCells(depth) / 20);
+  }
+
+  @Test
+  public void skyRegionMap_testCatchallIsAlwaysActive() {
+    SkyRegionMap<Integer> map = new SkyRegionMap<Integer>();
+    map.setRegionData(SkyRegionMap.CATCHALL_REGION_ID, -1);
+    ArrayList<Integer> active = map.getDataForActiveRegions(
+        SkyRegionMap.getActiveRegions(new GeocentricCoordinates(1, 0, 0), 10, 1));
+    assertEquals(1, active.size());
+    assertEquals(Integer.valueOf(-1), active.get(0));
+  }
+
+  @Test
+  public void skyRegionMap_testSetDepthClearsRegions() {
+    int depth = 2;
+    SkyRegionMap<Integer> map = createFullMap(depth);
+    map.setRegionData(SkyRegionMap.CATCHALL_REGION_ID, -1);
+    // Even at the same depth, so that a point manager can refill it from a snapshot.
+    map.setDepth(depth);
+    assertEquals(0, map.getDataForActiveRegions(
+        SkyRegionMap.getActiveRegions(new GeocentricCoordinates(1, 0, 0), 180, 1)).size());
+  }
+}
@@ -0,0 +1,147 @@
+package com.google.android.stardroid.renderer.util;
+
+import com.google.android.stardroid.renderer.NoOpGL;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the reference counting and eviction in {@link TextureManager}.
+ */
+public class TextureManagerTest {
+  private static final int TEXTURE_SIZE = 100;
+
+  private GL10 mGL;
+  private TextureManager mManager;
+
+  // Counts the times its texture is loaded.
+  private static class FakeLoader implements TextureManager.Loader {
+    int mNumLoads = 0;
+
+    @Override
+    public int load(GL10 gl) {
+      mNumLoads++;
+      return TEXTURE_SIZE;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    mGL = new NoOpGL();
+    mManager = new TextureManager(null);
+  }
+
+  private static boolean isLoaded(TextureReference texture) {
+    return texture.getID() != 0;
+  }
+
+  @Test
+  public void createTexture_testLoadsWhenFirstBound() {
+    FakeLoader loader = new FakeLoader();
+    TextureReference texture = mManager.createTexture(mGL, loader);
+    assertFalse(isLoaded(texture));
+    assertEquals(0, loader.mNumLoads);
+
+    texture.bind(mGL);
+    texture.bind(mGL);
+    assertTrue(isLoaded(texture));
+    assertEquals(1, loader.mNumLoads);
+    assertEquals(TEXTURE_SIZE, mManager.getResidentBytes());
+  }
+
+  @Test
+  public void releaseTexture_testStaysLoadedWithinBudget() {
+    TextureReference texture = mManager.createTexture(mGL, new FakeLoader());
+    texture.bind(mGL);
+    mManager.releaseTexture(mGL, texture);
+    assertTrue(isLoaded(texture));
+    assertEquals(0, mManager.getNumEvictions());
+    assertEquals(TEXTURE_SIZE, mManager.getResidentBytes());
+  }
+
+  @Test
+  public void releaseTexture_testEvictsLeastRecentlyReleasedFirst() {
+    TextureReference first = mManager.createTexture(mGL, new FakeLoader());
+    TextureReference second = mManager.createTexture(mGL, new FakeLoader());
+    TextureReference third = mManager.createTexture(mGL, new FakeLoader());
+    first.bind(mGL);
+    second.bind(mGL);
+    third.bind(mGL);
+    mManager.releaseTexture(mGL, second);
+    mManager.releaseTexture(mGL, first);
+    mManager.releaseTexture(mGL, third);
+
+    mManager.setMemoryBudget(mGL, TEXTURE_SIZE + TEXTURE_SIZE / 2);
+    assertFalse(isLoaded(second));
+    assertFalse(isLoaded(first));
+    assertTrue(isLoaded(third));
+    assertEquals(2, mManager.getNumEvictions());
+    assertEquals(TEXTURE_SIZE, mManager.getResidentBytes());
+  }
+
+  @Test
+  public void setMemoryBudget_testTexturesInUseAreKept() {
+    TextureReference held = mManager.createTexture(mGL, new FakeLoader());
+    TextureReference retained = mManager.createTexture(mGL, new FakeLoader());
+    held.bind(mGL);
+    retained.bind(mGL);
+    mManager.releaseTexture(mGL, retained);
+    mManager.retainTexture(retained);
+
+    mManager.setMemoryBudget(mGL, 0);
+    assertTrue(isLoaded(held));
+    assertTrue(isLoaded(retained));
+    assertEquals(0, mManager.getNumEvictions());
+    assertEquals(2 * TEXTURE_SIZE, mManager.getResidentBytes());
+  }
+
+  @Test
+  public void bind_testLoadsEvictedTextureAgain() {
+    FakeLoader loader = new FakeLoader();
+    TextureReference texture = mManager.createTexture(mGL, loader);
+    texture.bind(mGL);
+    mManager.releaseTexture(mGL, texture);
+    mManager.setMemoryBudget(mGL, 0);
+    assertFalse(isLoaded(texture));
+    assertEquals(0, mManager.getResidentBytes());
+
+    texture.bind(mGL);
+    assertTrue(isLoaded(texture));
+    assertEquals(2, loader.mNumLoads);
+    assertEquals(TEXTURE_SIZE, mManager.getResidentBytes());
+
+    // Nothing holds it, so it can be evicted again.
+    mManager.setMemoryBudget(mGL, 0);
+    assertFalse(isLoaded(texture));
+    assertEquals(2, mManager.getNumEvictions());
+  }
+
+  @Test
+  public void reloadTexture_testOnlyLoadsLoadedTextures() {
+    FakeLoader loader = new FakeLoader();
+    TextureReference texture = mManager.createTexture(mGL, loader);
+    mManager.reloadTexture(mGL, texture);
+    assertEquals(0, loader.mNumLoads);
+
+    texture.bind(mGL);
+    mManager.reloadTexture(mGL, texture);
+    assertEquals(2, loader.mNumLoads);
+    assertEquals(TEXTURE_SIZE, mManager.getResidentBytes());
+  }
+
+  @Test
+  public void createTexture_testTexturesWithoutLoadersAreNeverEvicted() {
+    TextureReference texture = mManager.createTexture(mGL);
+    mManager.recordUpload(texture, TEXTURE_SIZE);
+    mManager.releaseTexture(mGL, texture);
+    mManager.setMemoryBudget(mGL, 0);
+    assertTrue(isLoaded(texture));
+    assertEquals(TEXTURE_SIZE, mManager.getResidentBytes());
+  }
+}
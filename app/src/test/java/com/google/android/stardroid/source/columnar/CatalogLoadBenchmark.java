@@ -0,0 +1,160 @@
+package com.google.android.stardroid.source.columnar;
+
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+
+import com.google.android.stardroid.BuildConfig;
+import com.google.android.stardroid.source.AstronomicalSource;
+import com.google.android.stardroid.source.Sources;
+import com.google.android.stardroid.source.proto.ProtobufAstronomicalSource;
+import com.google.android.stardroid.source.proto.SourceProto.AstronomicalSourceProto;
+import com.google.android.stardroid.source.proto.SourceProto.AstronomicalSourcesProto;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares how long the layers' source files take to load, and how much
+ * memory they take up once loaded, as protocol buffers and as
+ * {@link ColumnarCatalog}s.  Each is loaded as far as AbstractSourceLayer
+ * takes it: the sources, and the points, labels and lines they initialize.
+ *
+ * Both formats are read from bytes already in memory, so this compares the
+ * decoding rather than the I/O.  The app only ships the columnar catalogs,
+ * so the protocol buffers are read from the test resources.  As with the RenderBenchmark, the numbers are
+ * only meaningful relative to each other.  Like it, this only runs when
+ * asked for, with {@code ./gradlew test -Pbenchmarks}.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class CatalogLoadBenchmark {
+  private static final String[] CATALOGS = {"stars", "constellations", "messier"};
+  private static final int NUM_RUNS = 20;
+  // The garbage collector's noise swamps the smaller catalogs, so measure the memory taken by
+  // this many copies.
+  private static final int NUM_COPIES = 10;
+
+  private interface Loader {
+    List<AstronomicalSource> load(byte[] bytes) throws IOException;
+  }
+
+  private final Resources resources = RuntimeEnvironment.application.getResources();
+
+  private final Loader protoLoader = new Loader() {
+    public List<AstronomicalSource> load(byte[] bytes) throws IOException {
+      List<AstronomicalSource> sources = new ArrayList<>();
+      for (AstronomicalSourceProto proto : AstronomicalSourcesProto.newBuilder()
+          .mergeFrom(bytes).build().getSourceList()) {
+        sources.add(new ProtobufAstronomicalSource(proto, resources));
+      }
+      return sources;
+    }
+  };
+
+  private final Loader columnarLoader = new Loader() {
+    public List<AstronomicalSource> load(byte[] bytes) throws IOException {
+      return ColumnarAstronomicalSource.createSources(
+          new ColumnarCatalog(ByteBuffer.wrap(bytes)), resources);
+    }
+  };
+
+  private static byte[] readAsset(String fileName) throws IOException {
+    InputStream in = RuntimeEnvironment.application.getAssets().open(
+        fileName, AssetManager.ACCESS_BUFFER);
+    try {
+      return ByteStreams.toByteArray(in);
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  private static byte[] readResource(String fileName) throws IOException {
+    InputStream in = CatalogLoadBenchmark.class.getResourceAsStream("/" + fileName);
+    if (in == null) {
+      throw new FileNotFoundException(fileName);
+    }
+    try {
+      return ByteStreams.toByteArray(in);
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  // Loads the sources and their elements, keeping hold of everything a layer would.
+  private static List<Object> loadElements(Loader loader, byte[] bytes) throws IOException {
+    List<Object> elements = new ArrayList<>();
+    for (AstronomicalSource source : loader.load(bytes)) {
+      Sources sources = source.initialize();
+      elements.add(source);
+      elements.addAll(source.getNames());
+      elements.addAll(sources.getPoints());
+      elements.addAll(sources.getLabels());
+      elements.addAll(sources.getLines());
+    }
+    return elements;
+  }
+
+  private static long getUsedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  // Returns the number of elements loaded, after printing the mean time to load them and the
+  // memory they take up.
+  private static int measure(String fileName, byte[] bytes, Loader loader) throws IOException {
+    for (int i = 0; i < NUM_RUNS; i++) {
+      loadElements(loader, bytes);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < NUM_RUNS; i++) {
+      loadElements(loader, bytes);
+    }
+    double millis = (System.nanoTime() - start) / 1e6 / NUM_RUNS;
+
+    List<List<Object>> copies = new ArrayList<>();
+    long before = getUsedMemory();
+    for (int i = 0; i < NUM_COPIES; i++) {
+      copies.add(loadElements(loader, bytes));
+    }
+    long heap = (getUsedMemory() - before) / NUM_COPIES;
+    List<Object> elements = copies.get(0);
+    System.out.println(String.format("%-22s file=%6.1fKB load=%6.2fms heap=%7.1fKB elements=%d",
+        fileName, bytes.length / 1024.0, millis, heap / 1024.0, elements.size()));
+    return elements.size();
+  }
+
+  @Before
+  public void setUp() {
+    assumeTrue(Boolean.getBoolean("stardroid.benchmarks"));
+  }
+
+  @Test
+  public void benchmark_load() throws IOException {
+    for (String catalog : CATALOGS) {
+      String protoFile = catalog + ".binary";
+      String columnarFile = catalog + ColumnarCatalog.FILE_EXTENSION;
+      int protoElements = measure(protoFile, readResource(protoFile), protoLoader);
+      int columnarElements = measure(columnarFile, readAsset(columnarFile), columnarLoader);
+      assertEquals(protoElements, columnarElements);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.google.android.stardroid.source.columnar;
+
+import com.google.android.stardroid.source.proto.SourceProto.AstronomicalSourceProto;
+import com.google.android.stardroid.source.proto.SourceProto.AstronomicalSourcesProto;
+import com.google.android.stardroid.source.proto.SourceProto.PointElementProto;
+import com.google.android.stardroid.util.StarAttributeCalculator;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that the columnar catalogs in the assets are the ones made from the
+ * protocol buffers in the test resources, which is where the data tools'
+ * output now goes.  After regenerating the protocol buffers, rewrite the
+ * assets with {@code ./gradlew test -PregenerateCatalogs}.
+ *
+ * The protocol buffers don't keep the stars' magnitudes, so they're estimated
+ * from the stars' sizes and colors, which were worked out from the
+ * magnitudes.  The other catalogs' points aren't stars, so they're left
+ * without magnitudes.
+ */
+public class ColumnarCatalogAssetsTest {
+  private static final String[] CATALOGS = {"stars", "messier", "constellations"};
+  private static final String STARS = "stars";
+  // Unit tests run in the app's directory.
+  private static final File ASSETS = new File("src/main/assets");
+
+  private static byte[] convert(String catalog) throws IOException {
+    InputStream in = ColumnarCatalogAssetsTest.class.getResourceAsStream(
+        "/" + catalog + ".binary");
+    assertNotNull(catalog + ".binary", in);
+    AstronomicalSourcesProto sources;
+    try {
+      sources = AstronomicalSourcesProto.parseFrom(in);
+    } finally {
+      in.close();
+    }
+    ColumnarCatalog.Writer writer = new ColumnarCatalog.Writer();
+    for (AstronomicalSourceProto source : sources.getSourceList()) {
+      if (catalog.equals(STARS)) {
+        float[] magnitudes = new float[source.getPointCount()];
+        for (int i = 0; i < magnitudes.length; i++) {
+          PointElementProto point = source.getPoint(i);
+          magnitudes[i] =
+              StarAttributeCalculator.estimateMagnitude(point.getSize(), point.getColor());
+        }
+        writer.add(source, magnitudes);
+      } else {
+        writer.add(source);
+      }
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(out);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void columnarCatalogAssets_testMatchProtos() throws IOException {
+    boolean regenerate = Boolean.getBoolean("stardroid.regenerateCatalogs");
+    for (String catalog : CATALOGS) {
+      File asset = new File(ASSETS, catalog + ColumnarCatalog.FILE_EXTENSION);
+      byte[] expected = convert(catalog);
+      if (regenerate) {
+        Files.write(expected, asset);
+      }
+      assertTrue(asset + " is out of date: run ./gradlew test -PregenerateCatalogs",
+          Arrays.equals(expected, Files.toByteArray(asset)));
+    }
+  }
+}
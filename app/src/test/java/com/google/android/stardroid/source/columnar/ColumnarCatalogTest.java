@@ -0,0 +1,183 @@
+package com.google.android.stardroid.source.columnar;
+
+import com.google.android.stardroid.source.AstronomicalSource;
+import com.google.android.stardroid.source.LineSource;
+import com.google.android.stardroid.source.PointSource;
+import com.google.android.stardroid.source.TextSource;
+import com.google.android.stardroid.source.proto.SourceProto;
+import com.google.android.stardroid.source.proto.SourceProto.AstronomicalSourceProto;
+import com.google.android.stardroid.source.proto.SourceProto.GeocentricCoordinatesProto;
+import com.google.android.stardroid.source.proto.SourceProto.LabelElementProto;
+import com.google.android.stardroid.source.proto.SourceProto.LineElementProto;
+import com.google.android.stardroid.source.proto.SourceProto.PointElementProto;
+import com.google.android.stardroid.units.GeocentricCoordinates;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests for the {@link ColumnarCatalog}.
+ */
+public class ColumnarCatalogTest {
+  private static final float EPSILON = 1e-6f;
+
+  private static GeocentricCoordinatesProto coords(float ra, float dec) {
+    return GeocentricCoordinatesProto.newBuilder()
+        .setRightAscension(ra).setDeclination(dec).build();
+  }
+
+  private static byte[] writeCatalog(AstronomicalSourceProto... sources) throws IOException {
+    ColumnarCatalog.Writer writer = new ColumnarCatalog.Writer();
+    for (AstronomicalSourceProto source : sources) {
+      writer.add(source);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(out);
+    return out.toByteArray();
+  }
+
+  private static AstronomicalSourceProto createConstellation() {
+    return AstronomicalSourceProto.newBuilder()
+        .addNameIds(100)
+        .addNameIds(101)
+        .setSearchLocation(coords(90, 45))
+        .addLabel(LabelElementProto.newBuilder()
+            .setLocation(coords(90, 45)).setColor(0xff00ff00).setStringIndex(100)
+            .setFontSize(20).setOffset(0.5f))
+        .addLine(LineElementProto.newBuilder()
+            .setColor(0xff0000ff).setLineWidth(2)
+            .addVertex(coords(80, 40)).addVertex(coords(90, 45)).addVertex(coords(100, 50)))
+        .build();
+  }
+
+  private static AstronomicalSourceProto createStar() {
+    return AstronomicalSourceProto.newBuilder()
+        .addNameIds(100)
+        .setSearchLocation(coords(200, -10))
+        .addPoint(PointElementProto.newBuilder()
+            .setLocation(coords(200, -10)).setColor(0xffff0000).setSize(4)
+            .setShape(SourceProto.Shape.SPIRAL_GALAXY))
+        .build();
+  }
+
+  private static void assertCoords(float ra, float dec, GeocentricCoordinates actual) {
+    GeocentricCoordinates expected = GeocentricCoordinates.getInstance(ra, dec);
+    assertEquals(expected.x, actual.x, EPSILON);
+    assertEquals(expected.y, actual.y, EPSILON);
+    assertEquals(expected.z, actual.z, EPSILON);
+  }
+
+  @Test
+  public void columnarCatalog_testRoundTrip() throws IOException {
+    ColumnarCatalog catalog = new ColumnarCatalog(
+        ByteBuffer.wrap(writeCatalog(createConstellation(), createStar())));
+    assertEquals(2, catalog.getNumSources());
+    assertEquals(1, catalog.getNumPoints());
+    assertEquals(1, catalog.getNumLabels());
+    assertEquals(1, catalog.getNumLines());
+    // Strings used by several names and labels are only stored once.
+    assertEquals(2, catalog.getNumStrings());
+    assertEquals(100, catalog.getStringResourceId(0));
+    assertEquals(101, catalog.getStringResourceId(1));
+
+    // Every string is looked up by createSources, so use a source without any.
+    ColumnarCatalog.Writer writer = new ColumnarCatalog.Writer();
+    writer.add(createConstellation().toBuilder().clearNameIds().clearLabel().build());
+    writer.add(createStar().toBuilder().clearNameIds().build(), new float[] {4.5f});
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(out);
+    List<AstronomicalSource> sources = ColumnarAstronomicalSource.createSources(
+        new ColumnarCatalog(ByteBuffer.wrap(out.toByteArray())), null);
+    assertEquals(2, sources.size());
+
+    AstronomicalSource constellation = sources.get(0);
+    assertCoords(90, 45, constellation.getSearchLocation());
+    assertTrue(constellation.getNames().isEmpty());
+    assertTrue(constellation.initialize().getPoints().isEmpty());
+    List<? extends LineSource> lines = constellation.initialize().getLines();
+    assertEquals(1, lines.size());
+    assertEquals(0xff0000ff, lines.get(0).getColor());
+    assertEquals(2f, lines.get(0).getLineWidth());
+    assertEquals(3, lines.get(0).getVertices().size());
+    assertCoords(100, 50, lines.get(0).getVertices().get(2));
+
+    AstronomicalSource star = sources.get(1);
+    assertCoords(200, -10, star.getSearchLocation());
+    List<? extends PointSource> points = star.initialize().getPoints();
+    assertEquals(1, points.size());
+    assertCoords(200, -10, points.get(0).getLocation());
+    assertEquals(0xffff0000, points.get(0).getColor());
+    assertEquals(4, points.get(0).getSize());
+    assertEquals(4.5f, points.get(0).getMagnitude());
+    assertEquals(PointSource.Shape.SPIRAL_GALAXY, points.get(0).getPointShape());
+    assertTrue(star.initialize().getLines().isEmpty());
+  }
+
+  @Test
+  public void columnarCatalog_testPointsWithoutMagnitudes() throws IOException {
+    List<AstronomicalSource> sources = ColumnarAstronomicalSource.createSources(
+        new ColumnarCatalog(ByteBuffer.wrap(
+            writeCatalog(createStar().toBuilder().clearNameIds().build()))),
+        null);
+    // Only stars have magnitudes, so anything else is always drawn.
+    assertTrue(Float.isNaN(sources.get(0).initialize().getPoints().get(0).getMagnitude()));
+  }
+
+  @Test
+  public void columnarCatalog_testRejectsMissingMagnitudes() {
+    try {
+      new ColumnarCatalog.Writer().add(createStar(), new float[0]);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void columnarCatalog_testLabels() throws IOException {
+    ColumnarCatalog catalog = new ColumnarCatalog(
+        ByteBuffer.wrap(writeCatalog(createConstellation())));
+    // Stands in for the strings createSources would look up.
+    String[] strings = {"Orion", "The Hunter"};
+    ColumnarAstronomicalSource source = new ColumnarAstronomicalSource(catalog, 0, strings);
+
+    assertEquals(Arrays.asList("Orion", "The Hunter"), source.getNames());
+    List<TextSource> labels = source.getLabels();
+    assertEquals(1, labels.size());
+    assertEquals("Orion", labels.get(0).getText());
+    assertEquals(0xff00ff00, labels.get(0).getColor());
+    assertEquals(20, labels.get(0).getFontSize());
+    assertEquals(0.5f, labels.get(0).getOffset());
+    assertCoords(90, 45, labels.get(0).getLocation());
+  }
+
+  @Test
+  public void columnarCatalog_testRejectsOtherFiles() {
+    try {
+      new ColumnarCatalog(ByteBuffer.wrap(new byte[64]));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void columnarCatalog_testRejectsTruncatedFiles() throws IOException {
+    byte[] bytes = writeCatalog(createConstellation(), createStar());
+    try {
+      new ColumnarCatalog(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.google.android.stardroid.source.proto;
+
+import com.google.android.stardroid.source.LineSource;
+import com.google.android.stardroid.source.PointSource;
+import com.google.android.stardroid.source.proto.SourceProto.AstronomicalSourceProto;
+import com.google.android.stardroid.source.proto.SourceProto.GeocentricCoordinatesProto;
+import com.google.android.stardroid.source.proto.SourceProto.LineElementProto;
+import com.google.android.stardroid.source.proto.SourceProto.PointElementProto;
+import com.google.android.stardroid.units.GeocentricCoordinates;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the {@link ProtobufAstronomicalSource}.
+ */
+public class ProtobufAstronomicalSourceTest {
+  private static final float EPSILON = 1e-6f;
+
+  private static GeocentricCoordinatesProto coords(float ra, float dec) {
+    return GeocentricCoordinatesProto.newBuilder()
+        .setRightAscension(ra).setDeclination(dec).build();
+  }
+
+  // A star with a line from it to another star and back.  Labels and names aren't included, as
+  // they need real resources.
+  private static ProtobufAstronomicalSource createSource() {
+    return new ProtobufAstronomicalSource(AstronomicalSourceProto.newBuilder()
+        .setSearchLocation(coords(30, 60))
+        .addPoint(PointElementProto.newBuilder()
+            .setLocation(coords(30, 60)).setColor(0xffffffff).setSize(3))
+        .addLine(LineElementProto.newBuilder()
+            .setColor(0xff0000ff)
+            .addVertex(coords(30, 60)).addVertex(coords(40, 50)).addVertex(coords(30, 60)))
+        .build(), null);
+  }
+
+  @Test
+  public void protobufAstronomicalSource_testDecodesOnce() {
+    ProtobufAstronomicalSource source = createSource();
+    List<PointSource> points = source.getPoints();
+    List<LineSource> lines = source.getLines();
+    assertSame(points, source.getPoints());
+    assertSame(lines, source.getLines());
+    assertSame(source.getSearchLocation(), source.getSearchLocation());
+    assertSame(source.getLabels(), source.getLabels());
+    assertEquals(0, source.getLabels().size());
+  }
+
+  @Test
+  public void protobufAstronomicalSource_testSharesCoordinates() {
+    ProtobufAstronomicalSource source = createSource();
+    GeocentricCoordinates star = source.getPoints().get(0).getLocation();
+    List<GeocentricCoordinates> vertices = source.getLines().get(0).getVertices();
+    assertSame(star, source.getSearchLocation());
+    assertSame(star, vertices.get(0));
+    assertSame(star, vertices.get(2));
+    assertTrue(star != vertices.get(1));
+
+    GeocentricCoordinates expected = GeocentricCoordinates.getInstance(40, 50);
+    assertEquals(expected.x, vertices.get(1).x, EPSILON);
+    assertEquals(expected.y, vertices.get(1).y, EPSILON);
+    assertEquals(expected.z, vertices.get(1).z, EPSILON);
+  }
+}
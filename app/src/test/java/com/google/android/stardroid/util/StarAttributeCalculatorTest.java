@@ -0,0 +1,87 @@
+package com.google.android.stardroid.util;
+
+import android.graphics.Color;
+
+import com.google.android.stardroid.control.ZoomController;
+import com.google.android.stardroid.source.columnar.ColumnarCatalog;
+import com.google.common.io.Files;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the {@link StarAttributeCalculator}.
+ */
+public class StarAttributeCalculatorTest {
+  // The magnitude given to a star from a catalog which didn't keep it.
+  private static float getEstimatedMagnitude(float magnitude) {
+    return StarAttributeCalculator.estimateMagnitude(StarAttributeCalculator.getSize(magnitude),
+        StarAttributeCalculator.getColor(magnitude, Color.WHITE));
+  }
+
+  @Test
+  public void starAttributeCalculator_testMagnitudeIsEstimatedFromSizeAndColor() {
+    for (float magnitude = 0; magnitude <= 5.6f; magnitude += 0.1f) {
+      assertEquals("Magnitude " + magnitude, magnitude, getEstimatedMagnitude(magnitude), 0.05f);
+    }
+  }
+
+  @Test
+  public void starAttributeCalculator_testFaintStarsAreEstimatedAtTheFadedMagnitude() {
+    for (float magnitude = 5.6f; magnitude <= StarAttributeCalculator.MAX_MAGNITUDE;
+         magnitude += 0.5f) {
+      assertEquals("Magnitude " + magnitude, 5.6f, getEstimatedMagnitude(magnitude), 0.05f);
+    }
+  }
+
+  @Test
+  public void starAttributeCalculator_testEstimateStaysWithinTheSize() {
+    // Anything brighter than magnitude 0 keeps the base color, so only the size tells them apart.
+    assertEquals(-1f, StarAttributeCalculator.estimateMagnitude(6, Color.WHITE));
+    // The smallest points are fainter than magnitude 3, whatever their color.
+    assertTrue(StarAttributeCalculator.estimateMagnitude(1, Color.WHITE) >= 3);
+  }
+
+  // The density offsets DynamicStarMapActivity uses for the standard and sparse densities.
+  private static final float STANDARD_DENSITY = 0;
+  private static final float SPARSE_DENSITY = -1;
+  // The model's field of view until the user zooms.
+  private static final float DEFAULT_FIELD_OF_VIEW = 45;
+
+  @Test
+  public void starAttributeCalculator_testStandardDensityShowsTheWholeBundledCatalog()
+      throws IOException {
+    // Unit tests run in the app's directory.
+    ColumnarCatalog stars = new ColumnarCatalog(ByteBuffer.wrap(
+        Files.toByteArray(new File("src/main/assets/stars.columns"))));
+    float faintest = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < stars.getNumPoints(); i++) {
+      faintest = Math.max(faintest, stars.getPointMagnitude(i));
+    }
+    assertTrue(faintest > 5);
+    assertTrue(faintest <= StarAttributeCalculator.getLimitingMagnitude(
+        DEFAULT_FIELD_OF_VIEW, STANDARD_DENSITY));
+    // Even fully zoomed out.
+    assertTrue(faintest <= StarAttributeCalculator.getLimitingMagnitude(
+        ZoomController.MAX_ZOOM_OUT, STANDARD_DENSITY));
+    // Asking for fewer stars does hide some of them then.
+    assertTrue(faintest > StarAttributeCalculator.getLimitingMagnitude(
+        ZoomController.MAX_ZOOM_OUT, SPARSE_DENSITY));
+  }
+
+  @Test
+  public void starAttributeCalculator_testNarrowerViewsShowFainterStars() {
+    float wide = StarAttributeCalculator.getLimitingMagnitude(90, 0);
+    float narrow = StarAttributeCalculator.getLimitingMagnitude(45, 0);
+    assertEquals(6.0f, wide, 0.001f);
+    assertEquals(wide + 1.5f, narrow, 0.01f);
+    // Each step of zoom shows a little more, rather than jumping a whole point size at a time.
+    assertTrue(StarAttributeCalculator.getLimitingMagnitude(44, 0) > narrow);
+  }
+}
@@ -0,0 +1,109 @@
+package com.google.android.stardroid.util.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests for the {@link Metrics} registry and its metrics.
+ */
+public class MetricsTest {
+  @Before
+  public void setUp() {
+    Metrics.reset();
+    Metrics.setEnabled(true);
+  }
+
+  @After
+  public void tearDown() {
+    Metrics.setEnabled(false);
+    Metrics.reset();
+  }
+
+  @Test
+  public void metrics_testSameNameGivesSameMetric() {
+    assertSame(Metrics.counter("test.counter"), Metrics.counter("test.counter"));
+    assertSame(Metrics.timer("test.timer"), Metrics.timer("test.timer"));
+  }
+
+  @Test
+  public void metrics_testNothingIsRecordedWhileDisabled() {
+    Counter counter = Metrics.counter("test.disabledCounter");
+    Timer timer = Metrics.timer("test.disabledTimer");
+    Metrics.setEnabled(false);
+    counter.increment();
+    long start = Metrics.startTimer();
+    assertEquals(0, start);
+    timer.stop(start);
+    assertEquals(0, counter.getCount());
+    assertEquals(0, timer.getCount());
+
+    Metrics.setEnabled(true);
+    counter.add(3);
+    timer.stop(Metrics.startTimer());
+    assertEquals(3, counter.getCount());
+    assertEquals(1, timer.getCount());
+  }
+
+  @Test
+  public void histogram_testValuesGoInTheRightBuckets() {
+    Histogram histogram = Metrics.histogram("test.histogram", new long[] {10, 20, 30});
+    long[] values = {0, 10, 11, 20, 25, 31, 1000};
+    for (long value : values) {
+      histogram.record(value);
+    }
+    assertEquals(4, histogram.getNumBuckets());
+    assertEquals(2, histogram.getCount(0));
+    assertEquals(2, histogram.getCount(1));
+    assertEquals(1, histogram.getCount(2));
+    assertEquals(2, histogram.getCount(3));
+    assertEquals(values.length, histogram.getTotalCount());
+  }
+
+  @Test
+  public void histogram_testPercentileBounds() {
+    Histogram histogram = Metrics.histogram("test.percentiles", new long[] {1, 2, 3, 4});
+    assertEquals(0, histogram.getPercentileBound(0.5));
+    for (int i = 0; i < 90; i++) {
+      histogram.record(1);
+    }
+    for (int i = 0; i < 9; i++) {
+      histogram.record(3);
+    }
+    histogram.record(100);
+    assertEquals(1, histogram.getPercentileBound(0.5));
+    assertEquals(1, histogram.getPercentileBound(0.9));
+    assertEquals(3, histogram.getPercentileBound(0.99));
+    assertEquals(Long.MAX_VALUE, histogram.getPercentileBound(1.0));
+  }
+
+  @Test
+  public void timer_testKeepsTotalAndMaximum() {
+    Timer timer = Metrics.timer("test.totals");
+    timer.record(2000000);
+    timer.record(5000000);
+    timer.record(1000000);
+    assertEquals(3, timer.getCount());
+    assertEquals(8000000, timer.getTotalNanos());
+    assertEquals(5000000, timer.getMaxNanos());
+    // The histogram is in microseconds.
+    assertEquals(1000, timer.getHistogram().getPercentileBound(0.3));
+  }
+
+  @Test
+  public void metrics_testSnapshotListsMetricsAndResetClearsThem() {
+    Metrics.counter("test.snapshotCounter").add(7);
+    Metrics.timer("test.snapshotTimer").record(1000);
+    String snapshot = Metrics.getSnapshot();
+    assertTrue(snapshot, snapshot.contains("counter test.snapshotCounter count=7\n"));
+    assertTrue(snapshot, snapshot.contains("timer test.snapshotTimer count=1 "));
+
+    Metrics.reset();
+    assertEquals(0, Metrics.counter("test.snapshotCounter").getCount());
+    assertEquals(0, Metrics.timer("test.snapshotTimer").getCount());
+  }
+}